@@ -0,0 +1,81 @@
+package com.mirana.rabbitmq_bench;
+
+import com.mirana.rabbitmq_test.amqp.MqAckCoalescer;
+import com.mirana.rabbitmq_test.amqp.MqAckProperties;
+import com.mirana.rabbitmq_test.amqp.MqAcker;
+import com.mirana.rabbitmq_test.amqp.MqBatchProperties;
+import com.mirana.rabbitmq_test.amqp.MqBatchPublisher;
+import com.mirana.rabbitmq_test.amqp.MqCompression;
+import com.mirana.rabbitmq_test.amqp.MqCompressionProperties;
+import com.mirana.rabbitmq_test.amqp.MqConfirmProperties;
+import com.mirana.rabbitmq_test.amqp.MqConfirmTracker;
+import com.mirana.rabbitmq_test.amqp.MqDelayLadder;
+import com.mirana.rabbitmq_test.amqp.MqDelayLadderProperties;
+import com.mirana.rabbitmq_test.amqp.MqFlightRecorder;
+import com.mirana.rabbitmq_test.amqp.MqFlightRecorderProperties;
+import com.mirana.rabbitmq_test.amqp.MqLoadRecorder;
+import com.mirana.rabbitmq_test.amqp.MqMetrics;
+import com.mirana.rabbitmq_test.amqp.MqPayloadConverter;
+import com.mirana.rabbitmq_test.amqp.MqReceiver;
+import com.mirana.rabbitmq_test.amqp.MqRouter;
+import com.mirana.rabbitmq_test.amqp.MqRoutingProperties;
+import com.mirana.rabbitmq_test.amqp.MqSender;
+import com.mirana.rabbitmq_test.amqp.MqShardProperties;
+import com.mirana.rabbitmq_test.amqp.MqShardRouter;
+import com.mirana.rabbitmq_test.amqp.MqTopology;
+import com.mirana.rabbitmq_test.amqp.MqTopologyProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * 基准测试用的 spring 容器
+ * 只装配发送、确认、应答相关的 bean，连接工厂换成 {@link StubRabbitConnectionFactory}，
+ * 不启用 @EnableRabbit，MqReceiver 上的监听不会启动
+ */
+@Configuration
+@Import({MqBatchProperties.class, MqConfirmProperties.class, MqConfirmTracker.class, MqBatchPublisher.class,
+        MqSender.class, MqAcker.class, MqReceiver.class, MqMetrics.class, MqDelayLadderProperties.class, MqDelayLadder.class,
+        MqTopologyProperties.class, MqTopology.class, MqRoutingProperties.class, MqRouter.class,
+        MqShardProperties.class, MqShardRouter.class, MqCompressionProperties.class, MqCompression.class,
+        MqFlightRecorderProperties.class, MqFlightRecorder.class,
+        MqAckProperties.class, MqAckCoalescer.class, MqLoadRecorder.class})
+public class BenchConfig {
+
+    /**
+     * 与 actuator 一样记录指标，指标开销计入结果
+     */
+    @Bean
+    public MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    public StubRabbitConnectionFactory stubRabbitConnectionFactory() {
+        return new StubRabbitConnectionFactory();
+    }
+
+    /**
+     * 与 application.properties 中 publisher-confirms、publisher-returns 保持一致
+     */
+    @Bean(destroyMethod = "destroy")
+    public CachingConnectionFactory connectionFactory(StubRabbitConnectionFactory stubRabbitConnectionFactory) {
+        CachingConnectionFactory connectionFactory = new CachingConnectionFactory(stubRabbitConnectionFactory);
+        connectionFactory.setPublisherConfirms(true);
+        connectionFactory.setPublisherReturns(true);
+        return connectionFactory;
+    }
+
+    @Bean
+    public RabbitTemplate rabbitTemplate(CachingConnectionFactory connectionFactory) {
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMandatory(true);
+        // 与 springboot 自动配置的 RabbitTemplate 相同
+        rabbitTemplate.setMessageConverter(new MqPayloadConverter());
+        return rabbitTemplate;
+    }
+}
@@ -0,0 +1,107 @@
+package com.mirana.rabbitmq_bench;
+
+import lombok.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.MessagePropertiesBuilder;
+import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息转换：String（SimpleMessageConverter，默认）、JSON（Jackson2JsonMessageConverter）、
+ * 直接用 MessageBuilder 包装 byte[]
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+    private final SimpleMessageConverter simpleConverter = new SimpleMessageConverter();
+
+    private final Jackson2JsonMessageConverter jsonConverter = new Jackson2JsonMessageConverter();
+
+    private String text;
+
+    private byte[] bytes;
+
+    private Order order;
+
+    private Message textMessage;
+
+    private Message jsonMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DefaultJackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+        typeMapper.setTrustedPackages(Order.class.getPackage().getName());
+        this.jsonConverter.setJavaTypeMapper(typeMapper);
+
+        this.order = new Order();
+        this.order.setId(10086L);
+        this.order.setName("book.add");
+        this.order.setCreateTime("2019-05-27 14:54:58");
+        this.text = "2019-05-27 14:54:58 book.add 10086";
+        this.bytes = this.text.getBytes(StandardCharsets.UTF_8);
+
+        this.textMessage = this.simpleConverter.toMessage(this.text, new MessageProperties());
+        this.jsonMessage = this.jsonConverter.toMessage(this.order, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message stringToMessage() {
+        return this.simpleConverter.toMessage(this.text, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message jsonToMessage() {
+        return this.jsonConverter.toMessage(this.order, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message bytesToMessage() {
+        return MessageBuilder.withBody(this.bytes)
+                .andProperties(MessagePropertiesBuilder.newInstance()
+                        .setContentType(MessageProperties.CONTENT_TYPE_BYTES)
+                        .build())
+                .build();
+    }
+
+    @Benchmark
+    public Object messageToString() {
+        return this.simpleConverter.fromMessage(this.textMessage);
+    }
+
+    @Benchmark
+    public Object messageToJson() {
+        return this.jsonConverter.fromMessage(this.jsonMessage);
+    }
+
+    @Data
+    public static class Order {
+
+        private Long id;
+
+        private String name;
+
+        private String createTime;
+    }
+}
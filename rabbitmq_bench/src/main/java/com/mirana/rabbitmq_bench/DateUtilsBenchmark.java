@@ -0,0 +1,49 @@
+package com.mirana.rabbitmq_bench;
+
+import com.mirana.rabbitmq_test.DateUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DateUtils.format，每条消息发送时都会调用
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateUtilsBenchmark {
+
+    private final Date date = new Date(1558939498000L);
+
+    @Benchmark
+    public String format() {
+        return DateUtils.format(this.date);
+    }
+
+    @Benchmark
+    public String formatNow() {
+        return DateUtils.format();
+    }
+
+    /**
+     * 多个发送线程同时格式化
+     */
+    @Benchmark
+    @Threads(4)
+    public String formatConcurrent() {
+        return DateUtils.format(this.date);
+    }
+}
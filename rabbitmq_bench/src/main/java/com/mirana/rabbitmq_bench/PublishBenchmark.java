@@ -0,0 +1,86 @@
+package com.mirana.rabbitmq_bench;
+
+import com.mirana.rabbitmq_test.amqp.MqSender;
+import com.mirana.rabbitmq_test.amqp.ReceiveOpt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MqSender 发送路径：消息转换、CachingConnectionFactory 取 channel、登记未确认消息、confirm 回调
+ * 桩 channel 在 basicPublish 中立即 ack，返回的 future 已经完成
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    @Param({"16", "1024"})
+    private int payloadSize;
+
+    private AnnotationConfigApplicationContext context;
+
+    private MqSender sender;
+
+    private String payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = new AnnotationConfigApplicationContext(BenchConfig.class);
+        this.sender = this.context.getBean(MqSender.class);
+        char[] chars = new char[this.payloadSize];
+        Arrays.fill(chars, 'x');
+        this.payload = new String(chars);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public CorrelationData send2Queue() {
+        return this.sender.send2Queue(this.payload, ReceiveOpt.DEFAULT, null, false).join();
+    }
+
+    @Benchmark
+    public CorrelationData send2DirectExchange() {
+        return this.sender.send2DirectExchange(this.payload, false).join();
+    }
+
+    @Benchmark
+    public CorrelationData send2TopicExchange() {
+        return this.sender.send2TopicExchange(this.payload, 1, false).join();
+    }
+
+    @Benchmark
+    public CorrelationData send2FanoutExchange() {
+        return this.sender.send2FanoutExchange(this.payload, false).join();
+    }
+
+    /**
+     * 批量发送，每 mq.batch.size 条合并成一次 basicPublish
+     */
+    @Benchmark
+    public CorrelationData send2DirectExchangeBatch() {
+        return this.sender.send2DirectExchange(this.payload, true).join();
+    }
+}
@@ -0,0 +1,104 @@
+package com.mirana.rabbitmq_bench;
+
+import com.mirana.rabbitmq_test.amqp.ConstantQueue;
+import com.mirana.rabbitmq_test.amqp.MqReceiver;
+import com.mirana.rabbitmq_test.amqp.ReceiveOpt;
+import com.rabbitmq.client.Channel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.listener.adapter.HandlerAdapter;
+import org.springframework.amqp.rabbit.listener.adapter.MessagingMessageListenerAdapter;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MqReceiver 分发路径：与 @RabbitListener 相同，经 MessagingMessageListenerAdapter 转换消息、解析参数、
+ * 反射调用处理方法，最后由 MqAcker 在桩 channel 上 basicAck
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiveBenchmark {
+
+    private AnnotationConfigApplicationContext context;
+
+    private Channel channel;
+
+    private MessagingMessageListenerAdapter process;
+
+    private MessagingMessageListenerAdapter processDirect;
+
+    private Message message;
+
+    private Message messageWithOpt;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchMethodException {
+        this.context = new AnnotationConfigApplicationContext(BenchConfig.class);
+        this.channel = this.context.getBean(StubRabbitConnectionFactory.class).createChannel();
+
+        DefaultMessageHandlerMethodFactory handlerMethodFactory = new DefaultMessageHandlerMethodFactory();
+        handlerMethodFactory.setBeanFactory(this.context.getBeanFactory());
+        handlerMethodFactory.afterPropertiesSet();
+        MqReceiver receiver = this.context.getBean(MqReceiver.class);
+        this.process = adapter(handlerMethodFactory, receiver, "process");
+        this.processDirect = adapter(handlerMethodFactory, receiver, "processDirect");
+
+        this.message = message(null);
+        this.messageWithOpt = message(ReceiveOpt.encode(1, false, true));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public void process() throws Exception {
+        this.process.onMessage(this.messageWithOpt, this.channel);
+    }
+
+    @Benchmark
+    public void processDirect() throws Exception {
+        this.processDirect.onMessage(this.message, this.channel);
+    }
+
+    private static MessagingMessageListenerAdapter adapter(DefaultMessageHandlerMethodFactory handlerMethodFactory,
+                                                           Object bean, String methodName) throws NoSuchMethodException {
+        Method method = bean.getClass().getMethod(methodName, org.springframework.messaging.Message.class, Channel.class);
+        MessagingMessageListenerAdapter adapter = new MessagingMessageListenerAdapter(bean, method);
+        adapter.setHandlerAdapter(new HandlerAdapter(handlerMethodFactory.createInvocableHandlerMethod(bean, method)));
+        return adapter;
+    }
+
+    private static Message message(Integer receiveOpt) {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        messageProperties.setDeliveryTag(1);
+        messageProperties.setConsumerQueue(ConstantQueue.QUEUE);
+        if (receiveOpt != null) {
+            messageProperties.setHeader(ReceiveOpt.HEADER, receiveOpt);
+        }
+        return new Message("2019-05-27 14:54:58".getBytes(StandardCharsets.UTF_8), messageProperties);
+    }
+}
@@ -0,0 +1,204 @@
+package com.mirana.rabbitmq_bench;
+
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不连接 broker 的 amqp-client ConnectionFactory
+ * <p>
+ * 交给 CachingConnectionFactory 使用，channel 缓存、publisher confirm 包装都走 spring 的真实代码。
+ * basicPublish 后在发送线程里立即回调 ConfirmListener.handleAck，模拟 broker 零延迟确认；
+ * 其余方法什么都不做，返回值取类型默认值
+ */
+public class StubRabbitConnectionFactory extends ConnectionFactory {
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong acked = new AtomicLong();
+
+    public StubRabbitConnectionFactory() {
+        // CachingConnectionFactory 使用自己的重连机制
+        setAutomaticRecoveryEnabled(false);
+    }
+
+    @Override
+    public Connection newConnection(ExecutorService executor, AddressResolver addressResolver, String clientProvidedName) {
+        return proxy(Connection.class, new StubConnection(clientProvidedName));
+    }
+
+    /**
+     * @return basicPublish 调用次数
+     */
+    public long getPublished() {
+        return this.published.get();
+    }
+
+    /**
+     * @return basicAck 调用次数
+     */
+    public long getAcked() {
+        return this.acked.get();
+    }
+
+    /**
+     * 消费端使用的桩 channel，只需要 basicAck/basicNack/basicReject
+     */
+    public Channel createChannel() {
+        return proxy(Channel.class, new StubChannel(null, 1));
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return (char) 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0F;
+        }
+        if (type == double.class) {
+            return 0D;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args, String name) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return name;
+        }
+    }
+
+    private final class StubConnection implements InvocationHandler {
+
+        private final String name;
+
+        private final AtomicInteger channelNumber = new AtomicInteger();
+
+        private StubConnection(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args, "StubConnection[" + this.name + "]");
+            }
+            switch (method.getName()) {
+                case "createChannel":
+                    return proxy(Channel.class, new StubChannel((Connection) proxy, this.channelNumber.incrementAndGet()));
+                case "isOpen":
+                    return true;
+                case "getAddress":
+                    return InetAddress.getLoopbackAddress();
+                case "getPort":
+                    return DEFAULT_AMQP_PORT;
+                case "getClientProvidedName":
+                    return this.name;
+                case "getServerProperties":
+                case "getClientProperties":
+                    return Collections.emptyMap();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private final class StubChannel implements InvocationHandler {
+
+        private final Connection connection;
+
+        private final int number;
+
+        private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+
+        private long nextPublishSeqNo;
+
+        private StubChannel(Connection connection, int number) {
+            this.connection = connection;
+            this.number = number;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws IOException {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args, "StubChannel[" + this.number + "]");
+            }
+            switch (method.getName()) {
+                case "isOpen":
+                    return true;
+                case "getConnection":
+                    return this.connection;
+                case "getChannelNumber":
+                    return this.number;
+                case "confirmSelect":
+                    if (this.nextPublishSeqNo == 0) {
+                        this.nextPublishSeqNo = 1;
+                    }
+                    return null;
+                case "getNextPublishSeqNo":
+                    return this.nextPublishSeqNo;
+                case "addConfirmListener":
+                    if (args[0] instanceof ConfirmListener) {
+                        this.confirmListeners.add((ConfirmListener) args[0]);
+                    }
+                    return defaultValue(method.getReturnType());
+                case "basicPublish":
+                    publish();
+                    return null;
+                case "basicAck":
+                    StubRabbitConnectionFactory.this.acked.incrementAndGet();
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private void publish() throws IOException {
+            StubRabbitConnectionFactory.this.published.incrementAndGet();
+            if (this.nextPublishSeqNo == 0) {
+                return;
+            }
+            long seqNo = this.nextPublishSeqNo++;
+            for (ConfirmListener listener : this.confirmListeners) {
+                listener.handleAck(seqNo, false);
+            }
+        }
+    }
+}
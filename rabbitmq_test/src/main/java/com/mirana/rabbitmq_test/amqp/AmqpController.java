@@ -7,17 +7,18 @@ import org.springframework.amqp.core.MessagePostProcessor;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageHeaders;
-import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @RestController
@@ -46,56 +47,57 @@ public class AmqpController {
      * 2019-05-27 15:16:38.769 : quque_email_bz Receiver : 0_2019-05-27 15:16:33
      *
      * @param msgNumber 消息数量
+     * @param batch     是否批量发送
      * @return 消息发送结果
      */
     @GetMapping("send2Queue")
     public String send2Queue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
                              @RequestParam(required = false, defaultValue = "1") Integer ackMode,
                              @RequestParam(required = false, defaultValue = "false") Boolean multiple,
-                             @RequestParam(required = false, defaultValue = "true") Boolean requeue) {
+                             @RequestParam(required = false, defaultValue = "true") Boolean requeue,
+                             @RequestParam(required = false, defaultValue = "false") Boolean batch) {
         String msg = DateUtils.format();
         log.info("send2Queue: {}", msg);
 
-        Map<String, Object> receiveOptMap = new HashMap<>();
-        receiveOptMap.put("ackMode", ackMode);
-        receiveOptMap.put("multiple", multiple);
-        receiveOptMap.put("requeue", requeue);
+        // 应答选项编码成一个 int，所有消息共用
+        int receiveOpt = ReceiveOpt.encode(ackMode, multiple, requeue);
 
         // 向 MyRabbitMQQueue 发送消息
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
         for (int i = 0; i < msgNumber; i++) {
             String sendMsg = i + "_" + msg;
-            // 发送持久化消息，rabbitmq 重启后消息依然在队列里
-            Message<String> message = MessageBuilder
-                    .withPayload(sendMsg)
-                    .setHeader(MessageHeaders.CONTENT_TYPE, MessageProperties.CONTENT_TYPE_JSON)
-                    .setHeader("receiveOpt", receiveOptMap)
-                    .build();
 
             CorrelationData correlationData = new CorrelationData();
             correlationData.setId(UUID.randomUUID().toString());
 
-            sender.send2Queue(message, correlationData);
+            // 发送持久化消息，rabbitmq 重启后消息依然在队列里
+            futures.add(sender.send2Queue(sendMsg, receiveOpt, correlationData, batch));
         }
+        flushIfBatch(batch);
 
-        return "成功发送 " + msgNumber + " 条消息： " + msg;
+        return "成功发送 " + msgNumber + " 条消息： " + msg + confirmResult(futures, batch);
     }
 
     /**
      * 发送消息到最 direct交换机
      *
      * @param msgNumber 消息数量
+     * @param batch     是否批量发送
      * @return 消息发送结果
      */
     @GetMapping("send2DirectExchange")
-    public String send2DirectExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber) {
+    public String send2DirectExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                      @RequestParam(required = false, defaultValue = "false") Boolean batch) {
         String msg = DateUtils.format();
         log.info("send2DirectExchange: {}", msg);
 
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
         for (int i = 0; i < msgNumber; i++) {
-            sender.send2DirectExchange(msg);
+            futures.add(sender.send2DirectExchange(msg, batch));
         }
+        flushIfBatch(batch);
 
-        return "成功发送 " + msgNumber + " 条消息： " + msg;
+        return "成功发送 " + msgNumber + " 条消息： " + msg + confirmResult(futures, batch);
     }
 
     /**
@@ -103,45 +105,81 @@ public class AmqpController {
      *
      * @param msgNumber      消息数量
      * @param routingkeyMode 路由键模式，不同的路由键匹配的队列不同
+     * @param batch          是否批量发送
      * @return 消息发送结果
      */
     @GetMapping("send2TopicExchange")
-    public String send2TopicExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber, @RequestParam(required = false, defaultValue = "1") Integer routingkeyMode) {
+    public String send2TopicExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber, @RequestParam(required = false, defaultValue = "1") Integer routingkeyMode,
+                                     @RequestParam(required = false, defaultValue = "false") Boolean batch) {
         String msg = DateUtils.format();
         log.info("send2TopicExchange: {}", msg);
 
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
         for (int i = 0; i < msgNumber; i++) {
-            sender.send2TopicExchange(msg, routingkeyMode);
+            futures.add(sender.send2TopicExchange(msg, routingkeyMode, batch));
         }
-        return "成功发送 " + msgNumber + " 条消息： " + msg;
+        flushIfBatch(batch);
+        return "成功发送 " + msgNumber + " 条消息： " + msg + confirmResult(futures, batch);
     }
 
     /**
      * 发送消息到最 fanout交换机-广播模式
      *
      * @param msgNumber 消息数量
+     * @param batch     是否批量发送
      * @return 消息发送结果
      */
     @GetMapping("send2FanoutExchange")
-    public String send2FanoutExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber) {
+    public String send2FanoutExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                      @RequestParam(required = false, defaultValue = "false") Boolean batch) {
         String msg = DateUtils.format();
         log.info("send2FanoutExchange: {}", msg);
 
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
         for (int i = 0; i < msgNumber; i++) {
-            sender.send2FanoutExchange(msg);
+            futures.add(sender.send2FanoutExchange(msg, batch));
         }
+        flushIfBatch(batch);
 
-        return "成功发送 " + msgNumber + " 条消息： " + msg;
+        return "成功发送 " + msgNumber + " 条消息： " + msg + confirmResult(futures, batch);
+    }
+
+    /**
+     * 按 key 发送到分片队列，第 i 条消息的 key 为 i % keys，同一个 key 的消息序号依次递增
+     *
+     * @param msgNumber 消息数量
+     * @param keys      key 的个数
+     * @param batch     不支持批量发送，为 true 时返回 400：拆包后的消息共用第一条消息的 key 和序号
+     * @return 消息发送结果
+     */
+    @GetMapping("send2ShardedQueue")
+    public String send2ShardedQueue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                    @RequestParam(required = false, defaultValue = "16") Integer keys,
+                                    @RequestParam(required = false, defaultValue = "false") Boolean batch) {
+        if (batch) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "分片队列不支持批量发送，每条消息需要自己的 key 和序号");
+        }
+        String msg = DateUtils.format();
+        log.info("send2ShardedQueue: {}", msg);
+
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
+        for (int i = 0; i < msgNumber; i++) {
+            futures.add(sender.send2ShardedQueue(msg + "#" + (i % keys), i / keys, msg));
+        }
+
+        return "成功发送 " + msgNumber + " 条消息： " + msg + confirmResult(futures, false);
     }
 
     /**
      * 发送到死信邮件死信交换机
      *
      * @param msgNumber 消息数量
+     * @param batch     是否批量发送
      * @return 消息发送结果
      */
     @GetMapping("send2EmailDlqQueue")
-    public String send2EmailDlqQueue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber) {
+    public String send2EmailDlqQueue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                     @RequestParam(required = false, defaultValue = "false") Boolean batch) {
         String msg = DateUtils.format();
         log.info("send2EmailDlqQueue: {}", msg);
 
@@ -191,12 +229,46 @@ public class AmqpController {
             return message;
         };
 
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
         for (int i = 0; i < msgNumber; i++) {
             CorrelationData correlationData = new CorrelationData("randomExpiration: " + randomExpiration + "," + UUID.randomUUID().toString().replace("-", ""));
-            sender.send2EmailDlqQueue(msg, correlationData, messagePostProcessor);
+            futures.add(sender.send2EmailDlqQueue(msg, correlationData, messagePostProcessor, batch));
         }
+        flushIfBatch(batch);
 
-        return "成功发送到死信队列 " + msgNumber + " 条消息： " + msg + ", 延时：" + randomExpiration + " 秒";
+        return "成功发送到死信队列 " + msgNumber + " 条消息： " + msg + ", 延时：" + randomExpiration + " 秒" + confirmResult(futures, batch);
+    }
+
+
+    /**
+     * 通过延时阶梯发送到邮件候补队列，每条消息的延时在 minDelay-maxDelay 之间随机
+     * <p>
+     * 与 send2EmailDlqQueue 不同，延时长的消息不会挡住延时短的消息，见 {@link MqDelayLadder}
+     * curl "http://localhost:8080/send2EmailDelayLadder?msgNumber=1000&minDelay=2000&maxDelay=8000"
+     *
+     * @param msgNumber 消息数量
+     * @param minDelay  最小延时毫秒数
+     * @param maxDelay  最大延时毫秒数
+     * @param batch     是否批量发送
+     * @return 消息发送结果
+     */
+    @GetMapping("send2EmailDelayLadder")
+    public String send2EmailDelayLadder(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                        @RequestParam(required = false, defaultValue = "2000") Long minDelay,
+                                        @RequestParam(required = false, defaultValue = "8000") Long maxDelay,
+                                        @RequestParam(required = false, defaultValue = "false") Boolean batch) {
+        String msg = DateUtils.format();
+        log.info("send2EmailDelayLadder: {}", msg);
+
+        Random random = new Random();
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
+        for (int i = 0; i < msgNumber; i++) {
+            long delay = minDelay + (long) (random.nextDouble() * (maxDelay - minDelay));
+            futures.add(sender.send2EmailDelayLadder(i + "_" + delay + "_" + msg, delay, null, batch));
+        }
+        flushIfBatch(batch);
+
+        return "成功发送到延时阶梯 " + msgNumber + " 条消息： " + msg + ", 延时：" + minDelay + "-" + maxDelay + " 毫秒" + confirmResult(futures, batch);
     }
 
 
@@ -241,6 +313,7 @@ public class AmqpController {
      * 2019-05-28 11:05:53.142 : queue_delayed Receiver : 2019-05-28 11:05:48
      *
      * @param msgNumber 消息数量
+     * @param batch     是否批量发送
      * @return 消息发送结果
      * <p>
      * <p>
@@ -248,7 +321,8 @@ public class AmqpController {
      * TODO 这里的消息会被退回
      */
     @GetMapping("send2DelayedQueue")
-    public String send2DelayedQueue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber) {
+    public String send2DelayedQueue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                    @RequestParam(required = false, defaultValue = "false") Boolean batch) {
         String msg = DateUtils.format();
         log.info("send2DelayedQueue: {}", msg);
 
@@ -262,11 +336,45 @@ public class AmqpController {
             return message;
         };
 
+        List<CompletableFuture<CorrelationData>> futures = new ArrayList<>(msgNumber);
         for (int i = 0; i < msgNumber; i++) {
             CorrelationData correlationData = new CorrelationData(UUID.randomUUID().toString().replace("-", ""));
-            sender.send2DelayedQueue(msg, correlationData, messagePostProcessor);
+            futures.add(sender.send2DelayedQueue(msg, correlationData, messagePostProcessor, batch));
+        }
+        flushIfBatch(batch);
+
+        return "成功发送到延迟队列 " + msgNumber + " 条消息： " + msg + confirmResult(futures, batch);
+    }
+
+    /**
+     * 批量发送时，循环结束后立即发出未满的批次，不再等待 linger 时间
+     */
+    private void flushIfBatch(Boolean batch) {
+        if (batch) {
+            sender.flushBatch();
         }
+    }
 
-        return "成功发送到延迟队列 " + msgNumber + " 条消息： " + msg;
+    /**
+     * 等待每条消息的确认结果，超时由 MqConfirmTracker 控制
+     *
+     * @return 已确认、未确认的消息数
+     */
+    private String confirmResult(List<CompletableFuture<CorrelationData>> futures, Boolean batch) {
+        if (batch) {
+            return "，批量发送不跟踪单条消息的确认";
+        }
+        int confirmed = 0;
+        int failed = 0;
+        for (CompletableFuture<CorrelationData> future : futures) {
+            try {
+                future.join();
+                confirmed++;
+            } catch (CompletionException e) {
+                failed++;
+                log.debug("消息未确认: {}", e.getCause().getMessage());
+            }
+        }
+        return "，已确认 " + confirmed + " 条，未确认 " + failed + " 条";
     }
 }
@@ -0,0 +1,19 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.Message;
+
+import java.util.List;
+
+/**
+ * 批量消息处理
+ */
+@FunctionalInterface
+public interface BatchMessageHandler {
+
+    /**
+     * @param messages 一批消息，按投递顺序排列
+     * @return 处理失败的消息，会逐条 nack；全部成功返回空集合。抛出异常时整批 nack
+     * @throws Exception 处理异常
+     */
+    List<Message> handle(List<Message> messages) throws Exception;
+}
@@ -0,0 +1,168 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 批量消费监听器，手动应答模式下使用，只支持 simple 容器
+ * <p>
+ * 每个消费线程（即每个 channel）单独攒批，条数达到 batchSize 或者第一条消息等待超过 receiveTimeout 时交给 {@link BatchMessageHandler}。
+ * 处理和应答都在消费线程上：收到消息时检查是否到期，没有新消息时由容器的空闲事件调用 {@link #flush()}，
+ * 见 {@link #configure}。处理失败的消息逐条 nack，其余消息用一次 ack(lastTag, multiple=true) 全部确认，经 {@link MqAckCoalescer} 发送
+ */
+@Slf4j
+public class BatchingMessageListener implements ChannelAwareMessageListener {
+
+    private final BatchMessageHandler handler;
+
+    private final int batchSize;
+
+    private final long receiveTimeout;
+
+    private final boolean requeueFailed;
+
+    private final String queue;
+
+    private final MqMetrics metrics;
+
+    private final MqAckCoalescer ackCoalescer;
+
+    /**
+     * simple 容器的每个消费线程固定使用一个 channel
+     */
+    private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(Batch::new);
+
+    public BatchingMessageListener(BatchMessageHandler handler, int batchSize, long receiveTimeout, boolean requeueFailed,
+                                   String queue, MqMetrics metrics, MqAckCoalescer ackCoalescer) {
+        this.handler = handler;
+        this.queue = queue;
+        this.metrics = metrics;
+        this.ackCoalescer = ackCoalescer;
+        this.batchSize = batchSize;
+        this.receiveTimeout = receiveTimeout;
+        this.requeueFailed = requeueFailed;
+    }
+
+    /**
+     * 容器等待新消息最多 receiveTimeout 毫秒，等不到时在消费线程上发布 ListenerContainerIdleEvent，
+     * 由 {@link MqBatchReceiver} 调用 {@link #flush()}。
+     * <p>
+     * 空闲事件按整个容器最后一次收到消息的时间判断，只要还有消费线程在收消息就不会发布，
+     * 所以要求 prefetch 不小于 batchSize：不足一批的消费者还有空闲名额，队列中有消息时 broker 会继续投递给它，
+     * 由 {@link #onMessage} 检查是否到期；只有队列没有消息、所有消费线程都空闲时才依靠空闲事件。
+     * 空闲事件每个间隔只在一个消费线程上发布，间隔取 1ms，同一毫秒等待超时的其他消费线程要等下一次超时
+     */
+    public void configure(MessageListenerContainer container) {
+        if (!(container instanceof SimpleMessageListenerContainer)) {
+            throw new IllegalStateException("批量消费 " + this.queue + " 需要 simple 容器，mq.listener.profiles 中不能配置为 direct");
+        }
+        SimpleMessageListenerContainer simple = (SimpleMessageListenerContainer) container;
+        int prefetch = (Integer) new DirectFieldAccessor(simple).getPropertyValue("prefetchCount");
+        if (prefetch < this.batchSize) {
+            throw new IllegalStateException("批量消费 " + this.queue + " 的 prefetch " + prefetch
+                    + " 小于 mq.consumer.batch.size " + this.batchSize + "，不足一批的消息可能一直不处理");
+        }
+        simple.setReceiveTimeout(this.receiveTimeout);
+        simple.setIdleEventInterval(1);
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) {
+        Batch batch = this.batches.get();
+        if (batch.channel != channel) {
+            // 消费者重启后换了 channel，之前的消息在旧 channel 上处理
+            flush();
+            batch.channel = channel;
+        }
+        long now = System.currentTimeMillis();
+        if (batch.messages.isEmpty()) {
+            batch.started = now;
+        }
+        batch.messages.add(message);
+        if (batch.messages.size() >= this.batchSize || now - batch.started >= this.receiveTimeout) {
+            process(batch);
+        }
+    }
+
+    /**
+     * 处理当前消费线程不足一批的消息，必须在消费线程上调用
+     */
+    public void flush() {
+        Batch batch = this.batches.get();
+        if (!batch.messages.isEmpty()) {
+            process(batch);
+        }
+    }
+
+    private void process(Batch batch) {
+        List<Message> messages = new ArrayList<>(batch.messages);
+        batch.messages.clear();
+        Channel channel = batch.channel;
+        if (!channel.isOpen()) {
+            // channel 关闭后未应答的消息会由 broker 重新投递
+            return;
+        }
+
+        List<Message> failed;
+        long start = System.nanoTime();
+        try {
+            failed = this.handler.handle(messages);
+        } catch (Exception e) {
+            log.error("批量处理失败, {} 条消息全部 nack", messages.size(), e);
+            this.metrics.outcome(this.queue, MqMetrics.EXCEPTION);
+            failed = messages;
+        }
+        this.metrics.batchHandled(this.queue, System.nanoTime() - start);
+        int failedCount = failed == null ? 0 : failed.size();
+        this.metrics.outcome(this.queue, MqMetrics.NACK, failedCount);
+        this.metrics.outcome(this.queue, MqMetrics.ACK, messages.size() - failedCount);
+
+        try {
+            // 批量发送拆包后的消息共享 deliveryTag，同一个 tag 只 nack 一次，并且不能再被 ack
+            Set<Long> nacked = new HashSet<>();
+            if (failed != null) {
+                for (Message message : failed) {
+                    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+                    if (nacked.add(deliveryTag)) {
+                        this.ackCoalescer.nack(channel, deliveryTag, false, this.requeueFailed);
+                    }
+                }
+            }
+            long lastTag = -1;
+            for (Message message : messages) {
+                long deliveryTag = message.getMessageProperties().getDeliveryTag();
+                if (deliveryTag > lastTag && !nacked.contains(deliveryTag)) {
+                    lastTag = deliveryTag;
+                }
+            }
+            if (lastTag > 0) {
+                this.ackCoalescer.ack(channel, lastTag, true);
+            }
+        } catch (Exception e) {
+            log.error("批量应答失败, channel: {}", channel, e);
+        }
+    }
+
+    private static final class Batch {
+
+        private final List<Message> messages = new ArrayList<>();
+
+        private Channel channel;
+
+        private long started;
+    }
+}
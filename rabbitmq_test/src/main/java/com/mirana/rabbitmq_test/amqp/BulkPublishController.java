@@ -0,0 +1,107 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.mirana.rabbitmq_test.DateUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 异步批量发送，与 AmqpController 中的接口对应，提交后立即返回任务 id
+ * <p>
+ * curl http://localhost:8080/bulk/send2TopicExchange?msgNumber=100000
+ * curl -N http://localhost:8080/bulk/{jobId}/events
+ */
+@Slf4j
+@RestController
+public class BulkPublishController {
+
+    @Autowired
+    private MqSender sender;
+
+    @Autowired
+    private MqBulkPublisher bulkPublisher;
+
+    /**
+     * @param msgNumber 消息数量
+     * @param batch     是否批量发送
+     * @return 任务进度，jobId 用于订阅进度
+     */
+    @GetMapping("bulk/send2Queue")
+    public BulkPublishProgress send2Queue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                          @RequestParam(required = false, defaultValue = "1") Integer ackMode,
+                                          @RequestParam(required = false, defaultValue = "false") Boolean multiple,
+                                          @RequestParam(required = false, defaultValue = "true") Boolean requeue,
+                                          @RequestParam(required = false, defaultValue = "false") Boolean batch) {
+        String msg = DateUtils.format();
+        int receiveOpt = ReceiveOpt.encode(ackMode, multiple, requeue);
+        return bulkPublisher.submit("send2Queue", msgNumber, batch,
+                i -> sender.send2Queue(i + "_" + msg, receiveOpt, null, batch)).progress();
+    }
+
+    @GetMapping("bulk/send2DirectExchange")
+    public BulkPublishProgress send2DirectExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                                   @RequestParam(required = false, defaultValue = "false") Boolean batch) {
+        String msg = DateUtils.format();
+        return bulkPublisher.submit("send2DirectExchange", msgNumber, batch,
+                i -> sender.send2DirectExchange(msg, batch)).progress();
+    }
+
+    /**
+     * @param routingkeyMode 路由键模式，见 {@link MqSender#topicRoutingKey(Integer)}
+     */
+    @GetMapping("bulk/send2TopicExchange")
+    public BulkPublishProgress send2TopicExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                                  @RequestParam(required = false, defaultValue = "1") Integer routingkeyMode,
+                                                  @RequestParam(required = false, defaultValue = "false") Boolean batch) {
+        String msg = DateUtils.format();
+        return bulkPublisher.submit("send2TopicExchange", msgNumber, batch,
+                i -> sender.send2TopicExchange(msg, routingkeyMode, batch)).progress();
+    }
+
+    @GetMapping("bulk/send2FanoutExchange")
+    public BulkPublishProgress send2FanoutExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                                   @RequestParam(required = false, defaultValue = "false") Boolean batch) {
+        String msg = DateUtils.format();
+        return bulkPublisher.submit("send2FanoutExchange", msgNumber, batch,
+                i -> sender.send2FanoutExchange(msg, batch)).progress();
+    }
+
+    @GetMapping("bulk/{jobId}")
+    public BulkPublishProgress progress(@PathVariable String jobId) {
+        return job(jobId).progress();
+    }
+
+    /**
+     * SSE 推送进度，事件名 progress，任务结束时推送 done 后关闭
+     */
+    @GetMapping(path = "bulk/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@PathVariable String jobId) {
+        return bulkPublisher.subscribe(job(jobId));
+    }
+
+    /**
+     * 停止发送剩余的消息
+     */
+    @GetMapping("bulk/{jobId}/cancel")
+    public BulkPublishProgress cancel(@PathVariable String jobId) {
+        BulkPublishJob job = job(jobId);
+        job.cancel();
+        log.info("批量发送任务 {} 已取消", jobId);
+        return job.progress();
+    }
+
+    private BulkPublishJob job(String jobId) {
+        BulkPublishJob job = bulkPublisher.getJob(jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在或已过期: " + jobId);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,130 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量发送任务，发送线程和 confirm 回调线程同时更新计数
+ */
+public class BulkPublishJob {
+
+    private final String id;
+
+    private final String target;
+
+    private final int total;
+
+    private final boolean batch;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private final AtomicInteger confirmed = new AtomicInteger();
+
+    private final AtomicInteger returned = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile boolean sendFinished;
+
+    private volatile boolean cancelled;
+
+    private volatile String error;
+
+    private volatile long finishTime;
+
+    public BulkPublishJob(String id, String target, int total, boolean batch) {
+        this.id = id;
+        this.target = target;
+        this.total = total;
+        this.batch = batch;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public boolean isBatch() {
+        return this.batch;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * 停止发送剩余的消息，已发送的消息继续等待确认
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    void sent() {
+        this.sent.incrementAndGet();
+    }
+
+    /**
+     * 作为 future.whenComplete 的回调
+     */
+    void confirmed(CorrelationData correlationData, Throwable e) {
+        if (e == null) {
+            this.confirmed.incrementAndGet();
+        } else {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof PublishConfirmException
+                    && ((PublishConfirmException) cause).getReason() == PublishConfirmException.Reason.RETURNED) {
+                this.returned.incrementAndGet();
+            } else {
+                this.failed.incrementAndGet();
+            }
+        }
+        checkDone();
+    }
+
+    void sendFinished(String error) {
+        this.error = error;
+        this.sendFinished = true;
+        checkDone();
+    }
+
+    public boolean isDone() {
+        if (!this.sendFinished) {
+            return false;
+        }
+        return this.batch || this.confirmed.get() + this.returned.get() + this.failed.get() >= this.sent.get();
+    }
+
+    /**
+     * @return 结束时间，未结束为 0
+     */
+    public long getFinishTime() {
+        return this.finishTime;
+    }
+
+    private void checkDone() {
+        if (this.finishTime == 0 && isDone()) {
+            this.finishTime = System.currentTimeMillis();
+        }
+    }
+
+    public BulkPublishProgress progress() {
+        BulkPublishProgress progress = new BulkPublishProgress();
+        progress.setJobId(this.id);
+        progress.setTarget(this.target);
+        progress.setTotal(this.total);
+        progress.setBatch(this.batch);
+        progress.setConfirmed(this.confirmed.get());
+        progress.setReturned(this.returned.get());
+        progress.setFailed(this.failed.get());
+        progress.setSent(this.sent.get());
+        progress.setCancelled(this.cancelled);
+        progress.setError(this.error);
+        progress.setDone(isDone());
+        long finishTime = this.finishTime;
+        progress.setElapsed((finishTime == 0 ? System.currentTimeMillis() : finishTime) - this.startTime);
+        return progress;
+    }
+}
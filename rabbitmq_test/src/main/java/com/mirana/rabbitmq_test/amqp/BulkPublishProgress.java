@@ -0,0 +1,46 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+/**
+ * 批量发送任务的进度快照
+ */
+@Data
+public class BulkPublishProgress {
+
+    private String jobId;
+
+    /**
+     * 发送方式，如 send2Queue、send2TopicExchange
+     */
+    private String target;
+
+    private int total;
+
+    private int sent;
+
+    /**
+     * 批量发送不跟踪单条消息的确认，confirmed、returned、failed 始终为 0
+     */
+    private boolean batch;
+
+    private int confirmed;
+
+    private int returned;
+
+    /**
+     * nack、确认超时、发送异常的消息数
+     */
+    private int failed;
+
+    private boolean cancelled;
+
+    private boolean done;
+
+    private String error;
+
+    /**
+     * 已运行的毫秒数
+     */
+    private long elapsed;
+}
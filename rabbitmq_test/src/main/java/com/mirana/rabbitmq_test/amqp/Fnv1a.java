@@ -0,0 +1,41 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64 位 FNV-1a 哈希，按字符串的 UTF-8 字节计算，{@link MqShardRouter} 选择分片、{@link MqDedupInterceptor} 去重共用
+ * <p>
+ * 分片结果依赖哈希值，不能修改算法，否则同一个 key 会换到其他分片
+ */
+final class Fnv1a {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fnv1a() {
+    }
+
+    static long hash64(String value) {
+        long hash = OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // 非 ASCII 字符按 UTF-8 编码后计算，ASCII（messageId、UUID 等）不分配内存
+                return hash64(value.getBytes(StandardCharsets.UTF_8));
+            }
+            hash ^= c;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+
+    static long hash64(byte[] bytes) {
+        long hash = OFFSET_BASIS;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,155 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 哈希时间轮，添加、取消都是 O(1)
+ * <p>
+ * 时间按 tickMillis 分成格，wheelSize 个格组成一圈，定时器放到到期那一格的双向链表里，
+ * 超过一圈的记录还要转几圈（rounds），每次经过这一格减一，为 0 时到期。
+ * 非线程安全，由调用方加锁
+ *
+ * @param <T> 定时器携带的数据
+ */
+public class HashedTimingWheel<T> {
+
+    private final long tickMillis;
+
+    private final long startMillis;
+
+    private final int mask;
+
+    private final Slot<T>[] wheel;
+
+    private final Map<String, Slot<T>> timers = new HashMap<>();
+
+    /**
+     * 下一个要处理的格，从 startMillis 开始计数
+     */
+    private long tick;
+
+    /**
+     * @param wheelSize   一圈的格数，向上取 2 的幂
+     * @param tickMillis  每格的毫秒数
+     * @param startMillis 第 0 格的时间
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(int wheelSize, long tickMillis, long startMillis) {
+        if (wheelSize <= 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("wheelSize 和 tickMillis 必须大于 0");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.mask = size - 1;
+        this.wheel = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            // 每一格的链表头，不存数据
+            this.wheel[i] = new Slot<>(null, null);
+            this.wheel[i].prev = this.wheel[i];
+            this.wheel[i].next = this.wheel[i];
+        }
+    }
+
+    /**
+     * @param deadline 到期时间，已经过期的在下一格触发
+     * @return id 已存在时返回 false
+     */
+    public boolean add(String id, long deadline, T value) {
+        if (this.timers.containsKey(id)) {
+            return false;
+        }
+        long deadlineTick = Math.max(this.tick, ceilDiv(deadline - this.startMillis, this.tickMillis));
+        Slot<T> slot = new Slot<>(id, value);
+        slot.rounds = (deadlineTick - this.tick) / this.wheel.length;
+        Slot<T> head = this.wheel[(int) (deadlineTick & this.mask)];
+        slot.prev = head.prev;
+        slot.next = head;
+        head.prev.next = slot;
+        head.prev = slot;
+        this.timers.put(id, slot);
+        return true;
+    }
+
+    /**
+     * @return 取消的定时器的数据，不存在或已到期返回 null
+     */
+    public T cancel(String id) {
+        Slot<T> slot = this.timers.remove(id);
+        if (slot == null) {
+            return null;
+        }
+        unlink(slot);
+        return slot.value;
+    }
+
+    public boolean contains(String id) {
+        return this.timers.containsKey(id);
+    }
+
+    public int size() {
+        return this.timers.size();
+    }
+
+    /**
+     * 处理到 now 为止的所有格，到期的定时器从时间轮中移除后交给 expired
+     */
+    public void advance(long now, BiConsumer<String, T> expired) {
+        List<Slot<T>> fired = new ArrayList<>();
+        while (this.startMillis + this.tick * this.tickMillis <= now) {
+            Slot<T> head = this.wheel[(int) (this.tick & this.mask)];
+            Slot<T> slot = head.next;
+            while (slot != head) {
+                Slot<T> next = slot.next;
+                if (slot.rounds == 0) {
+                    unlink(slot);
+                    this.timers.remove(slot.id);
+                    fired.add(slot);
+                } else {
+                    slot.rounds--;
+                }
+                slot = next;
+            }
+            this.tick++;
+        }
+        for (Slot<T> slot : fired) {
+            expired.accept(slot.id, slot.value);
+        }
+    }
+
+    private static <T> void unlink(Slot<T> slot) {
+        slot.prev.next = slot.next;
+        slot.next.prev = slot.prev;
+        slot.prev = null;
+        slot.next = null;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private static final class Slot<T> {
+
+        private final String id;
+
+        private final T value;
+
+        private long rounds;
+
+        private Slot<T> prev;
+
+        private Slot<T> next;
+
+        private Slot(String id, T value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 监听方法收到的消息体，见 {@link MqPayloadConverter}
+ * <p>
+ * 直接引用 AMQP 消息体，不复制；第一次调用 {@link #toString()} 时才按 content-encoding 解码成字符串，
+ * 只看消息头的监听方法不产生字符串，日志级别关闭时作为日志参数也不会解码
+ */
+public final class LazyPayload {
+
+    private final byte[] body;
+
+    private final String contentType;
+
+    private final String contentEncoding;
+
+    /**
+     * 解码结果，String 不可变，多线程重复解码也只是多做一次
+     */
+    private String text;
+
+    public LazyPayload(byte[] body, String contentType, String contentEncoding) {
+        this.body = body;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+    }
+
+    public static LazyPayload of(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        return new LazyPayload(message.getBody(), properties.getContentType(), properties.getContentEncoding());
+    }
+
+    /**
+     * @return 消息体本身，不要修改
+     */
+    public byte[] getBytes() {
+        return this.body;
+    }
+
+    /**
+     * @return 只读的消息体，不复制
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(this.body).asReadOnlyBuffer();
+    }
+
+    public int length() {
+        return this.body.length;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+
+    @Override
+    public String toString() {
+        String text = this.text;
+        if (text == null) {
+            text = new String(this.body, charset(this.contentEncoding));
+            this.text = text;
+        }
+        return text;
+    }
+
+    /**
+     * 没有编码时与 SimpleMessageConverter 一样按 UTF-8，不认识的编码也按 UTF-8
+     */
+    private static Charset charset(String encoding) {
+        if (encoding == null) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 合并手动应答
+ * <p>
+ * 每个 channel 记录已处理的 deliveryTag 中从头连续的部分，攒够 mq.ack.count 条待确认的消息，
+ * 或者每隔 mq.ack.interval 毫秒，发送一次 basicAck(连续部分中最大的待确认 tag, multiple=true)。
+ * 先于前面的消息处理完的 tag 单独记录，前面的补齐后并入连续部分；multiple 只覆盖连续部分，不会确认还没处理的消息。
+ * nack/reject 立即单独发送，同时算作已处理，之后的 multiple ack 越过它不影响结果（broker 只确认未应答的消息）。
+ * <p>
+ * 监听方法抛出异常的消息由 {@link MqListenerFailureInterceptor} nack；监听方法既不应答也不抛出异常时，这条消息之后不再连续，
+ * 定时发送时把这种空缺之后的待确认消息逐条 ack，保证最多等待 mq.ack.interval 毫秒。{@link MqPrefetchController} 调小 prefetch 后，攒够的条数同时不超过 prefetch 的一半，
+ * 否则消费者在等待 ack 期间收不到新消息。channel 关闭后未发送的 ack 作废，消息重新投递，由 {@link MqDedupInterceptor} 去重。
+ * mq.ack.enabled=false 时直接调用 channel
+ */
+@Slf4j
+@Component
+public class MqAckCoalescer {
+
+    /**
+     * 空缺之后最多记录的 tag 数，超过时丢弃已逐条发送过的，这个 channel 之后只能逐条 ack
+     */
+    private static final int MAX_AHEAD = 4096;
+
+    private final MqAckProperties properties;
+
+    private final boolean enabled;
+
+    /**
+     * 弱引用 channel，按对象比较
+     */
+    private final Cache<Channel, Acks> channels = Caffeine.newBuilder().weakKeys().build();
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    public MqAckCoalescer(MqAckProperties properties) {
+        if (properties.isEnabled() && (properties.getCount() < 1 || properties.getInterval() < 1)) {
+            throw new IllegalArgumentException("mq.ack.count 和 mq.ack.interval 必须大于 0");
+        }
+        this.properties = properties;
+        this.enabled = properties.isEnabled() && properties.getCount() > 1;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!this.enabled) {
+            return;
+        }
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-ack-");
+        this.scheduler.initialize();
+        this.scheduler.scheduleAtFixedRate(this::flush, this.properties.getInterval());
+        log.info("合并手动应答已启动，每 {} 条或 {} ms 发送一次", this.properties.getCount(), this.properties.getInterval());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+        flush();
+    }
+
+    public void ack(Channel channel, long deliveryTag, boolean multiple) throws IOException {
+        if (!this.enabled) {
+            channel.basicAck(deliveryTag, multiple);
+            return;
+        }
+        Acks acks = acks(channel);
+        synchronized (acks) {
+            if (multiple) {
+                // 调用方要求确认之前的全部消息，先发出已攒下的
+                acks.flushReady(channel);
+                channel.basicAck(deliveryTag, true);
+                acks.advanceTo(deliveryTag);
+            } else {
+                acks.settle(deliveryTag, true);
+                if (acks.ready >= acks.limit) {
+                    acks.flushReady(channel);
+                }
+            }
+        }
+    }
+
+    public void nack(Channel channel, long deliveryTag, boolean multiple, boolean requeue) throws IOException {
+        if (!this.enabled) {
+            channel.basicNack(deliveryTag, multiple, requeue);
+            return;
+        }
+        Acks acks = acks(channel);
+        synchronized (acks) {
+            if (multiple) {
+                // 已处理但还没发出的 ack 不能被这次 nack 覆盖
+                acks.flushReady(channel);
+                acks.flushAhead(channel, deliveryTag);
+                channel.basicNack(deliveryTag, true, requeue);
+                acks.advanceTo(deliveryTag);
+            } else {
+                channel.basicNack(deliveryTag, false, requeue);
+                acks.settle(deliveryTag, false);
+            }
+        }
+    }
+
+    public void reject(Channel channel, long deliveryTag, boolean requeue) throws IOException {
+        if (!this.enabled) {
+            channel.basicReject(deliveryTag, requeue);
+            return;
+        }
+        Acks acks = acks(channel);
+        synchronized (acks) {
+            channel.basicReject(deliveryTag, requeue);
+            acks.settle(deliveryTag, false);
+        }
+    }
+
+    /**
+     * channel 的 prefetch 改变后调用，攒够 min(mq.ack.count, prefetch / 2) 条就发送
+     */
+    public void prefetch(Channel channel, int prefetch) {
+        if (this.enabled) {
+            Acks acks = acks(channel);
+            synchronized (acks) {
+                acks.limit = Math.max(1, Math.min(this.properties.getCount(), prefetch / 2));
+            }
+        }
+    }
+
+    /**
+     * 发送所有 channel 上待确认的消息，定时调用
+     */
+    public void flush() {
+        for (Map.Entry<Channel, Acks> entry : this.channels.asMap().entrySet()) {
+            Channel channel = entry.getKey();
+            Acks acks = entry.getValue();
+            synchronized (acks) {
+                if (!channel.isOpen()) {
+                    this.channels.invalidate(channel);
+                    continue;
+                }
+                try {
+                    acks.flushReady(channel);
+                    acks.flushAhead(channel, Long.MAX_VALUE);
+                } catch (IOException | RuntimeException e) {
+                    log.debug("发送 ack 失败，channel {}: {}", channel.getChannelNumber(), e.getMessage());
+                    this.channels.invalidate(channel);
+                }
+            }
+        }
+    }
+
+    private Acks acks(Channel channel) {
+        return this.channels.get(channel, c -> new Acks(this.properties.getCount()));
+    }
+
+    /**
+     * 一个 channel 的应答状态，不引用 channel 本身，以免 channel 不能被回收
+     */
+    private static final class Acks {
+
+        /**
+         * 不大于这个值的 tag 都已向 broker 应答
+         */
+        private long acked;
+
+        /**
+         * 不大于这个值的 tag 都已处理
+         */
+        private long watermark;
+
+        /**
+         * (acked, watermark] 中最大的待确认 tag，0 表示没有
+         */
+        private long last;
+
+        /**
+         * (acked, watermark] 中待确认的消息数
+         */
+        private int ready;
+
+        /**
+         * watermark 之后不连续的已处理 tag，true 表示 ack 还没发送
+         */
+        private final TreeMap<Long, Boolean> ahead = new TreeMap<>();
+
+        /**
+         * 攒够这么多条待确认的消息就发送
+         */
+        private int limit;
+
+        private Acks(int limit) {
+            this.limit = limit;
+        }
+
+        private void settle(long deliveryTag, boolean ack) {
+            if (deliveryTag <= this.watermark || this.ahead.containsKey(deliveryTag)) {
+                // channel 恢复后 tag 从 1 重新开始，之前的状态作废
+                reset();
+            }
+            if (deliveryTag != this.watermark + 1) {
+                this.ahead.put(deliveryTag, ack);
+                return;
+            }
+            advance(deliveryTag, ack);
+            drain();
+        }
+
+        private void flushReady(Channel channel) throws IOException {
+            if (this.last > 0) {
+                channel.basicAck(this.last, true);
+            }
+            this.acked = this.watermark;
+            this.last = 0;
+            this.ready = 0;
+        }
+
+        /**
+         * 逐条发送空缺之后不大于 deliveryTag 的待确认消息
+         */
+        private void flushAhead(Channel channel, long deliveryTag) throws IOException {
+            for (Map.Entry<Long, Boolean> entry : this.ahead.headMap(deliveryTag, true).entrySet()) {
+                if (entry.getValue()) {
+                    channel.basicAck(entry.getKey(), false);
+                    entry.setValue(false);
+                }
+            }
+            if (this.ahead.size() > MAX_AHEAD) {
+                this.ahead.values().removeIf(pending -> !pending);
+            }
+        }
+
+        /**
+         * 不大于 deliveryTag 的消息都已应答
+         */
+        private void advanceTo(long deliveryTag) {
+            if (deliveryTag > this.watermark) {
+                this.ahead.headMap(deliveryTag, true).clear();
+                this.watermark = deliveryTag;
+                this.last = 0;
+                this.ready = 0;
+            }
+            this.acked = Math.max(this.acked, deliveryTag);
+            drain();
+        }
+
+        private void advance(long deliveryTag, boolean ack) {
+            this.watermark = deliveryTag;
+            if (ack) {
+                this.last = deliveryTag;
+                this.ready++;
+            }
+        }
+
+        private void drain() {
+            Iterator<Map.Entry<Long, Boolean>> it = this.ahead.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Boolean> entry = it.next();
+                if (entry.getKey() != this.watermark + 1) {
+                    return;
+                }
+                it.remove();
+                advance(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private void reset() {
+            this.acked = 0;
+            this.watermark = 0;
+            this.last = 0;
+            this.ready = 0;
+            this.ahead.clear();
+        }
+    }
+}
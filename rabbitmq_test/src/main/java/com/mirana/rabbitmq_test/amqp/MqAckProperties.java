@@ -0,0 +1,29 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 手动应答合并配置，前缀 mq.ack，见 {@link MqAckCoalescer}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.ack")
+public class MqAckProperties {
+
+    /**
+     * 是否合并 ack，不启用时每条消息单独 basicAck
+     */
+    private boolean enabled = false;
+
+    /**
+     * 一个 channel 攒够这么多条待确认的消息就发送一次 basicAck(multiple=true)，应不超过 prefetch 的一半
+     */
+    private int count = 25;
+
+    /**
+     * 待确认的消息最多等待的毫秒数
+     */
+    private long interval = 10;
+}
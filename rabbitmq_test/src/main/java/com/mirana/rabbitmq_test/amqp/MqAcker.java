@@ -0,0 +1,194 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 手动应答
+ * <p>
+ * 批量发送的消息被容器拆包后，每条拆包消息共享同一个 deliveryTag，
+ * 直接对每条消息 basicAck 会重复应答同一个 deliveryTag，导致 channel 被 broker 关闭（unknown delivery tag）。
+ * 这里按 {@link MqBatchingStrategy#BATCH_SIZE_HEADER} 计数，最后一条拆包消息处理完才 ack；
+ * 任意一条 nack/reject 立即生效，同批次剩下的消息不再应答。
+ * 每次调用都按消息计入 mq.consume.outcome 指标和 {@link MqFlightRecorder}。
+ * 应答经 {@link MqAckCoalescer} 合并后发送，监听方法不直接调用 channel
+ */
+@Component
+public class MqAcker {
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    private MqFlightRecorder flightRecorder;
+
+    @Autowired
+    private MqAckCoalescer coalescer;
+
+    /**
+     * 同一个 channel 的消息由同一个消费者线程依次处理，记录当前线程最后应答的 deliveryTag
+     */
+    private final ThreadLocal<FragmentState> fragments = ThreadLocal.withInitial(FragmentState::new);
+
+    public void ack(Channel channel, Message<?> msg, boolean multiple) throws IOException {
+        long deliveryTag = deliveryTag(msg);
+        record(msg, deliveryTag, MqMetrics.ACK);
+        if (settle(channel, deliveryTag, batchSize(msg), true)) {
+            this.coalescer.ack(channel, deliveryTag, multiple);
+        }
+    }
+
+    public void nack(Channel channel, Message<?> msg, boolean multiple, boolean requeue) throws IOException {
+        long deliveryTag = deliveryTag(msg);
+        record(msg, deliveryTag, MqMetrics.NACK);
+        if (settle(channel, deliveryTag, batchSize(msg), false)) {
+            this.coalescer.nack(channel, deliveryTag, multiple, requeue);
+        }
+    }
+
+    public void reject(Channel channel, Message<?> msg, boolean requeue) throws IOException {
+        long deliveryTag = deliveryTag(msg);
+        record(msg, deliveryTag, MqMetrics.REJECT);
+        if (settle(channel, deliveryTag, batchSize(msg), false)) {
+            this.coalescer.reject(channel, deliveryTag, requeue);
+        }
+    }
+
+    /**
+     * {@link MqDedupInterceptor} 丢弃的重复消息，计入 duplicate
+     *
+     * @param manualAck 手动应答模式下在这里 ack，自动应答由容器 ack
+     */
+    public void duplicate(Channel channel, org.springframework.amqp.core.Message message, boolean manualAck) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        record(properties, MqMetrics.DUPLICATE);
+        if (manualAck) {
+            this.coalescer.ack(channel, properties.getDeliveryTag(), false);
+        }
+    }
+
+    /**
+     * {@link MqUndecodableInterceptor} 拒绝的不能解压的消息，计入 reject，不重新入队
+     *
+     * @param manualAck 手动应答模式下在这里 reject，自动应答由容器 reject
+     */
+    public void undecodable(Channel channel, org.springframework.amqp.core.Message message, boolean manualAck) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        record(properties, MqMetrics.REJECT);
+        if (manualAck) {
+            this.coalescer.reject(channel, properties.getDeliveryTag(), false);
+        }
+    }
+
+    /**
+     * {@link MqBrokerRetryInterceptor} 转发到重试队列或停放队列的消息，计入 retry/parked
+     *
+     * @param batchSize 批量拆包的条数
+     * @param manualAck 手动应答模式下在这里 ack，自动应答由容器 ack
+     */
+    public void retried(Channel channel, org.springframework.amqp.core.Message message, int batchSize,
+                        String outcome, boolean manualAck) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        record(properties, outcome);
+        if (manualAck && settle(channel, properties.getDeliveryTag(), batchSize, true)) {
+            this.coalescer.ack(channel, properties.getDeliveryTag(), false);
+        }
+    }
+
+    /**
+     * {@link MqBrokerRetryInterceptor} 转发失败，手动应答模式下 nack 并重新入队
+     */
+    public void requeue(Channel channel, org.springframework.amqp.core.Message message, int batchSize) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        record(properties, MqMetrics.NACK);
+        if (settle(channel, properties.getDeliveryTag(), batchSize, false)) {
+            this.coalescer.nack(channel, properties.getDeliveryTag(), false, true);
+        }
+    }
+
+    /**
+     * {@link MqListenerFailureInterceptor} 处理监听方法抛出的异常，手动应答模式下监听方法没有应答时 nack，
+     * 以免 {@link MqAckCoalescer} 的连续部分一直停在这条消息之前
+     */
+    public void failed(Channel channel, org.springframework.amqp.core.Message message, boolean requeue) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        long deliveryTag = properties.getDeliveryTag();
+        FragmentState state = this.fragments.get();
+        if (state.channel == channel && state.deliveryTag == deliveryTag && state.settled) {
+            // 监听方法应答后才抛出异常，或者同批次的消息已经 nack
+            return;
+        }
+        Object batchSize = properties.getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER);
+        record(properties, MqMetrics.NACK);
+        if (settle(channel, deliveryTag, batchSize instanceof Integer ? (Integer) batchSize : 1, false)) {
+            this.coalescer.nack(channel, deliveryTag, false, requeue);
+        }
+    }
+
+    /**
+     * @return true 需要向 broker 发送应答
+     */
+    private boolean settle(Channel channel, long deliveryTag, int batchSize, boolean ack) {
+        FragmentState state = this.fragments.get();
+        if (state.channel != channel || state.deliveryTag != deliveryTag) {
+            state.channel = channel;
+            state.deliveryTag = deliveryTag;
+            state.seen = 0;
+            state.settled = false;
+        }
+        if (batchSize <= 1) {
+            state.settled = true;
+            return true;
+        }
+        state.seen++;
+        if (state.settled) {
+            return false;
+        }
+        if (!ack || state.seen >= batchSize) {
+            state.settled = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void record(Message<?> msg, long deliveryTag, String outcome) {
+        String queue = queue(msg);
+        this.metrics.outcome(queue, outcome);
+        this.flightRecorder.settled(queue, msg.getHeaders().get(AmqpHeaders.MESSAGE_ID, String.class), deliveryTag, outcome);
+    }
+
+    private void record(MessageProperties properties, String outcome) {
+        this.metrics.outcome(properties.getConsumerQueue(), outcome);
+        this.flightRecorder.settled(properties.getConsumerQueue(), properties.getMessageId(), properties.getDeliveryTag(), outcome);
+    }
+
+    private static long deliveryTag(Message<?> msg) {
+        return (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
+    }
+
+    private static String queue(Message<?> msg) {
+        return msg.getHeaders().get(AmqpHeaders.CONSUMER_QUEUE, String.class);
+    }
+
+    private static int batchSize(Message<?> msg) {
+        Integer batchSize = msg.getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER, Integer.class);
+        return batchSize == null ? 1 : batchSize;
+    }
+
+    private static final class FragmentState {
+
+        private Channel channel;
+
+        private long deliveryTag;
+
+        private int seen;
+
+        private boolean settled;
+    }
+}
@@ -0,0 +1,48 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量消费配置，前缀 mq.consumer.batch
+ * 列在 queues 里的队列改由 {@link MqBatchReceiver} 批量消费，MqReceiver 中对应的单条监听不再启动
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.consumer.batch")
+public class MqBatchListenerProperties {
+
+    /**
+     * 批量消费的队列
+     */
+    private List<String> queues = new ArrayList<>();
+
+    /**
+     * 每批最多消息条数，不能大于容器的 prefetch，否则启动失败，见 {@link BatchingMessageListener#configure}
+     */
+    private int size = 50;
+
+    /**
+     * 第一条消息到达后最多等待的毫秒数
+     */
+    private long receiveTimeout = 100;
+
+    /**
+     * 处理失败的消息 nack 时是否重回队列，false 进入死信队列或丢弃
+     */
+    private boolean requeueFailed = false;
+
+    /**
+     * 在 @RabbitListener 的 autoStartup 表达式中使用
+     *
+     * @param queue 队列名称
+     * @return 该队列是否批量消费
+     */
+    public boolean handles(String queue) {
+        return this.queues.contains(queue);
+    }
+}
@@ -0,0 +1,30 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量发送配置，前缀 mq.batch
+ * 同一个 exchange/routingKey 的消息合并成一条发送，条数、字节数、等待时间任意一个先到达就发送
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.batch")
+public class MqBatchProperties {
+
+    /**
+     * 每批最多消息条数
+     */
+    private int size = 100;
+
+    /**
+     * 每批最多字节数（消息体 + 每条4字节长度头）
+     */
+    private int bufferLimit = 64 * 1024;
+
+    /**
+     * 第一条消息进入缓冲区后最多等待的毫秒数
+     */
+    private long timeout = 50;
+}
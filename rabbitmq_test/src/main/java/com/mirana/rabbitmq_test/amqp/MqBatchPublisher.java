@@ -0,0 +1,70 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.BatchingRabbitTemplate;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * 批量发送器
+ * BatchingRabbitTemplate 不注册为 bean，否则会顶替 springboot 自动配置的 RabbitTemplate
+ */
+@Slf4j
+@Component
+public class MqBatchPublisher {
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private MqBatchProperties properties;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private BatchingRabbitTemplate batchingRabbitTemplate;
+
+    @PostConstruct
+    public void init() {
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-batch-");
+        this.scheduler.initialize();
+
+        MqBatchingStrategy batchingStrategy = new MqBatchingStrategy(this.properties.getSize(),
+                this.properties.getBufferLimit(), this.properties.getTimeout());
+        this.batchingRabbitTemplate = new BatchingRabbitTemplate(batchingStrategy, this.scheduler);
+        this.batchingRabbitTemplate.setConnectionFactory(this.connectionFactory);
+        this.batchingRabbitTemplate.setMessageConverter(this.rabbitTemplate.getMessageConverter());
+        // 与 publisher-returns=true 保持一致，路由不到队列时退回
+        this.batchingRabbitTemplate.setMandatory(true);
+
+        log.info("批量发送已就绪, size: {}, bufferLimit: {}, timeout: {}ms",
+                this.properties.getSize(), this.properties.getBufferLimit(), this.properties.getTimeout());
+    }
+
+    public RabbitTemplate getTemplate() {
+        return this.batchingRabbitTemplate;
+    }
+
+    /**
+     * 立即发送所有未满的批次
+     */
+    public void flush() {
+        this.batchingRabbitTemplate.flush();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+        this.scheduler.shutdown();
+    }
+}
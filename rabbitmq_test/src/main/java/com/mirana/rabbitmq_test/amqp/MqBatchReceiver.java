@@ -0,0 +1,89 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.ListenerContainerIdleEvent;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 批量消费者
+ * 为 mq.consumer.batch.queues 中的每个队列注册一个批量监听，一批消息只发送一次 ack。
+ * 容器的空闲事件在消费线程上发布，转给对应的 {@link BatchingMessageListener} 处理不足一批的消息
+ */
+@Slf4j
+@Component
+public class MqBatchReceiver implements RabbitListenerConfigurer {
+
+    @Autowired
+    private MqBatchListenerProperties properties;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    private MqLoadRecorder loadRecorder;
+
+    @Autowired
+    private MqAckCoalescer ackCoalescer;
+
+    /**
+     * 监听 id -> 监听器
+     */
+    private final Map<String, BatchingMessageListener> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        if (this.properties.getQueues().isEmpty()) {
+            return;
+        }
+        for (String queue : this.properties.getQueues()) {
+            BatchingMessageListener listener = new BatchingMessageListener(messages -> processBatch(queue, messages),
+                    this.properties.getSize(), this.properties.getReceiveTimeout(), this.properties.isRequeueFailed(),
+                    queue, this.metrics, this.ackCoalescer);
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint() {
+
+                @Override
+                public void setupListenerContainer(MessageListenerContainer listenerContainer) {
+                    super.setupListenerContainer(listenerContainer);
+                    listener.configure(listenerContainer);
+                }
+            };
+            endpoint.setId("batch-" + queue);
+            endpoint.setQueueNames(queue);
+            endpoint.setMessageListener(listener);
+            this.listeners.put(endpoint.getId(), listener);
+            registrar.registerEndpoint(endpoint);
+            log.info("{} 批量消费, size: {}, receiveTimeout: {}ms", queue, this.properties.getSize(), this.properties.getReceiveTimeout());
+        }
+    }
+
+    /**
+     * 在发布事件的消费线程上处理这个线程不足一批的消息
+     */
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        BatchingMessageListener listener = this.listeners.get(event.getListenerId());
+        if (listener != null) {
+            listener.flush();
+        }
+    }
+
+    private List<Message> processBatch(String queue, List<Message> messages) {
+        for (Message message : messages) {
+            loadRecorder.received(message);
+            log.info("{} Batch Receiver : {}", queue, LazyPayload.of(message));
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,141 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.support.BatchingStrategy;
+import org.springframework.amqp.rabbit.core.support.MessageBatch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 exchange/routingKey 分别缓冲的批量策略
+ * <p>
+ * 消息格式与 SimpleBatchingStrategy 相同（每条消息 4 字节长度 + 消息体），监听容器会自动拆包；
+ * 额外写入 {@link #BATCH_SIZE_HEADER}，消费者据此在最后一条拆包消息处理完后才应答。
+ * 批次的消息属性取第一条消息的属性，同一批次内的消息应使用相同的属性（过期时间、延时、头信息）
+ */
+public class MqBatchingStrategy implements BatchingStrategy {
+
+    /**
+     * 批次内消息条数，拆包后的每条消息共享同一个 deliveryTag
+     */
+    public static final String BATCH_SIZE_HEADER = "mq_batch_size";
+
+    private final int batchSize;
+
+    private final int bufferLimit;
+
+    private final long timeout;
+
+    private final Map<String, Buffer> buffers = new LinkedHashMap<>();
+
+    public MqBatchingStrategy(int batchSize, int bufferLimit, long timeout) {
+        this.batchSize = batchSize;
+        this.bufferLimit = bufferLimit;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public MessageBatch addToBatch(String exchange, String routingKey, Message message) {
+        String key = exchange + "/" + routingKey;
+        Buffer buffer = this.buffers.get(key);
+        if (buffer == null) {
+            buffer = new Buffer(exchange, routingKey);
+            this.buffers.put(key, buffer);
+        }
+
+        MessageBatch batch = null;
+        int bufferUse = 4 + message.getBody().length;
+        // 放不下就先把当前批次发出去
+        if (!buffer.messages.isEmpty() && buffer.size + bufferUse > this.bufferLimit) {
+            batch = buffer.release();
+        }
+        buffer.add(message, bufferUse);
+        if (batch == null && (buffer.messages.size() >= this.batchSize || buffer.size >= this.bufferLimit)) {
+            batch = buffer.release();
+        }
+        return batch;
+    }
+
+    @Override
+    public Date nextRelease() {
+        long next = Long.MAX_VALUE;
+        for (Buffer buffer : this.buffers.values()) {
+            if (!buffer.messages.isEmpty()) {
+                next = Math.min(next, buffer.firstAdded + this.timeout);
+            }
+        }
+        return next == Long.MAX_VALUE ? null : new Date(next);
+    }
+
+    @Override
+    public Collection<MessageBatch> releaseBatches() {
+        List<MessageBatch> batches = new ArrayList<>();
+        Iterator<Buffer> iterator = this.buffers.values().iterator();
+        while (iterator.hasNext()) {
+            Buffer buffer = iterator.next();
+            if (!buffer.messages.isEmpty()) {
+                batches.add(buffer.release());
+            }
+            // 空闲的缓冲区直接丢弃，避免 routingKey 很多时一直占用内存
+            iterator.remove();
+        }
+        return batches;
+    }
+
+    private static final class Buffer {
+
+        private final String exchange;
+
+        private final String routingKey;
+
+        private final List<Message> messages = new ArrayList<>();
+
+        private int size;
+
+        private long firstAdded;
+
+        private Buffer(String exchange, String routingKey) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+        }
+
+        private void add(Message message, int bufferUse) {
+            if (this.messages.isEmpty()) {
+                this.firstAdded = System.currentTimeMillis();
+            }
+            this.messages.add(message);
+            this.size += bufferUse;
+        }
+
+        private MessageBatch release() {
+            Message message = assemble();
+            this.messages.clear();
+            this.size = 0;
+            return new MessageBatch(this.exchange, this.routingKey, message);
+        }
+
+        private Message assemble() {
+            if (this.messages.size() == 1) {
+                return this.messages.get(0);
+            }
+            MessageProperties messageProperties = this.messages.get(0).getMessageProperties();
+            byte[] body = new byte[this.size];
+            ByteBuffer bytes = ByteBuffer.wrap(body);
+            for (Message message : this.messages) {
+                bytes.putInt(message.getBody().length);
+                bytes.put(message.getBody());
+            }
+            messageProperties.setHeader(MessageProperties.SPRING_BATCH_FORMAT, MessageProperties.BATCH_FORMAT_LENGTH_HEADER4);
+            messageProperties.setHeader(BATCH_SIZE_HEADER, this.messages.size());
+            return new Message(body, messageProperties);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * broker 端重试
+ * <p>
+ * spring.rabbitmq.listener.*.retry 在监听线程里 sleep 后重试，失败的消息会占住消费者，后面正常的消息只能等待。
+ * 这里把失败的消息重新发送到重试队列 {队列}.retry.{延时}，重试队列没有消费者，x-message-ttl 到期后
+ * 经默认交换机死信转发回原队列，消费者线程不等待。每次重试的延时按 mq.retry.multiplier 递增，
+ * 同一个重试队列里的消息 ttl 相同，不会互相阻塞。
+ * <p>
+ * 已重试次数从 x-death 消息头中读取：broker 每次从重试队列死信转发时把对应条目的 count 加一。
+ * 超过 mq.retry.max-attempts 的消息进入停放队列 {队列}.parking，等待人工处理
+ */
+@Component
+public class MqBrokerRetry {
+
+    public static final String X_DEATH = "x-death";
+
+    /**
+     * 进入停放队列前的最后一次异常
+     */
+    public static final String HEADER_EXCEPTION = "x-exception-message";
+
+    private final MqRetryProperties properties;
+
+    /**
+     * 第 i 次重试的延时
+     */
+    private final long[] delays;
+
+    public MqBrokerRetry(MqRetryProperties properties) {
+        this.properties = properties;
+        this.delays = new long[Math.max(0, properties.getMaxAttempts())];
+        double delay = properties.getInitialInterval();
+        for (int i = 0; i < this.delays.length; i++) {
+            this.delays[i] = Math.min((long) delay, properties.getMaxInterval());
+            delay *= properties.getMultiplier();
+        }
+    }
+
+    public long[] getDelays() {
+        return this.delays.clone();
+    }
+
+    /**
+     * @param attempts 已重试的次数
+     * @return 下一次重试的队列，次数用完返回 null
+     */
+    public String retryQueue(String queue, long attempts) {
+        if (attempts >= this.delays.length) {
+            return null;
+        }
+        return queue + this.properties.getRetrySuffix() + "." + this.delays[(int) attempts];
+    }
+
+    public String parkingQueue(String queue) {
+        return queue + this.properties.getParkingSuffix();
+    }
+
+    /**
+     * @return 消息从 queue 的重试队列死信转发回来的次数
+     */
+    public long attempts(MessageProperties messageProperties, String queue) {
+        Object xDeath = messageProperties.getHeaders().get(X_DEATH);
+        if (!(xDeath instanceof List)) {
+            return 0;
+        }
+        String prefix = queue + this.properties.getRetrySuffix() + ".";
+        long attempts = 0;
+        for (Object entry : (List<?>) xDeath) {
+            if (!(entry instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> death = (Map<?, ?>) entry;
+            Object deathQueue = death.get("queue");
+            Object count = death.get("count");
+            if (deathQueue != null && deathQueue.toString().startsWith(prefix)
+                    && "expired".equals(String.valueOf(death.get("reason"))) && count instanceof Number) {
+                attempts += ((Number) count).longValue();
+            }
+        }
+        return attempts;
+    }
+
+    /**
+     * @return 每个队列的重试队列和停放队列，都通过默认交换机按队列名称发送，不需要绑定
+     */
+    public Declarables declarables(Collection<String> queues) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (String queue : queues) {
+            // 延时达到上限后重试队列相同
+            Set<String> retryQueues = new LinkedHashSet<>();
+            for (int i = 0; i < this.delays.length; i++) {
+                String retryQueue = retryQueue(queue, i);
+                if (retryQueues.add(retryQueue)) {
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("x-message-ttl", this.delays[i]);
+                    args.put(RabbitMqConfig.DEAD_LETTER_EXCHANGE_KEY, "");
+                    args.put(RabbitMqConfig.DEAD_LETTER_ROUTING_KEY, queue);
+                    declarables.add(QueueBuilder.durable(retryQueue).withArguments(args).build());
+                }
+            }
+            declarables.add(QueueBuilder.durable(parkingQueue(queue)).build());
+        }
+        return new Declarables(declarables);
+    }
+}
@@ -0,0 +1,127 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.ImmediateRequeueAmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.core.NestedExceptionUtils;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 监听容器的 advice，替换 spring.rabbitmq.listener.*.retry 的重试 advice，见 {@link MqBrokerRetry}
+ * <p>
+ * 监听方法抛出异常时，把消息重新发送到下一个重试队列或停放队列，broker 确认后应答原消息。
+ * 重新发送失败时原消息 requeue，稍后再次投递。
+ * 批量拆包的消息逐条重新发送，同批次最后一条处理完才应答。
+ * 容器拆包时同批次的消息共用一个 MessageProperties，这里只修改复制出的消息，
+ * 复制的消息去掉拆包的消息头，messageId 加上 #序号，重试回来后按单条消息去重
+ */
+@Slf4j
+public class MqBrokerRetryInterceptor implements MethodInterceptor {
+
+    private final MqBrokerRetry retry;
+
+    private final MqSender sender;
+
+    private final MqAcker acker;
+
+    /**
+     * 手动应答时由这里应答，自动应答时返回后由容器应答
+     */
+    private final boolean manualAck;
+
+    /**
+     * 同一个 channel 的消息由同一个消费者线程依次处理
+     */
+    private final ThreadLocal<FragmentState> fragments = ThreadLocal.withInitial(FragmentState::new);
+
+    public MqBrokerRetryInterceptor(MqBrokerRetry retry, MqSender sender, MqAcker acker, boolean manualAck) {
+        this.retry = retry;
+        this.sender = sender;
+        this.acker = acker;
+        this.manualAck = manualAck;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // ContainerDelegate.invokeListener(Channel channel, Message message)
+        Channel channel = (Channel) invocation.getArguments()[0];
+        Message message = (Message) invocation.getArguments()[1];
+        Object batchSize = message.getMessageProperties().getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER);
+        int fragments = batchSize instanceof Integer ? (Integer) batchSize : 1;
+        int index = fragments > 1 ? this.fragments.get().next(channel, message.getMessageProperties().getDeliveryTag()) : 0;
+        try {
+            return invocation.proceed();
+        } catch (Throwable e) {
+            recover(channel, message, fragments, index, e);
+            return null;
+        }
+    }
+
+    private void recover(Channel channel, Message message, int fragments, int index, Throwable e) throws Exception {
+        MessageProperties properties = message.getMessageProperties();
+        String queue = properties.getConsumerQueue();
+        long attempts = this.retry.attempts(properties, queue);
+        String target = this.retry.retryQueue(queue, attempts);
+        String outcome = MqMetrics.RETRY;
+        String cause = NestedExceptionUtils.getMostSpecificCause(e).toString();
+        Message copy = MessageBuilder.fromClonedMessage(message).build();
+        MessageProperties copyProperties = copy.getMessageProperties();
+        if (target == null) {
+            target = this.retry.parkingQueue(queue);
+            outcome = MqMetrics.PARKED;
+            copyProperties.setHeader(MqBrokerRetry.HEADER_EXCEPTION, cause);
+        }
+        if (fragments > 1) {
+            copyProperties.getHeaders().remove(MqBatchingStrategy.BATCH_SIZE_HEADER);
+            copyProperties.getHeaders().remove(MessageProperties.SPRING_BATCH_FORMAT);
+            if (properties.getMessageId() != null) {
+                copyProperties.setMessageId(properties.getMessageId() + "#" + index);
+            }
+        }
+
+        try {
+            this.sender.republish(target, copy).get();
+        } catch (InterruptedException | ExecutionException | AmqpException republishFailed) {
+            if (republishFailed instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("{} 消息 {} 转发到 {} 失败，重新入队: {}", queue, copyProperties.getMessageId(), target,
+                    republishFailed.getMessage());
+            if (!this.manualAck) {
+                throw new ImmediateRequeueAmqpException(republishFailed);
+            }
+            this.acker.requeue(channel, message, fragments);
+            return;
+        }
+        log.warn("{} 消息 {} 处理失败 {} 次，转发到 {}: {}", queue, copyProperties.getMessageId(), attempts + 1, target, cause);
+        this.acker.retried(channel, message, fragments, outcome, this.manualAck);
+    }
+
+    private static final class FragmentState {
+
+        private Channel channel;
+
+        private long deliveryTag;
+
+        private int index;
+
+        /**
+         * @return 这条拆包消息在批次中的序号，从 0 开始
+         */
+        private int next(Channel channel, long deliveryTag) {
+            if (this.channel != channel || this.deliveryTag != deliveryTag) {
+                this.channel = channel;
+                this.deliveryTag = deliveryTag;
+                this.index = 0;
+            }
+            return this.index++;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 异步批量发送任务配置，前缀 mq.bulk
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.bulk")
+public class MqBulkProperties {
+
+    /**
+     * 同时执行的发送任务数
+     */
+    private int poolSize = 4;
+
+    /**
+     * 排队等待执行的任务数，超过后提交任务会被拒绝
+     */
+    private int queueCapacity = 100;
+
+    /**
+     * SSE 推送进度的间隔毫秒数
+     */
+    private long progressInterval = 500;
+
+    /**
+     * SSE 推送使用的线程数，推送慢的客户端只占用这里的线程
+     */
+    private int ssePoolSize = 2;
+
+    /**
+     * 一次推送超过这么多毫秒还没写完，认为客户端卡住，断开这个订阅
+     */
+    private long sendTimeout = 10000;
+
+    /**
+     * 任务结束后保留多少毫秒，之后查询不到进度
+     */
+    private long retention = 10 * 60 * 1000;
+}
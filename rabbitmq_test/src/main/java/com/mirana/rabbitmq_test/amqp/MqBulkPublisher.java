@@ -0,0 +1,248 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * 异步批量发送
+ * <p>
+ * 发送循环在独立的线程池中执行，web 请求线程提交任务后立即返回任务 id，进度通过 SSE 推送。
+ * 未确认消息数达到上限时阻塞的是这里的发送线程，不会占住 tomcat 线程。
+ * <p>
+ * 定时线程只负责按间隔触发推送和清理过期任务，SSE 写入在单独的线程池中执行：
+ * 每个订阅同时最多一次推送，上一次没写完时跳过，超过 mq.bulk.send-timeout 时断开这个订阅，
+ * 卡住的客户端不影响其他订阅和过期清理
+ */
+@Slf4j
+@Component
+public class MqBulkPublisher {
+
+    @Autowired
+    private MqBulkProperties properties;
+
+    @Autowired
+    private MqSender sender;
+
+    private final Map<String, BulkPublishJob> jobs = new ConcurrentHashMap<>();
+
+    private ThreadPoolTaskExecutor executor;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private ThreadPoolTaskExecutor sseExecutor;
+
+    @PostConstruct
+    public void init() {
+        this.executor = new ThreadPoolTaskExecutor();
+        this.executor.setCorePoolSize(this.properties.getPoolSize());
+        this.executor.setMaxPoolSize(this.properties.getPoolSize());
+        this.executor.setQueueCapacity(this.properties.getQueueCapacity());
+        this.executor.setThreadNamePrefix("mq-bulk-");
+        this.executor.initialize();
+
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-bulk-progress-");
+        this.scheduler.initialize();
+        this.scheduler.scheduleWithFixedDelay(this::evict, Math.max(1000, this.properties.getRetention() / 10));
+
+        this.sseExecutor = new ThreadPoolTaskExecutor();
+        this.sseExecutor.setCorePoolSize(this.properties.getSsePoolSize());
+        this.sseExecutor.setMaxPoolSize(this.properties.getSsePoolSize());
+        this.sseExecutor.setThreadNamePrefix("mq-bulk-sse-");
+        this.sseExecutor.initialize();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (BulkPublishJob job : this.jobs.values()) {
+            job.cancel();
+        }
+        this.executor.shutdown();
+        this.scheduler.shutdown();
+        this.sseExecutor.shutdown();
+    }
+
+    /**
+     * 提交一个发送任务
+     *
+     * @param target  发送方式，只用于展示
+     * @param total   消息数量
+     * @param batch   是否批量发送
+     * @param sendOne 发送第 i 条消息
+     * @return 任务，id 用于查询进度
+     */
+    public BulkPublishJob submit(String target, int total, boolean batch,
+                                 IntFunction<CompletableFuture<CorrelationData>> sendOne) {
+        BulkPublishJob job = new BulkPublishJob(UUID.randomUUID().toString(), target, total, batch);
+        this.jobs.put(job.getId(), job);
+        try {
+            this.executor.execute(() -> run(job, total, sendOne));
+        } catch (RuntimeException e) {
+            // 线程池和等待队列都已满
+            this.jobs.remove(job.getId());
+            throw e;
+        }
+        log.info("批量发送任务 {} 已提交, {} {} 条", job.getId(), target, total);
+        return job;
+    }
+
+    public BulkPublishJob getJob(String jobId) {
+        return this.jobs.get(jobId);
+    }
+
+    /**
+     * 按 mq.bulk.progress-interval 推送进度，任务结束时推送 done 事件并关闭连接
+     */
+    public SseEmitter subscribe(BulkPublishJob job) {
+        // 不设超时，任务结束时关闭
+        SseEmitter emitter = new SseEmitter(0L);
+        ProgressStream stream = new ProgressStream(job, emitter, this.sseExecutor, this.properties.getSendTimeout());
+        emitter.onCompletion(stream::close);
+        emitter.onTimeout(stream::close);
+        stream.future = this.scheduler.scheduleAtFixedRate(stream, this.properties.getProgressInterval());
+        return emitter;
+    }
+
+    private void run(BulkPublishJob job, int total, IntFunction<CompletableFuture<CorrelationData>> sendOne) {
+        String error = null;
+        try {
+            for (int i = 0; i < total && !job.isCancelled(); i++) {
+                CompletableFuture<CorrelationData> future = sendOne.apply(i);
+                job.sent();
+                if (!job.isBatch()) {
+                    future.whenComplete(job::confirmed);
+                }
+            }
+            if (job.isBatch()) {
+                this.sender.flushBatch();
+            }
+        } catch (Exception e) {
+            log.error("批量发送任务 {} 失败", job.getId(), e);
+            error = e.getMessage();
+        } finally {
+            job.sendFinished(error);
+        }
+        log.info("批量发送任务 {} 发送结束: {}", job.getId(), job.progress());
+    }
+
+    private void evict() {
+        long expired = System.currentTimeMillis() - this.properties.getRetention();
+        this.jobs.values().removeIf(job -> job.getFinishTime() != 0 && job.getFinishTime() < expired);
+    }
+
+    /**
+     * run 在定时线程上执行，只提交推送；send 在 SSE 线程池中执行
+     */
+    static final class ProgressStream implements Runnable {
+
+        private final BulkPublishJob job;
+
+        private final SseEmitter emitter;
+
+        private final ThreadPoolTaskExecutor sseExecutor;
+
+        private final long sendTimeout;
+
+        /**
+         * 正在推送的开始时间，0 表示没有在推送
+         */
+        private final AtomicLong sendingSince = new AtomicLong();
+
+        private volatile Future<?> sending;
+
+        private volatile ScheduledFuture<?> future;
+
+        private volatile boolean closed;
+
+        ProgressStream(BulkPublishJob job, SseEmitter emitter, ThreadPoolTaskExecutor sseExecutor, long sendTimeout) {
+            this.job = job;
+            this.emitter = emitter;
+            this.sseExecutor = sseExecutor;
+            this.sendTimeout = sendTimeout;
+        }
+
+        @Override
+        public void run() {
+            if (this.closed) {
+                close();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long since = this.sendingSince.get();
+            if (since != 0) {
+                if (now - since > this.sendTimeout) {
+                    log.warn("批量发送任务 {} 的进度推送 {}ms 未完成，断开订阅", this.job.getId(), now - since);
+                    close();
+                    Future<?> sending = this.sending;
+                    if (sending != null) {
+                        sending.cancel(true);
+                    }
+                }
+                // 上一次还没写完，跳过这次
+                return;
+            }
+            if (!this.sendingSince.compareAndSet(0, now)) {
+                return;
+            }
+            try {
+                this.sending = this.sseExecutor.submit(this::send);
+            } catch (TaskRejectedException e) {
+                this.sendingSince.set(0);
+            }
+        }
+
+        void send() {
+            try {
+                if (this.closed) {
+                    return;
+                }
+                BulkPublishProgress progress = this.job.progress();
+                this.emitter.send(SseEmitter.event()
+                        .id(String.valueOf(progress.getSent()))
+                        .name(progress.isDone() ? "done" : "progress")
+                        .data(progress));
+                // 超时断开后才写完的，这里结束请求
+                if (progress.isDone() || this.closed) {
+                    this.emitter.complete();
+                    close();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // 客户端断开
+                close();
+            } finally {
+                this.sendingSince.set(0);
+            }
+        }
+
+        boolean isClosed() {
+            return this.closed;
+        }
+
+        void close() {
+            this.closed = true;
+            ScheduledFuture<?> future = this.future;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
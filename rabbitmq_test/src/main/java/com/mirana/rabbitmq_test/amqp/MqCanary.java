@@ -0,0 +1,412 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 探测消息，定时经过每条路由发送一条小消息，测量从发送到被预期的队列全部收到的往返时间
+ * <p>
+ * 路由：MyDirectExchange；MyTopicExchange 上配置的每个绑定模式；MyFanoutExchange；
+ * EmailExchangeDlq 经死信转到 EmailExchangeBz；exchange_delayed。交换机在 mq.topology 中不存在或者 declare=false 的跳过。
+ * 除 fanout 外，每条路由声明自己的探测队列，路由键以 canary. 开头，不会进入业务队列，由这里注册的单独监听（自动应答）接收。
+ * topic 的探测队列绑定 canary.{序号}.{模式}，探测消息的路由键把模式中的 # 和 * 换成 canary。
+ * 死信路由的第一个队列 x-message-ttl=0 且没有消费者，消息立即过期转到 EmailExchangeBz 上的探测队列。
+ * fanout 交换机把消息复制到所有绑定的队列，无法避开业务队列，预期收到的队列取 {@link MqRouter} 的预测，
+ * 由监听容器中的 {@link MqCanaryInterceptor} 在进入监听方法之前截获。
+ * <p>
+ * 每条路由的指标 mq.canary.latency 为最近一次成功的往返毫秒数，mq.canary.failures 为连续失败的次数，
+ * nack、被退回、路由不到、mq.canary.timeout 内没有收齐都算失败，成功一次后归零
+ */
+@Slf4j
+@Component
+public class MqCanary implements RabbitListenerConfigurer, ApplicationRunner, ApplicationListener<ContextClosedEvent> {
+
+    /**
+     * 探测消息的 id，有这个消息头的消息不进入业务监听方法
+     */
+    public static final String PROBE_HEADER = "x-canary-probe";
+
+    private static final String PREFIX = "canary";
+
+    private static final byte[] BODY = PREFIX.getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private MqCanaryProperties properties;
+
+    @Autowired
+    private MqTopologyProperties topologyProperties;
+
+    @Autowired
+    private MqSender sender;
+
+    @Autowired
+    private MqRouter router;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    @Qualifier("consumerConnectionFactory")
+    private ConnectionFactory connectionFactory;
+
+    private List<Route> routes = Collections.emptyList();
+
+    /**
+     * 探测消息 id -> 还没有收齐的探测消息
+     */
+    private final Map<String, Probe> pending = new ConcurrentHashMap<>();
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (!this.properties.isEnabled()) {
+            return;
+        }
+        if (this.properties.getInterval() <= 0 || this.properties.getTimeout() <= 0) {
+            throw new IllegalArgumentException("mq.canary.interval 和 mq.canary.timeout 必须大于 0");
+        }
+        this.routes = routes(this.properties, this.topologyProperties);
+        for (Route route : this.routes) {
+            this.metrics.canary(route.name, route.latency, route.failures);
+        }
+    }
+
+    /**
+     * 启动完成、监听容器都已启动后开始发送
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (this.routes.isEmpty()) {
+            return;
+        }
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-canary-");
+        this.scheduler.initialize();
+        this.scheduler.scheduleAtFixedRate(this::probe, this.properties.getInterval());
+        log.info("探测消息已启动，间隔 {} ms，路由: {}", this.properties.getInterval(), names());
+    }
+
+    /**
+     * 在监听容器停止之前停止发送，auto-delete 的队列随消费者取消而删除，之后的探测消息都会失败
+     */
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        destroy();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+    }
+
+    /**
+     * @return 探测队列和它们的绑定，RabbitMqConfig 注册为 bean
+     */
+    public Declarables declarables() {
+        List<Declarable> declarables = new ArrayList<>();
+        this.routes.forEach(route -> declarables.addAll(route.declarables));
+        return new Declarables(declarables);
+    }
+
+    /**
+     * 探测队列使用单独的容器，不经过业务容器的重试、去重、指标 advice
+     */
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        Set<String> queues = new LinkedHashSet<>();
+        for (Route route : this.routes) {
+            if (route.queues != null) {
+                queues.addAll(route.queues);
+            }
+        }
+        if (queues.isEmpty()) {
+            return;
+        }
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(this.connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.AUTO);
+        factory.setDefaultRequeueRejected(false);
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setId(PREFIX);
+        endpoint.setQueueNames(queues.toArray(new String[0]));
+        endpoint.setMessageListener(this::received);
+        registrar.registerEndpoint(endpoint, factory);
+    }
+
+    public static boolean isProbe(MessageProperties properties) {
+        return properties.getHeaders().containsKey(PROBE_HEADER);
+    }
+
+    /**
+     * 探测队列的监听和 {@link MqCanaryInterceptor} 收到探测消息时调用，超时后才收到的忽略
+     */
+    public void received(Message message) {
+        MessageProperties messageProperties = message.getMessageProperties();
+        Object id = messageProperties.getHeaders().get(PROBE_HEADER);
+        if (id == null) {
+            return;
+        }
+        Probe probe = this.pending.get(id.toString());
+        if (probe != null && probe.remaining.remove(messageProperties.getConsumerQueue()) && probe.remaining.isEmpty()
+                && this.pending.remove(id.toString()) != null) {
+            probe.route.succeeded(Math.max(0, System.nanoTime() - probe.sentNanos
+                    - TimeUnit.MILLISECONDS.toNanos(probe.route.delay)));
+        }
+    }
+
+    /**
+     * @return 路由名称，按发送顺序
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<>(this.routes.size());
+        this.routes.forEach(route -> names.add(route.name));
+        return names;
+    }
+
+    private void probe() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(this.properties.getTimeout());
+        this.pending.forEach((id, probe) -> {
+            if (now - probe.sentNanos > timeout && this.pending.remove(id) != null) {
+                probe.route.failed("超时，未收到的队列 " + probe.remaining);
+            }
+        });
+        for (Route route : this.routes) {
+            try {
+                send(route);
+            } catch (RuntimeException e) {
+                route.failed(e.getMessage());
+            }
+        }
+    }
+
+    private void send(Route route) {
+        Set<String> queues = route.queues != null ? route.queues : this.router.route(route.exchange, route.routingKey);
+        if (queues == null || queues.isEmpty()) {
+            route.failed("路由不到任何队列");
+            return;
+        }
+        String id = UUID.randomUUID().toString();
+        Set<String> remaining = ConcurrentHashMap.newKeySet();
+        remaining.addAll(queues);
+        this.pending.put(id, new Probe(route, System.nanoTime(), remaining));
+        try {
+            this.sender.send2Exchange(route.exchange, route.routingKey, BODY, message -> {
+                MessageProperties messageProperties = message.getMessageProperties();
+                messageProperties.setHeader(PROBE_HEADER, id);
+                if (route.delay > 0) {
+                    messageProperties.setDelay(route.delay);
+                }
+                return message;
+            }, new CorrelationData(id)).whenComplete((correlationData, e) -> {
+                if (e != null && this.pending.remove(id) != null) {
+                    route.failed((e instanceof CompletionException && e.getCause() != null ? e.getCause() : e).getMessage());
+                }
+            });
+        } catch (RuntimeException e) {
+            this.pending.remove(id);
+            throw e;
+        }
+    }
+
+    /**
+     * @return mq.topology 中存在的交换机上的路由
+     */
+    static List<Route> routes(MqCanaryProperties properties, MqTopologyProperties topology) {
+        String prefix = properties.getQueuePrefix();
+        List<Route> routes = new ArrayList<>();
+        if (declared(topology, ConstantQueue.DirectExchange)) {
+            routes.add(Route.of("direct", ConstantQueue.DirectExchange, PREFIX + ".direct", prefix + ".direct", 0));
+        }
+        if (declared(topology, ConstantQueue.TopicExchange)) {
+            Set<String> patterns = new LinkedHashSet<>();
+            for (MqTopologyProperties.BindingDef def : topology.getBindings()) {
+                if (ConstantQueue.TopicExchange.equals(def.getExchange()) && def.getRoutingKey() != null) {
+                    patterns.add(def.getRoutingKey());
+                }
+            }
+            int i = 0;
+            for (String pattern : patterns) {
+                // 序号区分不同模式的探测队列，一个模式的探测消息不会匹配另一个
+                String bindingKey = PREFIX + "." + i + "." + pattern;
+                Route route = new Route("topic:" + pattern, ConstantQueue.TopicExchange, probeKey(bindingKey), 0,
+                        Collections.singleton(prefix + ".topic." + i));
+                route.bind(prefix + ".topic." + i, ConstantQueue.TopicExchange, bindingKey, null);
+                routes.add(route);
+                i++;
+            }
+        }
+        if (declared(topology, ConstantQueue.FanoutExchange)) {
+            routes.add(new Route("fanout", ConstantQueue.FanoutExchange, PREFIX, 0, null));
+        }
+        if (declared(topology, ConstantQueue.EMAIL_Exchange_DLQ) && declared(topology, ConstantQueue.EMAIL_Exchange_BZ)) {
+            String deadLetterKey = PREFIX + ".dlq.bz";
+            Route route = new Route("dlq", ConstantQueue.EMAIL_Exchange_DLQ, PREFIX + ".dlq", 0,
+                    Collections.singleton(prefix + ".dlq.bz"));
+            Map<String, Object> args = new LinkedHashMap<>();
+            args.put("x-message-ttl", 0);
+            args.put(RabbitMqConfig.DEAD_LETTER_EXCHANGE_KEY, ConstantQueue.EMAIL_Exchange_BZ);
+            args.put(RabbitMqConfig.DEAD_LETTER_ROUTING_KEY, deadLetterKey);
+            route.bind(prefix + ".dlq", ConstantQueue.EMAIL_Exchange_DLQ, route.routingKey, args);
+            route.bind(prefix + ".dlq.bz", ConstantQueue.EMAIL_Exchange_BZ, deadLetterKey, null);
+            routes.add(route);
+        }
+        if (declared(topology, ConstantQueue.EXCHANGE_DELAYED)) {
+            routes.add(Route.of("delayed", ConstantQueue.EXCHANGE_DELAYED, PREFIX + ".delayed", prefix + ".delayed",
+                    Math.max(0, properties.getDelay())));
+        }
+        return routes;
+    }
+
+    /**
+     * @return 匹配 topic 绑定模式的路由键，# 和 * 换成一个单词
+     */
+    static String probeKey(String pattern) {
+        String[] words = pattern.split("\\.", -1);
+        for (int i = 0; i < words.length; i++) {
+            if ("#".equals(words[i]) || "*".equals(words[i])) {
+                words[i] = PREFIX;
+            }
+        }
+        return String.join(".", words);
+    }
+
+    private static boolean declared(MqTopologyProperties topology, String exchange) {
+        for (MqTopologyProperties.ExchangeDef def : topology.getExchanges()) {
+            if (exchange.equals(def.getName())) {
+                return def.isDeclare();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一条探测路由和它的指标
+     */
+    static final class Route {
+
+        final String name;
+
+        final String exchange;
+
+        final String routingKey;
+
+        /**
+         * x-delay，毫秒
+         */
+        final int delay;
+
+        /**
+         * 预期收到的探测队列，为 null 时按 {@link MqRouter} 的预测
+         */
+        final Set<String> queues;
+
+        final List<Declarable> declarables = new ArrayList<>();
+
+        /**
+         * 最近一次成功的往返纳秒数，还没有成功过为 -1
+         */
+        final AtomicLong latency = new AtomicLong(-1);
+
+        /**
+         * 连续失败的次数
+         */
+        final AtomicInteger failures = new AtomicInteger();
+
+        private Route(String name, String exchange, String routingKey, int delay, Set<String> queues) {
+            this.name = name;
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.delay = delay;
+            this.queues = queues;
+        }
+
+        /**
+         * @return 一个探测队列按路由键绑定到交换机上的路由
+         */
+        private static Route of(String name, String exchange, String routingKey, String queue, int delay) {
+            Route route = new Route(name, exchange, routingKey, delay, Collections.singleton(queue));
+            route.bind(queue, exchange, routingKey, null);
+            return route;
+        }
+
+        private void bind(String queue, String exchange, String routingKey, Map<String, Object> args) {
+            this.declarables.add(QueueBuilder.nonDurable(queue).autoDelete().withArguments(
+                    args == null ? Collections.emptyMap() : args).build());
+            this.declarables.add(new Binding(queue, Binding.DestinationType.QUEUE, exchange, routingKey,
+                    Collections.emptyMap()));
+        }
+
+        private void succeeded(long nanos) {
+            this.latency.set(nanos);
+            int failed = this.failures.getAndSet(0);
+            if (failed > 0) {
+                log.info("探测 {} 恢复，之前连续失败 {} 次", this.name, failed);
+            }
+        }
+
+        private void failed(String reason) {
+            if (this.failures.incrementAndGet() == 1) {
+                log.warn("探测 {} 失败: {}", this.name, reason);
+            } else {
+                log.debug("探测 {} 失败: {}", this.name, reason);
+            }
+        }
+    }
+
+    private static final class Probe {
+
+        private final Route route;
+
+        private final long sentNanos;
+
+        private final Set<String> remaining;
+
+        private Probe(Route route, long sentNanos, Set<String> remaining) {
+            this.route = route;
+            this.sentNanos = sentNanos;
+            this.remaining = remaining;
+        }
+    }
+}
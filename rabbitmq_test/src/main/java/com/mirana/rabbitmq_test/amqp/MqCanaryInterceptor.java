@@ -0,0 +1,43 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+
+/**
+ * 监听容器的第一个 advice，截获经过业务队列的探测消息（fanout），交给 {@link MqCanary} 后直接应答，
+ * 不进入重试、去重、指标和监听方法
+ */
+public class MqCanaryInterceptor implements MethodInterceptor {
+
+    private final MqCanary canary;
+
+    private final MqAckCoalescer ackCoalescer;
+
+    /**
+     * 手动应答时由这里应答探测消息，自动应答时返回后由容器应答
+     */
+    private final boolean manualAck;
+
+    public MqCanaryInterceptor(MqCanary canary, MqAckCoalescer ackCoalescer, boolean manualAck) {
+        this.canary = canary;
+        this.ackCoalescer = ackCoalescer;
+        this.manualAck = manualAck;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // ContainerDelegate.invokeListener(Channel channel, Message message)
+        Message message = (Message) invocation.getArguments()[1];
+        if (!MqCanary.isProbe(message.getMessageProperties())) {
+            return invocation.proceed();
+        }
+        this.canary.received(message);
+        if (this.manualAck) {
+            Channel channel = (Channel) invocation.getArguments()[0];
+            this.ackCoalescer.ack(channel, message.getMessageProperties().getDeliveryTag(), false);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 探测消息配置，前缀 mq.canary，见 {@link MqCanary}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.canary")
+public class MqCanaryProperties {
+
+    /**
+     * 是否声明探测队列并定时发送探测消息
+     */
+    private boolean enabled;
+
+    /**
+     * 每条路由发送探测消息的间隔，毫秒
+     */
+    private long interval = 5000;
+
+    /**
+     * 发送后这么久还没有被全部预期的队列收到，记为一次失败，毫秒
+     */
+    private long timeout = 30000;
+
+    /**
+     * 经过 exchange_delayed 的探测消息的 x-delay，毫秒，从往返时间中扣除
+     */
+    private int delay = 100;
+
+    /**
+     * 探测队列名称为 {queuePrefix}.{路由}
+     */
+    private String queuePrefix = "mq.canary";
+}
@@ -0,0 +1,329 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息体压缩
+ * <p>
+ * 发送端在 RabbitTemplate 的 beforePublishPostProcessors 中压缩，批量发送时压缩整批；
+ * 消费端在监听容器的 afterReceivePostProcessors 中解压，先于拆包和监听方法执行。
+ * content-encoding 与 spring-amqp 的约定相同：压缩后为 {codec}:{原编码}，解压后还原为原编码，
+ * 没有压缩标记的消息原样交给监听方法，因此可以先升级消费端，再打开发送端的压缩或者更换 codec。
+ * <p>
+ * 不使用 GZIPOutputStream/GZIPInputStream，它们每次新建 Deflater/Inflater 并分配本地内存。
+ * 这里每个线程复用一个 Deflater/Inflater 和一个不超过 1MB 的缓冲区，发送线程和消费线程都是池化的。
+ * 压缩后不比原消息小的按原消息发送。
+ * <p>
+ * 解压后的大小不超过 mq.compression.max-decompressed-size，gzip 按尾部记录的原长度先检查再分配。
+ * 不能解压的消息原样交给监听容器并打上 {@link #FAILED_HEADER}，由 {@link MqUndecodableInterceptor} 拒绝且不重新入队：
+ * 这里拿不到 channel，手动应答时容器也不会替我们拒绝
+ */
+@Slf4j
+@Component
+public class MqCompression {
+
+    public static final String GZIP = "gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * 解压失败的消息带这个头，值为失败原因
+     */
+    public static final String FAILED_HEADER = "x-decompress-failed";
+
+    /**
+     * 超过这个大小的缓冲区用完即丢，不留在线程上
+     */
+    private static final int MAX_POOLED_BUFFER = 1 << 20;
+
+    /**
+     * 没有文件名、时间等可选字段，操作系统为 unknown
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final int GZIP_TRAILER = 8;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    private final MqCompressionProperties properties;
+
+    private final ThreadLocal<Deflater> gzipDeflaters;
+
+    private final ThreadLocal<Deflater> zlibDeflaters;
+
+    private final ThreadLocal<Inflater> gzipInflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ThreadLocal<Inflater> zlibInflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private final MessagePostProcessor compressor = this::compress;
+
+    private final MessagePostProcessor decompressor = this::decompress;
+
+    public MqCompression(MqCompressionProperties properties) {
+        if (properties.getLevel() < Deflater.BEST_SPEED || properties.getLevel() > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("mq.compression.level 必须在 1 到 9 之间");
+        }
+        if (properties.getMaxDecompressedSize() <= 0 || properties.getMaxDecompressedSize() == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("mq.compression.max-decompressed-size 必须大于 0 且小于 Integer.MAX_VALUE");
+        }
+        this.properties = properties;
+        this.gzipDeflaters = ThreadLocal.withInitial(() -> new Deflater(properties.getLevel(), true));
+        this.zlibDeflaters = ThreadLocal.withInitial(() -> new Deflater(properties.getLevel()));
+    }
+
+    /**
+     * @return 发送端使用
+     */
+    public MessagePostProcessor compressor() {
+        return this.compressor;
+    }
+
+    /**
+     * @return 消费端使用
+     */
+    public MessagePostProcessor decompressor() {
+        return this.decompressor;
+    }
+
+    Message compress(Message message) {
+        MessageProperties messageProperties = message.getMessageProperties();
+        byte[] body = message.getBody();
+        if (!this.properties.isEnabled() || body == null || body.length < this.properties.getMinSize()
+                || codec(messageProperties.getContentEncoding()) != null) {
+            return message;
+        }
+        String codec = this.properties.getCodec().getEncoding();
+        byte[] compressed = GZIP.equals(codec) ? gzip(body) : deflate(body);
+        if (compressed == null) {
+            return message;
+        }
+        String encoding = messageProperties.getContentEncoding();
+        messageProperties.setContentEncoding(encoding == null ? codec : codec + ":" + encoding);
+        return new Message(compressed, messageProperties);
+    }
+
+    Message decompress(Message message) {
+        MessageProperties messageProperties = message.getMessageProperties();
+        // 只认这里打的标记，死信转回来的消息重新判断
+        messageProperties.getHeaders().remove(FAILED_HEADER);
+        String encoding = messageProperties.getContentEncoding();
+        String codec = codec(encoding);
+        if (codec == null) {
+            return message;
+        }
+        byte[] body;
+        try {
+            body = GZIP.equals(codec) ? gunzip(message.getBody()) : inflate(message.getBody());
+        } catch (DataFormatException e) {
+            // 重试也没有用，去掉批量标记，整条消息交给 MqUndecodableInterceptor 拒绝
+            log.warn("{} 解压失败，拒绝消息 {}: {}", messageProperties.getConsumerQueue(), messageProperties.getMessageId(), e.getMessage());
+            messageProperties.getHeaders().remove(MessageProperties.SPRING_BATCH_FORMAT);
+            messageProperties.setHeader(FAILED_HEADER, e.getMessage());
+            return message;
+        }
+        int separator = encoding.indexOf(':');
+        messageProperties.setContentEncoding(separator < 0 ? null : encoding.substring(separator + 1));
+        return new Message(body, messageProperties);
+    }
+
+    /**
+     * @return content-encoding 中的压缩格式，没有压缩或者不认识的格式为 null
+     */
+    private static String codec(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        int separator = encoding.indexOf(':');
+        String codec = (separator < 0 ? encoding : encoding.substring(0, separator)).trim();
+        if (GZIP.equalsIgnoreCase(codec)) {
+            return GZIP;
+        }
+        return DEFLATE.equalsIgnoreCase(codec) ? DEFLATE : null;
+    }
+
+    /**
+     * @return 不比原消息小时为 null
+     */
+    private byte[] gzip(byte[] body) {
+        if (body.length <= GZIP_HEADER.length + GZIP_TRAILER) {
+            return null;
+        }
+        byte[] buffer = buffer(body.length);
+        System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+        int length = deflate(this.gzipDeflaters.get(), body, buffer, GZIP_HEADER.length, body.length - GZIP_TRAILER);
+        if (length < 0) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        writeInt(buffer, length, (int) crc.getValue());
+        writeInt(buffer, length + 4, body.length);
+        return Arrays.copyOf(buffer, length + GZIP_TRAILER);
+    }
+
+    private byte[] deflate(byte[] body) {
+        byte[] buffer = buffer(body.length);
+        int length = deflate(this.zlibDeflaters.get(), body, buffer, 0, body.length);
+        return length < 0 ? null : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @return 写入后的结束位置，写到 end 仍未压缩完时为 -1
+     */
+    private static int deflate(Deflater deflater, byte[] input, byte[] output, int offset, int end) {
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            int position = offset;
+            while (!deflater.finished() && position < end) {
+                position += deflater.deflate(output, position, end - position);
+            }
+            return deflater.finished() ? position : -1;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private byte[] gunzip(byte[] body) throws DataFormatException {
+        if (body.length < GZIP_HEADER.length + GZIP_TRAILER || (body[0] & 0xff) != 0x1f || (body[1] & 0xff) != 0x8b
+                || body[2] != Deflater.DEFLATED) {
+            throw new DataFormatException("不是 gzip 格式");
+        }
+        int flags = body[3] & 0xff;
+        int offset = GZIP_HEADER.length;
+        try {
+            if ((flags & FEXTRA) != 0) {
+                offset += 2 + ((body[offset] & 0xff) | (body[offset + 1] & 0xff) << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                while (body[offset++] != 0) {
+                    // 跳过文件名
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (body[offset++] != 0) {
+                    // 跳过注释
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new DataFormatException("gzip 文件头不完整");
+        }
+        if ((flags & FHCRC) != 0) {
+            offset += 2;
+        }
+        int end = body.length - GZIP_TRAILER;
+        int size = readInt(body, end + 4);
+        if (offset > end) {
+            throw new DataFormatException("gzip 文件头不完整");
+        }
+        int max = this.properties.getMaxDecompressedSize();
+        if (size < 0 || size > max) {
+            throw new DataFormatException("解压后超过 " + max + " 字节");
+        }
+        // 尾部记录了原长度，直接按原长度分配结果，多出的数据不解压，CRC 对不上
+        byte[] result = new byte[size];
+        Inflater inflater = this.gzipInflaters.get();
+        try {
+            inflater.setInput(body, offset, end - offset);
+            int length = 0;
+            while (length < size) {
+                int n = inflater.inflate(result, length, size - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != size) {
+                throw new DataFormatException("gzip 数据不完整");
+            }
+        } finally {
+            inflater.reset();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(result, 0, size);
+        if ((int) crc.getValue() != readInt(body, end)) {
+            throw new DataFormatException("gzip CRC 校验失败");
+        }
+        return result;
+    }
+
+    /**
+     * 缓冲区最多比上限多 1 字节，写满说明超过上限，不再继续解压
+     */
+    private byte[] inflate(byte[] body) throws DataFormatException {
+        int max = this.properties.getMaxDecompressedSize();
+        int limit = max + 1;
+        byte[] buffer = buffer((int) Math.min(Math.max(body.length * 4L, 256), limit));
+        Inflater inflater = this.zlibInflaters.get();
+        try {
+            inflater.setInput(body);
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    if (length >= limit) {
+                        throw new DataFormatException("解压后超过 " + max + " 字节");
+                    }
+                    byte[] larger = buffer((int) Math.min(buffer.length * 2L, limit));
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("deflate 数据不完整");
+                }
+                length += n;
+            }
+            if (length > max) {
+                throw new DataFormatException("解压后超过 " + max + " 字节");
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * @return 当前线程的缓冲区，不够时分配新的，不超过 {@link #MAX_POOLED_BUFFER} 时留给下次使用
+     */
+    private byte[] buffer(int size) {
+        byte[] buffer = this.buffers.get();
+        if (buffer.length >= size) {
+            return buffer;
+        }
+        buffer = new byte[size];
+        if (size <= MAX_POOLED_BUFFER) {
+            this.buffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | (buffer[offset + 1] & 0xff) << 8
+                | (buffer[offset + 2] & 0xff) << 16 | (buffer[offset + 3] & 0xff) << 24;
+    }
+}
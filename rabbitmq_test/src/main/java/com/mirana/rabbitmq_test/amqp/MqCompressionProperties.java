@@ -0,0 +1,64 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.zip.Deflater;
+
+/**
+ * 消息体压缩配置，前缀 mq.compression，见 {@link MqCompression}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.compression")
+public class MqCompressionProperties {
+
+    /**
+     * 发送时是否压缩，关闭后消费端仍然解压收到的压缩消息
+     */
+    private boolean enabled;
+
+    private Codec codec = Codec.GZIP;
+
+    /**
+     * 消息体小于这个字节数时不压缩，小消息压缩后往往更大，还要多花 CPU
+     */
+    private int minSize = 1024;
+
+    /**
+     * 压缩级别 1-9，1 最快，9 压缩率最高
+     */
+    private int level = Deflater.BEST_SPEED;
+
+    /**
+     * 解压后的消息体最多这么多字节，超过的按解压失败拒绝，防止很小的压缩消息解压出几个 GB
+     */
+    private int maxDecompressedSize = 16 * 1024 * 1024;
+
+    public enum Codec {
+
+        /**
+         * 与 spring-amqp 的 GZipPostProcessor/GUnzipPostProcessor 互通，对方解压时需要 alwaysDecompress=true
+         */
+        GZIP(MqCompression.GZIP),
+
+        /**
+         * zlib 格式，没有 gzip 的文件头，比 gzip 少 12 字节
+         */
+        DEFLATE(MqCompression.DEFLATE);
+
+        private final String encoding;
+
+        Codec(String encoding) {
+            this.encoding = encoding;
+        }
+
+        /**
+         * @return 写入 content-encoding 的名称
+         */
+        public String getEncoding() {
+            return this.encoding;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 发送确认配置，前缀 mq.confirm
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.confirm")
+public class MqConfirmProperties {
+
+    /**
+     * 单条消息等待 broker 确认的毫秒数，超时后 future 以 TIMEOUT 失败
+     */
+    private long timeout = 10 * 1000;
+
+    /**
+     * 最多允许多少条消息未确认，超过后发送线程阻塞等待
+     */
+    private int maxInFlight = 10000;
+
+    /**
+     * 未确认消息达到上限时，发送线程最多等待的毫秒数
+     */
+    private long acquireTimeout = 30 * 1000;
+}
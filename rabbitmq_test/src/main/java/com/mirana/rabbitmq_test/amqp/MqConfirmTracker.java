@@ -0,0 +1,183 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 未确认消息表，按 correlation id 记录每条消息的 future
+ * <p>
+ * ack 时 future 正常完成；nack、被退回、超时则以 {@link PublishConfirmException} 失败。
+ * 未确认消息数达到 mq.confirm.max-in-flight 后，发送线程阻塞等待，broker 变慢时内存不会无限增长
+ */
+@Slf4j
+@Component
+public class MqConfirmTracker {
+
+    @Autowired
+    private MqConfirmProperties properties;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    private MqFlightRecorder flightRecorder;
+
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private Semaphore inFlight;
+
+    private ScheduledThreadPoolExecutor timer;
+
+    @PostConstruct
+    public void init() {
+        this.inFlight = new Semaphore(this.properties.getMaxInFlight());
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mq-confirm-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 确认到达后取消的超时任务立即移出队列
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.timer.shutdownNow();
+    }
+
+    /**
+     * 登记一条即将发送的消息，未确认消息数达到上限时阻塞
+     *
+     * @param correlationData 消息 id
+     * @param exchange        发送到的交换机，记入 {@link MqFlightRecorder}
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> track(CorrelationData correlationData, String exchange) {
+        acquire();
+        String id = correlationData.getId();
+        Pending entry = new Pending(exchange);
+        if (this.pending.putIfAbsent(id, entry) != null) {
+            this.inFlight.release();
+            throw new AmqpException("correlation id 重复: " + id);
+        }
+        entry.timeout = this.timer.schedule(() -> timeout(id, entry), this.properties.getTimeout(), TimeUnit.MILLISECONDS);
+        return entry.future;
+    }
+
+    /**
+     * ConfirmCallback 中调用
+     */
+    public void confirm(CorrelationData correlationData, boolean ack, String cause) {
+        if (correlationData == null || correlationData.getId() == null) {
+            return;
+        }
+        Pending entry = remove(correlationData.getId());
+        if (entry == null) {
+            // 已超时或者不是通过 track 发送的消息
+            return;
+        }
+        if (!ack) {
+            record(correlationData.getId(), entry, PublishConfirmException.Reason.NACK);
+            entry.future.completeExceptionally(new PublishConfirmException(PublishConfirmException.Reason.NACK,
+                    correlationData.getId(), String.valueOf(cause)));
+        } else if (correlationData.getReturnedMessage() != null) {
+            // 退回先于确认到达，被退回的消息同样会收到 ack
+            record(correlationData.getId(), entry, PublishConfirmException.Reason.RETURNED);
+            entry.future.completeExceptionally(new PublishConfirmException(PublishConfirmException.Reason.RETURNED,
+                    correlationData.getId(), "NO_ROUTE"));
+        } else {
+            record(correlationData.getId(), entry, MqMetrics.ACK);
+            entry.future.complete(correlationData);
+        }
+    }
+
+    /**
+     * 发送抛出异常时调用，释放占用的名额
+     */
+    public void cancel(CorrelationData correlationData, Throwable cause) {
+        Pending entry = remove(correlationData.getId());
+        if (entry != null) {
+            record(correlationData.getId(), entry, PublishConfirmException.Reason.SEND_FAILED);
+            entry.future.completeExceptionally(new PublishConfirmException(PublishConfirmException.Reason.SEND_FAILED,
+                    correlationData.getId(), cause));
+        }
+    }
+
+    /**
+     * @return 当前未确认的消息数
+     */
+    public int getInFlight() {
+        return this.pending.size();
+    }
+
+    private void acquire() {
+        try {
+            if (!this.inFlight.tryAcquire(this.properties.getAcquireTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new AmqpException("未确认消息数已达上限 " + this.properties.getMaxInFlight()
+                        + "，等待 " + this.properties.getAcquireTimeout() + "ms 后仍无空闲名额");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmqpException(e);
+        }
+    }
+
+    private void timeout(String id, Pending entry) {
+        // 只有仍在表中的才算超时，确认和超时同时发生时只有一方能移除成功
+        if (this.pending.remove(id, entry)) {
+            this.inFlight.release();
+            log.info("消息确认超时,id: {}", id);
+            record(id, entry, PublishConfirmException.Reason.TIMEOUT);
+            entry.future.completeExceptionally(new PublishConfirmException(PublishConfirmException.Reason.TIMEOUT,
+                    id, "等待确认超过 " + this.properties.getTimeout() + "ms"));
+        }
+    }
+
+    private Pending remove(String id) {
+        Pending entry = this.pending.remove(id);
+        if (entry != null) {
+            this.inFlight.release();
+            ScheduledFuture<?> timeout = entry.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+        return entry;
+    }
+
+    private void record(String id, Pending entry, PublishConfirmException.Reason reason) {
+        record(id, entry, reason.name().toLowerCase());
+    }
+
+    private void record(String id, Pending entry, String result) {
+        this.metrics.confirmed(entry.start, result);
+        this.flightRecorder.confirmed(entry.exchange, id, result, System.nanoTime() - entry.start);
+    }
+
+    private static final class Pending {
+
+        private final long start = System.nanoTime();
+
+        private final String exchange;
+
+        private final CompletableFuture<CorrelationData> future = new CompletableFuture<>();
+
+        private volatile ScheduledFuture<?> timeout;
+
+        private Pending(String exchange) {
+            this.exchange = exchange;
+        }
+    }
+}
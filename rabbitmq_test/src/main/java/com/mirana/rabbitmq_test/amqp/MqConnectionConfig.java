@@ -0,0 +1,75 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+/**
+ * 发送和消费使用不同的连接
+ * <p>
+ * broker 内存或磁盘告警时会阻塞正在发送消息的连接（connection.blocked），
+ * 发送和消费共用一个连接时消费也跟着停下，队列越积越多。
+ * 分开后：RabbitTemplate、MqBatchPublisher 使用 @Primary 的 publisherConnectionFactory，
+ * 监听容器使用 consumerConnectionFactory，队列、交换机的声明见 {@link RabbitMqConfig#rabbitAdmin}
+ */
+@Slf4j
+@Configuration
+public class MqConnectionConfig {
+
+    @Value("${spring.application.name:rabbitmq_test}")
+    private String applicationName;
+
+    @Bean
+    @Primary
+    public CachingConnectionFactory publisherConnectionFactory(RabbitProperties rabbitProperties,
+                                                               MqConnectionProperties properties) {
+        CachingConnectionFactory connectionFactory = create(rabbitProperties, properties.getPublisher(), "publisher");
+        connectionFactory.setPublisherConfirms(rabbitProperties.isPublisherConfirms());
+        connectionFactory.setPublisherReturns(rabbitProperties.isPublisherReturns());
+        return connectionFactory;
+    }
+
+    @Bean
+    public CachingConnectionFactory consumerConnectionFactory(RabbitProperties rabbitProperties,
+                                                              MqConnectionProperties properties) {
+        return create(rabbitProperties, properties.getConsumer(), "consumer");
+    }
+
+    private CachingConnectionFactory create(RabbitProperties rabbitProperties, MqConnectionProperties.Factory factory,
+                                            String purpose) {
+        CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
+        connectionFactory.setAddresses(rabbitProperties.determineAddresses());
+        connectionFactory.setUsername(rabbitProperties.determineUsername());
+        connectionFactory.setPassword(rabbitProperties.determinePassword());
+        connectionFactory.setVirtualHost(rabbitProperties.determineVirtualHost());
+        Duration heartbeat = rabbitProperties.getRequestedHeartbeat();
+        if (heartbeat != null) {
+            connectionFactory.setRequestedHeartBeat((int) heartbeat.getSeconds());
+        }
+        Duration connectionTimeout = rabbitProperties.getConnectionTimeout();
+        if (connectionTimeout != null) {
+            connectionFactory.setConnectionTimeout((int) connectionTimeout.toMillis());
+        }
+
+        connectionFactory.setCacheMode(factory.getCacheMode());
+        connectionFactory.setChannelCacheSize(factory.getChannelCacheSize());
+        connectionFactory.setChannelCheckoutTimeout(factory.getChannelCheckoutTimeout());
+        if (factory.getCacheMode() == CachingConnectionFactory.CacheMode.CONNECTION) {
+            connectionFactory.setConnectionCacheSize(factory.getConnectionCacheSize());
+        }
+        // 在管理界面的 Connections 中区分
+        String connectionName = this.applicationName + "-" + purpose;
+        connectionFactory.setConnectionNameStrategy(cf -> connectionName);
+
+        log.info("{} 连接工厂, cacheMode: {}, channelCacheSize: {}, channelCheckoutTimeout: {}ms, connectionCacheSize: {}",
+                purpose, factory.getCacheMode(), factory.getChannelCacheSize(), factory.getChannelCheckoutTimeout(),
+                factory.getConnectionCacheSize());
+        return connectionFactory;
+    }
+}
@@ -0,0 +1,44 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 发送和消费分别使用的连接工厂配置，前缀 mq.connection.publisher、mq.connection.consumer
+ * 地址、用户名、虚拟主机等仍然读取 spring.rabbitmq.*，spring.rabbitmq.cache.* 不再生效
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.connection")
+public class MqConnectionProperties {
+
+    private Factory publisher = new Factory();
+
+    private Factory consumer = new Factory();
+
+    @Data
+    public static class Factory {
+
+        /**
+         * 每个连接缓存的 channel 数
+         */
+        private int channelCacheSize = 25;
+
+        /**
+         * 大于 0 时 channelCacheSize 成为 channel 数上限，取不到 channel 最多等待的毫秒数
+         */
+        private long channelCheckoutTimeout = 0;
+
+        /**
+         * CHANNEL 一个连接多个 channel；CONNECTION 缓存多个连接
+         */
+        private CachingConnectionFactory.CacheMode cacheMode = CachingConnectionFactory.CacheMode.CHANNEL;
+
+        /**
+         * cacheMode 为 CONNECTION 时缓存的连接数
+         */
+        private int connectionCacheSize = 1;
+    }
+}
@@ -0,0 +1,41 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+
+/**
+ * 监听容器的 advice，记录每条消息监听方法的耗时和异常，同时记入 {@link MqFlightRecorder}
+ * 放在重试 advice 之后，每次重试单独计时
+ */
+public class MqConsumeMetricsInterceptor implements MethodInterceptor {
+
+    private final MqMetrics metrics;
+
+    private final MqFlightRecorder flightRecorder;
+
+    public MqConsumeMetricsInterceptor(MqMetrics metrics, MqFlightRecorder flightRecorder) {
+        this.metrics = metrics;
+        this.flightRecorder = flightRecorder;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // ContainerDelegate.invokeListener(Channel channel, Message message)
+        Message message = (Message) invocation.getArguments()[1];
+        String queue = message.getMessageProperties().getConsumerQueue();
+        long start = System.nanoTime();
+        try {
+            Object result = invocation.proceed();
+            long nanos = System.nanoTime() - start;
+            this.metrics.handled(queue, nanos, null);
+            this.flightRecorder.delivered(message.getMessageProperties(), nanos, null);
+            return result;
+        } catch (Throwable e) {
+            long nanos = System.nanoTime() - start;
+            this.metrics.handled(queue, nanos, e);
+            this.flightRecorder.delivered(message.getMessageProperties(), nanos, e);
+            throw e;
+        }
+    }
+}
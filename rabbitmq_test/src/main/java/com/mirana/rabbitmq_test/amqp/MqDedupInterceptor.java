@@ -0,0 +1,91 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.PublisherCallbackChannel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听容器的 advice，丢弃一段时间内已经处理成功过的消息
+ * <p>
+ * 按 messageId 去重，没有时依次使用 correlationId、发送时的 correlation data id（{@link MqSender} 发送的消息三者相同）。
+ * 监听方法正常返回才记录 id，抛出异常的消息重新投递时照常处理；处理成功后因为 nack/reject requeue=true 或连接断开
+ * 而重新投递的消息直接应答，不进入监听方法。只适合按 id 处理一次即可的监听。
+ * <p>
+ * id 取 64 位哈希后作为 key，窗口较大时比保存字符串省内存。
+ * 批量发送拆包后的消息共享同一个 messageId，不参与去重
+ */
+@Slf4j
+public class MqDedupInterceptor implements MethodInterceptor {
+
+    private final Cache<Long, Boolean> processed;
+
+    private final MqAcker acker;
+
+    /**
+     * 手动应答时由这里应答重复消息，自动应答时返回后由容器应答
+     */
+    private final boolean manualAck;
+
+    public MqDedupInterceptor(MqDedupProperties properties, MqAcker acker, boolean manualAck) {
+        this.processed = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getWindow(), TimeUnit.MILLISECONDS)
+                .build();
+        this.acker = acker;
+        this.manualAck = manualAck;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // ContainerDelegate.invokeListener(Channel channel, Message message)
+        Channel channel = (Channel) invocation.getArguments()[0];
+        Message message = (Message) invocation.getArguments()[1];
+        Long key = key(message.getMessageProperties());
+        if (key == null) {
+            return invocation.proceed();
+        }
+        if (this.processed.getIfPresent(key) != null) {
+            log.info("{} 丢弃重复消息 {}, redelivered: {}", message.getMessageProperties().getConsumerQueue(),
+                    message.getMessageProperties().getMessageId(), message.getMessageProperties().isRedelivered());
+            this.acker.duplicate(channel, message, this.manualAck);
+            return null;
+        }
+        Object result = invocation.proceed();
+        this.processed.put(key, Boolean.TRUE);
+        return result;
+    }
+
+    public long size() {
+        return this.processed.estimatedSize();
+    }
+
+    /**
+     * @return 消息 id 的 64 位 FNV-1a 哈希，没有 id 或者是批量拆包的消息返回 null
+     */
+    static Long key(MessageProperties properties) {
+        Object batchSize = properties.getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER);
+        if (batchSize instanceof Integer && (Integer) batchSize > 1) {
+            return null;
+        }
+        String id = properties.getMessageId();
+        if (id == null) {
+            id = properties.getCorrelationId();
+        }
+        if (id == null) {
+            Object header = properties.getHeaders().get(PublisherCallbackChannel.RETURNED_MESSAGE_CORRELATION_KEY);
+            id = header == null ? null : header.toString();
+        }
+        if (id == null) {
+            return null;
+        }
+        return Fnv1a.hash64(id);
+    }
+}
@@ -0,0 +1,24 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 消费端去重配置，前缀 mq.dedup，在 mq.listener.profiles.{队列}.dedup=true 的队列上生效，见 {@link MqDedupInterceptor}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.dedup")
+public class MqDedupProperties {
+
+    /**
+     * 处理成功的消息 id 保留多少毫秒，这段时间内重复投递的消息直接应答、不再处理
+     */
+    private long window = 10 * 60 * 1000;
+
+    /**
+     * 每个队列最多记录的消息 id 数，超过后按 W-TinyLFU 淘汰
+     */
+    private long maximumSize = 100000;
+}
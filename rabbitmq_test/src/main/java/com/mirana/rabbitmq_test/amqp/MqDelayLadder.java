@@ -0,0 +1,181 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * 延时阶梯
+ * <p>
+ * 消息级别的 expiration 只在消息到达队列头部时才检查，长延时的消息会挡住后面短延时的消息。
+ * 这里为每个固定的延时建一个队列（一级），同一个队列里的消息 ttl 相同，先进先出，不会互相阻塞。
+ * 延时拆成若干级之和，消息依次经过这些级，最后一级到期后死信转发到目标交换机。
+ * <p>
+ * 级按延时从大到小排列，第 i 级对应一个主题交换机 prefix.level.i，路由键的第 i 个单词表示这一级怎么走：
+ * <pre>
+ * 0  跳过这一级
+ * 1  进入 prefix.bucket.{ttl}，到期后死信转发到第 i+1 级，死信不改路由键
+ * L  进入 prefix.bucket.{ttl}.last，到期后死信转发到目标交换机
+ * </pre>
+ * 例如 1000,2000,4000,8000 四级，延时 5000 的路由键为 0.1.0.L。
+ * 跳过的级不通过交换机之间的绑定实现（exchange.bind 是 RabbitMQ 的扩展），而是把后面各级的队列也绑定到前面的交换机上，
+ * 如 *.0.0.1.# 把第 3 级的队列绑定到第 1 级交换机
+ */
+@Component
+public class MqDelayLadder {
+
+    /**
+     * 预计到期时间的消息头，毫秒时间戳，用于统计延时误差
+     */
+    public static final String HEADER_DUE = "x-ladder-due";
+
+    private static final String SKIP = "0";
+
+    private static final String NEXT = "1";
+
+    private static final String LAST = "L";
+
+    private final MqDelayLadderProperties properties;
+
+    /**
+     * 从大到小
+     */
+    private final long[] buckets;
+
+    public MqDelayLadder(MqDelayLadderProperties properties) {
+        this.properties = properties;
+        this.buckets = properties.getBuckets().stream()
+                .filter(ttl -> ttl != null && ttl > 0)
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .mapToLong(Long::longValue)
+                .toArray();
+        if (this.buckets.length == 0) {
+            throw new IllegalArgumentException("mq.delay-ladder.buckets 不能为空");
+        }
+    }
+
+    /**
+     * @return 第一级交换机，消息都发送到这里
+     */
+    public String getExchange() {
+        return levelExchange(0);
+    }
+
+    /**
+     * @return 所有级之和
+     */
+    public long getMaxDelay() {
+        long max = 0;
+        for (long ttl : this.buckets) {
+            max += ttl;
+        }
+        return max;
+    }
+
+    /**
+     * 把延时拆成若干级，每一级最多用一次，按四舍五入取最接近的组合
+     *
+     * @param delay 延时毫秒数
+     * @return 路由键，延时不足最小一级的一半时返回 null，应直接发送到目标交换机
+     */
+    public String routingKey(long delay) {
+        if (delay < 0 || delay > getMaxDelay()) {
+            throw new IllegalArgumentException("延时 " + delay + "ms 超出延时阶梯的范围 0-" + getMaxDelay() + "ms");
+        }
+        long half = this.buckets[this.buckets.length - 1] / 2;
+        String[] words = new String[this.buckets.length];
+        int last = -1;
+        long remaining = delay;
+        for (int i = 0; i < this.buckets.length; i++) {
+            if (this.buckets[i] <= remaining + half) {
+                words[i] = NEXT;
+                remaining -= this.buckets[i];
+                last = i;
+            } else {
+                words[i] = SKIP;
+            }
+        }
+        if (last < 0) {
+            return null;
+        }
+        words[last] = LAST;
+        StringJoiner joiner = new StringJoiner(".");
+        for (String word : words) {
+            joiner.add(word);
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * @return 各级的交换机、队列和绑定
+     */
+    public Declarables declarables() {
+        List<Declarable> declarables = new ArrayList<>();
+        TopicExchange[] levels = new TopicExchange[this.buckets.length];
+        for (int i = 0; i < this.buckets.length; i++) {
+            levels[i] = new TopicExchange(levelExchange(i), true, false);
+            declarables.add(levels[i]);
+        }
+        Queue[] next = new Queue[this.buckets.length];
+        Queue[] last = new Queue[this.buckets.length];
+        for (int i = 0; i < this.buckets.length; i++) {
+            long ttl = this.buckets[i];
+            if (i + 1 < this.buckets.length) {
+                next[i] = bucket(String.valueOf(ttl), ttl, levelExchange(i + 1), null);
+                declarables.add(next[i]);
+            }
+            last[i] = bucket(ttl + ".last", ttl, this.properties.getTargetExchange(), this.properties.getTargetRoutingKey());
+            declarables.add(last[i]);
+        }
+        // 第 j 级交换机上的消息，跳过 j 到 i-1 级后进入第 i 级
+        for (int j = 0; j < this.buckets.length; j++) {
+            for (int i = j; i < this.buckets.length; i++) {
+                if (next[i] != null) {
+                    declarables.add(BindingBuilder.bind(next[i]).to(levels[j]).with(pattern(j, i, NEXT)));
+                }
+                declarables.add(BindingBuilder.bind(last[i]).to(levels[j]).with(pattern(j, i, LAST)));
+            }
+        }
+        return new Declarables(declarables);
+    }
+
+    private String levelExchange(int level) {
+        return this.properties.getPrefix() + ".level." + level;
+    }
+
+    /**
+     * 没有消费者，到期后死信转发
+     */
+    private Queue bucket(String name, long ttl, String deadLetterExchange, String deadLetterRoutingKey) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-message-ttl", ttl);
+        args.put(RabbitMqConfig.DEAD_LETTER_EXCHANGE_KEY, deadLetterExchange);
+        if (deadLetterRoutingKey != null) {
+            args.put(RabbitMqConfig.DEAD_LETTER_ROUTING_KEY, deadLetterRoutingKey);
+        }
+        return QueueBuilder.durable(this.properties.getPrefix() + ".bucket." + name).withArguments(args).build();
+    }
+
+    /**
+     * @return 前 from 个单词任意，from 到 level-1 为 0，第 level 个单词为 word 的绑定键，如 *.0.1.#
+     */
+    private static String pattern(int from, int level, String word) {
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < level; i++) {
+            pattern.append(i < from ? "*." : SKIP + ".");
+        }
+        return pattern.append(word).append(".#").toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 延时阶梯配置，前缀 mq.delay-ladder，见 {@link MqDelayLadder}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.delay-ladder")
+public class MqDelayLadderProperties {
+
+    /**
+     * 是否声明延时阶梯的交换机和队列
+     */
+    private boolean enabled = true;
+
+    /**
+     * 交换机、队列名称前缀
+     */
+    private String prefix = "email.delay";
+
+    /**
+     * 每一级队列的 x-message-ttl 毫秒数，按 2 倍递增时延时精度为最小的一级，最大延时为所有级之和
+     */
+    private List<Long> buckets = new ArrayList<>(Arrays.asList(1000L, 2000L, 4000L, 8000L));
+
+    /**
+     * 到期后转发到的交换机
+     */
+    private String targetExchange = ConstantQueue.EMAIL_Exchange_BZ;
+
+    /**
+     * 到期后转发使用的路由键
+     */
+    private String targetRoutingKey = ConstantQueue.EMAIL_ROUTINGKEY_BZ;
+}
@@ -0,0 +1,198 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 应用内的延时发送，不依赖 rabbitmq_delayed_message_exchange 插件
+ * <p>
+ * 定时器放在 {@link HashedTimingWheel} 中，同时写入 {@link MqTimerJournal}，重启后未到期的定时器从日志恢复，
+ * 重启期间已经到期的在第一格发送。到期后通过 {@link MqSender} 发送，broker 确认后才从日志中删除，
+ * 发送失败的 mq.timer.retry-delay 毫秒后重试，所以同一条消息可能发送多次。
+ * mq.timer.enabled=false 时不启动
+ */
+@Slf4j
+@Component
+public class MqDelayScheduler {
+
+    @Autowired
+    private MqTimerProperties properties;
+
+    @Autowired
+    private MqSender sender;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    /**
+     * 时间轮和日志的锁
+     */
+    private final Object lock = new Object();
+
+    private final AtomicLong scheduled = new AtomicLong();
+
+    private final AtomicLong fired = new AtomicLong();
+
+    private final AtomicLong cancelled = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    private HashedTimingWheel<MqTimerEntry> wheel;
+
+    private MqTimerJournal journal;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!this.properties.isEnabled()) {
+            return;
+        }
+        this.journal = new MqTimerJournal(Paths.get(this.properties.getJournalDir()),
+                this.properties.getJournalSegmentSize(), this.properties.isJournalSync());
+        this.wheel = new HashedTimingWheel<>(this.properties.getWheelSize(), this.properties.getTickMillis(),
+                System.currentTimeMillis());
+        for (MqTimerEntry entry : this.journal.open()) {
+            this.wheel.add(entry.getId(), entry.getDeadline(), entry);
+        }
+        log.info("应用内延时发送已启动，恢复未到期消息 {} 条", this.wheel.size());
+
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-timer-");
+        this.scheduler.initialize();
+        this.scheduler.scheduleAtFixedRate(this::tick, this.properties.getTickMillis());
+        this.metrics.delayScheduler(this);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+        if (this.journal != null) {
+            synchronized (this.lock) {
+                this.journal.close();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.journal != null;
+    }
+
+    /**
+     * @param id         为 null 时自动生成，同时作为发送时的 correlation id
+     * @param exchange   到期后发送到的交换机
+     * @param routingKey 路由键
+     * @param msg        消息
+     * @param delay      延时毫秒数
+     * @return id，用于取消
+     */
+    public String schedule(String id, String exchange, String routingKey, String msg, long delay) {
+        checkEnabled();
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
+        MqTimerEntry entry = new MqTimerEntry(id, System.currentTimeMillis() + delay, exchange, routingKey, msg);
+        synchronized (this.lock) {
+            if (this.wheel.contains(id)) {
+                throw new IllegalArgumentException("延时消息 id 重复: " + id);
+            }
+            this.journal.add(entry);
+            this.wheel.add(id, entry.getDeadline(), entry);
+        }
+        this.scheduled.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * @return 已到期或不存在时返回 false
+     */
+    public boolean cancel(String id) {
+        checkEnabled();
+        synchronized (this.lock) {
+            if (this.wheel.cancel(id) == null) {
+                return false;
+            }
+            this.journal.remove(id);
+        }
+        this.cancelled.incrementAndGet();
+        return true;
+    }
+
+    public MqTimerStats stats() {
+        MqTimerStats stats = new MqTimerStats();
+        stats.setEnabled(isEnabled());
+        stats.setScheduled(this.scheduled.get());
+        stats.setFired(this.fired.get());
+        stats.setCancelled(this.cancelled.get());
+        stats.setRetried(this.retried.get());
+        if (isEnabled()) {
+            synchronized (this.lock) {
+                stats.setPending(this.wheel.size());
+                stats.setInFlight(this.journal.size() - this.wheel.size());
+                stats.setJournalFile(String.valueOf(this.journal.getFile()));
+                stats.setJournalUsed(this.journal.used());
+                stats.setJournalCapacity(this.journal.capacity());
+            }
+        }
+        return stats;
+    }
+
+    private void tick() {
+        List<MqTimerEntry> expired = new ArrayList<>();
+        synchronized (this.lock) {
+            this.wheel.advance(System.currentTimeMillis(), (id, entry) -> expired.add(entry));
+            this.journal.flush();
+        }
+        for (MqTimerEntry entry : expired) {
+            fire(entry);
+        }
+    }
+
+    private void fire(MqTimerEntry entry) {
+        try {
+            this.sender.send2Exchange(entry.getExchange(), entry.getRoutingKey(), entry.getBody(), new CorrelationData(entry.getId()))
+                    .whenComplete((correlationData, e) -> {
+                        if (e == null) {
+                            synchronized (this.lock) {
+                                this.journal.remove(entry.getId());
+                            }
+                            this.fired.incrementAndGet();
+                        } else {
+                            retry(entry, e);
+                        }
+                    });
+        } catch (AmqpException e) {
+            retry(entry, e);
+        }
+    }
+
+    private void retry(MqTimerEntry entry, Throwable e) {
+        log.warn("延时消息 {} 发送失败，{} ms 后重试: {}", entry.getId(), this.properties.getRetryDelay(), e.getMessage());
+        this.retried.incrementAndGet();
+        synchronized (this.lock) {
+            this.wheel.add(entry.getId(), System.currentTimeMillis() + this.properties.getRetryDelay(), entry);
+        }
+    }
+
+    private void checkEnabled() {
+        if (!isEnabled()) {
+            throw new IllegalStateException("应用内延时发送未启用，设置 mq.timer.enabled=true");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+/**
+ * {@link MqFlightRecorder} 记录的一个消息生命周期事件
+ */
+@Data
+public class MqFlightEvent {
+
+    /**
+     * 在所属交换机、队列中的序号
+     */
+    private final long seq;
+
+    /**
+     * 毫秒时间戳
+     */
+    private final long time;
+
+    /**
+     * publish/confirm/returned/deliver，或者 {@link MqMetrics} 中的消费结果
+     */
+    private final String type;
+
+    private final String messageId;
+
+    /**
+     * 发送时为路由键，确认时为确认结果，退回时为退回原因，消费时为异常类名
+     */
+    private final String detail;
+
+    /**
+     * 消费时的 deliveryTag，发送时为 0
+     */
+    private final long deliveryTag;
+
+    /**
+     * 确认耗时或者监听方法耗时，纳秒
+     */
+    private final long nanos;
+}
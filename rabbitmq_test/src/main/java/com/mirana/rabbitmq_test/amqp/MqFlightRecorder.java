@@ -0,0 +1,172 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 消息生命周期记录，代替逐条日志
+ * <p>
+ * 发送、确认、退回按交换机，投递、应答按队列，各自保留最近 mq.flight-recorder.capacity 条事件，
+ * 通过 /actuator/mqflight 查看，见 {@link MqFlightRecorderEndpoint}。每个环形缓冲区只有一个递增的序号，
+ * 写入时原子地取序号再写入对应的槽，不加锁；读取时丢弃序号对不上的槽（还没写完或者已被覆盖），读到的是近似快照。
+ * <p>
+ * 同时产生 JFR 事件，见 {@link MqJfrEvents}。关闭 MqSender、MqReceiver 的 INFO 日志后仍可以按 messageId 追踪消息
+ */
+@Slf4j
+@Component
+public class MqFlightRecorder {
+
+    public static final String PUBLISH = "publish";
+
+    public static final String CONFIRM = "confirm";
+
+    public static final String RETURNED = "returned";
+
+    public static final String DELIVER = "deliver";
+
+    private static final String DEFAULT_EXCHANGE = "amq.default";
+
+    private final boolean enabled;
+
+    private final int capacity;
+
+    private final boolean jfr;
+
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    public MqFlightRecorder(MqFlightRecorderProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.capacity = Integer.highestOneBit(Math.max(properties.getCapacity(), 1) * 2 - 1);
+        this.jfr = properties.isJfr() && ClassUtils.isPresent("jdk.jfr.Event", MqFlightRecorder.class.getClassLoader());
+        if (properties.isJfr() && !this.jfr) {
+            log.info("JVM 不支持 jdk.jfr，不产生 JFR 事件");
+        }
+    }
+
+    public void published(String exchange, String routingKey, String messageId) {
+        exchange = exchangeKey(exchange);
+        if (this.jfr) {
+            MqJfrEvents.publish(exchange, routingKey, messageId);
+        }
+        record(exchange, PUBLISH, messageId, routingKey, 0, 0);
+    }
+
+    /**
+     * @param result ack，或者 {@link PublishConfirmException.Reason} 的小写
+     */
+    public void confirmed(String exchange, String messageId, String result, long nanos) {
+        exchange = exchangeKey(exchange);
+        if (this.jfr) {
+            MqJfrEvents.confirm(exchange, messageId, result, nanos);
+        }
+        record(exchange, CONFIRM, messageId, result, 0, nanos);
+    }
+
+    public void returned(String exchange, String routingKey, String messageId, String reply) {
+        exchange = exchangeKey(exchange);
+        if (this.jfr) {
+            MqJfrEvents.returned(exchange, routingKey, messageId, reply);
+        }
+        record(exchange, RETURNED, messageId, reply + " " + routingKey, 0, 0);
+    }
+
+    /**
+     * @param nanos 监听方法耗时
+     * @param error 监听方法抛出的异常，正常返回为 null
+     */
+    public void delivered(MessageProperties properties, long nanos, Throwable error) {
+        String queue = properties.getConsumerQueue();
+        String exception = error == null ? null : MqMetrics.exceptionName(error);
+        if (this.jfr) {
+            MqJfrEvents.deliver(queue, properties.getMessageId(), properties.getDeliveryTag(),
+                    Boolean.TRUE.equals(properties.isRedelivered()), exception, nanos);
+        }
+        record(queue, DELIVER, properties.getMessageId(), exception, properties.getDeliveryTag(), nanos);
+    }
+
+    /**
+     * @param outcome {@link MqMetrics} 中的消费结果
+     */
+    public void settled(String queue, String messageId, long deliveryTag, String outcome) {
+        if (this.jfr) {
+            MqJfrEvents.settle(queue, messageId, deliveryTag, outcome);
+        }
+        record(queue, outcome, messageId, null, deliveryTag, 0);
+    }
+
+    /**
+     * @return 交换机、队列名称 -> 最近的事件，按时间先后排列
+     */
+    public Map<String, List<MqFlightEvent>> snapshot() {
+        Map<String, List<MqFlightEvent>> snapshot = new TreeMap<>();
+        this.rings.forEach((name, ring) -> snapshot.put(name, ring.snapshot()));
+        return snapshot;
+    }
+
+    /**
+     * @param name 交换机或队列名称，默认交换机为 amq.default
+     */
+    public List<MqFlightEvent> snapshot(String name) {
+        Ring ring = this.rings.get(name);
+        return ring == null ? Collections.emptyList() : ring.snapshot();
+    }
+
+    private void record(String name, String type, String messageId, String detail, long deliveryTag, long nanos) {
+        if (!this.enabled || name == null) {
+            return;
+        }
+        Ring ring = this.rings.get(name);
+        if (ring == null) {
+            ring = this.rings.computeIfAbsent(name, key -> new Ring(this.capacity));
+        }
+        ring.add(type, messageId, detail, deliveryTag, nanos);
+    }
+
+    private static String exchangeKey(String exchange) {
+        return exchange == null || exchange.isEmpty() ? DEFAULT_EXCHANGE : exchange;
+    }
+
+    private static final class Ring {
+
+        private final AtomicReferenceArray<MqFlightEvent> events;
+
+        private final int mask;
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        private Ring(int capacity) {
+            this.events = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        private void add(String type, String messageId, String detail, long deliveryTag, long nanos) {
+            long seq = this.sequence.getAndIncrement();
+            this.events.lazySet((int) (seq & this.mask),
+                    new MqFlightEvent(seq, System.currentTimeMillis(), type, messageId, detail, deliveryTag, nanos));
+        }
+
+        private List<MqFlightEvent> snapshot() {
+            long end = this.sequence.get();
+            long start = Math.max(0, end - this.events.length());
+            List<MqFlightEvent> snapshot = new ArrayList<>((int) (end - start));
+            for (long seq = start; seq < end; seq++) {
+                MqFlightEvent event = this.events.get((int) (seq & this.mask));
+                if (event != null && event.getSeq() == seq) {
+                    snapshot.add(event);
+                }
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查看 {@link MqFlightRecorder} 中最近的消息生命周期事件
+ * <pre>
+ * curl http://localhost:8080/actuator/mqflight                 全部交换机、队列
+ * curl http://localhost:8080/actuator/mqflight/queue_test      一个交换机或队列，默认交换机为 amq.default
+ * </pre>
+ * 需要在 management.endpoints.web.exposure.include 中加上 mqflight
+ */
+@Component
+@Endpoint(id = "mqflight")
+public class MqFlightRecorderEndpoint {
+
+    @Autowired
+    private MqFlightRecorder flightRecorder;
+
+    @ReadOperation
+    public Map<String, List<MqFlightEvent>> events() {
+        return this.flightRecorder.snapshot();
+    }
+
+    @ReadOperation
+    public List<MqFlightEvent> eventsOf(@Selector String name) {
+        return this.flightRecorder.snapshot(name);
+    }
+}
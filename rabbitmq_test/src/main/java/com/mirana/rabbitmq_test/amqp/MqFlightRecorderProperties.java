@@ -0,0 +1,30 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 消息生命周期记录配置，前缀 mq.flight-recorder，见 {@link MqFlightRecorder}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.flight-recorder")
+public class MqFlightRecorderProperties {
+
+    /**
+     * 是否在内存中保留最近的事件
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每个交换机、队列保留的事件数，向上取整到 2 的幂
+     */
+    private int capacity = 256;
+
+    /**
+     * 是否产生 JFR 事件，JVM 不支持 jdk.jfr（OpenJDK 8u262 之前）时忽略。
+     * 只有 JFR 正在录制时才有开销：jcmd {pid} JFR.start
+     */
+    private boolean jfr = true;
+}
@@ -0,0 +1,182 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 消息生命周期的 JFR 事件，在 JMC 的 RabbitMQ 分类下查看
+ * <p>
+ * 只由 {@link MqFlightRecorder} 在 jdk.jfr 可用时调用，JVM 没有 jdk.jfr 时这个类不会被加载。
+ * 不记录调用栈，没有在录制时 shouldCommit 直接返回 false
+ */
+final class MqJfrEvents {
+
+    private MqJfrEvents() {
+    }
+
+    static void publish(String exchange, String routingKey, String messageId) {
+        Publish event = new Publish();
+        if (event.shouldCommit()) {
+            event.exchange = exchange;
+            event.routingKey = routingKey;
+            event.messageId = messageId;
+            event.commit();
+        }
+    }
+
+    static void confirm(String exchange, String messageId, String result, long nanos) {
+        Confirm event = new Confirm();
+        if (event.shouldCommit()) {
+            event.exchange = exchange;
+            event.messageId = messageId;
+            event.result = result;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    static void returned(String exchange, String routingKey, String messageId, String reply) {
+        Return event = new Return();
+        if (event.shouldCommit()) {
+            event.exchange = exchange;
+            event.routingKey = routingKey;
+            event.messageId = messageId;
+            event.reply = reply;
+            event.commit();
+        }
+    }
+
+    static void deliver(String queue, String messageId, long deliveryTag, boolean redelivered, String exception, long nanos) {
+        Deliver event = new Deliver();
+        if (event.shouldCommit()) {
+            event.queue = queue;
+            event.messageId = messageId;
+            event.deliveryTag = deliveryTag;
+            event.redelivered = redelivered;
+            event.exception = exception;
+            event.handlerTime = nanos;
+            event.commit();
+        }
+    }
+
+    static void settle(String queue, String messageId, long deliveryTag, String outcome) {
+        Settle event = new Settle();
+        if (event.shouldCommit()) {
+            event.queue = queue;
+            event.messageId = messageId;
+            event.deliveryTag = deliveryTag;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    @Name("com.mirana.mq.Publish")
+    @Label("MQ Publish")
+    @Description("发送消息")
+    @Category("RabbitMQ")
+    @StackTrace(false)
+    static class Publish extends Event {
+
+        @Label("Exchange")
+        String exchange;
+
+        @Label("Routing Key")
+        String routingKey;
+
+        @Label("Message Id")
+        String messageId;
+    }
+
+    @Name("com.mirana.mq.Confirm")
+    @Label("MQ Confirm")
+    @Description("收到 broker 确认，或者 nack、退回、超时、发送失败")
+    @Category("RabbitMQ")
+    @StackTrace(false)
+    static class Confirm extends Event {
+
+        @Label("Exchange")
+        String exchange;
+
+        @Label("Message Id")
+        String messageId;
+
+        @Label("Result")
+        String result;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("com.mirana.mq.Return")
+    @Label("MQ Return")
+    @Description("消息被 broker 退回")
+    @Category("RabbitMQ")
+    @StackTrace(false)
+    static class Return extends Event {
+
+        @Label("Exchange")
+        String exchange;
+
+        @Label("Routing Key")
+        String routingKey;
+
+        @Label("Message Id")
+        String messageId;
+
+        @Label("Reply")
+        String reply;
+    }
+
+    @Name("com.mirana.mq.Deliver")
+    @Label("MQ Deliver")
+    @Description("投递到监听方法，包括监听方法耗时")
+    @Category("RabbitMQ")
+    @StackTrace(false)
+    static class Deliver extends Event {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Message Id")
+        String messageId;
+
+        @Label("Delivery Tag")
+        long deliveryTag;
+
+        @Label("Redelivered")
+        boolean redelivered;
+
+        @Label("Exception")
+        String exception;
+
+        @Label("Handler Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long handlerTime;
+    }
+
+    @Name("com.mirana.mq.Settle")
+    @Label("MQ Settle")
+    @Description("ack/nack/reject 等消费结果")
+    @Category("RabbitMQ")
+    @StackTrace(false)
+    static class Settle extends Event {
+
+        @Label("Queue")
+        String queue;
+
+        @Label("Message Id")
+        String messageId;
+
+        @Label("Delivery Tag")
+        long deliveryTag;
+
+        @Label("Outcome")
+        String outcome;
+    }
+}
@@ -0,0 +1,148 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * {@link MqTimerJournal} 和 {@link MqOutboxLog} 共用的记录格式和文件操作
+ * <p>
+ * 每条记录为 [长度][crc32][内容]，先写 crc 和内容，最后写长度，长度为 0 表示日志结束，
+ * 进程崩溃时写了一半的记录因为长度为 0 或 crc 不一致被丢弃
+ */
+@Slf4j
+final class MqJournalFile {
+
+    /**
+     * 长度和 crc
+     */
+    static final int HEADER = 8;
+
+    private MqJournalFile() {
+    }
+
+    interface RecordHandler {
+
+        void accept(byte[] record) throws IOException;
+    }
+
+    /**
+     * @return 写入一条 length 字节的记录需要的空间，包括后面表示日志结束的长度 0
+     */
+    static int frameSize(int length) {
+        return HEADER + length + 4;
+    }
+
+    /**
+     * 在 buffer 的当前位置写入一条记录，先写 crc 和内容，最后写长度
+     */
+    static void write(ByteBuffer buffer, byte[] record) {
+        int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putInt(crc(record));
+        buffer.put(record);
+        buffer.putInt(position, record.length);
+    }
+
+    /**
+     * 写入一条记录，用于先在内存中拼好整个文件
+     */
+    static void write(DataOutputStream data, byte[] record) throws IOException {
+        data.writeInt(record.length);
+        data.writeInt(crc(record));
+        data.write(record);
+    }
+
+    /**
+     * 从当前位置读取记录直到日志结束或者第一条不完整的记录，position 停在最后一条完整的记录之后
+     *
+     * @return 完整的记录数
+     */
+    static int replay(ByteBuffer buffer, Path path, RecordHandler handler) throws IOException {
+        int count = 0;
+        while (buffer.remaining() >= HEADER) {
+            int position = buffer.position();
+            int length = buffer.getInt(position);
+            int crc = buffer.getInt(position + 4);
+            if (length <= 0 || length > buffer.remaining() - HEADER) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.position(position + HEADER);
+            buffer.get(record);
+            if (crc(record) != crc) {
+                log.warn("日志 {} 在 {} 处校验失败，忽略之后的记录", path, position);
+                buffer.position(position);
+                break;
+            }
+            handler.accept(record);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param size 为 0 时按文件大小映射，大于文件大小时扩展文件，扩展的部分为 0
+     */
+    static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size == 0 ? channel.size() : size);
+        }
+    }
+
+    /**
+     * 内容先写入临时文件并 force，再原子地改名为 file，崩溃后 file 要么不存在要么内容完整
+     */
+    static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(file.getParent());
+    }
+
+    /**
+     * 让改名和删除落盘，windows 下不能打开目录，跳过
+     */
+    static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("force 目录 {} 失败: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * @return 文件名 {prefix}{编号}{suffix} 中的编号，不是数字时为 -1
+     */
+    static long number(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int crc(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,225 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.aop.Advice;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.amqp.DirectRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.retry.interceptor.RetryOperationsInterceptor;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 监听容器工厂
+ * 替换 springboot 自动配置的 rabbitListenerContainerFactory，spring.rabbitmq.listener.simple/direct.* 配置照常生效，
+ * 使用消费者连接 consumerConnectionFactory，在重试 advice 之后追加 {@link MqConsumeMetricsInterceptor}。
+ * mq.listener.profiles 中配置的队列使用单独的容器配置，见 {@link MqListenerProperties}，
+ * 所有 advice 之前是拒绝不能解压的消息的 {@link MqUndecodableInterceptor} 和截获探测消息的 {@link MqCanaryInterceptor}，
+ * 配置了 dedup 的队列在指标 advice 之前再加一个 {@link MqDedupInterceptor}，
+ * 配置了 broker-retry 的队列去掉重试 advice，换成 {@link MqBrokerRetryInterceptor}。
+ * 分片队列使用 {@link #shardListenerContainerFactory}。
+ * 所有容器在拆包和监听方法之前由 {@link MqCompression} 解压。
+ * 消息体由 {@link MqPayloadConverter} 包装成 {@link LazyPayload}，监听方法参数的转换见 {@link #configureRabbitListeners}
+ */
+@Slf4j
+@Configuration
+public class MqListenerConfig implements RabbitListenerConfigurer {
+
+    /**
+     * {@link LazyPayload} 按参数类型转换：byte[] 和 ByteBuffer 不复制消息体，String 解码，
+     * 其余类型与默认的 DefaultMessageHandlerMethodFactory 相同
+     */
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+        conversionService.addConverter(LazyPayload.class, byte[].class, LazyPayload::getBytes);
+        conversionService.addConverter(LazyPayload.class, ByteBuffer.class, LazyPayload::asByteBuffer);
+        conversionService.addConverter(LazyPayload.class, String.class, LazyPayload::toString);
+        DefaultMessageHandlerMethodFactory factory = new DefaultMessageHandlerMethodFactory();
+        factory.setConversionService(conversionService);
+        factory.afterPropertiesSet();
+        registrar.setMessageHandlerMethodFactory(factory);
+    }
+
+    @Bean
+    public ProfiledRabbitListenerContainerFactory rabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer simpleConfigurer,
+            DirectRabbitListenerContainerFactoryConfigurer directConfigurer,
+            @Qualifier("consumerConnectionFactory") ConnectionFactory connectionFactory,
+            MqListenerProperties properties, MqMetrics metrics,
+            RabbitProperties rabbitProperties, MqDedupProperties dedupProperties, MqAcker acker,
+            MqBrokerRetry brokerRetry, MqSender sender, MqCompression compression, MqFlightRecorder flightRecorder,
+            MqCanary canary, MqAckCoalescer ackCoalescer) {
+        SimpleRabbitListenerContainerFactory defaultFactory = new SimpleRabbitListenerContainerFactory();
+        simpleConfigurer.configure(defaultFactory, connectionFactory);
+        defaultFactory.setAfterReceivePostProcessors(compression.decompressor());
+        boolean defaultManualAck = rabbitProperties.getListener().getSimple().getAcknowledgeMode() == AcknowledgeMode.MANUAL;
+        appendAdvice(defaultFactory, metrics, flightRecorder, new MqUndecodableInterceptor(acker, defaultManualAck),
+                new MqListenerFailureInterceptor(acker, defaultManualAck,
+                        requeueRejected(rabbitProperties.getListener().getSimple().getDefaultRequeueRejected())),
+                new MqCanaryInterceptor(canary, ackCoalescer, defaultManualAck), null, null);
+
+        Set<String> knownQueues = constantQueues();
+        Map<String, AbstractRabbitListenerContainerFactory<?>> factories = new HashMap<>();
+        properties.getProfiles().forEach((queue, profile) -> {
+            if (!knownQueues.contains(queue)) {
+                log.warn("mq.listener.profiles 中的 {} 不是 ConstantQueue 中的队列", queue);
+            }
+            AbstractRabbitListenerContainerFactory<?> factory = profile.getType() == MqListenerProperties.Type.DIRECT
+                    ? directFactory(directConfigurer, connectionFactory, profile)
+                    : simpleFactory(simpleConfigurer, connectionFactory, profile);
+            factory.setAfterReceivePostProcessors(compression.decompressor());
+            RabbitProperties.AmqpContainer container = profile.getType() == MqListenerProperties.Type.DIRECT
+                    ? rabbitProperties.getListener().getDirect() : rabbitProperties.getListener().getSimple();
+            boolean manualAck = container.getAcknowledgeMode() == AcknowledgeMode.MANUAL;
+            MqDedupInterceptor dedup = profile.isDedup()
+                    ? new MqDedupInterceptor(dedupProperties, acker, manualAck) : null;
+            MqBrokerRetryInterceptor retry = profile.isBrokerRetry()
+                    ? new MqBrokerRetryInterceptor(brokerRetry, sender, acker, manualAck) : null;
+            appendAdvice(factory, metrics, flightRecorder, new MqUndecodableInterceptor(acker, manualAck),
+                    new MqListenerFailureInterceptor(acker, manualAck, requeueRejected(container.getDefaultRequeueRejected())),
+                    new MqCanaryInterceptor(canary, ackCoalescer, manualAck), retry, dedup);
+            factories.put(queue, factory);
+            log.info("{} 容器配置: {}", queue, profile);
+        });
+        return new ProfiledRabbitListenerContainerFactory(defaultFactory, factories);
+    }
+
+    /**
+     * 分片队列的容器工厂，每个分片队列一个消费者，同一个分片的消息按顺序处理，见 {@link MqShardRouter}。
+     * 保留 spring.rabbitmq.listener.direct.retry 的重试，失败的消息在消费线程内重试，重试期间这个分片的后续消息等待；
+     * 不使用 broker-retry，转到重试队列的消息会排到后面
+     */
+    @Bean
+    public DirectRabbitListenerContainerFactory shardListenerContainerFactory(
+            DirectRabbitListenerContainerFactoryConfigurer directConfigurer,
+            @Qualifier("consumerConnectionFactory") ConnectionFactory connectionFactory,
+            MqShardProperties properties, MqMetrics metrics, MqCompression compression,
+            MqFlightRecorder flightRecorder, RabbitProperties rabbitProperties, MqAcker acker) {
+        DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+        directConfigurer.configure(factory, connectionFactory);
+        factory.setAfterReceivePostProcessors(compression.decompressor());
+        factory.setConsumersPerQueue(1);
+        factory.setPrefetchCount(properties.getPrefetch());
+        RabbitProperties.DirectContainer direct = rabbitProperties.getListener().getDirect();
+        boolean manualAck = direct.getAcknowledgeMode() == AcknowledgeMode.MANUAL;
+        appendAdvice(factory, metrics, flightRecorder, new MqUndecodableInterceptor(acker, manualAck),
+                new MqListenerFailureInterceptor(acker, manualAck, requeueRejected(direct.getDefaultRequeueRejected())),
+                null, null, null);
+        return factory;
+    }
+
+    private static SimpleRabbitListenerContainerFactory simpleFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                      ConnectionFactory connectionFactory,
+                                                                      MqListenerProperties.Profile profile) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        String concurrency = profile.getConcurrency();
+        if (concurrency != null) {
+            int separator = concurrency.indexOf('-');
+            if (separator > 0) {
+                factory.setConcurrentConsumers(Integer.valueOf(concurrency.substring(0, separator).trim()));
+                factory.setMaxConcurrentConsumers(Integer.valueOf(concurrency.substring(separator + 1).trim()));
+            } else {
+                factory.setConcurrentConsumers(Integer.valueOf(concurrency.trim()));
+            }
+        }
+        if (profile.getPrefetch() != null) {
+            factory.setPrefetchCount(profile.getPrefetch());
+        }
+        if (profile.getBatchSize() != null) {
+            factory.setTxSize(profile.getBatchSize());
+        }
+        return factory;
+    }
+
+    private static DirectRabbitListenerContainerFactory directFactory(DirectRabbitListenerContainerFactoryConfigurer configurer,
+                                                                      ConnectionFactory connectionFactory,
+                                                                      MqListenerProperties.Profile profile) {
+        DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        if (profile.getConsumersPerQueue() != null) {
+            factory.setConsumersPerQueue(profile.getConsumersPerQueue());
+        }
+        if (profile.getPrefetch() != null) {
+            factory.setPrefetchCount(profile.getPrefetch());
+        }
+        if (profile.getBatchSize() != null) {
+            factory.setMessagesPerAck(profile.getBatchSize());
+        }
+        return factory;
+    }
+
+    /**
+     * @return spring.rabbitmq.listener.*.default-requeue-rejected，未配置时为 true
+     */
+    private static boolean requeueRejected(Boolean defaultRequeueRejected) {
+        return defaultRequeueRejected == null || defaultRequeueRejected;
+    }
+
+    /**
+     * 顺序：不能解压的消息、重试用完后仍失败的消息、探测消息、重试、去重、指标，前几类消息都不计入 mq.consume 耗时。
+     * retry 不为 null 时替换掉 spring.rabbitmq.listener.*.retry 配置的重试 advice
+     */
+    private static void appendAdvice(AbstractRabbitListenerContainerFactory<?> factory, MqMetrics metrics,
+                                     MqFlightRecorder flightRecorder, MqUndecodableInterceptor undecodable,
+                                     MqListenerFailureInterceptor failure, MqCanaryInterceptor canary, MqBrokerRetryInterceptor retry, MqDedupInterceptor dedup) {
+        List<Advice> adviceChain = new ArrayList<>();
+        adviceChain.add(undecodable);
+        adviceChain.add(failure);
+        if (canary != null) {
+            adviceChain.add(canary);
+        }
+        if (factory.getAdviceChain() != null) {
+            for (Advice advice : factory.getAdviceChain()) {
+                if (retry == null || !(advice instanceof RetryOperationsInterceptor)) {
+                    adviceChain.add(advice);
+                }
+            }
+        }
+        if (retry != null) {
+            adviceChain.add(retry);
+        }
+        if (dedup != null) {
+            adviceChain.add(dedup);
+        }
+        adviceChain.add(new MqConsumeMetricsInterceptor(metrics, flightRecorder));
+        factory.setAdviceChain(adviceChain.toArray(new Advice[0]));
+    }
+
+    /**
+     * @return ConstantQueue 中 QUEUE 开头的常量
+     */
+    private static Set<String> constantQueues() {
+        Set<String> queues = new HashSet<>();
+        for (Field field : ConstantQueue.class.getFields()) {
+            if (field.getName().startsWith("QUEUE") && field.getType() == String.class) {
+                try {
+                    queues.add((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return queues;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.ContainerUtils;
+
+/**
+ * 监听容器的 advice，放在重试 advice 之前，重试用完后监听方法仍然抛出异常时生效
+ * <p>
+ * 手动应答模式下容器不应答抛出异常的消息，这条消息一直未应答，{@link MqAckCoalescer} 之后的 ack 只能逐条发送。
+ * 这里按容器自动应答时的规则 nack：default-requeue-rejected 为 false 或者是 AmqpRejectAndDontRequeueException 时不重新入队。
+ * 监听方法已经应答过的不再应答，异常原样抛出
+ */
+@Slf4j
+public class MqListenerFailureInterceptor implements MethodInterceptor {
+
+    private final MqAcker acker;
+
+    /**
+     * 自动应答时由容器应答
+     */
+    private final boolean manualAck;
+
+    private final boolean defaultRequeueRejected;
+
+    public MqListenerFailureInterceptor(MqAcker acker, boolean manualAck, boolean defaultRequeueRejected) {
+        this.acker = acker;
+        this.manualAck = manualAck;
+        this.defaultRequeueRejected = defaultRequeueRejected;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        try {
+            return invocation.proceed();
+        } catch (Throwable e) {
+            if (!this.manualAck) {
+                throw e;
+            }
+            // ContainerDelegate.invokeListener(Channel channel, Message message)
+            Channel channel = (Channel) invocation.getArguments()[0];
+            Message message = (Message) invocation.getArguments()[1];
+            try {
+                this.acker.failed(channel, message, ContainerUtils.shouldRequeue(this.defaultRequeueRejected, e,
+                        LogFactory.getLog(MqListenerFailureInterceptor.class)));
+            } catch (Exception nackFailed) {
+                log.error("{} 消息 {} nack 失败: {}", message.getMessageProperties().getConsumerQueue(),
+                        message.getMessageProperties().getMessageId(), nackFailed.getMessage());
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按队列配置监听容器，前缀 mq.listener.profiles，key 为 {@link ConstantQueue} 中的队列名称
+ * <p>
+ * 队列名称带 . 时用中括号：mq.listener.profiles[queue_user.add].type=direct
+ * 没有配置的队列、以及配置中未填写的项，使用 spring.rabbitmq.listener.simple/direct.* 的全局配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.listener")
+public class MqListenerProperties {
+
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+
+    public enum Type {
+        /**
+         * SimpleMessageListenerContainer，每个消费者一个线程，线程数可在 concurrency 范围内伸缩
+         */
+        SIMPLE,
+        /**
+         * DirectMessageListenerContainer，消费者在连接的 IO 线程上执行，按 consumersPerQueue 固定数量
+         */
+        DIRECT
+    }
+
+    @Data
+    public static class Profile {
+
+        private Type type = Type.SIMPLE;
+
+        /**
+         * simple 容器的消费者数，"4" 或者 "2-8"（最小-最大）
+         */
+        private String concurrency;
+
+        /**
+         * direct 容器每个队列的消费者数
+         */
+        private Integer consumersPerQueue;
+
+        /**
+         * 每个消费者未应答消息的上限
+         */
+        private Integer prefetch;
+
+        /**
+         * simple 容器为 txSize，direct 容器为 messagesPerAck（仅 AUTO 应答模式生效）
+         */
+        private Integer batchSize;
+
+        /**
+         * 是否丢弃已处理成功的重复消息，见 {@link MqDedupInterceptor}
+         */
+        private boolean dedup;
+
+        /**
+         * 是否用 broker 端的重试队列代替监听线程内的重试，见 {@link MqBrokerRetry}
+         */
+        private boolean brokerRetry;
+    }
+}
@@ -0,0 +1,95 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 开环压测，见 {@link MqLoadGenerator}，参数缺省时取 mq.load 中的值
+ * <p>
+ * curl "http://localhost:8080/load/start?flow=topic&rate=2000&duration=30000&concurrency=4&sizes=100:90,10240:10"
+ * curl http://localhost:8080/load/{runId}
+ * curl "http://localhost:8080/load/{runId}/hgrm?queue=queue_book.add"
+ */
+@Slf4j
+@RestController
+public class MqLoadController {
+
+    @Autowired
+    private MqLoadGenerator generator;
+
+    @Autowired
+    private MqLoadProperties properties;
+
+    /**
+     * @param flow        queue、direct、topic、fanout、dlq、delayed
+     * @param rate        目标速率，每秒消息数
+     * @param duration    发送持续的毫秒数
+     * @param concurrency 发送线程数
+     * @param sizes       消息体字节数的分布，如 256、64-4096、100:90,10240:10
+     * @param delay       延时队列的延时毫秒数
+     * @return 刚开始时的报告，runId 用于查询
+     */
+    @GetMapping("load/start")
+    public MqLoadReport start(@RequestParam(required = false) String flow,
+                              @RequestParam(required = false) Integer rate,
+                              @RequestParam(required = false) Long duration,
+                              @RequestParam(required = false) Integer concurrency,
+                              @RequestParam(required = false) String sizes,
+                              @RequestParam(required = false) Long delay) {
+        try {
+            return generator.start(flow == null ? properties.getFlow() : MqLoadFlow.valueOf(flow.trim().toUpperCase()),
+                    rate == null ? properties.getRate() : rate,
+                    duration == null ? properties.getDuration() : duration,
+                    concurrency == null ? properties.getConcurrency() : concurrency,
+                    sizes == null ? properties.getSizes() : sizes,
+                    delay == null ? properties.getDelay() : delay).report();
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    /**
+     * 压测进行中也可以查询，done=true 后为最终结果
+     */
+    @GetMapping("load/{runId}")
+    public MqLoadReport report(@PathVariable String runId) {
+        return run(runId).report();
+    }
+
+    /**
+     * @param queue     为空时合并所有队列
+     * @param corrected 是否从计划发送时间算起
+     * @return 百分位分布文本，单位毫秒
+     */
+    @GetMapping(path = "load/{runId}/hgrm", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String distribution(@PathVariable String runId,
+                               @RequestParam(required = false) String queue,
+                               @RequestParam(required = false, defaultValue = "true") Boolean corrected) {
+        return run(runId).distribution(queue, corrected);
+    }
+
+    @GetMapping("load/{runId}/cancel")
+    public MqLoadReport cancel(@PathVariable String runId) {
+        MqLoadRun run = run(runId);
+        run.cancel();
+        log.info("压测 {} 已取消", runId);
+        return run.report();
+    }
+
+    private MqLoadRun run(String runId) {
+        MqLoadRun run = generator.getRun(runId);
+        if (run == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "压测不存在或已过期: " + runId);
+        }
+        return run;
+    }
+}
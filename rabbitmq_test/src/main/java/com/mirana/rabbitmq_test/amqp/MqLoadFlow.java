@@ -0,0 +1,48 @@
+package com.mirana.rabbitmq_test.amqp;
+
+/**
+ * 压测发送的路径，与 AmqpController 中的接口对应
+ */
+public enum MqLoadFlow {
+
+    /**
+     * 默认交换机直接发送到 queue_test，正常应答
+     */
+    QUEUE("", ConstantQueue.QUEUE),
+
+    DIRECT(ConstantQueue.DirectExchange, ConstantQueue.ROUTINGKEY_DIRECT_TEST),
+
+    /**
+     * 路由键模式 1，进入三个队列
+     */
+    TOPIC(ConstantQueue.TopicExchange, MqSender.topicRoutingKey(1)),
+
+    FANOUT(ConstantQueue.FanoutExchange, ""),
+
+    /**
+     * 死信队列过期后进入邮件候补队列，延迟包含死信队列的 TTL
+     */
+    DLQ(ConstantQueue.EMAIL_Exchange_DLQ, ConstantQueue.EMAIL_ROUTINGKEY_DLQ),
+
+    /**
+     * 延时交换机，延迟包含 mq.load.delay
+     */
+    DELAYED(ConstantQueue.EXCHANGE_DELAYED, ConstantQueue.ROUTINGKEY_DELAYED);
+
+    private final String exchange;
+
+    private final String routingKey;
+
+    MqLoadFlow(String exchange, String routingKey) {
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+    }
+
+    public String getExchange() {
+        return this.exchange;
+    }
+
+    public String getRoutingKey() {
+        return this.routingKey;
+    }
+}
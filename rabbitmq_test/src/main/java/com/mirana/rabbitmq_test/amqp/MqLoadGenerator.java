@@ -0,0 +1,184 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 开环压测：按目标速率定时发送，不等待上一条消息的确认或消费
+ * <p>
+ * AmqpController 中按 msgNumber 循环发送是闭环的，broker 变慢时发送也变慢，测不出某个负载下的延迟，
+ * 变慢期间本该发出的消息也不会被计入（coordinated omission）。这里每个发送线程按 rate / concurrency 的间隔
+ * 排好每条消息的计划发送时间，落后时立即补发，不跳过；消息头写入计划发送时间和实际发送时间，
+ * 消费端由 {@link MqLoadRecorder} 记录到直方图，延迟从计划发送时间算起。
+ * <p>
+ * 发送结束后等消息全部被消费，每条消息预计被消费的次数由 {@link MqRouter} 预测；不能预测时（延时交换机）
+ * 等到一段时间内没有新消息，最多等 mq.load.drain-timeout 毫秒。同一时间只运行一次压测
+ */
+@Slf4j
+@Component
+public class MqLoadGenerator {
+
+    /**
+     * 发送线程数上限
+     */
+    private static final int MAX_CONCURRENCY = 64;
+
+    /**
+     * 不能预测消费次数时，多久没有新消息就结束
+     */
+    private static final long QUIET_MILLIS = 2000;
+
+    private static final long POLL_MILLIS = 100;
+
+    @Autowired
+    private MqLoadProperties properties;
+
+    @Autowired
+    private MqSender sender;
+
+    @Autowired
+    private MqRouter router;
+
+    @Autowired
+    private MqLoadRecorder recorder;
+
+    private MqLoadRun current;
+
+    /**
+     * 开始压测，立即返回
+     *
+     * @param rate     目标速率，每秒消息数
+     * @param duration 发送持续的毫秒数
+     * @param sizes    消息体字节数的分布，见 {@link MqLoadPayloads}
+     * @param delay    延时队列的延时毫秒数
+     * @throws IllegalArgumentException 参数不合法
+     * @throws IllegalStateException    已有压测在运行
+     */
+    public synchronized MqLoadRun start(MqLoadFlow flow, int rate, long duration, int concurrency, String sizes, long delay) {
+        if (rate < 1 || duration < 1 || concurrency < 1 || concurrency > Math.min(rate, MAX_CONCURRENCY) || delay < 0) {
+            throw new IllegalArgumentException("rate、duration 必须大于 0，concurrency 在 1 到 min(rate, "
+                    + MAX_CONCURRENCY + ") 之间");
+        }
+        if (this.current != null && !this.current.isDone()) {
+            throw new IllegalStateException("压测 " + this.current.getId() + " 正在运行");
+        }
+        MqLoadPayloads payloads = new MqLoadPayloads(sizes);
+        Set<String> queues = flow == MqLoadFlow.QUEUE ? null : this.router.route(flow.getExchange(), flow.getRoutingKey());
+        int fanout = flow == MqLoadFlow.QUEUE ? 1 : queues == null ? -1 : queues.size();
+        MqLoadRun run = new MqLoadRun(UUID.randomUUID().toString().substring(0, 8), flow, rate, duration,
+                concurrency, sizes, fanout);
+        this.recorder.register(run);
+        this.current = run;
+        log.info("开始压测 {}: {} {}/s {} ms，{} 个发送线程，消息大小 {}", run.getId(), flow.name().toLowerCase(),
+                rate, duration, concurrency, sizes);
+        Thread driver = new Thread(() -> drive(run, payloads, delay), "mq-load-" + run.getId());
+        driver.setDaemon(true);
+        driver.start();
+        return run;
+    }
+
+    public MqLoadRun getRun(String runId) {
+        return this.recorder.getRun(runId);
+    }
+
+    private void drive(MqLoadRun run, MqLoadPayloads payloads, long delay) {
+        try {
+            List<Thread> publishers = new ArrayList<>(run.getConcurrency());
+            for (int i = 0; i < run.getConcurrency(); i++) {
+                int index = i;
+                Thread publisher = new Thread(() -> publish(run, index, payloads, delay), "mq-load-publisher-" + i);
+                publisher.setDaemon(true);
+                publishers.add(publisher);
+                publisher.start();
+            }
+            for (Thread publisher : publishers) {
+                publisher.join();
+            }
+            run.sendFinished();
+            drain(run, delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.cancel();
+        } finally {
+            run.finished();
+            log.info("压测结束\n{}", run.summary());
+        }
+    }
+
+    /**
+     * 第 index 个发送线程发送第 index、index + concurrency、index + 2 * concurrency ... 条消息
+     */
+    private void publish(MqLoadRun run, int index, MqLoadPayloads payloads, long delay) {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) run.getRate();
+        long start = run.getStartNanos();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(run.getDuration());
+        Random random = ThreadLocalRandom.current();
+        for (long n = index; !run.isCancelled(); n += run.getConcurrency()) {
+            long intended = start + (long) (n * intervalNanos);
+            if (intended >= end) {
+                return;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(run, payloads.payload(random), MqLoadRecorder.toMicros(intended), delay);
+        }
+    }
+
+    private void send(MqLoadRun run, String payload, long intendedMicros, long delay) {
+        MqLoadFlow flow = run.getFlow();
+        MessagePostProcessor messagePostProcessor = message -> {
+            MessageProperties messageProperties = message.getMessageProperties();
+            messageProperties.setHeader(MqLoadRecorder.HEADER_RUN, run.getId());
+            messageProperties.setHeader(MqLoadRecorder.HEADER_INTENDED, intendedMicros);
+            if (flow == MqLoadFlow.QUEUE) {
+                messageProperties.setHeader(ReceiveOpt.HEADER, ReceiveOpt.DEFAULT);
+            } else if (flow == MqLoadFlow.DELAYED) {
+                messageProperties.setDelay((int) delay);
+            }
+            messageProperties.setHeader(MqLoadRecorder.HEADER_SENT, MqLoadRecorder.nowMicros());
+            return message;
+        };
+        run.sent(MqLoadRecorder.nowMicros() - intendedMicros);
+        try {
+            this.sender.send2Exchange(flow.getExchange(), flow.getRoutingKey(), payload, messagePostProcessor, null)
+                    .whenComplete(run::confirmed);
+        } catch (RuntimeException e) {
+            run.failed();
+            log.debug("压测 {} 发送失败: {}", run.getId(), e.getMessage());
+        }
+    }
+
+    private void drain(MqLoadRun run, long delay) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + this.properties.getDrainTimeout();
+        long quiet = Math.max(QUIET_MILLIS, run.getFlow() == MqLoadFlow.DELAYED ? delay * 2 : 0);
+        long received = -1;
+        long lastChange = System.currentTimeMillis();
+        while (!run.isCancelled() && System.currentTimeMillis() < deadline) {
+            boolean settled = run.settled() >= run.sent();
+            if (settled && run.getFanout() >= 0 && run.received() >= run.confirmed() * run.getFanout()) {
+                return;
+            }
+            if (run.received() != received) {
+                received = run.received();
+                lastChange = System.currentTimeMillis();
+            } else if (settled && run.getFanout() < 0 && System.currentTimeMillis() - lastChange >= quiet) {
+                return;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 压测消息体，字节数按分布随机
+ * <p>
+ * 分布写法：256 固定大小；64-4096 在两者之间均匀分布；100:90,10240:10 按权重取其中一个大小。
+ * 消息体是预先生成的随机字母的子串，开启压缩时也不会被压得过小
+ */
+public class MqLoadPayloads {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final int min;
+
+    private final int max;
+
+    /**
+     * 按权重取值时的各个大小和累计权重，均匀分布时为 null
+     */
+    private final int[] sizes;
+
+    private final long[] cumulative;
+
+    private final String source;
+
+    public MqLoadPayloads(String spec) {
+        String value = spec == null ? "" : spec.replace(" ", "");
+        try {
+            if (value.contains(":")) {
+                String[] parts = value.split(",");
+                this.sizes = new int[parts.length];
+                this.cumulative = new long[parts.length];
+                long total = 0;
+                for (int i = 0; i < parts.length; i++) {
+                    String[] pair = parts[i].split(":");
+                    if (pair.length != 2) {
+                        throw new IllegalArgumentException("消息大小分布格式错误: " + spec);
+                    }
+                    this.sizes[i] = Integer.parseInt(pair[0]);
+                    int weight = Integer.parseInt(pair[1]);
+                    if (weight < 0) {
+                        throw new IllegalArgumentException("权重不能为负数: " + spec);
+                    }
+                    total += weight;
+                    this.cumulative[i] = total;
+                }
+                if (total == 0) {
+                    throw new IllegalArgumentException("权重之和必须大于 0: " + spec);
+                }
+                this.min = Arrays.stream(this.sizes).min().getAsInt();
+                this.max = Arrays.stream(this.sizes).max().getAsInt();
+            } else {
+                int separator = value.indexOf('-', 1);
+                this.min = Integer.parseInt(separator < 0 ? value : value.substring(0, separator));
+                this.max = separator < 0 ? this.min : Integer.parseInt(value.substring(separator + 1));
+                this.sizes = null;
+                this.cumulative = null;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("消息大小分布格式错误: " + spec, e);
+        }
+        if (this.min < 0 || this.max < this.min) {
+            throw new IllegalArgumentException("消息大小分布格式错误: " + spec);
+        }
+        Random random = new Random(this.max);
+        char[] chars = new char[this.max];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        this.source = new String(chars);
+    }
+
+    public int next(Random random) {
+        if (this.sizes == null) {
+            return this.min == this.max ? this.min : this.min + random.nextInt(this.max - this.min + 1);
+        }
+        long point = (long) (random.nextDouble() * this.cumulative[this.cumulative.length - 1]);
+        for (int i = 0; i < this.cumulative.length; i++) {
+            if (point < this.cumulative[i]) {
+                return this.sizes[i];
+            }
+        }
+        return this.sizes[this.sizes.length - 1];
+    }
+
+    /**
+     * @return size 个 ASCII 字符，UTF-8 编码后也是 size 字节
+     */
+    public String payload(Random random) {
+        return this.source.substring(0, next(random));
+    }
+
+    public int getMax() {
+        return this.max;
+    }
+}
@@ -0,0 +1,56 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 压测配置，前缀 mq.load，见 {@link MqLoadGenerator}
+ * <p>
+ * 接口 load/start 的参数缺省时取这里的值；mq.load.run=true 时启动后按这里的值压测一次，输出报告后退出
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.load")
+public class MqLoadProperties {
+
+    /**
+     * 启动后立即压测一次并退出，在命令行上使用
+     */
+    private boolean run = false;
+
+    /**
+     * 发送到哪里，见 {@link MqLoadFlow}
+     */
+    private MqLoadFlow flow = MqLoadFlow.DIRECT;
+
+    /**
+     * 目标速率，每秒消息数
+     */
+    private int rate = 1000;
+
+    /**
+     * 发送持续的毫秒数
+     */
+    private long duration = 10000;
+
+    /**
+     * 发送线程数，各自按 rate / concurrency 的速率发送
+     */
+    private int concurrency = 4;
+
+    /**
+     * 消息体字节数的分布，见 {@link MqLoadPayloads}
+     */
+    private String sizes = "256";
+
+    /**
+     * 延时队列的延时毫秒数，只对 delayed 有效
+     */
+    private long delay = 1000;
+
+    /**
+     * 发送结束后等待消息全部被消费的最长毫秒数
+     */
+    private long drainTimeout = 30000;
+}
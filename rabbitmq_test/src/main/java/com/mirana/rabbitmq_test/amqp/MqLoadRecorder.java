@@ -0,0 +1,90 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * 压测消息的消费端，按消息头中的发送时间记录端到端延迟，见 {@link MqLoadGenerator}
+ * <p>
+ * 时间是由启动时的 currentTimeMillis 和 nanoTime 推算的微秒数，同一个进程内收发时精确到微秒；
+ * 发送端在别的进程时取决于两台主机的时钟同步
+ */
+@Component
+public class MqLoadRecorder {
+
+    public static final String HEADER_RUN = "x-load-run";
+
+    /**
+     * 计划发送时间，微秒
+     */
+    public static final String HEADER_INTENDED = "x-load-intended";
+
+    /**
+     * 实际发送时间，微秒
+     */
+    public static final String HEADER_SENT = "x-load-sent";
+
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+
+    private static final long BASE_NANOS = System.nanoTime();
+
+    /**
+     * 最近的压测，消费端按 id 查找
+     */
+    private final Cache<String, MqLoadRun> runs = Caffeine.newBuilder().maximumSize(16).build();
+
+    public static long nowMicros() {
+        return toMicros(System.nanoTime());
+    }
+
+    /**
+     * @param nanoTime System.nanoTime() 的值
+     * @return 对应的时间，微秒
+     */
+    public static long toMicros(long nanoTime) {
+        return BASE_MICROS + (nanoTime - BASE_NANOS) / 1000;
+    }
+
+    public void register(MqLoadRun run) {
+        this.runs.put(run.getId(), run);
+    }
+
+    public MqLoadRun getRun(String runId) {
+        return this.runs.getIfPresent(runId);
+    }
+
+    /**
+     * 监听方法收到消息时调用，不是压测消息时直接返回
+     */
+    public void received(Message<?> msg) {
+        MessageHeaders headers = msg.getHeaders();
+        Object runId = headers.get(HEADER_RUN);
+        if (runId != null) {
+            received(runId.toString(), headers.get(AmqpHeaders.CONSUMER_QUEUE, String.class),
+                    headers.get(HEADER_INTENDED), headers.get(HEADER_SENT));
+        }
+    }
+
+    public void received(org.springframework.amqp.core.Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        Object runId = properties.getHeaders().get(HEADER_RUN);
+        if (runId != null) {
+            received(runId.toString(), properties.getConsumerQueue(),
+                    properties.getHeaders().get(HEADER_INTENDED), properties.getHeaders().get(HEADER_SENT));
+        }
+    }
+
+    private void received(String runId, String queue, Object intended, Object sent) {
+        MqLoadRun run = this.runs.getIfPresent(runId);
+        if (run == null || !(intended instanceof Number) || !(sent instanceof Number)) {
+            return;
+        }
+        long now = nowMicros();
+        run.record(queue == null ? "unknown" : queue, now - ((Number) intended).longValue(), now - ((Number) sent).longValue());
+    }
+}
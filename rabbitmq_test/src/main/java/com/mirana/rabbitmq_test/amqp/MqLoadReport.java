@@ -0,0 +1,83 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 一次压测的报告，延迟单位为毫秒
+ */
+@Data
+public class MqLoadReport {
+
+    private String runId;
+
+    private MqLoadFlow flow;
+
+    /**
+     * 目标速率，每秒消息数
+     */
+    private int rate;
+
+    private long duration;
+
+    private int concurrency;
+
+    private String sizes;
+
+    /**
+     * 每条消息预计被消费的次数，不能预测时为 -1
+     */
+    private int fanout;
+
+    private long sent;
+
+    private long confirmed;
+
+    /**
+     * nack、被退回、确认超时、发送异常的消息数
+     */
+    private long failed;
+
+    private long received;
+
+    /**
+     * 实际发送速率，每秒消息数
+     */
+    private double actualRate;
+
+    /**
+     * 发送线程落后于计划发送时间的最大值，接近 duration 说明达不到目标速率
+     */
+    private double maxLag;
+
+    private boolean cancelled;
+
+    private boolean done;
+
+    /**
+     * 已运行的毫秒数
+     */
+    private long elapsed;
+
+    /**
+     * 队列名称 -> 端到端延迟
+     */
+    private Map<String, Latency> latencies;
+
+    @Data
+    public static class Latency {
+
+        private long count;
+
+        /**
+         * 从计划发送时间算起的延迟百分位，校正了协同遗漏（coordinated omission）
+         */
+        private Map<String, Double> corrected;
+
+        /**
+         * 从实际发送时间算起的延迟百分位，发送线程落后时偏小
+         */
+        private Map<String, Double> uncorrected;
+    }
+}
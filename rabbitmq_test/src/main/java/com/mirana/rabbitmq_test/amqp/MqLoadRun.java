@@ -0,0 +1,272 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次压测，发送线程、confirm 回调线程、消费线程同时更新
+ * <p>
+ * 每个队列两个直方图，单位微秒：corrected 从计划发送时间算起，发送线程因为 broker 反压落后于计划时，
+ * 落后的时间也计入延迟，不会像闭环压测那样漏掉变慢期间本该发出的消息；uncorrected 从实际发送时间算起，用于对比
+ */
+public class MqLoadRun {
+
+    /**
+     * 直方图能记录的最大延迟，超过的按最大值记录
+     */
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final String id;
+
+    private final MqLoadFlow flow;
+
+    private final int rate;
+
+    private final long duration;
+
+    private final int concurrency;
+
+    private final String sizes;
+
+    private final int fanout;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong confirmed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong maxLagMicros = new AtomicLong();
+
+    private final Map<String, Histograms> latencies = new ConcurrentHashMap<>();
+
+    private volatile long sendFinishTime;
+
+    private volatile long finishTime;
+
+    private volatile boolean cancelled;
+
+    public MqLoadRun(String id, MqLoadFlow flow, int rate, long duration, int concurrency, String sizes, int fanout) {
+        this.id = id;
+        this.flow = flow;
+        this.rate = rate;
+        this.duration = duration;
+        this.concurrency = concurrency;
+        this.sizes = sizes;
+        this.fanout = fanout;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public MqLoadFlow getFlow() {
+        return this.flow;
+    }
+
+    public int getRate() {
+        return this.rate;
+    }
+
+    public long getDuration() {
+        return this.duration;
+    }
+
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+
+    public int getFanout() {
+        return this.fanout;
+    }
+
+    long getStartNanos() {
+        return this.startNanos;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * 停止发送，不再等待剩余的消息被消费
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isDone() {
+        return this.finishTime != 0;
+    }
+
+    public long sent() {
+        return this.sent.get();
+    }
+
+    public long settled() {
+        return this.confirmed.get() + this.failed.get();
+    }
+
+    public long confirmed() {
+        return this.confirmed.get();
+    }
+
+    public long received() {
+        return this.received.get();
+    }
+
+    /**
+     * @param lagMicros 实际发送时间晚于计划发送时间的微秒数
+     */
+    void sent(long lagMicros) {
+        this.sent.incrementAndGet();
+        if (lagMicros > this.maxLagMicros.get()) {
+            this.maxLagMicros.accumulateAndGet(lagMicros, Math::max);
+        }
+    }
+
+    /**
+     * 作为 future.whenComplete 的回调
+     */
+    void confirmed(CorrelationData correlationData, Throwable e) {
+        if (e == null) {
+            this.confirmed.incrementAndGet();
+        } else {
+            this.failed.incrementAndGet();
+        }
+    }
+
+    void failed() {
+        this.failed.incrementAndGet();
+    }
+
+    void sendFinished() {
+        this.sendFinishTime = System.currentTimeMillis();
+    }
+
+    void finished() {
+        this.finishTime = System.currentTimeMillis();
+    }
+
+    void record(String queue, long correctedMicros, long uncorrectedMicros) {
+        Histograms histograms = this.latencies.get(queue);
+        if (histograms == null) {
+            histograms = this.latencies.computeIfAbsent(queue, q -> new Histograms());
+        }
+        histograms.corrected.recordValue(clamp(correctedMicros));
+        histograms.uncorrected.recordValue(clamp(uncorrectedMicros));
+        this.received.incrementAndGet();
+    }
+
+    public MqLoadReport report() {
+        MqLoadReport report = new MqLoadReport();
+        report.setRunId(this.id);
+        report.setFlow(this.flow);
+        report.setRate(this.rate);
+        report.setDuration(this.duration);
+        report.setConcurrency(this.concurrency);
+        report.setSizes(this.sizes);
+        report.setFanout(this.fanout);
+        report.setSent(this.sent.get());
+        report.setConfirmed(this.confirmed.get());
+        report.setFailed(this.failed.get());
+        report.setReceived(this.received.get());
+        long sendFinishTime = this.sendFinishTime;
+        long sending = (sendFinishTime == 0 ? System.currentTimeMillis() : sendFinishTime) - this.startTime;
+        report.setActualRate(sending <= 0 ? 0 : this.sent.get() * 1000.0 / sending);
+        report.setMaxLag(this.maxLagMicros.get() / 1000.0);
+        report.setCancelled(this.cancelled);
+        report.setDone(isDone());
+        long finishTime = this.finishTime;
+        report.setElapsed((finishTime == 0 ? System.currentTimeMillis() : finishTime) - this.startTime);
+        Map<String, MqLoadReport.Latency> latencies = new TreeMap<>();
+        this.latencies.forEach((queue, histograms) -> {
+            MqLoadReport.Latency latency = new MqLoadReport.Latency();
+            latency.setCount(histograms.corrected.getTotalCount());
+            latency.setCorrected(percentiles(histograms.corrected));
+            latency.setUncorrected(percentiles(histograms.uncorrected));
+            latencies.put(queue, latency);
+        });
+        report.setLatencies(latencies);
+        return report;
+    }
+
+    /**
+     * @param queue 为 null 时合并所有队列
+     * @return HdrHistogram 的百分位分布文本（.hgrm），单位毫秒，可以直接用 HdrHistogram 的工具画图
+     */
+    public String distribution(String queue, boolean corrected) {
+        Histogram merged = new Histogram(HIGHEST_MICROS, 3);
+        this.latencies.forEach((name, histograms) -> {
+            if (queue == null || queue.equals(name)) {
+                merged.add(corrected ? histograms.corrected : histograms.uncorrected);
+            }
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PrintStream printStream = new PrintStream(out, false, StandardCharsets.UTF_8.name())) {
+            merged.outputPercentileDistribution(printStream, 1000.0);
+            printStream.flush();
+            return out.toString(StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return 一行一个队列的报告，命令行压测结束时输出
+     */
+    public String summary() {
+        MqLoadReport report = report();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("压测 %s %s，目标 %d/s，实际 %.1f/s，持续 %d ms，%d 个发送线程，消息大小 %s%n",
+                this.id, this.flow.name().toLowerCase(), this.rate, report.getActualRate(), this.duration,
+                this.concurrency, this.sizes));
+        sb.append(String.format("发送 %d，确认 %d，失败 %d，消费 %d，发送最多落后 %.3f ms%n", report.getSent(),
+                report.getConfirmed(), report.getFailed(), report.getReceived(), report.getMaxLag()));
+        report.getLatencies().forEach((queue, latency) -> sb.append(String.format("%s %d 条，校正 %s，未校正 %s%n",
+                queue, latency.getCount(), latency.getCorrected(), latency.getUncorrected())));
+        return sb.toString();
+    }
+
+    private static Map<String, Double> percentiles(Histogram histogram) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            percentiles.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile)),
+                    histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        percentiles.put("max", histogram.getMaxValue() / 1000.0);
+        return percentiles;
+    }
+
+    private static long clamp(long micros) {
+        // 跨主机时两端时钟有偏差
+        return Math.max(0, Math.min(HIGHEST_MICROS, micros));
+    }
+
+    private static final class Histograms {
+
+        private final Histogram corrected = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+
+        private final Histogram uncorrected = new ConcurrentHistogram(HIGHEST_MICROS, 3);
+    }
+}
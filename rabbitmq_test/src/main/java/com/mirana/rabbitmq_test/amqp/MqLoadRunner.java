@@ -0,0 +1,46 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * 命令行压测，mq.load.run=true 时启动后按 mq.load 压测一次，输出报告后退出
+ * <p>
+ * java -jar rabbitmq_test.jar --mq.load.run=true --mq.load.flow=fanout --mq.load.rate=5000 --mq.load.duration=60000
+ */
+@Slf4j
+@Component
+public class MqLoadRunner implements ApplicationRunner {
+
+    private static final long POLL_MILLIS = 500;
+
+    @Autowired
+    private MqLoadProperties properties;
+
+    @Autowired
+    private MqLoadGenerator generator;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!this.properties.isRun()) {
+            return;
+        }
+        MqLoadRun run = this.generator.start(this.properties.getFlow(), this.properties.getRate(),
+                this.properties.getDuration(), this.properties.getConcurrency(), this.properties.getSizes(),
+                this.properties.getDelay());
+        while (!run.isDone()) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        log.info("合并所有队列的延迟分布（从计划发送时间算起，毫秒）\n{}", run.distribution(null, true));
+        System.exit(SpringApplication.exit(this.context, () -> run.getFanout() >= 0
+                && run.received() < run.confirmed() * run.getFanout() ? 1 : 0));
+    }
+}
@@ -0,0 +1,243 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.amqp.rabbit.listener.exception.ListenerExecutionFailedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息收发指标，通过 /actuator/metrics 查看
+ * <pre>
+ * mq.publish           counter  exchange          发送条数
+ * mq.publish.confirm   timer    result            发送到收到确认的耗时，result: ack/nack/returned/timeout/send_failed
+ * mq.publish.returned  counter  exchange          被退回的消息数
+ * mq.publish.fanout    summary  exchange          每条消息预计进入的队列数，见 MqRouter
+ * mq.publish.unroutable counter exchange, action  预测路由不到任何队列的消息数，action: send/reject/divert
+ * mq.consume           timer    queue, exception  监听方法耗时（直方图），exception 为 none 表示正常
+ * mq.consume.batch     timer    queue             批量消费每批的处理耗时
+ * mq.consume.outcome   counter  queue, outcome    消费结果，outcome: ack/nack/reject/exception/duplicate/retry/parked
+ * mq.consume.out_of_order counter queue           分片队列中同一个 key 的序号小于已收到的序号的消息数，见 MqShardRouter
+ * mq.consume.prefetch  gauge    queue             自适应 prefetch 的当前值，见 MqPrefetchController
+ * mq.timer.pending     gauge                      应用内延时发送未到期的定时器数
+ * mq.timer.fired       counter                    应用内延时发送已发送成功的消息数
+ * mq.outbox.pending    gauge                      本地发件箱中还未被 broker 确认的消息数
+ * mq.outbox.relayed    counter                    本地发件箱已转发并确认的消息数
+ * mq.canary.latency    gauge    route             探测消息最近一次成功的往返毫秒数，见 MqCanary
+ * mq.canary.failures   gauge    route             探测消息连续失败的次数，成功后归零
+ * </pre>
+ * 默认交换机的 exchange 标签为 amq.default
+ */
+@Component
+public class MqMetrics {
+
+    public static final String ACK = "ack";
+
+    public static final String NACK = "nack";
+
+    public static final String REJECT = "reject";
+
+    public static final String EXCEPTION = "exception";
+
+    public static final String DUPLICATE = "duplicate";
+
+    public static final String RETRY = "retry";
+
+    public static final String PARKED = "parked";
+
+    private static final String DEFAULT_EXCHANGE = "amq.default";
+
+    private static final String UNKNOWN_QUEUE = "unknown";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    /**
+     * 热点路径上的 meter 按标签缓存，避免每次都在 registry 中查找
+     */
+    private final Map<String, Counter> publishCounters = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> confirmTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> fanoutSummaries = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> consumeTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> batchTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> outcomeCounters = new ConcurrentHashMap<>();
+
+    public void published(String exchange) {
+        this.publishCounters.computeIfAbsent(exchangeTag(exchange),
+                tag -> Counter.builder("mq.publish")
+                        .description("发送消息数")
+                        .tag("exchange", tag)
+                        .register(this.registry))
+                .increment();
+    }
+
+    /**
+     * @param startNanos track 时的 System.nanoTime()
+     * @param result     ack，或者 {@link PublishConfirmException.Reason} 的小写
+     */
+    public void confirmed(long startNanos, String result) {
+        this.confirmTimers.computeIfAbsent(result,
+                tag -> Timer.builder("mq.publish.confirm")
+                        .description("发送到收到确认的耗时")
+                        .tag("result", tag)
+                        .publishPercentileHistogram()
+                        .register(this.registry))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void returned(String exchange) {
+        this.registry.counter("mq.publish.returned", "exchange", exchangeTag(exchange)).increment();
+    }
+
+    /**
+     * @param queues 预计进入的队列数
+     */
+    public void fanout(String exchange, int queues) {
+        this.fanoutSummaries.computeIfAbsent(exchangeTag(exchange),
+                tag -> DistributionSummary.builder("mq.publish.fanout")
+                        .description("每条消息预计进入的队列数")
+                        .tag("exchange", tag)
+                        .register(this.registry))
+                .record(queues);
+    }
+
+    /**
+     * @param action {@link MqRoutingProperties.Unroutable} 的小写
+     */
+    public void unroutable(String exchange, String action) {
+        this.registry.counter("mq.publish.unroutable", "exchange", exchangeTag(exchange), "action", action).increment();
+    }
+
+    /**
+     * @param queue  消费的队列
+     * @param nanos  监听方法耗时
+     * @param error  监听方法抛出的异常，正常返回为 null
+     */
+    public void handled(String queue, long nanos, Throwable error) {
+        String queueTag = queueTag(queue);
+        String exception = "none";
+        if (error != null) {
+            exception = exceptionName(error);
+            outcome(queueTag, EXCEPTION);
+        }
+        String exceptionTag = exception;
+        this.consumeTimers.computeIfAbsent(queueTag + '\0' + exceptionTag,
+                key -> Timer.builder("mq.consume")
+                        .description("监听方法耗时")
+                        .tag("queue", queueTag)
+                        .tag("exception", exceptionTag)
+                        .publishPercentileHistogram()
+                        .register(this.registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void batchHandled(String queue, long nanos) {
+        this.batchTimers.computeIfAbsent(queueTag(queue),
+                tag -> Timer.builder("mq.consume.batch")
+                        .description("批量消费每批的处理耗时")
+                        .tag("queue", tag)
+                        .publishPercentileHistogram()
+                        .register(this.registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param outcome {@link #ACK}、{@link #NACK}、{@link #REJECT}、{@link #EXCEPTION}、{@link #DUPLICATE}、{@link #RETRY}、{@link #PARKED}
+     */
+    public void outcome(String queue, String outcome) {
+        outcome(queue, outcome, 1);
+    }
+
+    public void outcome(String queue, String outcome, int count) {
+        String queueTag = queueTag(queue);
+        this.outcomeCounters.computeIfAbsent(queueTag + '\0' + outcome,
+                key -> Counter.builder("mq.consume.outcome")
+                        .description("消费结果")
+                        .tag("queue", queueTag)
+                        .tag("outcome", outcome)
+                        .register(this.registry))
+                .increment(count);
+    }
+
+    public void outOfOrder(String queue) {
+        this.registry.counter("mq.consume.out_of_order", "queue", queueTag(queue)).increment();
+    }
+
+    /**
+     * @param queue 容器的队列，多个队列用 , 分隔
+     */
+    public void prefetch(String queue, AtomicInteger prefetch) {
+        Gauge.builder("mq.consume.prefetch", prefetch, AtomicInteger::get)
+                .description("自适应 prefetch 的当前值")
+                .tag("queue", queue)
+                .register(this.registry);
+    }
+
+    /**
+     * 应用内延时发送启动后注册
+     */
+    public void delayScheduler(MqDelayScheduler scheduler) {
+        Gauge.builder("mq.timer.pending", scheduler, s -> s.stats().getPending())
+                .description("未到期的定时器数")
+                .register(this.registry);
+        FunctionCounter.builder("mq.timer.fired", scheduler, s -> s.stats().getFired())
+                .description("已发送成功的延时消息数")
+                .register(this.registry);
+    }
+
+    public void outbox(MqOutbox outbox) {
+        Gauge.builder("mq.outbox.pending", outbox, o -> o.stats().getPending())
+                .description("本地发件箱中还未被 broker 确认的消息数")
+                .register(this.registry);
+        FunctionCounter.builder("mq.outbox.relayed", outbox, o -> o.stats().getRelayed())
+                .description("本地发件箱已转发并确认的消息数")
+                .register(this.registry);
+    }
+
+    /**
+     * @param latency  最近一次成功的往返纳秒数，还没有成功过为 -1
+     * @param failures 连续失败的次数
+     */
+    public void canary(String route, AtomicLong latency, AtomicInteger failures) {
+        Gauge.builder("mq.canary.latency", latency, l -> l.get() < 0 ? Double.NaN : l.get() / 1e6)
+                .description("探测消息最近一次成功的往返毫秒数")
+                .tag("route", route)
+                .register(this.registry);
+        Gauge.builder("mq.canary.failures", failures, AtomicInteger::get)
+                .description("探测消息连续失败的次数")
+                .tag("route", route)
+                .register(this.registry);
+    }
+
+    /**
+     * @return 监听方法抛出的异常的类名，去掉容器包装的 ListenerExecutionFailedException
+     */
+    static String exceptionName(Throwable error) {
+        Throwable cause = error instanceof ListenerExecutionFailedException && error.getCause() != null
+                ? error.getCause() : error;
+        return cause.getClass().getSimpleName();
+    }
+
+    private static String exchangeTag(String exchange) {
+        return exchange == null || exchange.isEmpty() ? DEFAULT_EXCHANGE : exchange;
+    }
+
+    private static String queueTag(String queue) {
+        return queue == null || queue.isEmpty() ? UNKNOWN_QUEUE : queue;
+    }
+}
@@ -0,0 +1,277 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本地发件箱，broker 不可用时发送接口仍然可以写入
+ * <p>
+ * 消息先写入 {@link MqOutboxLog}，mq.outbox.sync=true 时等到下一次 force 后返回，调用方的延迟取决于本地磁盘而不是 broker。
+ * 转发线程按日志顺序读出消息，通过 {@link MqSender} 发送，最多 mq.outbox.max-in-flight 条等待确认，
+ * 按顺序连续确认的部分提交到日志。发送失败、nack 或确认超时时，等 mq.outbox.retry-delay 毫秒后
+ * 从第一条未确认的消息重新转发，之后已发送的消息会再发一次，消费端按 messageId 去重。
+ * 被退回或者按已知绑定路由不到队列的消息重发也没有用，记录后跳过。
+ * mq.outbox.enabled=false 时不启动
+ */
+@Slf4j
+@Component
+public class MqOutbox {
+
+    /**
+     * 转发线程没有新消息时的等待时间
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 等待 force 的最长时间
+     */
+    private static final long SYNC_TIMEOUT_MILLIS = 10000;
+
+    @Autowired
+    private MqOutboxProperties properties;
+
+    @Autowired
+    private MqSender sender;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    private final AtomicLong appended = new AtomicLong();
+
+    private final AtomicLong relayed = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile int inFlight;
+
+    private volatile boolean running;
+
+    private MqOutboxLog journal;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private Thread relay;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!this.properties.isEnabled()) {
+            return;
+        }
+        this.journal = new MqOutboxLog(Paths.get(this.properties.getDir()), this.properties.getSegmentSize());
+        long pending = this.journal.open();
+        log.info("本地发件箱已启动，待转发 {} 条", pending);
+
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-outbox-flush-");
+        this.scheduler.initialize();
+        this.scheduler.scheduleAtFixedRate(this.journal::flush, this.properties.getFlushInterval());
+
+        this.running = true;
+        this.relay = new Thread(this::relay, "mq-outbox-relay");
+        this.relay.setDaemon(true);
+        this.relay.start();
+        this.metrics.outbox(this);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        this.running = false;
+        if (this.relay != null) {
+            LockSupport.unpark(this.relay);
+            this.relay.join(this.properties.getRetryDelay() + 1000);
+        }
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+        if (this.journal != null) {
+            this.journal.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.journal != null;
+    }
+
+    /**
+     * 写入发件箱，sync 时全部 force 到磁盘后返回
+     *
+     * @param exchange   转发到的交换机
+     * @param routingKey 路由键
+     * @param msgs       消息
+     * @return 每条消息的 id，同时作为转发时的 correlation id 和 messageId
+     */
+    public List<String> publish(String exchange, String routingKey, List<String> msgs) {
+        checkEnabled();
+        List<String> ids = new ArrayList<>(msgs.size());
+        long seq = 0;
+        for (String msg : msgs) {
+            String id = UUID.randomUUID().toString();
+            seq = this.journal.append(id, exchange, routingKey, msg.getBytes(StandardCharsets.UTF_8));
+            ids.add(id);
+        }
+        this.appended.addAndGet(msgs.size());
+        if (this.properties.isSync() && seq > 0) {
+            awaitFlushed(seq);
+        }
+        return ids;
+    }
+
+    public MqOutboxStats stats() {
+        MqOutboxStats stats = new MqOutboxStats();
+        stats.setEnabled(isEnabled());
+        stats.setAppended(this.appended.get());
+        stats.setRelayed(this.relayed.get());
+        stats.setRetried(this.retried.get());
+        stats.setDropped(this.dropped.get());
+        stats.setInFlight(this.inFlight);
+        if (isEnabled()) {
+            stats.setPending(this.journal.pending());
+            stats.setLastSeq(this.journal.getLastSeq());
+            stats.setFlushedSeq(this.journal.getFlushedSeq());
+            stats.setConfirmedSeq(this.journal.getConfirmedSeq());
+            stats.setSegments(this.journal.segments());
+            stats.setDir(String.valueOf(this.journal.getDir()));
+        }
+        return stats;
+    }
+
+    private void awaitFlushed(long seq) {
+        try {
+            if (!this.journal.awaitFlushed(seq, SYNC_TIMEOUT_MILLIS)) {
+                throw new IllegalStateException("等待发件箱写入磁盘超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待发件箱写入磁盘时被中断", e);
+        }
+    }
+
+    private void relay() {
+        Deque<Pending> pendings = new ArrayDeque<>();
+        while (this.running) {
+            try {
+                settle(pendings);
+                List<MqOutboxRecord> records = this.journal.read(this.properties.getMaxInFlight() - pendings.size());
+                for (MqOutboxRecord record : records) {
+                    pendings.add(new Pending(record.getSeq(), send(record)));
+                }
+                this.inFlight = pendings.size();
+                if (records.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            } catch (RuntimeException e) {
+                retry(pendings, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        }
+    }
+
+    private CompletableFuture<CorrelationData> send(MqOutboxRecord record) {
+        // 与直接发送 String 时的 content-type 相同，消息体不再复制
+        LazyPayload payload = new LazyPayload(record.getBody(), MessageProperties.CONTENT_TYPE_TEXT_PLAIN,
+                StandardCharsets.UTF_8.name());
+        return this.sender.send2Exchange(record.getExchange(), record.getRoutingKey(), payload,
+                new CorrelationData(record.getId()));
+    }
+
+    /**
+     * 按发送顺序取出已完成的消息，提交连续完成的部分，遇到需要重发的失败时抛出
+     */
+    private void settle(Deque<Pending> pendings) {
+        long settled = 0;
+        try {
+            while (!pendings.isEmpty() && pendings.peekFirst().future.isDone()) {
+                Pending pending = pendings.peekFirst();
+                try {
+                    pending.future.join();
+                    this.relayed.incrementAndGet();
+                } catch (CompletionException e) {
+                    if (!isPermanent(e.getCause())) {
+                        throw e;
+                    }
+                    log.warn("发件箱消息 {} 无法路由，跳过: {}", pending.seq, e.getCause().getMessage());
+                    this.dropped.incrementAndGet();
+                }
+                pendings.pollFirst();
+                settled = pending.seq;
+            }
+        } finally {
+            if (settled > 0) {
+                this.journal.commit(settled);
+            }
+        }
+    }
+
+    private static boolean isPermanent(Throwable e) {
+        if (!(e instanceof PublishConfirmException)) {
+            return false;
+        }
+        PublishConfirmException.Reason reason = ((PublishConfirmException) e).getReason();
+        return reason == PublishConfirmException.Reason.RETURNED || reason == PublishConfirmException.Reason.UNROUTABLE;
+    }
+
+    /**
+     * 等已发送的消息都有结果（确认超时也算），提交失败之前连续确认的部分，之后的丢弃，
+     * 等待后从第一条未确认的消息重新转发。重发时沿用原来的 id，所以要等原来的 correlation id 从未确认消息表中移除
+     */
+    private void retry(Deque<Pending> pendings, Throwable e) {
+        this.retried.incrementAndGet();
+        CompletableFuture.allOf(pendings.stream().map(pending -> pending.future).toArray(CompletableFuture[]::new))
+                .handle((v, t) -> null)
+                .join();
+        try {
+            settle(pendings);
+        } catch (CompletionException ignored) {
+            // 第一条失败的消息之前的已经提交
+        }
+        log.warn("发件箱转发失败，{} ms 后从第 {} 条重新转发: {}", this.properties.getRetryDelay(),
+                this.journal.getConfirmedSeq() + 1, e.getMessage());
+        pendings.clear();
+        this.inFlight = 0;
+        this.journal.rewind();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.properties.getRetryDelay());
+        while (this.running && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(deadline - System.nanoTime());
+        }
+    }
+
+    private void checkEnabled() {
+        if (!isEnabled()) {
+            throw new IllegalStateException("本地发件箱未启用，设置 mq.outbox.enabled=true");
+        }
+    }
+
+    private static final class Pending {
+
+        private final long seq;
+
+        private final CompletableFuture<CorrelationData> future;
+
+        private Pending(long seq, CompletableFuture<CorrelationData> future) {
+            this.seq = seq;
+            this.future = future;
+        }
+    }
+}
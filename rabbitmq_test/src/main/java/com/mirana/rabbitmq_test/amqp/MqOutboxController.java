@@ -0,0 +1,57 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.mirana.rabbitmq_test.DateUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 通过本地发件箱发送，需要 mq.outbox.enabled=true
+ * <p>
+ * curl "http://localhost:8080/outbox/send2DirectExchange?msgNumber=10"
+ * curl http://localhost:8080/outbox/stats
+ */
+@Slf4j
+@RestController
+public class MqOutboxController {
+
+    @Autowired
+    private MqOutbox outbox;
+
+    /**
+     * 与 AmqpController#send2DirectExchange 对应，写入发件箱后返回，不等待 broker 确认
+     *
+     * @param msgNumber 消息数量
+     * @return 写入结果，带第一条消息的 id
+     */
+    @GetMapping("outbox/send2DirectExchange")
+    public String send2DirectExchange(@RequestParam(required = false, defaultValue = "1") Integer msgNumber) {
+        checkEnabled();
+        String msg = DateUtils.format();
+        List<String> msgs = new ArrayList<>(msgNumber);
+        for (int i = 0; i < msgNumber; i++) {
+            msgs.add(i + "_" + msg);
+        }
+        List<String> ids = outbox.publish(ConstantQueue.DirectExchange, ConstantQueue.ROUTINGKEY_DIRECT_TEST, msgs);
+        log.info("outbox/send2DirectExchange: {} 条", msgNumber);
+        return "成功写入发件箱 " + msgNumber + " 条消息： " + msg + "，第一条 id：" + (ids.isEmpty() ? null : ids.get(0));
+    }
+
+    @GetMapping("outbox/stats")
+    public MqOutboxStats stats() {
+        return outbox.stats();
+    }
+
+    private void checkEnabled() {
+        if (!outbox.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "本地发件箱未启用，设置 mq.outbox.enabled=true");
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 发件箱的预写日志，分段的内存映射文件 outbox.{段号}.log，只追加
+ * <p>
+ * 记录格式见 {@link MqJournalFile}，与 {@link MqTimerJournal} 相同，内容为序号、id、交换机、路由键和消息体。
+ * <p>
+ * 已确认的最大序号记在 outbox.checkpoint 中，段内的消息全部确认后删除整段。
+ * 写入和 force 分开：{@link #append} 只写映射内存，{@link #flush} 由定时任务调用，一次 force 覆盖这期间的全部写入，
+ * 需要落盘的调用方在 {@link #awaitFlushed} 上等待
+ */
+@Slf4j
+public class MqOutboxLog implements Closeable {
+
+    private static final String PREFIX = "outbox.";
+
+    private static final String SUFFIX = ".log";
+
+    private static final String CHECKPOINT = "outbox.checkpoint";
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    /**
+     * 段号 -> 段
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private MappedByteBuffer checkpoint;
+
+    private boolean checkpointDirty;
+
+    /**
+     * 正在写入的段
+     */
+    private Segment current;
+
+    /**
+     * 转发读到的段和位置
+     */
+    private Segment reading;
+
+    private int readPosition;
+
+    private long lastSeq;
+
+    private long flushedSeq;
+
+    private long confirmedSeq;
+
+    public MqOutboxLog(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * 读取已有的日志段，删除已全部确认的段
+     *
+     * @return 未确认的消息数
+     */
+    public synchronized long open() throws IOException {
+        Files.createDirectories(this.dir);
+        this.checkpoint = MqJournalFile.map(this.dir.resolve(CHECKPOINT), 8);
+        this.confirmedSeq = this.checkpoint.getLong(0);
+        this.lastSeq = this.confirmedSeq;
+
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+            for (Path path : paths) {
+                long number = MqJournalFile.number(path, PREFIX, SUFFIX);
+                if (number > 0) {
+                    files.put(number, path);
+                }
+            }
+        }
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            Segment segment = replay(file.getKey(), file.getValue());
+            if (segment.firstSeq == 0 && file.getKey() < files.lastKey()) {
+                Files.deleteIfExists(file.getValue());
+                continue;
+            }
+            this.segments.put(segment.number, segment);
+            this.lastSeq = Math.max(this.lastSeq, segment.lastSeq);
+        }
+        if (this.segments.isEmpty()) {
+            this.current = create(files.isEmpty() ? 1 : files.lastKey() + 1, this.segmentSize);
+        } else {
+            this.current = this.segments.lastEntry().getValue();
+        }
+        this.flushedSeq = this.lastSeq;
+        deleteConfirmed();
+        rewind();
+        log.info("读取发件箱日志 {}，{} 段，已确认到 {}，未确认 {} 条", this.dir, this.segments.size(), this.confirmedSeq, pending());
+        return pending();
+    }
+
+    /**
+     * 写入映射内存，不 force
+     *
+     * @return 序号
+     */
+    public synchronized long append(String id, String exchange, String routingKey, byte[] body) {
+        long seq = this.lastSeq + 1;
+        byte[] record = encode(seq, id, exchange, routingKey, body);
+        if (this.current.buffer.remaining() < MqJournalFile.frameSize(record.length)) {
+            roll(record.length);
+        }
+        MqJournalFile.write(this.current.buffer, record);
+        if (this.current.firstSeq == 0) {
+            this.current.firstSeq = seq;
+        }
+        this.current.lastSeq = seq;
+        this.lastSeq = seq;
+        return seq;
+    }
+
+    /**
+     * 把当前段和 checkpoint 修改过的页 force 到磁盘，唤醒等待的调用方。
+     * force 时不持有锁，不阻塞写入
+     */
+    public void flush() {
+        long seq;
+        MappedByteBuffer buffer;
+        boolean checkpointDirty;
+        synchronized (this) {
+            if (this.current == null || (this.flushedSeq == this.lastSeq && !this.checkpointDirty)) {
+                return;
+            }
+            seq = this.lastSeq;
+            buffer = this.current.buffer;
+            checkpointDirty = this.checkpointDirty;
+            this.checkpointDirty = false;
+        }
+        buffer.force();
+        if (checkpointDirty) {
+            this.checkpoint.force();
+        }
+        synchronized (this) {
+            if (seq > this.flushedSeq) {
+                this.flushedSeq = seq;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return 序号为 seq 的记录已经 force 到磁盘时返回 true，超时返回 false
+     */
+    public synchronized boolean awaitFlushed(long seq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.flushedSeq < seq) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * 从上次读到的位置继续读，跳过已确认的
+     *
+     * @param max 最多读多少条
+     */
+    public synchronized List<MqOutboxRecord> read(int max) {
+        if (this.reading == null || max <= 0) {
+            return Collections.emptyList();
+        }
+        List<MqOutboxRecord> records = new ArrayList<>(Math.min(max, 256));
+        while (records.size() < max) {
+            if (this.readPosition >= this.reading.buffer.position()) {
+                if (this.reading == this.current) {
+                    break;
+                }
+                // 读完的段可能已经被删除，按段号找下一段
+                this.reading = this.segments.higherEntry(this.reading.number).getValue();
+                this.readPosition = 0;
+                continue;
+            }
+            int length = this.reading.buffer.getInt(this.readPosition);
+            long seq = this.reading.buffer.getLong(this.readPosition + MqJournalFile.HEADER);
+            if (seq > this.confirmedSeq) {
+                ByteBuffer in = this.reading.buffer.duplicate();
+                in.position(this.readPosition + MqJournalFile.HEADER);
+                byte[] record = new byte[length];
+                in.get(record);
+                records.add(decode(record));
+            }
+            this.readPosition += MqJournalFile.HEADER + length;
+        }
+        return records;
+    }
+
+    /**
+     * 回到第一条未确认的消息，转发失败后重新转发
+     */
+    public synchronized void rewind() {
+        this.reading = this.segments.isEmpty() ? null : this.segments.firstEntry().getValue();
+        this.readPosition = 0;
+    }
+
+    /**
+     * 记录 seq 及之前的消息已确认，删除全部确认的段
+     */
+    public synchronized void commit(long seq) {
+        if (seq <= this.confirmedSeq) {
+            return;
+        }
+        this.confirmedSeq = seq;
+        this.checkpoint.putLong(0, seq);
+        this.checkpointDirty = true;
+        deleteConfirmed();
+    }
+
+    /**
+     * @return 未确认的消息数
+     */
+    public synchronized long pending() {
+        return this.lastSeq - this.confirmedSeq;
+    }
+
+    public synchronized long getLastSeq() {
+        return this.lastSeq;
+    }
+
+    public synchronized long getFlushedSeq() {
+        return this.flushedSeq;
+    }
+
+    public synchronized long getConfirmedSeq() {
+        return this.confirmedSeq;
+    }
+
+    /**
+     * @return 日志段数
+     */
+    public synchronized int segments() {
+        return this.segments.size();
+    }
+
+    public Path getDir() {
+        return this.dir;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.current != null) {
+            this.current.buffer.force();
+            this.checkpoint.force();
+            this.flushedSeq = this.lastSeq;
+            this.current = null;
+            this.reading = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 当前段 force 后写下一段，单条消息超过段大小时这一段按消息大小分配
+     */
+    private void roll(int length) {
+        this.current.buffer.force();
+        try {
+            this.current = create(this.current.number + 1, Math.max(this.segmentSize, MqJournalFile.frameSize(length)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建发件箱日志段失败: " + this.dir, e);
+        }
+    }
+
+    private Segment create(long number, int size) throws IOException {
+        Path file = this.dir.resolve(PREFIX + number + SUFFIX);
+        Segment segment = new Segment(number, file, MqJournalFile.map(file, size));
+        this.segments.put(number, segment);
+        return segment;
+    }
+
+    private void deleteConfirmed() {
+        Iterator<Segment> iterator = this.segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment == this.current || segment.lastSeq > this.confirmedSeq) {
+                break;
+            }
+            if (this.checkpointDirty) {
+                // 先保证 checkpoint 落盘，否则崩溃后找不到已删除段之后的位置
+                this.checkpoint.force();
+                this.checkpointDirty = false;
+            }
+            iterator.remove();
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                // windows 下仍被映射的文件删不掉，启动时按 checkpoint 跳过
+                log.debug("删除 {} 失败: {}", segment.file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 读取一段，写入位置停在最后一条完整的记录之后
+     */
+    private Segment replay(long number, Path path) throws IOException {
+        Segment segment = new Segment(number, path, MqJournalFile.map(path, 0));
+        MqJournalFile.replay(segment.buffer, path, record -> {
+            long seq = ByteBuffer.wrap(record).getLong();
+            if (segment.firstSeq == 0) {
+                segment.firstSeq = seq;
+            }
+            segment.lastSeq = seq;
+        });
+        return segment;
+    }
+
+    private static MqOutboxRecord decode(byte[] record) {
+        try {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+            long seq = data.readLong();
+            String id = data.readUTF();
+            String exchange = data.readUTF();
+            String routingKey = data.readUTF();
+            byte[] body = new byte[data.readInt()];
+            data.readFully(body);
+            return new MqOutboxRecord(seq, id, exchange, routingKey, body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(long seq, String id, String exchange, String routingKey, byte[] body) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 + body.length);
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeLong(seq);
+            data.writeUTF(id);
+            data.writeUTF(exchange);
+            data.writeUTF(routingKey);
+            data.writeInt(body.length);
+            data.write(body);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Segment {
+
+        private final long number;
+
+        private final Path file;
+
+        /**
+         * position 为写入位置
+         */
+        private final MappedByteBuffer buffer;
+
+        /**
+         * 没有记录时为 0
+         */
+        private long firstSeq;
+
+        private long lastSeq;
+
+        private Segment(long number, Path file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地发件箱配置，前缀 mq.outbox，见 {@link MqOutbox}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.outbox")
+public class MqOutboxProperties {
+
+    /**
+     * 是否启用，不启用时不创建日志文件
+     */
+    private boolean enabled = false;
+
+    /**
+     * 日志目录
+     */
+    private String dir = "mq-outbox";
+
+    /**
+     * 每个日志段的大小，写满后写下一段
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * 写入后是否等到 force 到磁盘才返回，否则写入映射内存就返回，只保证进程崩溃后不丢
+     */
+    private boolean sync = true;
+
+    /**
+     * 每隔多少毫秒 force 一次，这段时间内的写入共用一次 force
+     */
+    private long flushInterval = 5;
+
+    /**
+     * 转发时最多有多少条消息在等待 broker 确认
+     */
+    private int maxInFlight = 1000;
+
+    /**
+     * 转发失败后多少毫秒从第一条未确认的消息重新转发
+     */
+    private long retryDelay = 1000;
+}
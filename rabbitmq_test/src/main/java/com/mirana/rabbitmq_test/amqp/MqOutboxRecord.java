@@ -0,0 +1,29 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+/**
+ * 发件箱中的一条消息
+ */
+@Data
+public class MqOutboxRecord {
+
+    /**
+     * 在日志中的序号，从 1 开始递增
+     */
+    private final long seq;
+
+    /**
+     * 同时作为发送时的 correlation id
+     */
+    private final String id;
+
+    private final String exchange;
+
+    private final String routingKey;
+
+    /**
+     * UTF-8 编码的消息
+     */
+    private final byte[] body;
+}
@@ -0,0 +1,52 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+/**
+ * 本地发件箱的统计
+ */
+@Data
+public class MqOutboxStats {
+
+    private boolean enabled;
+
+    /**
+     * 写入发件箱的消息数
+     */
+    private long appended;
+
+    /**
+     * 转发后被 broker 确认的消息数
+     */
+    private long relayed;
+
+    /**
+     * 转发失败后重新转发的次数
+     */
+    private long retried;
+
+    /**
+     * 无法路由而跳过的消息数
+     */
+    private long dropped;
+
+    /**
+     * 日志中还未确认的消息数
+     */
+    private long pending;
+
+    /**
+     * 已转发、正在等待 broker 确认的消息数
+     */
+    private int inFlight;
+
+    private long lastSeq;
+
+    private long flushedSeq;
+
+    private long confirmedSeq;
+
+    private int segments;
+
+    private String dir;
+}
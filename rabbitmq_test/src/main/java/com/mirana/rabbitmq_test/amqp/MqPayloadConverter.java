@@ -0,0 +1,63 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 消息转换器，springboot 把唯一的 MessageConverter bean 同时用于 RabbitTemplate 和监听容器工厂
+ * <p>
+ * 接收：消息体包装成 {@link LazyPayload}，不复制也不解码，java 序列化的对象仍由 SimpleMessageConverter 反序列化。
+ * 监听方法的参数可以是 LazyPayload、byte[]、ByteBuffer 或 String，见 {@link MqListenerConfig#configureRabbitListeners}。
+ * <p>
+ * 发送：byte[]、数组完整的 ByteBuffer、收到的 LazyPayload 直接作为消息体，不复制、不重新编码，
+ * LazyPayload 保留原来的 content-type 和 content-encoding；其余类型（包括 String）交给 SimpleMessageConverter
+ */
+@Component
+public class MqPayloadConverter implements MessageConverter {
+
+    private final SimpleMessageConverter delegate = new SimpleMessageConverter();
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (object instanceof ByteBuffer) {
+            return this.delegate.toMessage(bytes((ByteBuffer) object), messageProperties);
+        }
+        if (object instanceof LazyPayload) {
+            LazyPayload payload = (LazyPayload) object;
+            messageProperties.setContentType(payload.getContentType());
+            messageProperties.setContentEncoding(payload.getContentEncoding());
+            messageProperties.setContentLength(payload.length());
+            return new Message(payload.getBytes(), messageProperties);
+        }
+        // byte[] 在 SimpleMessageConverter 中也不复制
+        return this.delegate.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        if (MessageProperties.CONTENT_TYPE_SERIALIZED_OBJECT.equals(message.getMessageProperties().getContentType())) {
+            return this.delegate.fromMessage(message);
+        }
+        return LazyPayload.of(message);
+    }
+
+    /**
+     * @return 数组完整时返回数组本身，否则复制剩余部分
+     */
+    private static byte[] bytes(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+}
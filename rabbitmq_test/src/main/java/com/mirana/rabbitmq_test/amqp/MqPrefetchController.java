@@ -0,0 +1,269 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.BlockingQueueConsumer;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按监听方法耗时和到 broker 的往返时间调整监听容器的 prefetch
+ * <p>
+ * 消费者发出 ack 到收到下一条消息之间要等一个往返，prefetch 至少为 1 + 往返时间 / 单条耗时 才不会空等，
+ * 再乘 mq.prefetch.headroom 吸收抖动，限制在 [min, max] 之间：监听方法很快的容器取较大的值，
+ * 慢的 I/O 容器取较小的值，不在一个消费者上囤积消息。
+ * 单条耗时取 mq.consume 计时器在采样间隔内的平均值，往返时间取在消费者连接上被动声明容器第一个队列的耗时，都做指数平滑。
+ * <p>
+ * 容器启动消费者时按配置的 prefetch 发送 basic.qos(global=false)，只对之后创建的消费者生效；
+ * 这里在每个消费者的 channel 上再发送 basic.qos(global=true)，broker 对两个限制取较小的，立即生效，不重建消费者
+ * （队列多为 auto-delete，取消全部消费者会删除队列）。所以上限同时不超过容器配置的 prefetch。
+ * 下限不小于容器每批确认的消息数（批量消费时为 mq.consumer.batch.size），相差不超过 mq.prefetch.tolerance 时不调整。当前值见指标 mq.consume.prefetch
+ */
+@Slf4j
+@Component
+public class MqPrefetchController {
+
+    /**
+     * 指数平滑系数
+     */
+    private static final double ALPHA = 0.3;
+
+    @Autowired
+    private MqPrefetchProperties properties;
+
+    @Autowired
+    private RabbitListenerEndpointRegistry endpointRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RabbitAdmin rabbitAdmin;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    private MqAckCoalescer ackCoalescer;
+
+    private final Map<MessageListenerContainer, State> states = new ConcurrentHashMap<>();
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (!this.properties.isEnabled()) {
+            return;
+        }
+        if (this.properties.getMin() < 1 || this.properties.getMax() < this.properties.getMin()) {
+            throw new IllegalArgumentException("mq.prefetch.min 必须大于 0 且不大于 mq.prefetch.max");
+        }
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("mq-prefetch-");
+        this.scheduler.initialize();
+        this.scheduler.scheduleAtFixedRate(this::sample, this.properties.getInterval());
+        log.info("自适应 prefetch 已启动，范围 {}-{}", this.properties.getMin(), this.properties.getMax());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+    }
+
+    /**
+     * @param handlerNanos 单条消息的处理耗时
+     * @param rttNanos     到 broker 的往返时间
+     * @return 不让消费者在往返期间空等的 prefetch
+     */
+    static int target(double handlerNanos, double rttNanos, double headroom, int min, int max) {
+        double target = handlerNanos <= 0 ? max : Math.ceil(headroom * (1 + rttNanos / handlerNanos));
+        return (int) Math.max(min, Math.min(max, target));
+    }
+
+    static boolean shouldChange(int current, int target, double tolerance) {
+        return target != current && Math.abs(target - current) > current * tolerance;
+    }
+
+    private void sample() {
+        for (MessageListenerContainer container : this.endpointRegistry.getListenerContainers()) {
+            if (container instanceof AbstractMessageListenerContainer && container.isRunning()) {
+                try {
+                    sample((AbstractMessageListenerContainer) container);
+                } catch (AmqpException e) {
+                    log.debug("采样监听容器失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void sample(AbstractMessageListenerContainer container) {
+        String[] queues = container.getQueueNames();
+        if (queues.length == 0) {
+            return;
+        }
+        State state = this.states.computeIfAbsent(container, c -> {
+            DirectFieldAccessor accessor = new DirectFieldAccessor(c);
+            int configured = (Integer) accessor.getPropertyValue("prefetchCount");
+            // 容器攒够一批才确认，prefetch 不能小于一批
+            int batchSize = (Integer) accessor.getPropertyValue(c instanceof SimpleMessageListenerContainer ? "txSize" : "messagesPerAck");
+            if (container.getMessageListener() instanceof BatchingMessageListener) {
+                batchSize = Math.max(batchSize, ((BatchingMessageListener) container.getMessageListener()).getBatchSize());
+            }
+            State created = new State(String.join(",", queues), configured, Math.min(configured, batchSize));
+            this.metrics.prefetch(created.name, created.prefetch);
+            return created;
+        });
+        long count = 0;
+        double totalNanos = 0;
+        for (String queue : queues) {
+            for (Timer timer : this.meterRegistry.find("mq.consume").tag("queue", queue).timers()) {
+                count += timer.count();
+                totalNanos += timer.totalTime(TimeUnit.NANOSECONDS);
+            }
+        }
+        long start = System.nanoTime();
+        this.rabbitAdmin.getQueueProperties(queues[0]);
+        state.update(count, totalNanos, System.nanoTime() - start);
+
+        int current = state.prefetch.get();
+        if (state.handlerNanos > 0) {
+            int max = Math.min(this.properties.getMax(), state.configured);
+            int target = target(state.handlerNanos, state.rttNanos, this.properties.getHeadroom(),
+                    Math.min(Math.max(this.properties.getMin(), state.batchSize), max), max);
+            if (shouldChange(current, target, this.properties.getTolerance())) {
+                log.info("{} prefetch {} -> {}，单条耗时 {} ms，往返 {} ms", state.name, current, target,
+                        String.format("%.3f", state.handlerNanos / 1e6), String.format("%.3f", state.rttNanos / 1e6));
+                state.prefetch.set(target);
+                state.applied.clear();
+                state.adjusted = true;
+                current = target;
+            }
+        }
+        if (state.adjusted) {
+            // 包括扩容、重连后新建的消费者
+            for (Channel channel : channels(container)) {
+                if (channel.isOpen() && state.applied.add(channel)) {
+                    try {
+                        channel.basicQos(current, true);
+                        this.ackCoalescer.prefetch(channel, current);
+                    } catch (IOException e) {
+                        state.applied.remove(channel);
+                        log.debug("{} 设置 prefetch 失败: {}", state.name, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 容器中每个消费者的 channel，SimpleMessageListenerContainer 和 DirectMessageListenerContainer 都没有公开
+     */
+    private static List<Channel> channels(AbstractMessageListenerContainer container) {
+        DirectFieldAccessor accessor = new DirectFieldAccessor(container);
+        Object consumers;
+        List<Object> copy = new ArrayList<>();
+        synchronized (accessor.getPropertyValue("consumersMonitor")) {
+            consumers = accessor.getPropertyValue("consumers");
+            if (consumers instanceof Collection) {
+                copy.addAll((Collection<?>) consumers);
+            }
+        }
+        List<Channel> channels = new ArrayList<>(copy.size());
+        for (Object consumer : copy) {
+            Channel channel = null;
+            if (consumer instanceof BlockingQueueConsumer) {
+                channel = ((BlockingQueueConsumer) consumer).getChannel();
+            } else if (consumer instanceof DefaultConsumer) {
+                channel = ((DefaultConsumer) consumer).getChannel();
+            }
+            if (channel != null) {
+                channels.add(channel);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * 一个容器的采样结果，只在调度线程中修改
+     */
+    private static final class State {
+
+        private final String name;
+
+        /**
+         * 容器配置的 prefetch，消费者创建时使用
+         */
+        private final int configured;
+
+        /**
+         * 每批确认的消息数
+         */
+        private final int batchSize;
+
+        private final AtomicInteger prefetch;
+
+        /**
+         * 已经按当前值设置过的 channel
+         */
+        private final Set<Channel> applied = Collections.newSetFromMap(new WeakHashMap<>());
+
+        private long count;
+
+        private double totalNanos;
+
+        private double handlerNanos;
+
+        private double rttNanos;
+
+        /**
+         * 调整过后，新建的消费者也要设置
+         */
+        private boolean adjusted;
+
+        private State(String name, int configured, int batchSize) {
+            this.name = name;
+            this.configured = configured;
+            this.batchSize = batchSize;
+            this.prefetch = new AtomicInteger(configured);
+        }
+
+        private void update(long count, double totalNanos, long rttNanos) {
+            long handled = count - this.count;
+            if (handled > 0) {
+                double mean = (totalNanos - this.totalNanos) / handled;
+                this.handlerNanos = this.handlerNanos == 0 ? mean : this.handlerNanos + ALPHA * (mean - this.handlerNanos);
+            }
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.rttNanos = this.rttNanos == 0 ? rttNanos : this.rttNanos + ALPHA * (rttNanos - this.rttNanos);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 自适应 prefetch 配置，前缀 mq.prefetch，见 {@link MqPrefetchController}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.prefetch")
+public class MqPrefetchProperties {
+
+    /**
+     * 是否按监听方法耗时调整 prefetch，不启用时使用容器配置的固定值
+     */
+    private boolean enabled = false;
+
+    /**
+     * prefetch 下限
+     */
+    private int min = 1;
+
+    /**
+     * prefetch 上限，同时不超过容器配置的 prefetch
+     */
+    private int max = 250;
+
+    /**
+     * 采样间隔毫秒数
+     */
+    private long interval = 5000;
+
+    /**
+     * 在刚好覆盖一次往返所需的 prefetch 上再乘的倍数
+     */
+    private double headroom = 2.0;
+
+    /**
+     * 目标值与当前值相差超过这个比例才调整
+     */
+    private double tolerance = 0.25;
+}
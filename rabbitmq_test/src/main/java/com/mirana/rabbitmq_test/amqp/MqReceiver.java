@@ -1,141 +1,181 @@
 package com.mirana.rabbitmq_test.amqp;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.rabbitmq.client.Channel;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitHandler;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
 
 /**
  * 消息接收器/消费者
  * Exchange和RoutingKey、queue不同时，每条消息都会发送到多个队列，每个队列里面只有一个消费者可以消费
  * Exchange和RoutingKey、queue都相同，每条消息只有一个消费者可以消费
+ * 配置在 mq.consumer.batch.queues 中的队列由 MqBatchReceiver 批量消费，这里对应的监听不启动
+ * 消息体为 {@link LazyPayload}，日志输出时才解码
+ * 收到压测消息时由 {@link MqLoadRecorder} 记录端到端延迟
  */
 @Slf4j
 @Component
 public class MqReceiver {
 
+    @Autowired
+    private MqAcker acker;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    private MqLoadRecorder loadRecorder;
+
+    /**
+     * 分片队列中每个 key 已处理的最大序号，同一个 key 只在一个分片消费线程中读写
+     */
+    private final Cache<String, Long> shardSeqs = Caffeine.newBuilder().maximumSize(10000).build();
+
     @RabbitHandler
     @RabbitListener(queues = ConstantQueue.QUEUE)
     public void process(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE, msg.getPayload());
 
         //  basicReject：是接收端告诉服务器这个消息我拒绝接收,不处理,可以设置是否放回到队列中还是丢掉，而且只能一次拒绝一个消息
         //  官网中有明确说明不能批量拒绝消息，为解决批量拒绝消息才有了basicNack。
 
-        Map<String, Object> receiveOptMap = (Map<String, Object>) msg.getHeaders().get("receiveOpt");
-        int ackMode = (int) receiveOptMap.get("ackMode");
-        boolean multiple = (boolean) receiveOptMap.get("multiple");
-        boolean requeue = (boolean) receiveOptMap.get("requeue");
+        Integer receiveOpt = msg.getHeaders().get(ReceiveOpt.HEADER, Integer.class);
+        int opt = receiveOpt == null ? ReceiveOpt.DEFAULT : receiveOpt;
+        int ackMode = ReceiveOpt.ackMode(opt);
+        boolean multiple = ReceiveOpt.multiple(opt);
+        boolean requeue = ReceiveOpt.requeue(opt);
 
         if (ackMode == 1) {
-            log.info("模拟正常消费，opt:{}");
+            log.info("模拟正常消费，opt:{}", opt);
             // 手工ACK后，说明正常消费，队列会删除消息
-            Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
             //  long deliveryTag, boolean multiple
-            channel.basicAck(deliveryTag, multiple);
+            acker.ack(channel, msg, multiple);
         } else if (ackMode == 2) {
-            log.info("模拟消费者不应答，opt:{}");
+            log.info("模拟消费者不应答，opt:{}", opt);
             // 不应答，不消费消息，可以多条消息
-            Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
             // long deliveryTag, boolean multiple, boolean requeue
-            channel.basicNack(deliveryTag, multiple, requeue);
+            acker.nack(channel, msg, multiple, requeue);
         } else if (ackMode == 3) {
-            log.info("模拟消费者拒绝应答，opt:{}");
+            log.info("模拟消费者拒绝应答，opt:{}", opt);
             // 拒绝应答，只能针对单条消息
-            Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
             //  long deliveryTag, boolean requeue
-            channel.basicReject(deliveryTag, requeue);
+            acker.reject(channel, msg, requeue);
         } else {
-            log.info("模拟消费者异常，opt:{}");
+            log.info("模拟消费者异常，opt:{}", opt);
             // 模拟异常
             throw new RuntimeException("Receiver Error");
         }
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_DIRECT_TEST)
+    @RabbitListener(queues = ConstantQueue.QUEUE_DIRECT_TEST, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_DIRECT_TEST + "')}")
     public void processDirect(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_DIRECT_TEST, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_DIRECT_TEST, msg.getPayload());
 
         // 手动确认
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
         //  long deliveryTag, boolean multiple
-        channel.basicAck(deliveryTag, false);
+        acker.ack(channel, msg, false);
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_USER_ADD)
+    @RabbitListener(queues = ConstantQueue.QUEUE_USER_ADD, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_USER_ADD + "')}")
     public void processA(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_USER_ADD, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_USER_ADD, msg.getPayload());
 
         // 手动确认
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
         //  long deliveryTag, boolean multiple
-        channel.basicAck(deliveryTag, false);
+        acker.ack(channel, msg, false);
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_USER_DELETE)
+    @RabbitListener(queues = ConstantQueue.QUEUE_USER_DELETE, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_USER_DELETE + "')}")
     public void processB(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_USER_DELETE, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_USER_DELETE, msg.getPayload());
 
         // 手动确认
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
         //  long deliveryTag, boolean multiple
-        channel.basicAck(deliveryTag, false);
+        acker.ack(channel, msg, false);
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_BOOK_ADD)
+    @RabbitListener(queues = ConstantQueue.QUEUE_BOOK_ADD, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_BOOK_ADD + "')}")
     public void processC(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_BOOK_ADD, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_BOOK_ADD, msg.getPayload());
 
         // 手动确认
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
         //  long deliveryTag, boolean multiple
-        channel.basicAck(deliveryTag, false);
+        acker.ack(channel, msg, false);
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_BOOK_DELETE)
+    @RabbitListener(queues = ConstantQueue.QUEUE_BOOK_DELETE, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_BOOK_DELETE + "')}")
     public void processD(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_BOOK_DELETE, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_BOOK_DELETE, msg.getPayload());
 
         // 手动确认
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
         //  long deliveryTag, boolean multiple
-        channel.basicAck(deliveryTag, false);
+        acker.ack(channel, msg, false);
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_FANOUT1)
+    @RabbitListener(queues = ConstantQueue.QUEUE_FANOUT1, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_FANOUT1 + "')}")
     public void processX(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_FANOUT1, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_FANOUT1, msg.getPayload());
 
         //手工ACK
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
-        channel.basicAck(deliveryTag, true);
+        acker.ack(channel, msg, false);
     }
 
     @RabbitHandler
-    @RabbitListener(queues = ConstantQueue.QUEUE_FANOUT2)
+    @RabbitListener(queues = ConstantQueue.QUEUE_FANOUT2, autoStartup = "#{!@mqBatchListenerProperties.handles('" + ConstantQueue.QUEUE_FANOUT2 + "')}")
     public void processY(Message msg, Channel channel) throws IOException {
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_FANOUT2, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_FANOUT2, msg.getPayload());
 
         //手工ACK
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
-        channel.basicAck(deliveryTag, true);
+        acker.ack(channel, msg, false);
     }
 
 
+    /**
+     * 分片队列，每个分片一个消费者，同一个 key 的消息按发送顺序到达，序号变小时记录 mq.consume.out_of_order
+     */
+    @RabbitHandler
+    @RabbitListener(queues = "#{@mqShardRouter.queues()}", containerFactory = "shardListenerContainerFactory",
+            autoStartup = "#{@mqShardProperties.enabled}")
+    public void processShard(Message msg, Channel channel) throws IOException {
+        String queue = msg.getHeaders().get(AmqpHeaders.CONSUMER_QUEUE, String.class);
+        String key = msg.getHeaders().get(MqShardRouter.HEADER_KEY, String.class);
+        Long seq = msg.getHeaders().get(MqShardRouter.HEADER_SEQ, Long.class);
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {} {} {}", queue, key, seq, msg.getPayload());
+        if (key != null && seq != null) {
+            Long last = this.shardSeqs.asMap().put(key, seq);
+            if (last != null && seq < last) {
+                log.warn("{} 中 key {} 的消息乱序，序号 {} 在 {} 之后到达", queue, key, seq, last);
+                metrics.outOfOrder(queue);
+            }
+        }
+
+        acker.ack(channel, msg, false);
+    }
+
     /**
      * 测试死信队列
      * 这里注释掉，过一段时间，死信队列的消息会进入 业务处理的候补邮件队列
@@ -148,7 +188,7 @@ public class MqReceiver {
 //    @RabbitListener(queues = ConstantQueue.QUEUE_EMAIL_DLQ)
 //    public void processEmailDlq(Message msg, Channel channel) throws IOException {
 //
-//        log.info("{} Receiver : {}", ConstantQueue.QUEUE_EMAIL_DLQ, msg.getPayload().toString());
+//        log.info("{} Receiver : {}", ConstantQueue.QUEUE_EMAIL_DLQ, msg.getPayload());
 //
 //
 //        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
@@ -197,11 +237,16 @@ public class MqReceiver {
     @RabbitListener(queues = ConstantQueue.QUEUE_EMAIL_BZ)
     public void processEmailBz(Message msg, Channel channel) throws IOException {
         // 测试死信队列
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_EMAIL_BZ, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_EMAIL_BZ, msg.getPayload());
+        Long due = msg.getHeaders().get(MqDelayLadder.HEADER_DUE, Long.class);
+        if (due != null) {
+            // 延时阶梯转发过来的消息，正数表示晚于预计时间
+            log.info("{} 延时误差 {} ms", ConstantQueue.QUEUE_EMAIL_BZ, System.currentTimeMillis() - due);
+        }
 
         // 应答
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
-        channel.basicReject(deliveryTag, false);
+        acker.reject(channel, msg, false);
 
     }
 
@@ -210,11 +255,11 @@ public class MqReceiver {
     @RabbitListener(queues = ConstantQueue.QUEUE_DELAYED)
     public void processDelayed(Message msg, Channel channel) throws IOException {
         // 测试延时队列
-        log.info("{} Receiver : {}", ConstantQueue.QUEUE_DELAYED, msg.getPayload().toString());
+        loadRecorder.received(msg);
+        log.info("{} Receiver : {}", ConstantQueue.QUEUE_DELAYED, msg.getPayload());
 
         // 应答
-        Long deliveryTag = (Long) msg.getHeaders().get(AmqpHeaders.DELIVERY_TAG);
-        channel.basicReject(deliveryTag, false);
+        acker.reject(channel, msg, false);
 
     }
 
@@ -0,0 +1,44 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * broker 端重试配置，前缀 mq.retry，在 mq.listener.profiles.{队列}.broker-retry=true 的队列上生效，见 {@link MqBrokerRetry}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.retry")
+public class MqRetryProperties {
+
+    /**
+     * 第一次重试的延时毫秒数
+     */
+    private long initialInterval = 1000;
+
+    /**
+     * 每次重试延时的倍数
+     */
+    private double multiplier = 2.0;
+
+    /**
+     * 单次重试延时的上限
+     */
+    private long maxInterval = 60000;
+
+    /**
+     * 最多重试次数，超过后进入停放队列
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 重试队列名称为 {队列}{retrySuffix}.{延时毫秒数}
+     */
+    private String retrySuffix = ".retry";
+
+    /**
+     * 停放队列名称为 {队列}{parkingSuffix}
+     */
+    private String parkingSuffix = ".parking";
+}
@@ -0,0 +1,149 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Exchange;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 发送前按已知的绑定预测消息会进入哪些队列
+ * <p>
+ * 交换机和绑定来自 {@link MqTopology}，第一次调用时构建：主题交换机用 {@link TopicTrie}，匹配结果按路由键缓存；
+ * 直连交换机按路由键查表；广播交换机为全部绑定的队列。
+ * 默认交换机、其他类型的交换机、不在 mq.topology 中的交换机、绑定到交换机的交换机不做预测。
+ * <p>
+ * 只知道本应用声明的绑定，其他应用绑定到同一个交换机的队列预测不到，这种交换机不要使用 reject/divert
+ */
+@Slf4j
+@Component
+public class MqRouter {
+
+    private final MqTopology topology;
+
+    private final MqRoutingProperties properties;
+
+    private final Cache<String, Set<String>> cache;
+
+    /**
+     * 交换机 -> 路由
+     */
+    private volatile Map<String, Route> routes;
+
+    public MqRouter(MqTopology topology, MqRoutingProperties properties) {
+        this.topology = topology;
+        this.properties = properties;
+        this.cache = Caffeine.newBuilder().maximumSize(properties.getCacheSize()).build();
+    }
+
+    public MqRoutingProperties.Unroutable getUnroutable() {
+        return this.properties.getUnroutable();
+    }
+
+    public String getDivertExchange() {
+        return this.properties.getDivertExchange();
+    }
+
+    public String getDivertRoutingKey() {
+        return this.properties.getDivertRoutingKey();
+    }
+
+    /**
+     * @return 预计进入的队列，路由不到时为空集合，不做预测的交换机返回 null
+     */
+    public Set<String> route(String exchange, String routingKey) {
+        Route route = routes().get(exchange);
+        if (route == null) {
+            return null;
+        }
+        if (route.topic == null) {
+            return route.queues(routingKey);
+        }
+        String key = routingKey == null ? "" : routingKey;
+        return this.cache.get(exchange + '\0' + key, k -> route.topic.match(key));
+    }
+
+    private Map<String, Route> routes() {
+        if (this.routes == null) {
+            synchronized (this) {
+                if (this.routes == null) {
+                    this.routes = build();
+                }
+            }
+        }
+        return this.routes;
+    }
+
+    private Map<String, Route> build() {
+        Map<String, Route> routes = new HashMap<>();
+        for (Declarable declarable : this.topology.declarables()) {
+            if (declarable instanceof Exchange) {
+                Exchange exchange = (Exchange) declarable;
+                String type = exchange.isDelayed() ? null : exchange.getType();
+                if (ExchangeTypes.TOPIC.equals(type) || ExchangeTypes.DIRECT.equals(type) || ExchangeTypes.FANOUT.equals(type)) {
+                    routes.put(exchange.getName(), new Route(type));
+                }
+            }
+        }
+        Set<String> unsupported = new LinkedHashSet<>();
+        for (Declarable declarable : this.topology.declarables()) {
+            if (declarable instanceof Binding) {
+                Binding binding = (Binding) declarable;
+                Route route = routes.get(binding.getExchange());
+                if (route == null) {
+                    continue;
+                }
+                if (!binding.isDestinationQueue()) {
+                    unsupported.add(binding.getExchange());
+                } else {
+                    route.add(binding.getRoutingKey(), binding.getDestination());
+                }
+            }
+        }
+        unsupported.forEach(routes::remove);
+        log.info("路由预测: {} 个交换机 {}", routes.size(), routes.keySet());
+        return routes;
+    }
+
+    private static final class Route {
+
+        private final String type;
+
+        private final TopicTrie topic;
+
+        private final Map<String, Set<String>> direct = new HashMap<>();
+
+        private final Set<String> fanout = new LinkedHashSet<>();
+
+        private Route(String type) {
+            this.type = type;
+            this.topic = ExchangeTypes.TOPIC.equals(type) ? new TopicTrie() : null;
+        }
+
+        private void add(String routingKey, String queue) {
+            if (this.topic != null) {
+                this.topic.add(routingKey, queue);
+            } else if (ExchangeTypes.DIRECT.equals(this.type)) {
+                this.direct.computeIfAbsent(routingKey, key -> new LinkedHashSet<>()).add(queue);
+            } else {
+                this.fanout.add(queue);
+            }
+        }
+
+        private Set<String> queues(String routingKey) {
+            if (ExchangeTypes.FANOUT.equals(this.type)) {
+                return this.fanout;
+            }
+            return this.direct.getOrDefault(routingKey == null ? "" : routingKey, Collections.emptySet());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 发送前的路由预测配置，前缀 mq.routing，见 {@link MqRouter}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.routing")
+public class MqRoutingProperties {
+
+    /**
+     * 预测路由不到任何队列时的处理
+     */
+    private Unroutable unroutable = Unroutable.SEND;
+
+    /**
+     * unroutable=divert 时改发到的交换机，默认交换机为空字符串
+     */
+    private String divertExchange = "";
+
+    /**
+     * unroutable=divert 时改发的路由键，目标队列需要在 mq.topology 中声明
+     */
+    private String divertRoutingKey;
+
+    /**
+     * 主题交换机每个路由键的匹配结果缓存条数
+     */
+    private long cacheSize = 10000;
+
+    public enum Unroutable {
+        /**
+         * 照常发送，由 broker 退回，只计入指标
+         */
+        SEND,
+        /**
+         * 不发送，返回的 future 以 {@link PublishConfirmException.Reason#UNROUTABLE} 失败
+         */
+        REJECT,
+        /**
+         * 改发到 divertExchange/divertRoutingKey，消息头带上原来的交换机和路由键
+         */
+        DIVERT
+    }
+}
@@ -2,22 +2,61 @@ package com.mirana.rabbitmq_test.amqp;
 
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
 import org.springframework.amqp.core.MessagePostProcessor;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.Message;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
 public class MqSender {
 
+    /**
+     * 预测路由不到、改发到 mq.routing.divert-* 的消息原来的交换机和路由键
+     */
+    public static final String HEADER_ORIGINAL_EXCHANGE = "x-original-exchange";
+
+    public static final String HEADER_ORIGINAL_ROUTING_KEY = "x-original-routing-key";
+
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
+    @Autowired
+    private MqBatchPublisher batchPublisher;
+
+    @Autowired
+    private MqConfirmTracker confirmTracker;
+
+    @Autowired
+    private MqMetrics metrics;
+
+    @Autowired
+    private MqDelayLadder delayLadder;
+
+    @Autowired
+    private MqTopology topology;
+
+    @Autowired
+    private MqRouter router;
+
+    @Autowired
+    private MqShardRouter shardRouter;
+
+    @Autowired
+    private MqCompression compression;
+
+    @Autowired
+    private MqFlightRecorder flightRecorder;
+
     @PostConstruct
     public void rabbitTemplateInit() {
         // 使用jackson 消息转换器
@@ -31,58 +70,124 @@ public class MqSender {
         // 实现ReturnCallback
         // 当消息发送出去找不到对应路由队列时，将会把消息退回
         // 如果有任何一个路由队列接收投递消息成功，则不会退回消息
-        rabbitTemplate.setReturnCallback((message, replyCode, replyText, exchange, routingKey) -> {
+        RabbitTemplate.ReturnCallback returnCallback = (message, replyCode, replyText, exchange, routingKey) -> {
+            // 被退回的是压缩后的消息
+            message = compression.decompressor().postProcessMessage(message);
             log.info("消息被退回: {}, {} {} {} {}", new String(message.getBody()), replyCode, replyText, exchange, routingKey);
-        });
+            flightRecorder.returned(exchange, routingKey, message.getMessageProperties().getMessageId(), replyCode + " " + replyText);
+            metrics.returned(exchange);
+        };
 
         // 消息确认 yml 需要配置  publisher-returns: true
-        rabbitTemplate.setConfirmCallback((correlationData, ack, cause) -> {
+        // 批量发送时一批消息只有一次确认，correlationData 为 null
+        RabbitTemplate.ConfirmCallback confirmCallback = (correlationData, ack, cause) -> {
             if (ack) {
                 log.info("消息发送成功,id: {}", correlationData == null ? "" : correlationData.getId());
             } else {
                 log.info("消息发送到失败,原因: {}", cause);
             }
-        });
+            confirmTracker.confirm(correlationData, ack, cause);
+        };
+
+        rabbitTemplate.setReturnCallback(returnCallback);
+        rabbitTemplate.setConfirmCallback(confirmCallback);
+        batchPublisher.getTemplate().setReturnCallback(returnCallback);
+        batchPublisher.getTemplate().setConfirmCallback(confirmCallback);
+
+        // 超过 mq.compression.min-size 的消息压缩后发送，批量发送时压缩整批
+        rabbitTemplate.setBeforePublishPostProcessors(compression.compressor());
+        batchPublisher.getTemplate().setBeforePublishPostProcessors(compression.compressor());
     }
 
+    /**
+     * 立即发送缓冲区中未满的批次
+     */
+    public void flushBatch() {
+        this.batchPublisher.flush();
+    }
 
-    public void send2Queue(Message message, CorrelationData correlationData) {
-        this.rabbitTemplate.convertAndSend(ConstantQueue.QUEUE, message, correlationData);
+
+    /**
+     * 发送消息到最简单的队列
+     *
+     * @param msg             消息
+     * @param receiveOpt      消费者应答选项，见 {@link ReceiveOpt}
+     * @param correlationData id
+     * @param batch           是否批量发送
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> send2Queue(String msg, int receiveOpt, CorrelationData correlationData, boolean batch) {
+        MessagePostProcessor messagePostProcessor = message -> {
+            message.getMessageProperties().setHeader(ReceiveOpt.HEADER, receiveOpt);
+            return message;
+        };
+        return send("", ConstantQueue.QUEUE, msg, messagePostProcessor, correlationData, batch);
     }
 
-    public void send2DirectExchange(String msg) {
-        this.rabbitTemplate.convertAndSend(ConstantQueue.DirectExchange, ConstantQueue.ROUTINGKEY_DIRECT_TEST, msg);
+    public CompletableFuture<CorrelationData> send2DirectExchange(String msg, boolean batch) {
+        return send(ConstantQueue.DirectExchange, ConstantQueue.ROUTINGKEY_DIRECT_TEST, msg, null, null, batch);
     }
 
-    public void send2TopicExchange(String msg, Integer routingkeyMode) {
+    public CompletableFuture<CorrelationData> send2TopicExchange(String msg, Integer routingkeyMode, boolean batch) {
+        return send(ConstantQueue.TopicExchange, topicRoutingKey(routingkeyMode), msg, null, null, batch);
+    }
+
+    /**
+     * @param routingkeyMode 路由键模式，不同的路由键匹配的队列不同
+     * @return 主题交换机的路由键
+     */
+    public static String topicRoutingKey(Integer routingkeyMode) {
 
 //        String ROUTINGKEY_MATCH_BOOK = "rk.book.#";
 //        String ROUTINGKEY_MATCH_ADD = "rk.#.add";
 
         if (routingkeyMode == 0) {
             // 匹配routingkey ROUTINGKEY_MATCH_BOOK，当前路由键监听的队列有：queue_book.add、queue_book.delete
-            this.rabbitTemplate.convertAndSend(ConstantQueue.TopicExchange, ConstantQueue.ROUTINGKEY_BOOK_DELETE, msg);
+            return ConstantQueue.ROUTINGKEY_BOOK_DELETE;
         } else if (routingkeyMode == 1) {
             // 匹配routingkey ROUTINGKEY_MATCH_BOOK、ROUTINGKEY_MATCH_ADD，当前路由键监听的队列有：queue_book.add、queue_book.delete、queue_user.add
-            this.rabbitTemplate.convertAndSend(ConstantQueue.TopicExchange, ConstantQueue.ROUTINGKEY_BOOK_ADD, msg);
+            return ConstantQueue.ROUTINGKEY_BOOK_ADD;
         } else if (routingkeyMode == 2) {
             // 匹配routingkey ROUTINGKEY_MATCH_ADD，当前路由键监听的队列有 queue_book.add、queue_user.add
-            this.rabbitTemplate.convertAndSend(ConstantQueue.TopicExchange, ConstantQueue.ROUTINGKEY_USER_ADD, msg);
+            return ConstantQueue.ROUTINGKEY_USER_ADD;
         } else if (routingkeyMode == 3) {
             // ROUTINGKEY_MATCH_ADD 和 ROUTINGKEY_MATCH_BOOK 两个路由键都不匹配
-            this.rabbitTemplate.convertAndSend(ConstantQueue.TopicExchange, ConstantQueue.ROUTINGKEY_USER_DELETE, msg);
+            return ConstantQueue.ROUTINGKEY_USER_DELETE;
         } else {
             // 无法匹配路由键 @returnedMessage异常：NO_ROUTE MyTopicExchange rk.other
-            this.rabbitTemplate.convertAndSend(ConstantQueue.TopicExchange, ConstantQueue.ROUTINGKEY_OTHER, msg);
+            return ConstantQueue.ROUTINGKEY_OTHER;
         }
     }
 
-    public void send2FanoutExchange(String msg) {
-        this.rabbitTemplate.convertAndSend(ConstantQueue.FanoutExchange, "", msg);
+    public CompletableFuture<CorrelationData> send2FanoutExchange(String msg, boolean batch) {
+        return send(ConstantQueue.FanoutExchange, "", msg, null, null, batch);
     }
 
-    public void send2EmailDlqQueue(String msg, CorrelationData correlationData, MessagePostProcessor messagePostProcessor) {
-        this.rabbitTemplate.convertAndSend(ConstantQueue.EMAIL_Exchange_DLQ, ConstantQueue.EMAIL_ROUTINGKEY_DLQ, msg, messagePostProcessor, correlationData);
+    public CompletableFuture<CorrelationData> send2EmailDlqQueue(String msg, CorrelationData correlationData, MessagePostProcessor messagePostProcessor, boolean batch) {
+        return send(ConstantQueue.EMAIL_Exchange_DLQ, ConstantQueue.EMAIL_ROUTINGKEY_DLQ, msg, messagePostProcessor, correlationData, batch);
+    }
+
+    /**
+     * 通过延时阶梯发送，到期后转发到邮件候补交换机，每条消息的延时可以不同且互不阻塞
+     *
+     * @param msg             消息
+     * @param delay           延时毫秒数，不超过 {@link MqDelayLadder#getMaxDelay()}
+     * @param correlationData id
+     * @param batch           是否批量发送
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> send2EmailDelayLadder(String msg, long delay, CorrelationData correlationData, boolean batch) {
+        String routingKey = this.delayLadder.routingKey(delay);
+        long due = System.currentTimeMillis() + delay;
+        MessagePostProcessor messagePostProcessor = message -> {
+            message.getMessageProperties().setHeader(MqDelayLadder.HEADER_DUE, due);
+            message.getMessageProperties().setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+            return message;
+        };
+        if (routingKey == null) {
+            return send(ConstantQueue.EMAIL_Exchange_BZ, ConstantQueue.EMAIL_ROUTINGKEY_BZ, msg, messagePostProcessor, correlationData, batch);
+        }
+        return send(this.delayLadder.getExchange(), routingKey, msg, messagePostProcessor, correlationData, batch);
     }
 
     /**
@@ -91,8 +196,129 @@ public class MqSender {
      * @param msg                  消息
      * @param correlationData      id
      * @param messagePostProcessor 消息处理器
+     * @param batch                是否批量发送
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> send2DelayedQueue(String msg, CorrelationData correlationData, MessagePostProcessor messagePostProcessor, boolean batch) {
+        return send(ConstantQueue.EXCHANGE_DELAYED, ConstantQueue.ROUTINGKEY_DELAYED, msg, messagePostProcessor, correlationData, batch);
+    }
+
+    /**
+     * 按 key 发送到分片队列，同一个 key 进入同一个分片并由一个消费者按顺序处理，见 {@link MqShardRouter}。
+     * 同一个 key 的消息应由同一个线程依次发送，多个线程并发发送时发送顺序本身就不确定。
+     * 不支持批量发送：拆包后的消息共用第一条消息的消息头，key 和序号会丢失
+     *
+     * @param key 分片 key，如订单号
+     * @param seq key 内的序号，消费端据此检查顺序
+     * @param msg 消息
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> send2ShardedQueue(String key, long seq, String msg) {
+        MessagePostProcessor messagePostProcessor = message -> {
+            message.getMessageProperties().setHeader(MqShardRouter.HEADER_KEY, key);
+            message.getMessageProperties().setHeader(MqShardRouter.HEADER_SEQ, seq);
+            return message;
+        };
+        return send(this.shardRouter.getExchange(), this.shardRouter.routingKey(key), msg, messagePostProcessor, null, false);
+    }
+
+    /**
+     * 发送到指定的交换机，{@link MqDelayScheduler} 中的延时消息到期后、{@link MqOutbox} 转发时调用
+     *
+     * @param body            String，或者不复制直接发送的 byte[]、ByteBuffer、收到的 {@link LazyPayload}，见 {@link MqPayloadConverter}
+     * @param correlationData id
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> send2Exchange(String exchange, String routingKey, Object body, CorrelationData correlationData) {
+        return send(exchange, routingKey, body, null, correlationData, false);
+    }
+
+    /**
+     * 发送到指定的交换机，{@link MqLoadGenerator} 压测时调用，在 messagePostProcessor 中写入发送时间
+     *
+     * @param messagePostProcessor 消息处理器
+     * @param correlationData      id，为 null 时自动生成
+     * @return broker 确认后完成的 future
      */
-    public void send2DelayedQueue(String msg, CorrelationData correlationData, MessagePostProcessor messagePostProcessor) {
-        this.rabbitTemplate.convertAndSend(ConstantQueue.EXCHANGE_DELAYED, ConstantQueue.ROUTINGKEY_DELAYED, msg, messagePostProcessor, correlationData);
+    public CompletableFuture<CorrelationData> send2Exchange(String exchange, String routingKey, Object body,
+                                                            MessagePostProcessor messagePostProcessor, CorrelationData correlationData) {
+        return send(exchange, routingKey, body, messagePostProcessor, correlationData, false);
+    }
+
+    /**
+     * 通过默认交换机把收到的消息原样发送到 queue，保留消息头和 messageId，{@link MqBrokerRetryInterceptor} 调用
+     *
+     * @return broker 确认后完成的 future
+     */
+    public CompletableFuture<CorrelationData> republish(String queue, Message message) {
+        return send("", queue, message, null, null, false);
+    }
+
+    /**
+     * 发送消息并登记到未确认消息表
+     * <p>
+     * 批量发送时整批只有一次确认，无法对应到单条消息，返回的 future 在消息进入缓冲区后立即完成。
+     * 发送前由 {@link MqRouter} 预测路由，路由不到时按 mq.routing.unroutable 处理
+     *
+     * @param correlationData 为 null 时自动生成
+     * @return broker ack 后完成，nack、被退回、超时则失败
+     */
+    private CompletableFuture<CorrelationData> send(String exchange, String routingKey, Object msg,
+                                                    MessagePostProcessor messagePostProcessor,
+                                                    CorrelationData correlationData, boolean batch) {
+        if (correlationData == null) {
+            correlationData = new CorrelationData(UUID.randomUUID().toString());
+        }
+        // messageId 与 correlation id 相同，消费端按它去重
+        String messageId = correlationData.getId();
+        String originalExchange = exchange;
+        String originalRoutingKey = routingKey;
+        boolean divert = false;
+        Set<String> queues = this.router.route(exchange, routingKey);
+        if (queues != null) {
+            this.metrics.fanout(exchange, queues.size());
+            if (queues.isEmpty()) {
+                MqRoutingProperties.Unroutable unroutable = this.router.getUnroutable();
+                this.metrics.unroutable(exchange, unroutable.name().toLowerCase());
+                if (unroutable == MqRoutingProperties.Unroutable.REJECT) {
+                    CompletableFuture<CorrelationData> future = new CompletableFuture<>();
+                    future.completeExceptionally(new PublishConfirmException(PublishConfirmException.Reason.UNROUTABLE,
+                            messageId, exchange + " " + routingKey));
+                    return future;
+                }
+                if (unroutable == MqRoutingProperties.Unroutable.DIVERT) {
+                    divert = true;
+                    exchange = this.router.getDivertExchange();
+                    routingKey = this.router.getDivertRoutingKey();
+                }
+            }
+        }
+        boolean diverted = divert;
+        MessagePostProcessor postProcessor = message -> {
+            if (message.getMessageProperties().getMessageId() == null) {
+                message.getMessageProperties().setMessageId(messageId);
+            }
+            if (diverted) {
+                message.getMessageProperties().setHeader(HEADER_ORIGINAL_EXCHANGE, originalExchange);
+                message.getMessageProperties().setHeader(HEADER_ORIGINAL_ROUTING_KEY, originalRoutingKey);
+            }
+            return messagePostProcessor == null ? message : messagePostProcessor.postProcessMessage(message);
+        };
+        this.metrics.published(exchange);
+        this.flightRecorder.published(exchange, routingKey, messageId);
+        this.topology.declareLazy(exchange);
+        if (batch) {
+            this.batchPublisher.getTemplate().convertAndSend(exchange, routingKey, msg, postProcessor);
+            return CompletableFuture.completedFuture(correlationData);
+        }
+
+        CompletableFuture<CorrelationData> future = this.confirmTracker.track(correlationData, exchange);
+        try {
+            this.rabbitTemplate.convertAndSend(exchange, routingKey, msg, postProcessor, correlationData);
+        } catch (AmqpException e) {
+            this.confirmTracker.cancel(correlationData, e);
+            throw e;
+        }
+        return future;
     }
 }
@@ -0,0 +1,44 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分片队列配置，前缀 mq.shard，见 {@link MqShardRouter}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.shard")
+public class MqShardProperties {
+
+    /**
+     * 是否声明分片队列并启动监听
+     */
+    private boolean enabled;
+
+    /**
+     * 分片数，修改后约 1/n 的 key 换到新的分片，换分片时正在处理的消息不保证顺序
+     */
+    private int shards = 4;
+
+    /**
+     * 分片交换机（direct），路由键为分片序号
+     */
+    private String exchange = "queue_test.sharded";
+
+    /**
+     * 分片队列名称为 {queuePrefix}.{序号}
+     */
+    private String queuePrefix = "queue_test.shard";
+
+    /**
+     * 分片队列声明 x-single-active-consumer（RabbitMQ 3.8+），多个节点同时监听时每个分片只有一个消费者在消费
+     */
+    private boolean singleActiveConsumer = true;
+
+    /**
+     * 每个分片消费者未应答消息的上限
+     */
+    private int prefetch = 50;
+}
@@ -0,0 +1,108 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分片队列
+ * <p>
+ * 一个队列由 broker 上的一个进程处理，单个队列的吞吐量有上限。这里把消息按 key 分到 n 个分片队列，
+ * 同一个 key 总是进入同一个分片，每个分片只有一个消费者按顺序处理，同一个 key 的消息保持顺序，不同分片并行。
+ * <p>
+ * 分片在发送端计算，不依赖 rabbitmq_consistent_hash_exchange 插件：key 取 64 位 FNV-1a 哈希后用
+ * jump consistent hash 选择分片，分片数从 n 增加到 n+1 时只有约 1/(n+1) 的 key 换分片。
+ * 分片交换机为 direct，第 i 个分片队列用路由键 i 绑定
+ */
+@Component
+public class MqShardRouter {
+
+    /**
+     * 消息的分片 key
+     */
+    public static final String HEADER_KEY = "x-shard-key";
+
+    /**
+     * 同一个 key 的消息序号，由发送方递增，消费端据此检查顺序
+     */
+    public static final String HEADER_SEQ = "x-shard-seq";
+
+    private final MqShardProperties properties;
+
+    public MqShardRouter(MqShardProperties properties) {
+        if (properties.getShards() <= 0) {
+            throw new IllegalArgumentException("mq.shard.shards 必须大于 0");
+        }
+        this.properties = properties;
+    }
+
+    public String getExchange() {
+        return this.properties.getExchange();
+    }
+
+    /**
+     * @return key 所在的分片序号
+     */
+    public int shard(String key) {
+        return jump(Fnv1a.hash64(key), this.properties.getShards());
+    }
+
+    /**
+     * @return key 所在分片的路由键
+     */
+    public String routingKey(String key) {
+        return String.valueOf(shard(key));
+    }
+
+    /**
+     * @return 全部分片队列的名称，用于 @RabbitListener
+     */
+    public String[] queues() {
+        String[] queues = new String[this.properties.getShards()];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = this.properties.getQueuePrefix() + "." + i;
+        }
+        return queues;
+    }
+
+    /**
+     * @return 分片交换机、分片队列和绑定
+     */
+    public Declarables declarables() {
+        List<Declarable> declarables = new ArrayList<>();
+        DirectExchange exchange = new DirectExchange(this.properties.getExchange(), true, false);
+        declarables.add(exchange);
+        String[] queues = queues();
+        for (int i = 0; i < queues.length; i++) {
+            QueueBuilder builder = QueueBuilder.durable(queues[i]);
+            if (this.properties.isSingleActiveConsumer()) {
+                builder.withArgument("x-single-active-consumer", true);
+            }
+            Queue queue = builder.build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(String.valueOf(i)));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * Lamping, Veach: A Fast, Minimal Memory, Consistent Hash Algorithm
+     */
+    static int jump(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
@@ -0,0 +1,68 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.mirana.rabbitmq_test.DateUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 应用内延时发送，需要 mq.timer.enabled=true
+ * <p>
+ * curl "http://localhost:8080/timer/send2DelayedQueue?msgNumber=10&delay=5000"
+ * curl http://localhost:8080/timer/stats
+ */
+@Slf4j
+@RestController
+public class MqTimerController {
+
+    @Autowired
+    private MqDelayScheduler delayScheduler;
+
+    /**
+     * 到期后直接发送到 queue_delayed，与 AmqpController#send2DelayedQueue 对应
+     *
+     * @param msgNumber 消息数量
+     * @param delay     延时毫秒数
+     * @return 提交结果，带第一条消息的 id
+     */
+    @GetMapping("timer/send2DelayedQueue")
+    public String send2DelayedQueue(@RequestParam(required = false, defaultValue = "1") Integer msgNumber,
+                                    @RequestParam(required = false, defaultValue = "5000") Long delay) {
+        checkEnabled();
+        String msg = DateUtils.format();
+        String firstId = null;
+        for (int i = 0; i < msgNumber; i++) {
+            String id = delayScheduler.schedule(null, "", ConstantQueue.QUEUE_DELAYED, i + "_" + msg, delay);
+            if (firstId == null) {
+                firstId = id;
+            }
+        }
+        log.info("timer/send2DelayedQueue: {} 条，延时 {} ms", msgNumber, delay);
+        return "成功提交延时消息 " + msgNumber + " 条： " + msg + ", 延时：" + delay + " 毫秒，第一条 id：" + firstId;
+    }
+
+    @GetMapping("timer/{id}/cancel")
+    public String cancel(@PathVariable String id) {
+        checkEnabled();
+        if (!delayScheduler.cancel(id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "延时消息不存在或已到期: " + id);
+        }
+        return "已取消延时消息 " + id;
+    }
+
+    @GetMapping("timer/stats")
+    public MqTimerStats stats() {
+        return delayScheduler.stats();
+    }
+
+    private void checkEnabled() {
+        if (!delayScheduler.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "应用内延时发送未启用，设置 mq.timer.enabled=true");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+/**
+ * 一条延时发送的消息，到期后发送到 exchange
+ */
+@Data
+public class MqTimerEntry {
+
+    /**
+     * 同时作为发送时的 correlation id
+     */
+    private final String id;
+
+    /**
+     * 到期时间，毫秒时间戳
+     */
+    private final long deadline;
+
+    private final String exchange;
+
+    private final String routingKey;
+
+    private final String body;
+}
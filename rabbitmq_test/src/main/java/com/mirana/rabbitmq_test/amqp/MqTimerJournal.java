@@ -0,0 +1,267 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 延时消息的日志，只追加，写入内存映射文件
+ * <p>
+ * 记录格式见 {@link MqJournalFile}，内容为 [类型][内容]，类型 ADD 记录一条 {@link MqTimerEntry}，REMOVE 记录发送成功或取消的 id。
+ * <p>
+ * 文件写满后压缩：未到期的记录先写入临时文件并 force，再原子地改名为下一代文件 timers.{代数}.journal，然后删除旧文件。
+ * 每一代的第一条记录为 GENERATION，启动时从代数最大的文件往前找，第一条记录完整的文件为准，
+ * 操作系统崩溃后改名已落盘而内容没有落盘的文件被跳过，读取上一代。读取后同样压缩一次
+ */
+@Slf4j
+public class MqTimerJournal implements Closeable {
+
+    private static final byte ADD = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final byte GENERATION = 3;
+
+    private static final String PREFIX = "timers.";
+
+    private static final String SUFFIX = ".journal";
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    /**
+     * 每次写入后是否 force 到磁盘，否则只保证进程崩溃后不丢，操作系统崩溃可能丢失最后一部分
+     */
+    private final boolean sync;
+
+    /**
+     * 日志中未删除的记录，压缩时写入新文件
+     */
+    private final Map<String, MqTimerEntry> live = new LinkedHashMap<>();
+
+    private long generation;
+
+    private Path file;
+
+    private MappedByteBuffer buffer;
+
+    private boolean dirty;
+
+    public MqTimerJournal(Path dir, int segmentSize, boolean sync) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+    }
+
+    /**
+     * 读取已有的日志并压缩
+     *
+     * @return 未发送、未取消的消息
+     */
+    public synchronized Collection<MqTimerEntry> open() throws IOException {
+        Files.createDirectories(this.dir);
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+            for (Path path : paths) {
+                long generation = MqJournalFile.number(path, PREFIX, SUFFIX);
+                if (generation >= 0) {
+                    files.put(generation, path);
+                }
+            }
+        }
+        if (!files.isEmpty()) {
+            // 压缩写入比所有已有文件都新的一代，跳过的文件随后删除
+            this.generation = files.lastKey();
+        }
+        for (Path path : files.descendingMap().values()) {
+            if (replay(path)) {
+                log.info("读取延时消息日志 {}，未到期 {} 条", path, this.live.size());
+                break;
+            }
+            log.warn("延时消息日志 {} 第一条记录不完整，读取上一代", path);
+            this.live.clear();
+        }
+        compact();
+        return Collections.unmodifiableCollection(this.live.values());
+    }
+
+    public synchronized void add(MqTimerEntry entry) {
+        byte[] record = encode(ADD, entry, entry.getId());
+        this.live.put(entry.getId(), entry);
+        append(record);
+    }
+
+    public synchronized void remove(String id) {
+        if (this.live.remove(id) != null) {
+            append(encode(REMOVE, null, id));
+        }
+    }
+
+    /**
+     * sync 为 false 时由调用方定期调用，把修改过的页写到磁盘
+     */
+    public synchronized void flush() {
+        if (this.dirty && this.buffer != null) {
+            this.buffer.force();
+            this.dirty = false;
+        }
+    }
+
+    public synchronized int size() {
+        return this.live.size();
+    }
+
+    /**
+     * @return 当前文件已使用的字节数
+     */
+    public synchronized long used() {
+        return this.buffer == null ? 0 : this.buffer.position();
+    }
+
+    /**
+     * @return 当前文件的大小
+     */
+    public synchronized long capacity() {
+        return this.buffer == null ? 0 : this.buffer.capacity();
+    }
+
+    public synchronized Path getFile() {
+        return this.file;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.buffer != null) {
+            this.buffer.force();
+            this.buffer = null;
+        }
+    }
+
+    private void append(byte[] record) {
+        if (this.buffer.remaining() < MqJournalFile.frameSize(record.length)) {
+            compact();
+            if (this.buffer.remaining() < MqJournalFile.frameSize(record.length)) {
+                throw new IllegalStateException("延时消息过大: " + record.length + " 字节");
+            }
+        }
+        MqJournalFile.write(this.buffer, record);
+        this.dirty = true;
+        if (this.sync) {
+            flush();
+        }
+    }
+
+    /**
+     * 把 live 写入下一代文件，文件大小至少是内容的 2 倍。
+     * 改名前内容已经落盘，改名后才删除旧文件，任何时候崩溃都至少有一代完整的文件
+     */
+    private void compact() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(out);
+            long next = this.generation + 1;
+            MqJournalFile.write(data, generationRecord(next));
+            for (MqTimerEntry entry : this.live.values()) {
+                MqJournalFile.write(data, encode(ADD, entry, entry.getId()));
+            }
+            int size = Math.max(this.segmentSize, out.size() * 2 + MqJournalFile.HEADER);
+
+            Path target = this.dir.resolve(PREFIX + next + SUFFIX);
+            MqJournalFile.writeAtomically(target, out.toByteArray());
+
+            this.generation = next;
+            this.file = target;
+            // 映射时文件扩展到 size，扩展的部分为 0，即日志结束
+            this.buffer = MqJournalFile.map(target, size);
+            this.buffer.position(out.size());
+            this.dirty = false;
+            deleteOlder();
+            log.info("延时消息日志压缩到 {}，{} 条，{}/{} 字节", this.file, this.live.size(), out.size(), size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("压缩延时消息日志失败: " + this.dir, e);
+        }
+    }
+
+    private void deleteOlder() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, PREFIX + "*" + SUFFIX)) {
+            for (Path path : files) {
+                if (MqJournalFile.number(path, PREFIX, SUFFIX) < this.generation) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        // windows 下仍被映射的文件删不掉，下次压缩时再删
+                        log.debug("删除 {} 失败: {}", path, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 第一条记录完整时为 true
+     */
+    private boolean replay(Path path) throws IOException {
+        return MqJournalFile.replay(MqJournalFile.map(path, 0), path, this::decode) > 0;
+    }
+
+    private void decode(byte[] record) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = data.readByte();
+        if (type == GENERATION) {
+            return;
+        }
+        String id = data.readUTF();
+        if (type == REMOVE) {
+            this.live.remove(id);
+            return;
+        }
+        long deadline = data.readLong();
+        String exchange = data.readUTF();
+        String routingKey = data.readUTF();
+        byte[] body = new byte[data.readInt()];
+        data.readFully(body);
+        this.live.put(id, new MqTimerEntry(id, deadline, exchange, routingKey, new String(body, StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] encode(byte type, MqTimerEntry entry, String id) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeByte(type);
+            data.writeUTF(id);
+            if (type == ADD) {
+                data.writeLong(entry.getDeadline());
+                data.writeUTF(entry.getExchange());
+                data.writeUTF(entry.getRoutingKey());
+                byte[] body = entry.getBody().getBytes(StandardCharsets.UTF_8);
+                data.writeInt(body.length);
+                data.write(body);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] generationRecord(long generation) {
+        return ByteBuffer.allocate(9).put(GENERATION).putLong(generation).array();
+    }
+}
@@ -0,0 +1,49 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 应用内延时发送配置，前缀 mq.timer，见 {@link MqDelayScheduler}
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.timer")
+public class MqTimerProperties {
+
+    /**
+     * 是否启用，不启用时不创建日志文件
+     */
+    private boolean enabled = false;
+
+    /**
+     * 时间轮每格的毫秒数，也是延时的精度
+     */
+    private long tickMillis = 100;
+
+    /**
+     * 时间轮一圈的格数
+     */
+    private int wheelSize = 512;
+
+    /**
+     * 日志目录
+     */
+    private String journalDir = "mq-timer";
+
+    /**
+     * 日志文件大小，写满后压缩到新文件
+     */
+    private int journalSegmentSize = 64 * 1024 * 1024;
+
+    /**
+     * 每次写日志后是否立即 force 到磁盘，否则每格 force 一次
+     */
+    private boolean journalSync = false;
+
+    /**
+     * 到期发送失败后多少毫秒重试
+     */
+    private long retryDelay = 1000;
+}
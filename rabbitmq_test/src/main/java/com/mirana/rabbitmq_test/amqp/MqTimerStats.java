@@ -0,0 +1,39 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+
+/**
+ * 应用内延时发送的统计
+ */
+@Data
+public class MqTimerStats {
+
+    private boolean enabled;
+
+    /**
+     * 时间轮中未到期的定时器数
+     */
+    private int pending;
+
+    /**
+     * 已到期、正在等待 broker 确认的消息数
+     */
+    private int inFlight;
+
+    private long scheduled;
+
+    private long fired;
+
+    private long cancelled;
+
+    /**
+     * 到期发送失败后重试的次数
+     */
+    private long retried;
+
+    private String journalFile;
+
+    private long journalUsed;
+
+    private long journalCapacity;
+}
@@ -0,0 +1,389 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Exchange;
+import org.springframework.amqp.core.ExchangeBuilder;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 交换机、队列、绑定的声明，代替 RabbitAdmin 的自动声明
+ * <p>
+ * 声明的内容来自 mq.topology 配置（见 {@link MqTopologyProperties}）和容器中的 {@link Declarable}、{@link Declarables} bean。
+ * 注册为消费者、发送连接的 ConnectionListener，每次建立连接时在一个 channel 上依次声明，某一项失败导致 channel 关闭时
+ * 换一个 channel 继续，不影响其他项。
+ * <p>
+ * 持久化且不自动删除的交换机、队列（以及两端都是这种的绑定）在 broker 重启和断线后仍然存在，
+ * 声明成功后按 broker 地址记录配置的指纹，重新连接同一个 broker 时指纹未变化的直接跳过。
+ * 其他的每次连接都重新声明。
+ * <p>
+ * 配置了 lazy 的交换机在第一次通过 {@link MqSender} 发送到它时才声明，同时声明它的绑定，包括容器中以它为源的绑定
+ */
+@Slf4j
+@Component
+public class MqTopology implements ConnectionListener, ApplicationContextAware {
+
+    private final MqTopologyProperties properties;
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private ApplicationContext applicationContext;
+
+    /**
+     * 配置中每次连接都声明的部分
+     */
+    private final List<Declarable> eager = new ArrayList<>();
+
+    /**
+     * 延迟声明的交换机 -> 交换机和它的绑定
+     */
+    private final Map<String, List<Declarable>> lazy = new LinkedHashMap<>();
+
+    /**
+     * 还没有声明过的延迟声明交换机
+     */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * broker 地址 + 名称 -> 上次声明成功时的指纹，只记录断线后仍然存在的
+     */
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * 容器中的 Declarable，第一次建立连接时读取
+     */
+    private volatile List<Declarable> beans;
+
+    /**
+     * 持久化且不自动删除的交换机、队列名称
+     */
+    private volatile Set<String> persistent;
+
+    public MqTopology(MqTopologyProperties properties, RabbitTemplate rabbitTemplate) {
+        this.properties = properties;
+        this.rabbitTemplate = rabbitTemplate;
+        Set<String> skipped = new HashSet<>();
+        for (MqTopologyProperties.ExchangeDef def : properties.getExchanges()) {
+            ExchangeBuilder builder = new ExchangeBuilder(def.getName(), def.getType())
+                    .durable(def.isDurable())
+                    .withArguments(arguments(def.getArguments()));
+            if (def.isAutoDelete()) {
+                builder.autoDelete();
+            }
+            if (def.isInternal()) {
+                builder.internal();
+            }
+            Exchange exchange = builder.build();
+            if (!def.isDeclare()) {
+                skipped.add(def.getName());
+            } else if (def.isLazy()) {
+                this.lazy.computeIfAbsent(def.getName(), name -> new ArrayList<>()).add(exchange);
+            } else {
+                this.eager.add(exchange);
+            }
+        }
+        for (MqTopologyProperties.QueueDef def : properties.getQueues()) {
+            if (def.isDeclare()) {
+                this.eager.add(new Queue(def.getName(), def.isDurable(), def.isExclusive(), def.isAutoDelete(),
+                        arguments(def.getArguments())));
+            }
+        }
+        for (MqTopologyProperties.BindingDef def : properties.getBindings()) {
+            boolean toQueue = def.getQueue() != null;
+            Binding binding = new Binding(toQueue ? def.getQueue() : def.getDestinationExchange(),
+                    toQueue ? Binding.DestinationType.QUEUE : Binding.DestinationType.EXCHANGE,
+                    def.getExchange(), def.getRoutingKey(), arguments(def.getArguments()));
+            if (skipped.contains(def.getExchange())) {
+                continue;
+            }
+            List<Declarable> group = this.lazy.get(def.getExchange());
+            (group == null ? this.eager : group).add(binding);
+        }
+        this.pending.addAll(this.lazy.keySet());
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * 建立连接时声明配置中的、已经发送过的延迟声明交换机、容器中的 Declarable
+     */
+    @Override
+    public void onCreate(Connection connection) {
+        List<Declarable> declarables = new ArrayList<>(this.eager);
+        this.lazy.forEach((exchange, group) -> {
+            if (!this.pending.contains(exchange)) {
+                declarables.addAll(group);
+            }
+        });
+        for (Declarable declarable : beans()) {
+            // 交换机还不存在，绑定会失败，等交换机一起声明
+            if (!(declarable instanceof Binding) || !this.pending.contains(((Binding) declarable).getExchange())) {
+                declarables.add(declarable);
+            }
+        }
+        try {
+            declare(connection, declarables);
+        } catch (RuntimeException e) {
+            // 不影响连接，使用时再报错
+            log.warn("声明队列、交换机失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 发送前调用，exchange 是延迟声明的交换机且还没有声明过时，声明它和它的绑定
+     */
+    public void declareLazy(String exchange) {
+        if (this.pending.isEmpty() || !this.pending.contains(exchange)) {
+            return;
+        }
+        synchronized (this.pending) {
+            if (!this.pending.contains(exchange)) {
+                return;
+            }
+            List<Declarable> group = new ArrayList<>(this.lazy.get(exchange));
+            for (Declarable declarable : beans()) {
+                if (declarable instanceof Binding && exchange.equals(((Binding) declarable).getExchange())) {
+                    group.add(declarable);
+                }
+            }
+            Connection connection = this.rabbitTemplate.getConnectionFactory().createConnection();
+            if (declare(connection, group) == 0) {
+                this.pending.remove(exchange);
+            }
+        }
+    }
+
+    /**
+     * @return 配置中的（包括未声明的延迟声明交换机）和容器中的 Declarable，不包括 declare=false 的交换机
+     */
+    public List<Declarable> declarables() {
+        List<Declarable> all = new ArrayList<>(this.eager);
+        this.lazy.values().forEach(all::addAll);
+        all.addAll(beans());
+        return all;
+    }
+
+    /**
+     * 先交换机、再队列、最后绑定，在一个 channel 上依次声明
+     *
+     * @return 失败的个数
+     */
+    int declare(Connection connection, Collection<Declarable> declarables) {
+        long start = System.nanoTime();
+        Set<String> persistent = persistent();
+        int declared = 0;
+        int skipped = 0;
+        int failed = 0;
+        Channel channel = null;
+        String broker = null;
+        try {
+            for (Declarable declarable : ordered(declarables)) {
+                if (!declarable.shouldDeclare()) {
+                    continue;
+                }
+                if (channel == null || !channel.isOpen()) {
+                    close(channel);
+                    channel = connection.createChannel(false);
+                    broker = channel.getConnection().getAddress().getHostAddress() + ":" + channel.getConnection().getPort();
+                }
+                String key = broker + "|" + name(declarable);
+                String fingerprint = fingerprint(declarable);
+                boolean cacheable = this.properties.isCache() && persistent(declarable, persistent);
+                if (cacheable && fingerprint.equals(this.fingerprints.get(key))) {
+                    skipped++;
+                    continue;
+                }
+                try {
+                    declare(channel, declarable);
+                    declared++;
+                    if (cacheable) {
+                        this.fingerprints.put(key, fingerprint);
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    this.fingerprints.remove(key);
+                    log.error("声明 {} 失败: {}", name(declarable), e.getCause() == null ? e : e.getCause().getMessage());
+                }
+            }
+        } finally {
+            close(channel);
+        }
+        log.info("声明 {} 个，跳过未变化的 {} 个，失败 {} 个，耗时 {} ms", declared, skipped, failed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return failed;
+    }
+
+    private static void declare(Channel channel, Declarable declarable) throws IOException {
+        if (declarable instanceof Exchange) {
+            Exchange exchange = (Exchange) declarable;
+            String type = exchange.getType();
+            Map<String, Object> arguments = exchange.getArguments();
+            if (exchange.isDelayed()) {
+                arguments = new LinkedHashMap<>(arguments);
+                arguments.put("x-delayed-type", type);
+                type = "x-delayed-message";
+            }
+            channel.exchangeDeclare(exchange.getName(), type, exchange.isDurable(), exchange.isAutoDelete(),
+                    exchange.isInternal(), arguments);
+        } else if (declarable instanceof Queue) {
+            Queue queue = (Queue) declarable;
+            channel.queueDeclare(queue.getName(), queue.isDurable(), queue.isExclusive(), queue.isAutoDelete(),
+                    queue.getArguments());
+        } else if (declarable instanceof Binding) {
+            Binding binding = (Binding) declarable;
+            if (binding.isDestinationQueue()) {
+                channel.queueBind(binding.getDestination(), binding.getExchange(), binding.getRoutingKey(),
+                        binding.getArguments());
+            } else {
+                channel.exchangeBind(binding.getDestination(), binding.getExchange(), binding.getRoutingKey(),
+                        binding.getArguments());
+            }
+        }
+    }
+
+    /**
+     * 交换机、队列、绑定的顺序，默认交换机上的绑定是隐含的，去掉
+     */
+    private static List<Declarable> ordered(Collection<Declarable> declarables) {
+        List<Declarable> exchanges = new ArrayList<>();
+        List<Declarable> queues = new ArrayList<>();
+        List<Declarable> bindings = new ArrayList<>();
+        for (Declarable declarable : declarables) {
+            if (declarable instanceof Exchange) {
+                exchanges.add(declarable);
+            } else if (declarable instanceof Queue) {
+                queues.add(declarable);
+            } else if (declarable instanceof Binding && !"".equals(((Binding) declarable).getExchange())) {
+                bindings.add(declarable);
+            }
+        }
+        exchanges.addAll(queues);
+        exchanges.addAll(bindings);
+        return exchanges;
+    }
+
+    private List<Declarable> beans() {
+        if (this.beans == null) {
+            List<Declarable> beans = new ArrayList<>();
+            if (this.applicationContext != null) {
+                beans.addAll(this.applicationContext.getBeansOfType(Declarable.class, false, true).values());
+                for (Declarables declarables : this.applicationContext.getBeansOfType(Declarables.class, false, true).values()) {
+                    beans.addAll(declarables.getDeclarables());
+                }
+            }
+            this.beans = beans;
+        }
+        return this.beans;
+    }
+
+    private Set<String> persistent() {
+        if (this.persistent == null) {
+            Set<String> persistent = new HashSet<>();
+            for (Declarable declarable : declarables()) {
+                if (!(declarable instanceof Binding) && persistent(declarable, null)) {
+                    persistent.add(name(declarable));
+                }
+            }
+            this.persistent = persistent;
+        }
+        return this.persistent;
+    }
+
+    /**
+     * @return 断线、broker 重启后是否仍然存在
+     */
+    private static boolean persistent(Declarable declarable, Set<String> persistent) {
+        if (declarable instanceof Exchange) {
+            Exchange exchange = (Exchange) declarable;
+            return exchange.isDurable() && !exchange.isAutoDelete();
+        }
+        if (declarable instanceof Queue) {
+            Queue queue = (Queue) declarable;
+            return queue.isDurable() && !queue.isAutoDelete() && !queue.isExclusive();
+        }
+        Binding binding = (Binding) declarable;
+        return persistent.contains("exchange " + binding.getExchange())
+                && persistent.contains((binding.isDestinationQueue() ? "queue " : "exchange ") + binding.getDestination());
+    }
+
+    private static String name(Declarable declarable) {
+        if (declarable instanceof Exchange) {
+            return "exchange " + ((Exchange) declarable).getName();
+        }
+        if (declarable instanceof Queue) {
+            return "queue " + ((Queue) declarable).getName();
+        }
+        Binding binding = (Binding) declarable;
+        return "binding " + binding.getExchange() + " -> " + binding.getDestinationType().name().toLowerCase()
+                + " " + binding.getDestination() + " [" + binding.getRoutingKey() + "]";
+    }
+
+    private static String fingerprint(Declarable declarable) {
+        StringBuilder fingerprint = new StringBuilder(name(declarable));
+        if (declarable instanceof Exchange) {
+            Exchange exchange = (Exchange) declarable;
+            fingerprint.append('|').append(exchange.getType()).append('|').append(exchange.isDelayed())
+                    .append('|').append(exchange.isInternal()).append('|').append(new TreeMap<>(exchange.getArguments()));
+        } else if (declarable instanceof Queue) {
+            fingerprint.append('|').append(new TreeMap<>(((Queue) declarable).getArguments()));
+        } else {
+            fingerprint.append('|').append(new TreeMap<>(((Binding) declarable).getArguments()));
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * properties 中的值都是字符串，整数转为 long、true/false 转为 boolean
+     */
+    private static Map<String, Object> arguments(Map<String, Object> arguments) {
+        Map<String, Object> converted = new LinkedHashMap<>();
+        arguments.forEach((key, value) -> {
+            if (value instanceof String) {
+                String text = (String) value;
+                if (text.matches("-?\\d{1,18}")) {
+                    value = Long.valueOf(text);
+                } else if ("true".equals(text) || "false".equals(text)) {
+                    value = Boolean.valueOf(text);
+                }
+            }
+            converted.put(key, value);
+        });
+        return converted;
+    }
+
+    private static void close(Channel channel) {
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException e) {
+                log.debug("关闭 channel 失败: {}", e.getMessage());
+            }
+        }
+    }
+}
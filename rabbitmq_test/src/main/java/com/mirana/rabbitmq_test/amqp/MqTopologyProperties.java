@@ -0,0 +1,98 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 交换机、队列、绑定的声明配置，前缀 mq.topology，写在 application.yml 中，见 {@link MqTopology}
+ * <p>
+ * arguments 在 yml 中写的整数按 int 传给 broker，如 x-message-ttl: 5000；写在 properties 中时字符串形式的整数转为 long
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mq.topology")
+public class MqTopologyProperties {
+
+    /**
+     * 重新连接同一个 broker 时，跳过已声明过且配置未变化的持久化交换机、队列和绑定
+     */
+    private boolean cache = true;
+
+    private List<ExchangeDef> exchanges = new ArrayList<>();
+
+    private List<QueueDef> queues = new ArrayList<>();
+
+    private List<BindingDef> bindings = new ArrayList<>();
+
+    @Data
+    public static class ExchangeDef {
+
+        private String name;
+
+        /**
+         * direct、topic、fanout、headers，或者插件提供的类型如 x-delayed-message
+         */
+        private String type = "direct";
+
+        private boolean durable = true;
+
+        private boolean autoDelete;
+
+        private boolean internal;
+
+        /**
+         * 为 false 时不声明，绑定到它的绑定也不声明
+         */
+        private boolean declare = true;
+
+        /**
+         * 第一次发送到这个交换机时才声明交换机和它的绑定，用于很少使用的交换机。
+         * 被其他队列用作死信交换机的不能延迟声明
+         */
+        private boolean lazy;
+
+        private Map<String, Object> arguments = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class QueueDef {
+
+        private String name;
+
+        private boolean durable = true;
+
+        private boolean exclusive;
+
+        private boolean autoDelete;
+
+        private boolean declare = true;
+
+        private Map<String, Object> arguments = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class BindingDef {
+
+        private String exchange;
+
+        /**
+         * 目标队列，与 destinationExchange 二选一
+         */
+        private String queue;
+
+        /**
+         * 目标交换机（RabbitMQ 扩展）
+         */
+        private String destinationExchange;
+
+        private String routingKey = "";
+
+        private Map<String, Object> arguments = new LinkedHashMap<>();
+    }
+}
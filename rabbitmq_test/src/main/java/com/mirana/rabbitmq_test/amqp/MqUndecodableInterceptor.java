@@ -0,0 +1,42 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+
+/**
+ * 监听容器的第一个 advice，拒绝 {@link MqCompression} 不能解压的消息且不重新入队，配置了死信的队列转到死信队列，
+ * 不进入重试、去重和监听方法
+ */
+public class MqUndecodableInterceptor implements MethodInterceptor {
+
+    private final MqAcker acker;
+
+    /**
+     * 手动应答时由这里 basicReject，自动应答时抛出 AmqpRejectAndDontRequeueException 由容器拒绝
+     */
+    private final boolean manualAck;
+
+    public MqUndecodableInterceptor(MqAcker acker, boolean manualAck) {
+        this.acker = acker;
+        this.manualAck = manualAck;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // ContainerDelegate.invokeListener(Channel channel, Message message)
+        Message message = (Message) invocation.getArguments()[1];
+        Object reason = message.getMessageProperties().getHeaders().get(MqCompression.FAILED_HEADER);
+        if (reason == null) {
+            return invocation.proceed();
+        }
+        Channel channel = (Channel) invocation.getArguments()[0];
+        this.acker.undecodable(channel, message, this.manualAck);
+        if (!this.manualAck) {
+            throw new AmqpRejectAndDontRequeueException("消息解压失败: " + reason);
+        }
+        return null;
+    }
+}
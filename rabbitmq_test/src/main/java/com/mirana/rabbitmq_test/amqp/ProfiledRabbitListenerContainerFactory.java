@@ -0,0 +1,93 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.listener.AbstractRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpoint;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按队列选择监听容器工厂
+ * 监听的队列配置了 {@link MqListenerProperties.Profile} 时使用该配置对应的工厂，否则使用默认工厂
+ */
+@Slf4j
+public class ProfiledRabbitListenerContainerFactory
+        implements RabbitListenerContainerFactory<MessageListenerContainer>, ApplicationContextAware {
+
+    private final AbstractRabbitListenerContainerFactory<?> defaultFactory;
+
+    private final Map<String, AbstractRabbitListenerContainerFactory<?>> factories;
+
+    /**
+     * @param defaultFactory 没有配置的队列使用
+     * @param factories      队列名称 -> 工厂
+     */
+    public ProfiledRabbitListenerContainerFactory(AbstractRabbitListenerContainerFactory<?> defaultFactory,
+                                                  Map<String, AbstractRabbitListenerContainerFactory<?>> factories) {
+        this.defaultFactory = defaultFactory;
+        this.factories = factories;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        // 工厂不是 bean，容器事件需要手动传入
+        this.defaultFactory.setApplicationContext(applicationContext);
+        this.defaultFactory.setApplicationEventPublisher(applicationContext);
+        for (AbstractRabbitListenerContainerFactory<?> factory : this.factories.values()) {
+            factory.setApplicationContext(applicationContext);
+            factory.setApplicationEventPublisher(applicationContext);
+        }
+    }
+
+    @Override
+    public MessageListenerContainer createListenerContainer(RabbitListenerEndpoint endpoint) {
+        return resolve(endpoint).createListenerContainer(endpoint);
+    }
+
+    @Override
+    public MessageListenerContainer createListenerContainer() {
+        return this.defaultFactory.createListenerContainer();
+    }
+
+    private AbstractRabbitListenerContainerFactory<?> resolve(RabbitListenerEndpoint endpoint) {
+        AbstractRabbitListenerContainerFactory<?> resolved = null;
+        String resolvedQueue = null;
+        for (String queue : queueNames(endpoint)) {
+            AbstractRabbitListenerContainerFactory<?> factory = this.factories.get(queue);
+            if (factory == null) {
+                continue;
+            }
+            if (resolved == null) {
+                resolved = factory;
+                resolvedQueue = queue;
+            } else if (resolved != factory) {
+                log.warn("监听 {} 同时监听了多个配置不同的队列，使用 {} 的配置", endpoint.getId(), resolvedQueue);
+            }
+        }
+        if (resolved == null) {
+            return this.defaultFactory;
+        }
+        log.info("监听 {} 使用队列 {} 的容器配置", endpoint.getId(), resolvedQueue);
+        return resolved;
+    }
+
+    private static Collection<String> queueNames(RabbitListenerEndpoint endpoint) {
+        if (!(endpoint instanceof AbstractRabbitListenerEndpoint)) {
+            return Collections.emptyList();
+        }
+        AbstractRabbitListenerEndpoint rabbitEndpoint = (AbstractRabbitListenerEndpoint) endpoint;
+        List<String> queueNames = new ArrayList<>(rabbitEndpoint.getQueueNames());
+        rabbitEndpoint.getQueues().forEach(queue -> queueNames.add(queue.getName()));
+        return queueNames;
+    }
+}
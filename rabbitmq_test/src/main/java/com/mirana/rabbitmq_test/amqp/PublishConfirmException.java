@@ -0,0 +1,56 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.springframework.amqp.AmqpException;
+
+/**
+ * 消息没有被 broker 确认
+ */
+public class PublishConfirmException extends AmqpException {
+
+    public enum Reason {
+        /**
+         * broker 返回 nack
+         */
+        NACK,
+        /**
+         * 路由不到任何队列，消息被退回
+         */
+        RETURNED,
+        /**
+         * 等待确认超时
+         */
+        TIMEOUT,
+        /**
+         * 发送时出错，消息没有到达 broker
+         */
+        SEND_FAILED,
+        /**
+         * 按已知的绑定路由不到任何队列，没有发送，见 {@link MqRouter}
+         */
+        UNROUTABLE
+    }
+
+    private final Reason reason;
+
+    private final String correlationId;
+
+    public PublishConfirmException(Reason reason, String correlationId, String message) {
+        super(reason + " " + correlationId + ": " + message);
+        this.reason = reason;
+        this.correlationId = correlationId;
+    }
+
+    public PublishConfirmException(Reason reason, String correlationId, Throwable cause) {
+        super(reason + " " + correlationId + ": " + cause.getMessage(), cause);
+        this.reason = reason;
+        this.correlationId = correlationId;
+    }
+
+    public Reason getReason() {
+        return this.reason;
+    }
+
+    public String getCorrelationId() {
+        return this.correlationId;
+    }
+}
@@ -0,0 +1,62 @@
+package com.mirana.rabbitmq_test.amqp;
+
+/**
+ * 消费者应答选项，发送端和消费端共用
+ * <p>
+ * 用一个 int 位域放在消息头 {@link #HEADER} 中，代替每条消息一个 Map：
+ * <pre>
+ * bit 0-3  ackMode  1 ack，2 nack，3 reject，其他 模拟异常
+ * bit 4    multiple
+ * bit 5    requeue
+ * </pre>
+ * 取值小于 128，装箱时使用 Integer 缓存，编解码都不产生新对象
+ */
+public final class ReceiveOpt {
+
+    public static final String HEADER = "receiveOpt";
+
+    private static final int ACK_MODE_MASK = 0x0F;
+
+    private static final int MULTIPLE = 1 << 4;
+
+    private static final int REQUEUE = 1 << 5;
+
+    /**
+     * 模拟异常，超出 bit 0-3 的 ackMode 按它编码
+     */
+    private static final int SIMULATE_EXCEPTION = 0;
+
+    /**
+     * 没有消息头时的默认值：正常 ack，multiple=false，requeue=true
+     */
+    public static final int DEFAULT = encode(1, false, true);
+
+    private ReceiveOpt() {
+    }
+
+    /**
+     * @param ackMode 不是 1、2、3 的都是模拟异常，超出 0-15 的编码为 0，不截断成其他应答方式
+     */
+    public static int encode(int ackMode, boolean multiple, boolean requeue) {
+        int opt = ackMode < 0 || ackMode > ACK_MODE_MASK ? SIMULATE_EXCEPTION : ackMode;
+        if (multiple) {
+            opt |= MULTIPLE;
+        }
+        if (requeue) {
+            opt |= REQUEUE;
+        }
+        return opt;
+    }
+
+    public static int ackMode(int opt) {
+        return opt & ACK_MODE_MASK;
+    }
+
+    public static boolean multiple(int opt) {
+        return (opt & MULTIPLE) != 0;
+    }
+
+    public static boolean requeue(int opt) {
+        return (opt & REQUEUE) != 0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 主题交换机绑定键的前缀树，按 RabbitMQ 的规则匹配路由键
+ * <p>
+ * 绑定键和路由键都按 . 分成单词，* 匹配一个单词，# 匹配零个或多个单词。
+ * 每个节点是一个单词，从根到节点的路径是绑定键的前缀，节点上记录以它结尾的绑定的目标。
+ * 非线程安全，构建完成后只读
+ */
+public class TopicTrie {
+
+    private static final String STAR = "*";
+
+    private static final String HASH = "#";
+
+    private final Node root = new Node();
+
+    private int size;
+
+    public void add(String bindingKey, String destination) {
+        Node node = this.root;
+        for (String word : words(bindingKey)) {
+            node = node.children.computeIfAbsent(word, w -> new Node());
+        }
+        if (node.destinations.add(destination)) {
+            this.size++;
+        }
+    }
+
+    /**
+     * @return 绑定数
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return 匹配到的目标，没有时为空集合
+     */
+    public Set<String> match(String routingKey) {
+        Set<String> result = new LinkedHashSet<>();
+        match(this.root, words(routingKey), 0, result);
+        return result.isEmpty() ? Collections.emptySet() : result;
+    }
+
+    private static void match(Node node, String[] words, int index, Set<String> result) {
+        Node hash = node.children.get(HASH);
+        if (hash != null) {
+            // # 依次匹配 0 到剩余全部单词
+            for (int i = index; i <= words.length; i++) {
+                match(hash, words, i, result);
+            }
+        }
+        if (index == words.length) {
+            result.addAll(node.destinations);
+            return;
+        }
+        Node exact = node.children.get(words[index]);
+        if (exact != null) {
+            match(exact, words, index + 1, result);
+        }
+        Node star = node.children.get(STAR);
+        if (star != null) {
+            match(star, words, index + 1, result);
+        }
+    }
+
+    /**
+     * 空字符串为零个单词，与 broker 一致
+     */
+    private static String[] words(String key) {
+        return key == null || key.isEmpty() ? new String[0] : key.split("\\.", -1);
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        private final Set<String> destinations = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,384 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 吞吐量回归测试，不依赖外部 RabbitMQ，连接进程内的 {@link EmbeddedAmqpBroker}
+ * <p>
+ * 通过 http 调用 AmqpController 的各个发送接口，校验发送速率、confirm 平均耗时和消费速率不低于（不高于）给定的阈值。
+ * 运行：mvn verify -Pperf，阈值通过系统属性调整：
+ * <pre>
+ * perf.messages              每个接口发送的消息数，默认 2000
+ * perf.min-publish-rate      发送并全部确认的最低速率（条/秒），默认 200
+ * perf.max-confirm-mean-ms   confirm 平均耗时上限（毫秒），默认 200
+ * perf.min-consume-rate      每个目标队列的最低消费速率（条/秒），默认 100
+ * perf.timeout-seconds       等待消费完成的超时时间，默认 60
+ * </pre>
+ * 内嵌 broker 不支持 x-dead-letter-exchange、x-message-ttl 和 x-delayed-message 插件，这里不覆盖死信转发和延时交换机：
+ * 死信队列只校验发送和确认，不声明延时交换机（mq.delayed.declare=false），延时消息只测应用内的 {@link MqDelayScheduler}。
+ * 这两条路径需要在真实的 RabbitMQ 上验证
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "mq.delayed.declare=false",
+        "mq.timer.enabled=true",
+        "mq.timer.journal-dir=target/mq-timer-it/${random.uuid}",
+        "mq.outbox.enabled=true",
+        "mq.outbox.dir=target/mq-outbox-it/${random.uuid}",
+        "mq.canary.enabled=true",
+        "mq.canary.interval=500",
+        "logging.level.com.mirana.rabbitmq_test=WARN",
+        "logging.level.org.apache.qpid=WARN",
+        "logging.level.qpid.message=WARN"
+})
+// 在 broker 停止之前关闭 spring 容器，避免监听容器不断重连
+@DirtiesContext
+public class AmqpThroughputIT {
+
+    @ClassRule
+    public static final EmbeddedAmqpBroker BROKER = new EmbeddedAmqpBroker();
+
+    private static final int MESSAGES = Integer.getInteger("perf.messages", 2000);
+
+    private static final double MIN_PUBLISH_RATE = Double.parseDouble(System.getProperty("perf.min-publish-rate", "200"));
+
+    private static final double MAX_CONFIRM_MEAN_MS = Double.parseDouble(System.getProperty("perf.max-confirm-mean-ms", "200"));
+
+    private static final double MIN_CONSUME_RATE = Double.parseDouble(System.getProperty("perf.min-consume-rate", "100"));
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("perf.timeout-seconds", 60L));
+
+    private static final Pattern CONFIRM_RESULT = Pattern.compile("已确认 (\\d+) 条，未确认 (\\d+) 条");
+
+    private static final Pattern EXPIRATION = Pattern.compile("延时：(\\d+) 秒");
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MqDelayScheduler delayScheduler;
+
+    @Autowired
+    private MqShardRouter shardRouter;
+
+    @Autowired
+    private MqOutbox outbox;
+
+    @Test
+    public void send2Queue() {
+        run("send2Queue?ackMode=1", ConstantQueue.QUEUE);
+    }
+
+    /**
+     * 监听方法抛出异常的消息转发到重试队列，消费者不等待，消费速率与正常消息相同
+     */
+    @Test
+    public void send2QueueFailing() {
+        long retriedBefore = outcome(ConstantQueue.QUEUE, MqMetrics.RETRY);
+        run("send2Queue?ackMode=0", ConstantQueue.QUEUE);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (outcome(ConstantQueue.QUEUE, MqMetrics.RETRY) - retriedBefore < MESSAGES && System.currentTimeMillis() < deadline) {
+            sleep();
+        }
+        assertTrue(outcome(ConstantQueue.QUEUE, MqMetrics.RETRY) - retriedBefore >= MESSAGES);
+    }
+
+    @Test
+    public void send2DirectExchange() {
+        run("send2DirectExchange", ConstantQueue.QUEUE_DIRECT_TEST);
+
+        // 逐条日志关闭（WARN）时仍可以从 /actuator/mqflight 看到最近的消息
+        String exchange = this.restTemplate.getForObject("/actuator/mqflight/" + ConstantQueue.DirectExchange, String.class);
+        assertTrue(exchange, exchange.contains("\"type\":\"confirm\"") && exchange.contains("\"detail\":\"ack\""));
+        String queue = this.restTemplate.getForObject("/actuator/mqflight/" + ConstantQueue.QUEUE_DIRECT_TEST, String.class);
+        assertTrue(queue, queue.contains("\"type\":\"deliver\"") && queue.contains("\"type\":\"ack\""));
+    }
+
+    @Test
+    public void send2TopicExchange() {
+        // 路由键 rk.book.add 同时匹配 rk.book.# 和 rk.#.add
+        run("send2TopicExchange?routingkeyMode=1",
+                ConstantQueue.QUEUE_USER_ADD, ConstantQueue.QUEUE_BOOK_ADD, ConstantQueue.QUEUE_BOOK_DELETE);
+    }
+
+    /**
+     * rk.other 不匹配任何绑定，mq.routing.unroutable=reject 时在本地失败，不经过 broker
+     */
+    @Test
+    public void send2TopicExchangeUnroutable() {
+        Counter returned = this.meterRegistry.find("mq.publish.returned").tag("exchange", ConstantQueue.TopicExchange).counter();
+        double returnedBefore = returned == null ? 0 : returned.count();
+        long start = System.nanoTime();
+        String result = this.restTemplate.getForObject("/send2TopicExchange?routingkeyMode=4&msgNumber=" + MESSAGES, String.class);
+        report("send2TopicExchange rk.other 本地拒绝", MESSAGES, rate(MESSAGES, System.nanoTime() - start));
+
+        assertTrue(result, result.contains("已确认 0 条，未确认 " + MESSAGES + " 条"));
+        Counter unroutable = this.meterRegistry.find("mq.publish.unroutable")
+                .tag("exchange", ConstantQueue.TopicExchange).tag("action", "reject").counter();
+        assertTrue(unroutable != null && unroutable.count() >= MESSAGES);
+        returned = this.meterRegistry.find("mq.publish.returned").tag("exchange", ConstantQueue.TopicExchange).counter();
+        assertEquals(returnedBefore, returned == null ? 0 : returned.count(), 0);
+    }
+
+    /**
+     * 消息按 key 分到各个分片队列，所有分片合计消费 MESSAGES 条，同一个 key 没有乱序
+     */
+    @Test
+    public void send2ShardedQueue() {
+        String[] queues = this.shardRouter.queues();
+        long consumedBefore = 0;
+        double outOfOrderBefore = 0;
+        for (String queue : queues) {
+            consumedBefore += consumed(queue);
+            outOfOrderBefore += this.meterRegistry.counter("mq.consume.out_of_order", "queue", queue).count();
+        }
+        long start = System.nanoTime();
+        publish("send2ShardedQueue?keys=64");
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        long count = 0;
+        while (System.currentTimeMillis() < deadline) {
+            count = -consumedBefore;
+            for (String queue : queues) {
+                count += consumed(queue);
+            }
+            if (count >= MESSAGES) {
+                break;
+            }
+            sleep();
+        }
+        double rate = rate(count, System.nanoTime() - start);
+        report(queues.length + " 个分片队列合计消费", count, rate);
+        assertEquals(MESSAGES, count);
+        double outOfOrder = -outOfOrderBefore;
+        for (String queue : queues) {
+            assertTrue(queue + " 没有消费", consumed(queue) > 0);
+            outOfOrder += this.meterRegistry.counter("mq.consume.out_of_order", "queue", queue).count();
+        }
+        assertEquals(0, outOfOrder, 0);
+    }
+
+    @Test
+    public void send2FanoutExchange() {
+        run("send2FanoutExchange", ConstantQueue.QUEUE_FANOUT1, ConstantQueue.QUEUE_FANOUT2);
+    }
+
+    /**
+     * 只校验发送到死信交换机前的队列并全部确认，到期转发由 broker 完成，内嵌 broker 不支持
+     */
+    @Test
+    public void send2EmailDlqQueuePublishOnly() {
+        String result = publish("send2EmailDlqQueue");
+        assertTrue(result, EXPIRATION.matcher(result).find());
+    }
+
+    @Test
+    public void send2DelayedQueueByTimer() {
+        long consumedBefore = consumed(ConstantQueue.QUEUE_DELAYED);
+        long firedBefore = this.delayScheduler.stats().getFired();
+        long start = System.nanoTime();
+        String result = this.restTemplate.getForObject("/timer/send2DelayedQueue?delay=1000&msgNumber=" + MESSAGES, String.class);
+        assertTrue(result, result.contains("成功提交延时消息 " + MESSAGES + " 条"));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (this.delayScheduler.stats().getFired() - firedBefore < MESSAGES && System.currentTimeMillis() < deadline) {
+            sleep();
+        }
+        long elapsed = System.nanoTime() - start;
+        long fired = this.delayScheduler.stats().getFired() - firedBefore;
+        report("timer 延时 1000ms 发送", fired, rate(fired, elapsed));
+        assertEquals(MESSAGES, fired);
+        assertEquals(0, this.delayScheduler.stats().getPending());
+        assertTrue("延时未生效", elapsed >= TimeUnit.MILLISECONDS.toNanos(1000));
+        // queue_delayed 的监听 reject(requeue=false)，Qpid 会重新投递，这里只校验至少消费了一次
+        while (consumed(ConstantQueue.QUEUE_DELAYED) - consumedBefore < MESSAGES && System.currentTimeMillis() < deadline) {
+            sleep();
+        }
+        assertTrue(consumed(ConstantQueue.QUEUE_DELAYED) - consumedBefore >= MESSAGES);
+    }
+
+    @Test
+    public void send2DirectExchangeViaOutbox() {
+        long consumedBefore = consumed(ConstantQueue.QUEUE_DIRECT_TEST);
+        long relayedBefore = this.outbox.stats().getRelayed();
+        long start = System.nanoTime();
+        String result = this.restTemplate.getForObject("/outbox/send2DirectExchange?msgNumber=" + MESSAGES, String.class);
+        assertTrue(result, result.contains("成功写入发件箱 " + MESSAGES + " 条"));
+        report("outbox 写入", MESSAGES, rate(MESSAGES, System.nanoTime() - start));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while ((consumed(ConstantQueue.QUEUE_DIRECT_TEST) - consumedBefore < MESSAGES || this.outbox.stats().getPending() > 0)
+                && System.currentTimeMillis() < deadline) {
+            sleep();
+        }
+        long count = consumed(ConstantQueue.QUEUE_DIRECT_TEST) - consumedBefore;
+        report("outbox 转发后消费", count, rate(count, System.nanoTime() - start));
+        assertEquals(MESSAGES, count);
+        assertEquals(0, this.outbox.stats().getPending());
+        assertEquals(MESSAGES, this.outbox.stats().getRelayed() - relayedBefore);
+    }
+
+    @Test
+    public void openLoopLoadOnFanoutExchange() {
+        int rate = 500;
+        MqLoadReport report = this.restTemplate.getForObject("/load/start?flow=fanout&rate=" + rate
+                + "&duration=2000&concurrency=2&sizes=100:90,4096:10", MqLoadReport.class);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!report.isDone() && System.currentTimeMillis() < deadline) {
+            sleep();
+            report = this.restTemplate.getForObject("/load/" + report.getRunId(), MqLoadReport.class);
+        }
+        assertTrue("压测未结束", report.isDone());
+        assertEquals(rate * 2, report.getSent());
+        assertEquals(report.getSent(), report.getConfirmed());
+        assertEquals(2, report.getFanout());
+        assertEquals(report.getSent() * 2, report.getReceived());
+        for (String queue : new String[]{ConstantQueue.QUEUE_FANOUT1, ConstantQueue.QUEUE_FANOUT2}) {
+            MqLoadReport.Latency latency = report.getLatencies().get(queue);
+            assertEquals(report.getSent(), latency.getCount());
+            System.out.printf("[perf] %-40s p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n", queue + " 开环压测延迟",
+                    latency.getCorrected().get("p50"), latency.getCorrected().get("p99"), latency.getCorrected().get("max"));
+            assertTrue(latency.getCorrected().get("p99") >= latency.getUncorrected().get("p50"));
+        }
+        String distribution = this.restTemplate.getForObject("/load/" + report.getRunId() + "/hgrm", String.class);
+        assertTrue(distribution, distribution.contains("#[Mean"));
+    }
+
+    /**
+     * 死信路由依赖 x-message-ttl，内嵌 broker 不支持，只校验 direct、topic、fanout
+     */
+    @Test
+    public void canaryProbesEveryRoute() {
+        List<String> routes = Arrays.asList("direct", "topic:" + ConstantQueue.ROUTINGKEY_MATCH_ADD,
+                "topic:" + ConstantQueue.ROUTINGKEY_MATCH_BOOK, "fanout");
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (String route : routes) {
+            while (Double.isNaN(canaryLatency(route)) && System.currentTimeMillis() < deadline) {
+                sleep();
+            }
+            assertTrue("没有收到探测消息: " + route, !Double.isNaN(canaryLatency(route)));
+            assertEquals(0, this.meterRegistry.get("mq.canary.failures").tag("route", route).gauge().value(), 0);
+            System.out.printf("[perf] %-40s %8.3f ms%n", "探测 " + route + " 往返", canaryLatency(route));
+        }
+    }
+
+    private double canaryLatency(String route) {
+        return this.meterRegistry.get("mq.canary.latency").tag("route", route).gauge().value();
+    }
+
+    /**
+     * 发送 MESSAGES 条消息，等待每个目标队列都消费完
+     */
+    private void run(String path, String... queues) {
+        long[] consumedBefore = new long[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            consumedBefore[i] = consumed(queues[i]);
+        }
+        long start = System.nanoTime();
+        publish(path);
+
+        for (int i = 0; i < queues.length; i++) {
+            long expected = consumedBefore[i] + MESSAGES;
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (consumed(queues[i]) < expected && System.currentTimeMillis() < deadline) {
+                sleep();
+            }
+            long count = consumed(queues[i]) - consumedBefore[i];
+            double rate = rate(count, System.nanoTime() - start);
+            report(queues[i] + " 消费", count, rate);
+            assertEquals(queues[i] + " 在 " + TIMEOUT_MILLIS + "ms 内未消费完", MESSAGES, count);
+            assertTrue(String.format("%s 消费速率 %.0f 条/秒 低于 %.0f", queues[i], rate, MIN_CONSUME_RATE),
+                    rate >= MIN_CONSUME_RATE);
+        }
+    }
+
+    /**
+     * 调用发送接口，接口在所有消息确认后才返回
+     *
+     * @return 接口返回的发送结果
+     */
+    private String publish(String path) {
+        Timer confirmTimer = this.meterRegistry.find("mq.publish.confirm").tag("result", "ack").timer();
+        long confirmCountBefore = confirmTimer == null ? 0 : confirmTimer.count();
+        double confirmTimeBefore = confirmTimer == null ? 0 : confirmTimer.totalTime(TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        String result = this.restTemplate.getForObject("/" + path + (path.contains("?") ? "&" : "?") + "msgNumber=" + MESSAGES, String.class);
+        long elapsed = System.nanoTime() - start;
+
+        Matcher matcher = CONFIRM_RESULT.matcher(result);
+        assertTrue(result, matcher.find());
+        assertEquals(result, MESSAGES, Integer.parseInt(matcher.group(1)));
+        assertEquals(result, 0, Integer.parseInt(matcher.group(2)));
+
+        double rate = rate(MESSAGES, elapsed);
+        report(path + " 发送", MESSAGES, rate);
+        assertTrue(String.format("%s 发送速率 %.0f 条/秒 低于 %.0f", path, rate, MIN_PUBLISH_RATE), rate >= MIN_PUBLISH_RATE);
+
+        confirmTimer = this.meterRegistry.find("mq.publish.confirm").tag("result", "ack").timer();
+        assertTrue("没有 mq.publish.confirm 指标", confirmTimer != null && confirmTimer.count() > confirmCountBefore);
+        double confirmMean = (confirmTimer.totalTime(TimeUnit.MILLISECONDS) - confirmTimeBefore)
+                / (confirmTimer.count() - confirmCountBefore);
+        System.out.printf("[perf] %s confirm 平均耗时 %.2f ms%n", path, confirmMean);
+        assertTrue(String.format("%s confirm 平均耗时 %.2f ms 超过 %.0f ms", path, confirmMean, MAX_CONFIRM_MEAN_MS),
+                confirmMean <= MAX_CONFIRM_MEAN_MS);
+        return result;
+    }
+
+    /**
+     * @return 队列已处理的消息数，包括监听方法抛出异常的
+     */
+    private long consumed(String queue) {
+        Collection<Timer> timers = this.meterRegistry.find("mq.consume").tag("queue", queue).timers();
+        long count = 0;
+        for (Timer timer : timers) {
+            count += timer.count();
+        }
+        return count;
+    }
+
+    private long outcome(String queue, String outcome) {
+        Counter counter = this.meterRegistry.find("mq.consume.outcome").tag("queue", queue).tag("outcome", outcome).counter();
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    private static double rate(long count, long nanos) {
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(nanos, 1);
+    }
+
+    private static void report(String name, long count, double rate) {
+        System.out.printf("[perf] %s %d 条，%.0f 条/秒%n", name, count, rate);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchingMessageListenerTest {
+
+    private final List<List<Message>> batches = new ArrayList<>();
+
+    private final List<Message> failed = new ArrayList<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    private MqAckCoalescer ackCoalescer;
+
+    private Channel channel;
+
+    private BatchingMessageListener listener;
+
+    @Before
+    public void setUp() {
+        this.ackCoalescer = mock(MqAckCoalescer.class);
+        this.channel = mock(Channel.class);
+        when(this.channel.isOpen()).thenReturn(true);
+        this.listener = new BatchingMessageListener(messages -> {
+            this.batches.add(messages);
+            this.threads.add(Thread.currentThread());
+            return this.failed;
+        }, 3, 60000, false, "queue_test", mock(MqMetrics.class), this.ackCoalescer);
+    }
+
+    @Test
+    public void fullBatchIsAckedOnceOnConsumerThread() throws Exception {
+        this.failed.add(message(2));
+        for (long tag = 1; tag <= 3; tag++) {
+            this.listener.onMessage(message(tag), this.channel);
+        }
+        assertEquals(1, this.batches.size());
+        assertEquals(3, this.batches.get(0).size());
+        assertEquals(Collections.singletonList(Thread.currentThread()), this.threads);
+        verify(this.ackCoalescer).nack(this.channel, 2, false, false);
+        verify(this.ackCoalescer).ack(this.channel, 3, true);
+    }
+
+    @Test
+    public void flushProcessesPartialBatch() throws Exception {
+        this.listener.onMessage(message(1), this.channel);
+        this.listener.onMessage(message(2), this.channel);
+        assertTrue(this.batches.isEmpty());
+
+        // 另一个线程的空闲事件不处理这个线程的消息
+        Thread other = new Thread(this.listener::flush);
+        other.start();
+        other.join();
+        assertTrue(this.batches.isEmpty());
+
+        this.listener.flush();
+        assertEquals(2, this.batches.get(0).size());
+        verify(this.ackCoalescer).ack(this.channel, 2, true);
+    }
+
+    @Test
+    public void closedChannelDropsBatch() throws Exception {
+        this.listener.onMessage(message(1), this.channel);
+        when(this.channel.isOpen()).thenReturn(false);
+        this.listener.flush();
+        assertTrue(this.batches.isEmpty());
+        verify(this.ackCoalescer, never()).ack(this.channel, 1, true);
+        verify(this.ackCoalescer, never()).nack(this.channel, 1, false, false);
+    }
+
+    @Test
+    public void configuresSimpleContainerForIdleEvents() {
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
+        this.listener.configure(container);
+        DirectFieldAccessor accessor = new DirectFieldAccessor(container);
+        assertEquals(60000L, accessor.getPropertyValue("receiveTimeout"));
+        assertEquals(1L, accessor.getPropertyValue("idleEventInterval"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPrefetchSmallerThanBatch() {
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
+        container.setPrefetchCount(2);
+        this.listener.configure(container);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDirectContainer() {
+        this.listener.configure(new DirectMessageListenerContainer(mock(ConnectionFactory.class)));
+    }
+
+    private static Message message(long deliveryTag) {
+        MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(deliveryTag);
+        return new Message(new byte[0], properties);
+    }
+}
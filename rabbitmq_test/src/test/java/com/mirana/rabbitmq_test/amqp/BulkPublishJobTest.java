@@ -0,0 +1,45 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkPublishJobTest {
+
+    @Test
+    public void countsConfirmOutcomes() {
+        BulkPublishJob job = new BulkPublishJob("1", "send2Queue", 3, false);
+        for (int i = 0; i < 3; i++) {
+            job.sent();
+        }
+        job.sendFinished(null);
+        job.confirmed(new CorrelationData("a"), null);
+        job.confirmed(null, new CompletionException(
+                new PublishConfirmException(PublishConfirmException.Reason.RETURNED, "b", "NO_ROUTE")));
+        assertFalse(job.isDone());
+
+        job.confirmed(null, new PublishConfirmException(PublishConfirmException.Reason.TIMEOUT, "c", "timeout"));
+        BulkPublishProgress progress = job.progress();
+        assertEquals(3, progress.getSent());
+        assertEquals(1, progress.getConfirmed());
+        assertEquals(1, progress.getReturned());
+        assertEquals(1, progress.getFailed());
+        assertTrue(progress.isDone());
+        assertTrue(job.getFinishTime() > 0);
+    }
+
+    @Test
+    public void batchIsDoneWhenSendFinished() {
+        BulkPublishJob job = new BulkPublishJob("2", "send2DirectExchange", 2, true);
+        job.sent();
+        job.sent();
+        assertFalse(job.isDone());
+        job.sendFinished(null);
+        assertTrue(job.isDone());
+    }
+}
@@ -0,0 +1,69 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.apache.qpid.server.SystemLauncher;
+import org.junit.rules.ExternalResource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 进程内的 Qpid Broker-J，AMQP 0-9-1，内存存储，用户 guest/guest
+ * <p>
+ * 作为 @ClassRule 使用，在 spring 容器创建之前启动，并把随机端口写入系统属性 spring.rabbitmq.port
+ */
+public class EmbeddedAmqpBroker extends ExternalResource {
+
+    private final SystemLauncher launcher = new SystemLauncher();
+
+    private int port;
+
+    private Path workDir;
+
+    @Override
+    protected void before() throws Exception {
+        this.port = freePort();
+        this.workDir = Files.createTempDirectory("qpid-work");
+
+        Map<String, String> context = new HashMap<>();
+        context.put("qpid.amqp_port", String.valueOf(this.port));
+        context.put("qpid.work_dir", this.workDir.toString());
+        context.put("broker.name", "embedded-broker");
+        // x-dead-letter-exchange、x-message-ttl 等 RabbitMQ 扩展参数不报错
+        context.put("queue.behaviourOnUnknownDeclareArgument", "LOG");
+        context.put("exchange.behaviourOnUnknownDeclareArgument", "LOG");
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation",
+                EmbeddedAmqpBroker.class.getResource("/qpid-initial-config.json").toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", context);
+        this.launcher.startup(attributes);
+
+        System.setProperty("spring.rabbitmq.host", "127.0.0.1");
+        System.setProperty("spring.rabbitmq.port", String.valueOf(this.port));
+    }
+
+    @Override
+    protected void after() {
+        this.launcher.shutdown();
+        System.clearProperty("spring.rabbitmq.host");
+        System.clearProperty("spring.rabbitmq.port");
+        FileSystemUtils.deleteRecursively(this.workDir.toFile());
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimingWheelTest {
+
+    @Test
+    public void firesAfterDeadlineAcrossRounds() {
+        // 8 格，每格 10ms，一圈 80ms
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(8, 10, 0);
+        List<String> fired = new ArrayList<>();
+        assertTrue(wheel.add("a", 25, "a"));
+        assertTrue(wheel.add("b", 105, "b"));
+        assertTrue(wheel.add("c", 25, "c"));
+        assertFalse(wheel.add("a", 50, "a"));
+
+        wheel.advance(29, (id, value) -> fired.add(value));
+        assertEquals(0, fired.size());
+        wheel.advance(30, (id, value) -> fired.add(value));
+        assertEquals(Arrays.asList("a", "c"), fired);
+
+        // b 与 a 在同一格，要多转一圈
+        wheel.advance(109, (id, value) -> fired.add(value));
+        assertEquals(2, fired.size());
+        wheel.advance(110, (id, value) -> fired.add(value));
+        assertEquals(Arrays.asList("a", "c", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelAndOverdue() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(5, 10, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.add("a", 40, "a");
+        wheel.add("b", 40, "b");
+        assertEquals("a", wheel.cancel("a"));
+        assertEquals(null, wheel.cancel("a"));
+
+        wheel.advance(100, (id, value) -> fired.add(value));
+        assertEquals(Arrays.asList("b"), fired);
+
+        // 已经过期的在下一格触发
+        wheel.add("c", 50, "c");
+        wheel.advance(109, (id, value) -> fired.add(value));
+        assertEquals(Arrays.asList("b"), fired);
+        wheel.advance(110, (id, value) -> fired.add(value));
+        assertEquals(Arrays.asList("b", "c"), fired);
+    }
+}
@@ -0,0 +1,114 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class MqAckCoalescerTest {
+
+    private final Channel channel = mock(Channel.class);
+
+    private MqAckCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        when(this.channel.isOpen()).thenReturn(true);
+        MqAckProperties properties = new MqAckProperties();
+        properties.setEnabled(true);
+        properties.setCount(4);
+        this.coalescer = new MqAckCoalescer(properties);
+    }
+
+    @Test
+    public void acksEveryCountMessages() throws IOException {
+        for (long tag = 1; tag <= 9; tag++) {
+            this.coalescer.ack(this.channel, tag, false);
+        }
+        InOrder inOrder = inOrder(this.channel);
+        inOrder.verify(this.channel).basicAck(4, true);
+        inOrder.verify(this.channel).basicAck(8, true);
+        verify(this.channel, never()).basicAck(9, true);
+
+        this.coalescer.flush();
+        verify(this.channel).basicAck(9, true);
+    }
+
+    @Test
+    public void outOfOrderAcksWaitForGap() throws IOException {
+        this.coalescer.ack(this.channel, 2, false);
+        this.coalescer.ack(this.channel, 3, false);
+        this.coalescer.ack(this.channel, 4, false);
+        this.coalescer.ack(this.channel, 5, false);
+        verify(this.channel, never()).basicAck(anyLong(), anyBoolean());
+
+        this.coalescer.ack(this.channel, 1, false);
+        verify(this.channel).basicAck(5, true);
+        verifyNoMoreInteractions(this.channel);
+    }
+
+    @Test
+    public void nacksAreSentImmediately() throws IOException {
+        this.coalescer.ack(this.channel, 1, false);
+        this.coalescer.nack(this.channel, 2, false, true);
+        this.coalescer.reject(this.channel, 3, false);
+        verify(this.channel).basicNack(2, false, true);
+        verify(this.channel).basicReject(3, false);
+
+        // 1 是连续部分中最大的待确认 tag，2、3 已经应答
+        this.coalescer.flush();
+        verify(this.channel).basicAck(1, true);
+        verify(this.channel, never()).basicAck(3, true);
+    }
+
+    @Test
+    public void acksAfterUnsettledMessageIndividuallyOnFlush() throws IOException {
+        // 1 的监听方法抛出异常，没有应答
+        this.coalescer.ack(this.channel, 2, false);
+        this.coalescer.ack(this.channel, 3, false);
+        this.coalescer.flush();
+        verify(this.channel).basicAck(2, false);
+        verify(this.channel).basicAck(3, false);
+
+        this.coalescer.flush();
+        this.coalescer.ack(this.channel, 4, false);
+        this.coalescer.flush();
+        verify(this.channel).basicAck(4, false);
+        verify(this.channel, never()).basicAck(anyLong(), eq(true));
+    }
+
+    @Test
+    public void multipleNackSendsPendingAcksFirst() throws IOException {
+        this.coalescer.ack(this.channel, 1, false);
+        this.coalescer.ack(this.channel, 3, false);
+        this.coalescer.nack(this.channel, 4, true, false);
+        InOrder inOrder = inOrder(this.channel);
+        inOrder.verify(this.channel).basicAck(1, true);
+        inOrder.verify(this.channel).basicAck(3, false);
+        inOrder.verify(this.channel).basicNack(4, true, false);
+
+        this.coalescer.ack(this.channel, 5, false);
+        this.coalescer.flush();
+        verify(this.channel).basicAck(5, true);
+    }
+
+    @Test
+    public void smallPrefetchLowersCount() throws IOException {
+        this.coalescer.prefetch(this.channel, 4);
+        this.coalescer.ack(this.channel, 1, false);
+        this.coalescer.ack(this.channel, 2, false);
+        verify(this.channel).basicAck(2, true);
+    }
+}
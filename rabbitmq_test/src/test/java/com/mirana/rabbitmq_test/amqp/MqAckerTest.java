@@ -0,0 +1,130 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MqAckerTest {
+
+    private MqAckCoalescer coalescer;
+
+    private Channel channel;
+
+    private MqAcker acker;
+
+    @Before
+    public void setUp() {
+        this.coalescer = mock(MqAckCoalescer.class);
+        this.channel = mock(Channel.class);
+        this.acker = new MqAcker();
+        ReflectionTestUtils.setField(this.acker, "metrics", mock(MqMetrics.class));
+        ReflectionTestUtils.setField(this.acker, "flightRecorder", new MqFlightRecorder(new MqFlightRecorderProperties()));
+        ReflectionTestUtils.setField(this.acker, "coalescer", this.coalescer);
+    }
+
+    @Test
+    public void singleMessageIsAckedImmediately() throws Exception {
+        this.acker.ack(this.channel, message(1, null), false);
+        verify(this.coalescer).ack(this.channel, 1, false);
+    }
+
+    @Test
+    public void sharedTagIsAckedOnceAfterAllFragments() throws Exception {
+        this.acker.ack(this.channel, message(7, 3), false);
+        this.acker.ack(this.channel, message(7, 3), false);
+        verify(this.coalescer, never()).ack(this.channel, 7, false);
+
+        this.acker.ack(this.channel, message(7, 3), false);
+        verify(this.coalescer).ack(this.channel, 7, false);
+
+        // 下一批从头计数
+        this.acker.ack(this.channel, message(8, 2), false);
+        verify(this.coalescer, never()).ack(this.channel, 8, false);
+        this.acker.ack(this.channel, message(8, 2), false);
+        verify(this.coalescer).ack(this.channel, 8, false);
+    }
+
+    @Test
+    public void nackOfAnyFragmentNacksWholeBatchOnce() throws Exception {
+        this.acker.ack(this.channel, message(7, 3), false);
+        this.acker.nack(this.channel, message(7, 3), false, true);
+        verify(this.coalescer).nack(this.channel, 7, false, true);
+
+        // 同批次剩下的消息不再应答
+        this.acker.ack(this.channel, message(7, 3), false);
+        this.acker.reject(this.channel, message(7, 3), false);
+        verify(this.coalescer, never()).ack(any(Channel.class), anyLong(), anyBoolean());
+        verify(this.coalescer, never()).reject(any(Channel.class), anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void rejectOfFirstFragmentSettlesBatch() throws Exception {
+        this.acker.reject(this.channel, message(9, 2), false);
+        this.acker.ack(this.channel, message(9, 2), false);
+        verify(this.coalescer).reject(this.channel, 9, false);
+        verify(this.coalescer, never()).ack(any(Channel.class), anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void fragmentsOnDifferentChannelsAreCountedSeparately() throws Exception {
+        Channel other = mock(Channel.class);
+        this.acker.ack(this.channel, message(1, 2), false);
+        this.acker.ack(other, message(1, 2), false);
+        verify(this.coalescer, never()).ack(any(Channel.class), anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void failedMessageIsNackedUnlessListenerSettledIt() throws Exception {
+        this.acker.failed(this.channel, amqpMessage(3, null), false);
+        verify(this.coalescer).nack(this.channel, 3, false, false);
+
+        // 监听方法 ack 后才抛出异常
+        this.acker.ack(this.channel, message(4, null), false);
+        this.acker.failed(this.channel, amqpMessage(4, null), true);
+        verify(this.coalescer, never()).nack(this.channel, 4, false, true);
+    }
+
+    @Test
+    public void failedFragmentNacksBatchOnce() throws Exception {
+        this.acker.ack(this.channel, message(7, 3), false);
+        this.acker.failed(this.channel, amqpMessage(7, 3), false);
+        this.acker.failed(this.channel, amqpMessage(7, 3), false);
+        this.acker.ack(this.channel, message(7, 3), false);
+        verify(this.coalescer, times(1)).nack(this.channel, 7, false, false);
+        verify(this.coalescer, never()).ack(any(Channel.class), anyLong(), anyBoolean());
+    }
+
+    private static org.springframework.amqp.core.Message amqpMessage(long deliveryTag, Integer batchSize) {
+        MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(deliveryTag);
+        properties.setConsumerQueue(ConstantQueue.QUEUE);
+        if (batchSize != null) {
+            properties.setHeader(MqBatchingStrategy.BATCH_SIZE_HEADER, batchSize);
+        }
+        return new org.springframework.amqp.core.Message(new byte[0], properties);
+    }
+
+    private static Message<String> message(long deliveryTag, Integer batchSize) {
+        MessageBuilder<String> builder = MessageBuilder.withPayload("m")
+                .setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag)
+                .setHeader(AmqpHeaders.CONSUMER_QUEUE, ConstantQueue.QUEUE)
+                .setHeader(AmqpHeaders.MESSAGE_ID, "id");
+        if (batchSize != null) {
+            builder.setHeader(MqBatchingStrategy.BATCH_SIZE_HEADER, batchSize);
+        }
+        return builder.build();
+    }
+}
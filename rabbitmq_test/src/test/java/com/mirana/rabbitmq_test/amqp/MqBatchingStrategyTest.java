@@ -0,0 +1,98 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.support.MessageBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MqBatchingStrategyTest {
+
+    @Test
+    public void releasesWhenBatchSizeReached() {
+        MqBatchingStrategy strategy = new MqBatchingStrategy(3, 1024, 1000);
+        assertNull(strategy.addToBatch("ex", "rk", message("a")));
+        assertNull(strategy.addToBatch("ex", "rk", message("bb")));
+        assertNotNull(strategy.nextRelease());
+        MessageBatch batch = strategy.addToBatch("ex", "rk", message("ccc"));
+
+        assertNotNull(batch);
+        assertEquals("ex", batch.getExchange());
+        assertEquals("rk", batch.getRoutingKey());
+        MessageProperties properties = batch.getMessage().getMessageProperties();
+        assertEquals(3, properties.getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER));
+        assertEquals(MessageProperties.BATCH_FORMAT_LENGTH_HEADER4, properties.getHeaders().get(MessageProperties.SPRING_BATCH_FORMAT));
+        assertArrayEquals(framed("a", "bb", "ccc"), batch.getMessage().getBody());
+        assertNull(strategy.nextRelease());
+    }
+
+    @Test
+    public void releasesCurrentBatchWhenNextMessageDoesNotFit() {
+        // 每条占 4 + 8 字节，第三条放不下
+        MqBatchingStrategy strategy = new MqBatchingStrategy(100, 30, 1000);
+        assertNull(strategy.addToBatch("ex", "rk", message("12345678")));
+        assertNull(strategy.addToBatch("ex", "rk", message("abcdefgh")));
+        MessageBatch batch = strategy.addToBatch("ex", "rk", message("ABCDEFGH"));
+
+        assertNotNull(batch);
+        assertEquals(2, batch.getMessage().getMessageProperties().getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER));
+        assertArrayEquals(framed("12345678", "abcdefgh"), batch.getMessage().getBody());
+
+        // 第三条留在下一批，单独释放时原样发送，不加批量头
+        Collection<MessageBatch> rest = strategy.releaseBatches();
+        assertEquals(1, rest.size());
+        Message single = rest.iterator().next().getMessage();
+        assertArrayEquals("ABCDEFGH".getBytes(StandardCharsets.UTF_8), single.getBody());
+        assertNull(single.getMessageProperties().getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER));
+    }
+
+    @Test
+    public void releasesWhenBufferLimitReached() {
+        MqBatchingStrategy strategy = new MqBatchingStrategy(100, 24, 1000);
+        assertNull(strategy.addToBatch("ex", "rk", message("12345678")));
+        MessageBatch batch = strategy.addToBatch("ex", "rk", message("abcdefgh"));
+        assertNotNull(batch);
+        assertEquals(2, batch.getMessage().getMessageProperties().getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER));
+    }
+
+    @Test
+    public void buffersPerExchangeAndRoutingKey() {
+        MqBatchingStrategy strategy = new MqBatchingStrategy(2, 1024, 1000);
+        assertNull(strategy.addToBatch("ex", "rk.a", message("a")));
+        assertNull(strategy.addToBatch("ex", "rk.b", message("b")));
+        MessageBatch batch = strategy.addToBatch("ex", "rk.a", message("a2"));
+        assertNotNull(batch);
+        assertEquals("rk.a", batch.getRoutingKey());
+        assertArrayEquals(framed("a", "a2"), batch.getMessage().getBody());
+
+        Collection<MessageBatch> rest = strategy.releaseBatches();
+        assertEquals(1, rest.size());
+        assertEquals("rk.b", rest.iterator().next().getRoutingKey());
+        assertTrue(strategy.releaseBatches().isEmpty());
+    }
+
+    private static Message message(String body) {
+        return new Message(body.getBytes(StandardCharsets.UTF_8), new MessageProperties());
+    }
+
+    private static byte[] framed(String... bodies) {
+        int size = 0;
+        for (String body : bodies) {
+            size += 4 + body.length();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (String body : bodies) {
+            buffer.putInt(body.length()).put(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return buffer.array();
+    }
+}
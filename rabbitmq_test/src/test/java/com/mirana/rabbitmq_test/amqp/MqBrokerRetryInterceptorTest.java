@@ -0,0 +1,132 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqBrokerRetryInterceptorTest {
+
+    private final Channel channel = mock(Channel.class);
+
+    private MqSender sender;
+
+    private MqAckCoalescer coalescer;
+
+    private MqAcker acker;
+
+    private MqBrokerRetryInterceptor interceptor;
+
+    @Before
+    public void setUp() {
+        this.sender = mock(MqSender.class);
+        when(this.sender.republish(any(String.class), any(Message.class)))
+                .thenReturn(CompletableFuture.completedFuture(new CorrelationData("r")));
+        this.coalescer = mock(MqAckCoalescer.class);
+        this.acker = new MqAcker();
+        ReflectionTestUtils.setField(this.acker, "metrics", mock(MqMetrics.class));
+        ReflectionTestUtils.setField(this.acker, "flightRecorder", new MqFlightRecorder(new MqFlightRecorderProperties()));
+        ReflectionTestUtils.setField(this.acker, "coalescer", this.coalescer);
+        this.interceptor = new MqBrokerRetryInterceptor(new MqBrokerRetry(new MqRetryProperties()), this.sender,
+                this.acker, true);
+    }
+
+    @Test
+    public void failedFragmentIsRepublishedWithoutTouchingSharedProperties() throws Throwable {
+        // 容器拆包时同批次的消息共用一个 MessageProperties
+        MessageProperties shared = new MessageProperties();
+        shared.setMessageId("batch");
+        shared.setConsumerQueue(ConstantQueue.QUEUE);
+        shared.setDeliveryTag(5);
+        shared.setHeader(MqBatchingStrategy.BATCH_SIZE_HEADER, 3);
+
+        this.interceptor.invoke(failing(new Message("a".getBytes(), shared)));
+        this.interceptor.invoke(acking(new Message("b".getBytes(), shared)));
+        this.interceptor.invoke(acking(new Message("c".getBytes(), shared)));
+
+        assertEquals(3, shared.getHeaders().get(MqBatchingStrategy.BATCH_SIZE_HEADER));
+        assertFalse(shared.getHeaders().containsKey(MqBrokerRetry.HEADER_EXCEPTION));
+        assertEquals("batch", shared.getMessageId());
+        assertNull(MqDedupInterceptor.key(shared));
+
+        ArgumentCaptor<Message> republished = ArgumentCaptor.forClass(Message.class);
+        verify(this.sender).republish(eq("queue_test.retry.1000"), republished.capture());
+        MessageProperties copy = republished.getValue().getMessageProperties();
+        assertEquals("batch#0", copy.getMessageId());
+        assertEquals("a", new String(republished.getValue().getBody()));
+        assertFalse(copy.getHeaders().containsKey(MqBatchingStrategy.BATCH_SIZE_HEADER));
+
+        // 三条都处理完才应答一次
+        verify(this.coalescer, times(1)).ack(this.channel, 5, false);
+        verify(this.coalescer, never()).nack(any(Channel.class), anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    public void fragmentIdsFollowPositionInBatch() throws Throwable {
+        MessageProperties shared = new MessageProperties();
+        shared.setMessageId("batch");
+        shared.setConsumerQueue(ConstantQueue.QUEUE);
+        shared.setDeliveryTag(6);
+        shared.setHeader(MqBatchingStrategy.BATCH_SIZE_HEADER, 2);
+
+        this.interceptor.invoke(acking(new Message("a".getBytes(), shared)));
+        this.interceptor.invoke(failing(new Message("b".getBytes(), shared)));
+
+        ArgumentCaptor<Message> republished = ArgumentCaptor.forClass(Message.class);
+        verify(this.sender).republish(eq("queue_test.retry.1000"), republished.capture());
+        assertEquals("batch#1", republished.getValue().getMessageProperties().getMessageId());
+        verify(this.coalescer, times(1)).ack(this.channel, 6, false);
+    }
+
+    private MethodInvocation failing(Message message) throws Throwable {
+        MethodInvocation invocation = invocation(message);
+        when(invocation.proceed()).thenThrow(new IllegalStateException("Receiver Error"));
+        return invocation;
+    }
+
+    /**
+     * 监听方法处理成功后手动 ack，消息头在调用时从 MessageProperties 转换
+     */
+    private MethodInvocation acking(Message message) throws Throwable {
+        MethodInvocation invocation = invocation(message);
+        when(invocation.proceed()).thenAnswer(call -> {
+            MessageProperties properties = message.getMessageProperties();
+            this.acker.ack(this.channel, MessageBuilder.withPayload(message.getBody())
+                    .copyHeaders(properties.getHeaders())
+                    .setHeader(AmqpHeaders.DELIVERY_TAG, properties.getDeliveryTag())
+                    .setHeader(AmqpHeaders.CONSUMER_QUEUE, properties.getConsumerQueue())
+                    .setHeader(AmqpHeaders.MESSAGE_ID, properties.getMessageId())
+                    .build(), false);
+            return null;
+        });
+        return invocation;
+    }
+
+    private MethodInvocation invocation(Message message) {
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getArguments()).thenReturn(new Object[]{this.channel, message});
+        return invocation;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MqBrokerRetryTest {
+
+    @Test
+    public void delaysGrowUntilMaxInterval() {
+        MqRetryProperties properties = new MqRetryProperties();
+        properties.setMaxAttempts(5);
+        properties.setMaxInterval(5000);
+        MqBrokerRetry retry = new MqBrokerRetry(properties);
+        assertArrayEquals(new long[]{1000, 2000, 4000, 5000, 5000}, retry.getDelays());
+        assertEquals("queue_test.retry.1000", retry.retryQueue("queue_test", 0));
+        assertEquals("queue_test.retry.5000", retry.retryQueue("queue_test", 4));
+        assertNull(retry.retryQueue("queue_test", 5));
+        assertEquals("queue_test.parking", retry.parkingQueue("queue_test"));
+
+        // 延时相同的重试队列只声明一次
+        List<String> names = new ArrayList<>();
+        for (Declarable declarable : retry.declarables(Collections.singletonList("queue_test")).getDeclarables()) {
+            Queue queue = (Queue) declarable;
+            names.add(queue.getName());
+            if (queue.getName().equals("queue_test.retry.2000")) {
+                assertEquals(2000L, queue.getArguments().get("x-message-ttl"));
+                assertEquals("", queue.getArguments().get(RabbitMqConfig.DEAD_LETTER_EXCHANGE_KEY));
+                assertEquals("queue_test", queue.getArguments().get(RabbitMqConfig.DEAD_LETTER_ROUTING_KEY));
+            }
+        }
+        assertEquals(Arrays.asList("queue_test.retry.1000", "queue_test.retry.2000", "queue_test.retry.4000",
+                "queue_test.retry.5000", "queue_test.parking"), names);
+    }
+
+    @Test
+    public void attemptsCountedFromXDeath() {
+        MqBrokerRetry retry = new MqBrokerRetry(new MqRetryProperties());
+        MessageProperties properties = new MessageProperties();
+        assertEquals(0, retry.attempts(properties, "queue_test"));
+
+        properties.setHeader(MqBrokerRetry.X_DEATH, Arrays.asList(
+                death("queue_test.retry.2000", "expired", 1L),
+                death("queue_test.retry.1000", "expired", 1L),
+                // 其他队列、其他原因的死信不计入
+                death("queue_test", "rejected", 3L),
+                death("queue_other.retry.1000", "expired", 2L)));
+        assertEquals(2, retry.attempts(properties, "queue_test"));
+        assertEquals("queue_test.retry.4000", retry.retryQueue("queue_test", 2));
+        assertNull(retry.retryQueue("queue_test", 3));
+    }
+
+    private static Map<String, Object> death(String queue, String reason, long count) {
+        Map<String, Object> death = new HashMap<>();
+        death.put("queue", queue);
+        death.put("reason", reason);
+        death.put("count", count);
+        return death;
+    }
+}
@@ -0,0 +1,99 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MqBulkPublisherTest {
+
+    private ThreadPoolTaskExecutor sseExecutor;
+
+    @Before
+    public void setUp() {
+        this.sseExecutor = new ThreadPoolTaskExecutor();
+        this.sseExecutor.setCorePoolSize(1);
+        this.sseExecutor.setThreadNamePrefix("test-sse-");
+        this.sseExecutor.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        this.sseExecutor.shutdown();
+    }
+
+    @Test
+    public void sendsOnSsePoolAndSkipsTicksWhileSending() throws Exception {
+        BlockingEmitter emitter = new BlockingEmitter();
+        MqBulkPublisher.ProgressStream stream = new MqBulkPublisher.ProgressStream(
+                new BulkPublishJob("1", "send2Queue", 10, false), emitter, this.sseExecutor, 60000);
+
+        stream.run();
+        assertTrue(emitter.entered.await(5, TimeUnit.SECONDS));
+        // 上一次还没写完，定时线程不等待也不重复提交
+        stream.run();
+        stream.run();
+        emitter.release.countDown();
+        waitIdle();
+        assertEquals(1, emitter.threads.size());
+        assertTrue(emitter.threads.get(0).startsWith("test-sse-"));
+        assertFalse(stream.isClosed());
+    }
+
+    @Test
+    public void closesStreamStuckLongerThanSendTimeout() throws Exception {
+        BlockingEmitter emitter = new BlockingEmitter();
+        MqBulkPublisher.ProgressStream stream = new MqBulkPublisher.ProgressStream(
+                new BulkPublishJob("1", "send2Queue", 10, false), emitter, this.sseExecutor, 50);
+
+        stream.run();
+        assertTrue(emitter.entered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        stream.run();
+        assertTrue(stream.isClosed());
+        // 推送线程被中断后释放，可以继续为其他订阅推送
+        waitIdle();
+    }
+
+    private void waitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.sseExecutor.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.sseExecutor.getActiveCount());
+    }
+
+    /**
+     * 模拟写不动的客户端
+     */
+    private static final class BlockingEmitter extends SseEmitter {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            this.threads.add(Thread.currentThread().getName());
+            this.entered.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Queue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MqCanaryTest {
+
+    @Test
+    public void probeKeyMatchesPattern() {
+        assertEquals("canary.0.rk.canary.add", MqCanary.probeKey("canary.0.rk.#.add"));
+        assertEquals("canary.1.rk.book.canary", MqCanary.probeKey("canary.1.rk.book.#"));
+        assertEquals("canary.2.canary.x.canary", MqCanary.probeKey("canary.2.*.x.#"));
+        TopicTrie trie = new TopicTrie();
+        trie.add("canary.0.rk.#.add", "q0");
+        trie.add("canary.1.rk.book.#", "q1");
+        trie.add("rk.#.add", "queue_user.add");
+        trie.add("rk.book.#", "queue_book.add");
+        assertEquals(Collections.singleton("q0"), trie.match(MqCanary.probeKey("canary.0.rk.#.add")));
+        assertEquals(Collections.singleton("q1"), trie.match(MqCanary.probeKey("canary.1.rk.book.#")));
+    }
+
+    @Test
+    public void routesFollowTopology() {
+        MqTopologyProperties topology = new MqTopologyProperties();
+        topology.getExchanges().addAll(Arrays.asList(exchange(ConstantQueue.DirectExchange, true),
+                exchange(ConstantQueue.TopicExchange, true), exchange(ConstantQueue.FanoutExchange, true),
+                exchange(ConstantQueue.EMAIL_Exchange_DLQ, true), exchange(ConstantQueue.EMAIL_Exchange_BZ, true),
+                exchange(ConstantQueue.EXCHANGE_DELAYED, false)));
+        topology.getBindings().addAll(Arrays.asList(binding(ConstantQueue.TopicExchange, "rk.#.add"),
+                binding(ConstantQueue.TopicExchange, "rk.book.#"), binding(ConstantQueue.TopicExchange, "rk.#.add")));
+
+        List<MqCanary.Route> routes = MqCanary.routes(new MqCanaryProperties(), topology);
+        assertEquals(Arrays.asList("direct", "topic:rk.#.add", "topic:rk.book.#", "fanout", "dlq"),
+                routes.stream().map(route -> route.name).collect(Collectors.toList()));
+
+        MqCanary.Route topic = routes.get(2);
+        assertEquals("canary.1.rk.book.canary", topic.routingKey);
+        assertEquals(Collections.singleton("mq.canary.topic.1"), topic.queues);
+
+        // fanout 预期的队列按路由预测
+        assertNull(routes.get(3).queues);
+        assertTrue(routes.get(3).declarables.isEmpty());
+
+        MqCanary.Route dlq = routes.get(4);
+        assertEquals(Collections.singleton("mq.canary.dlq.bz"), dlq.queues);
+        Queue first = (Queue) dlq.declarables.get(0);
+        assertEquals("mq.canary.dlq", first.getName());
+        assertEquals(0, first.getArguments().get("x-message-ttl"));
+        assertEquals(ConstantQueue.EMAIL_Exchange_BZ, first.getArguments().get(RabbitMqConfig.DEAD_LETTER_EXCHANGE_KEY));
+        Binding deadLetter = (Binding) dlq.declarables.get(3);
+        assertEquals(ConstantQueue.EMAIL_Exchange_BZ, deadLetter.getExchange());
+        assertEquals(first.getArguments().get(RabbitMqConfig.DEAD_LETTER_ROUTING_KEY), deadLetter.getRoutingKey());
+        for (Declarable declarable : dlq.declarables) {
+            if (declarable instanceof Queue) {
+                assertTrue(((Queue) declarable).getName().startsWith("mq.canary."));
+            }
+        }
+    }
+
+    private static MqTopologyProperties.ExchangeDef exchange(String name, boolean declare) {
+        MqTopologyProperties.ExchangeDef def = new MqTopologyProperties.ExchangeDef();
+        def.setName(name);
+        def.setDeclare(declare);
+        return def;
+    }
+
+    private static MqTopologyProperties.BindingDef binding(String exchange, String routingKey) {
+        MqTopologyProperties.BindingDef def = new MqTopologyProperties.BindingDef();
+        def.setExchange(exchange);
+        def.setQueue("q");
+        def.setRoutingKey(routingKey);
+        return def;
+    }
+}
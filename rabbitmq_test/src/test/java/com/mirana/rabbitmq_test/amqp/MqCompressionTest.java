@@ -0,0 +1,175 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.postprocessor.GUnzipPostProcessor;
+import org.springframework.amqp.support.postprocessor.GZipPostProcessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqCompressionTest {
+
+    @Test
+    public void compressesLargePayloadsAndRestoresEncoding() {
+        for (MqCompressionProperties.Codec codec : MqCompressionProperties.Codec.values()) {
+            MqCompression compression = compression(codec);
+            byte[] body = json(200);
+            Message compressed = compression.compress(message(body, "utf-8"));
+            assertEquals(codec.getEncoding() + ":utf-8", compressed.getMessageProperties().getContentEncoding());
+            assertTrue(compressed.getBody().length < body.length / 5);
+
+            Message restored = compression.decompress(compressed);
+            assertArrayEquals(body, restored.getBody());
+            assertEquals("utf-8", restored.getMessageProperties().getContentEncoding());
+        }
+    }
+
+    @Test
+    public void sendsSmallAndIncompressiblePayloadsAsIs() {
+        MqCompression compression = compression(MqCompressionProperties.Codec.GZIP);
+        Message small = message("2019-05-27 14:54:58".getBytes(StandardCharsets.UTF_8), null);
+        assertSame(small, compression.compress(small));
+
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        Message incompressible = message(random, null);
+        assertSame(incompressible, compression.compress(incompressible));
+        assertNull(incompressible.getMessageProperties().getContentEncoding());
+
+        // 没有压缩标记的消息原样交给监听方法
+        assertSame(small, compression.decompress(small));
+    }
+
+    @Test
+    public void interoperatesWithSpringPostProcessors() throws Exception {
+        MqCompression compression = compression(MqCompressionProperties.Codec.GZIP);
+        byte[] body = json(100);
+
+        Message fromSpring = new GZipPostProcessor().postProcessMessage(message(body, "utf-8"));
+        assertArrayEquals(body, compression.decompress(fromSpring).getBody());
+
+        Message toSpring = new GUnzipPostProcessor(true).postProcessMessage(compression.compress(message(body, "utf-8")));
+        assertArrayEquals(body, toSpring.getBody());
+        assertEquals("utf-8", toSpring.getMessageProperties().getContentEncoding());
+    }
+
+    @Test
+    public void marksCorruptPayload() {
+        MqCompression compression = compression(MqCompressionProperties.Codec.GZIP);
+        Message compressed = compression.compress(message(json(100), null));
+        byte[] corrupt = Arrays.copyOf(compressed.getBody(), compressed.getBody().length);
+        corrupt[corrupt.length - 10] ^= 0x55;
+        compressed.getMessageProperties().setHeader(MessageProperties.SPRING_BATCH_FORMAT, MessageProperties.BATCH_FORMAT_LENGTH_HEADER4);
+        Message marked = compression.decompress(new Message(corrupt, compressed.getMessageProperties()));
+        assertSame(corrupt, marked.getBody());
+        assertEquals("gzip CRC 校验失败", marked.getMessageProperties().getHeaders().get(MqCompression.FAILED_HEADER));
+        // 不再拆包，整条消息拒绝
+        assertNull(marked.getMessageProperties().getHeaders().get(MessageProperties.SPRING_BATCH_FORMAT));
+    }
+
+    @Test
+    public void rejectsPayloadsOverMaxDecompressedSize() {
+        byte[] body = new byte[64 * 1024];
+        for (MqCompressionProperties.Codec codec : MqCompressionProperties.Codec.values()) {
+            MqCompression compression = compression(codec);
+            Message compressed = compression.compress(message(body, null));
+
+            MqCompressionProperties exact = new MqCompressionProperties();
+            exact.setMaxDecompressedSize(body.length);
+            Message restored = new MqCompression(exact).decompress(copy(compressed));
+            assertArrayEquals(body, restored.getBody());
+            assertNull(restored.getMessageProperties().getHeaders().get(MqCompression.FAILED_HEADER));
+
+            MqCompressionProperties smaller = new MqCompressionProperties();
+            smaller.setMaxDecompressedSize(body.length - 1);
+            Message marked = new MqCompression(smaller).decompress(copy(compressed));
+            assertEquals("解压后超过 " + (body.length - 1) + " 字节",
+                    marked.getMessageProperties().getHeaders().get(MqCompression.FAILED_HEADER));
+        }
+    }
+
+    @Test
+    public void gzipTrailerLargerThanLimitIsRejectedBeforeInflating() {
+        MqCompression compression = compression(MqCompressionProperties.Codec.GZIP);
+        byte[] gzip = compression.compress(message(json(100), null)).getBody();
+        // 尾部的原长度改成 1GB
+        gzip[gzip.length - 1] = 0x40;
+        Message marked = compression.decompress(message(gzip, MqCompression.GZIP));
+        assertEquals("解压后超过 16777216 字节", marked.getMessageProperties().getHeaders().get(MqCompression.FAILED_HEADER));
+    }
+
+    @Test
+    public void undecodableInterceptorRejectsMarkedMessages() throws Throwable {
+        MqAcker acker = mock(MqAcker.class);
+        Channel channel = mock(Channel.class);
+        Message plain = message(json(1), null);
+        Message marked = message(json(1), MqCompression.GZIP);
+        marked.getMessageProperties().setHeader(MqCompression.FAILED_HEADER, "不是 gzip 格式");
+
+        MethodInvocation invocation = invocation(channel, plain);
+        when(invocation.proceed()).thenReturn("handled");
+        assertEquals("handled", new MqUndecodableInterceptor(acker, true).invoke(invocation));
+        verify(acker, never()).undecodable(channel, plain, true);
+
+        invocation = invocation(channel, marked);
+        assertNull(new MqUndecodableInterceptor(acker, true).invoke(invocation));
+        verify(acker).undecodable(channel, marked, true);
+        verify(invocation, never()).proceed();
+
+        try {
+            new MqUndecodableInterceptor(acker, false).invoke(invocation(channel, marked));
+            fail();
+        } catch (AmqpRejectAndDontRequeueException e) {
+            verify(acker).undecodable(channel, marked, false);
+        }
+    }
+
+    private static MethodInvocation invocation(Channel channel, Message message) {
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getArguments()).thenReturn(new Object[]{channel, message});
+        return invocation;
+    }
+
+    private static Message copy(Message message) {
+        return message(message.getBody(), message.getMessageProperties().getContentEncoding());
+    }
+
+    private static MqCompression compression(MqCompressionProperties.Codec codec) {
+        MqCompressionProperties properties = new MqCompressionProperties();
+        properties.setEnabled(true);
+        properties.setCodec(codec);
+        return new MqCompression(properties);
+    }
+
+    private static Message message(byte[] body, String encoding) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentEncoding(encoding);
+        return new Message(body, properties);
+    }
+
+    private static byte[] json(int items) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"email\":\"user").append(i)
+                    .append("@example.com\",\"status\":\"PENDING\"}");
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
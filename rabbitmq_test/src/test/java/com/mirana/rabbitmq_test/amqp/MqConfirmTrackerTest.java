@@ -0,0 +1,139 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class MqConfirmTrackerTest {
+
+    private MqConfirmTracker tracker;
+
+    @After
+    public void tearDown() {
+        if (this.tracker != null) {
+            this.tracker.destroy();
+        }
+    }
+
+    @Test
+    public void ackCompletesFutureAndReleasesSlot() throws Exception {
+        tracker(1, 50, 60000);
+        CorrelationData data = new CorrelationData("a");
+        CompletableFuture<CorrelationData> future = this.tracker.track(data, "ex");
+        assertEquals(1, this.tracker.getInFlight());
+
+        this.tracker.confirm(data, true, null);
+        assertSame(data, future.get(0, TimeUnit.MILLISECONDS));
+        assertEquals(0, this.tracker.getInFlight());
+        // 名额已释放，不等待
+        this.tracker.track(new CorrelationData("b"), "ex");
+    }
+
+    @Test
+    public void acquireTimesOutWhenInFlightLimitReached() {
+        tracker(2, 50, 60000);
+        this.tracker.track(new CorrelationData("a"), "ex");
+        this.tracker.track(new CorrelationData("b"), "ex");
+        long start = System.nanoTime();
+        try {
+            this.tracker.track(new CorrelationData("c"), "ex");
+            fail();
+        } catch (AmqpException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("未确认消息数已达上限 2"));
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(2, this.tracker.getInFlight());
+    }
+
+    @Test
+    public void nackAndReturnFailFutureAndReleaseSlot() throws Exception {
+        tracker(1, 50, 60000);
+        CorrelationData nacked = new CorrelationData("a");
+        CompletableFuture<CorrelationData> future = this.tracker.track(nacked, "ex");
+        this.tracker.confirm(nacked, false, "reject-publish");
+        assertEquals(PublishConfirmException.Reason.NACK, reason(future));
+
+        CorrelationData returned = new CorrelationData("b");
+        future = this.tracker.track(returned, "ex");
+        returned.setReturnedMessage(new Message(new byte[0], new MessageProperties()));
+        this.tracker.confirm(returned, true, null);
+        assertEquals(PublishConfirmException.Reason.RETURNED, reason(future));
+
+        CorrelationData failed = new CorrelationData("c");
+        future = this.tracker.track(failed, "ex");
+        this.tracker.cancel(failed, new IllegalStateException("channel closed"));
+        assertEquals(PublishConfirmException.Reason.SEND_FAILED, reason(future));
+        assertEquals(0, this.tracker.getInFlight());
+    }
+
+    @Test
+    public void confirmTimeoutFailsFutureAndIgnoresLateAck() throws Exception {
+        MqConfirmProperties properties = tracker(1, 50, 50);
+        CorrelationData data = new CorrelationData("a");
+        CompletableFuture<CorrelationData> future = this.tracker.track(data, "ex");
+        assertEquals(PublishConfirmException.Reason.TIMEOUT, reason(future));
+        assertEquals(0, this.tracker.getInFlight());
+
+        // 超时后到达的确认不再处理，名额不会多释放；之后的消息不再超时，c 等待名额时 b 不会释放
+        properties.setTimeout(60000);
+        this.tracker.confirm(data, true, null);
+        this.tracker.track(new CorrelationData("b"), "ex");
+        try {
+            this.tracker.track(new CorrelationData("c"), "ex");
+            fail();
+        } catch (AmqpException e) {
+            assertFalse(e instanceof PublishConfirmException);
+        }
+    }
+
+    @Test(expected = AmqpException.class)
+    public void duplicateCorrelationIdIsRejected() {
+        tracker(2, 50, 60000);
+        this.tracker.track(new CorrelationData("a"), "ex");
+        try {
+            this.tracker.track(new CorrelationData("a"), "ex");
+        } finally {
+            // 重复的 id 不占名额
+            assertEquals(1, this.tracker.getInFlight());
+            this.tracker.track(new CorrelationData("b"), "ex");
+        }
+    }
+
+    private MqConfirmProperties tracker(int maxInFlight, long acquireTimeout, long timeout) {
+        MqConfirmProperties properties = new MqConfirmProperties();
+        properties.setMaxInFlight(maxInFlight);
+        properties.setAcquireTimeout(acquireTimeout);
+        properties.setTimeout(timeout);
+        this.tracker = new MqConfirmTracker();
+        ReflectionTestUtils.setField(this.tracker, "properties", properties);
+        ReflectionTestUtils.setField(this.tracker, "metrics", mock(MqMetrics.class));
+        ReflectionTestUtils.setField(this.tracker, "flightRecorder", new MqFlightRecorder(new MqFlightRecorderProperties()));
+        this.tracker.init();
+        return properties;
+    }
+
+    private static PublishConfirmException.Reason reason(CompletableFuture<CorrelationData> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return ((PublishConfirmException) e.getCause()).getReason();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqDedupInterceptorTest {
+
+    private final MqAcker acker = mock(MqAcker.class);
+
+    private final Channel channel = mock(Channel.class);
+
+    private final MqDedupInterceptor interceptor = new MqDedupInterceptor(new MqDedupProperties(), this.acker, true);
+
+    @Test
+    public void dropsMessagesAlreadyProcessed() throws Throwable {
+        MethodInvocation first = invocation(message("a", null));
+        MethodInvocation redelivered = invocation(message("a", null));
+        this.interceptor.invoke(first);
+        this.interceptor.invoke(redelivered);
+
+        verify(first).proceed();
+        verify(redelivered, never()).proceed();
+        verify(this.acker).duplicate(any(Channel.class), any(Message.class), anyBoolean());
+        assertEquals(1, this.interceptor.size());
+    }
+
+    @Test
+    public void failedMessagesAreProcessedAgain() throws Throwable {
+        MethodInvocation failed = invocation(message("b", null));
+        when(failed.proceed()).thenThrow(new IllegalStateException("Receiver Error"));
+        try {
+            this.interceptor.invoke(failed);
+            fail();
+        } catch (IllegalStateException expected) {
+            // 监听方法的异常原样抛出
+        }
+        MethodInvocation retried = invocation(message("b", null));
+        this.interceptor.invoke(retried);
+
+        verify(retried).proceed();
+        verify(this.acker, never()).duplicate(any(Channel.class), any(Message.class), anyBoolean());
+    }
+
+    @Test
+    public void batchFragmentsAreNotDeduplicated() throws Throwable {
+        MethodInvocation fragment = invocation(message("c", 3));
+        this.interceptor.invoke(fragment);
+        this.interceptor.invoke(fragment);
+
+        verify(fragment, times(2)).proceed();
+        assertNull(MqDedupInterceptor.key(message(null, null).getMessageProperties()));
+    }
+
+    private MethodInvocation invocation(Message message) {
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getArguments()).thenReturn(new Object[]{this.channel, message});
+        return invocation;
+    }
+
+    private static Message message(String messageId, Integer batchSize) {
+        MessageProperties properties = new MessageProperties();
+        properties.setMessageId(messageId);
+        properties.setConsumerQueue(ConstantQueue.QUEUE);
+        if (batchSize != null) {
+            properties.setHeader(MqBatchingStrategy.BATCH_SIZE_HEADER, batchSize);
+        }
+        return new Message(new byte[0], properties);
+    }
+}
@@ -0,0 +1,58 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Queue;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MqDelayLadderTest {
+
+    private final MqDelayLadder ladder = new MqDelayLadder(new MqDelayLadderProperties());
+
+    @Test
+    public void routingKeyPicksNearestCombination() {
+        assertEquals(15000, this.ladder.getMaxDelay());
+        assertEquals("email.delay.level.0", this.ladder.getExchange());
+        // 级从大到小：8000 4000 2000 1000
+        assertEquals("0.1.0.L", this.ladder.routingKey(5000));
+        assertEquals("L.0.0.0", this.ladder.routingKey(8000));
+        assertEquals("1.1.1.L", this.ladder.routingKey(15000));
+        assertEquals("0.0.1.L", this.ladder.routingKey(2600));
+        assertEquals("0.0.0.L", this.ladder.routingKey(500));
+        assertNull(this.ladder.routingKey(400));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDelayBeyondLadder() {
+        this.ladder.routingKey(15001);
+    }
+
+    @Test
+    public void bindsLaterBucketsToEarlierLevels() {
+        MqDelayLadderProperties properties = new MqDelayLadderProperties();
+        properties.setBuckets(Arrays.asList(2000L, 1000L));
+        int queues = 0;
+        int bindings = 0;
+        for (Declarable declarable : new MqDelayLadder(properties).declarables().getDeclarables()) {
+            if (declarable instanceof Queue) {
+                queues++;
+            } else if (declarable instanceof Binding) {
+                Binding binding = (Binding) declarable;
+                if (binding.getDestination().equals("email.delay.bucket.1000.last")
+                        && binding.getExchange().equals("email.delay.level.0")) {
+                    assertEquals("0.L.#", binding.getRoutingKey());
+                }
+                bindings++;
+            }
+        }
+        // 2000、2000.last、1000.last
+        assertEquals(3, queues);
+        // level.0: 2000、2000.last、1000.last；level.1: 1000.last
+        assertEquals(4, bindings);
+    }
+}
@@ -0,0 +1,101 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MqFlightRecorderTest {
+
+    @Test
+    public void keepsMostRecentEventsPerQueue() {
+        MqFlightRecorderProperties properties = new MqFlightRecorderProperties();
+        properties.setCapacity(5);
+        properties.setJfr(false);
+        MqFlightRecorder recorder = new MqFlightRecorder(properties);
+        for (int i = 0; i < 20; i++) {
+            recorder.published("", "queue_test", "id-" + i);
+            recorder.settled("queue_test", "id-" + i, i + 1, MqMetrics.ACK);
+        }
+
+        // 容量向上取整到 8
+        List<MqFlightEvent> published = recorder.snapshot("amq.default");
+        assertEquals(8, published.size());
+        assertEquals("id-12", published.get(0).getMessageId());
+        assertEquals("id-19", published.get(7).getMessageId());
+        assertEquals(MqMetrics.ACK, recorder.snapshot("queue_test").get(0).getType());
+        assertEquals(2, recorder.snapshot().size());
+    }
+
+    @Test
+    public void concurrentWritersNeverProduceTornSnapshots() throws InterruptedException {
+        MqFlightRecorderProperties properties = new MqFlightRecorderProperties();
+        properties.setCapacity(64);
+        properties.setJfr(false);
+        MqFlightRecorder recorder = new MqFlightRecorder(properties);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    recorder.settled("q", "id", i, MqMetrics.ACK);
+                }
+                done.countDown();
+            });
+        }
+        while (done.getCount() > 0) {
+            List<MqFlightEvent> snapshot = recorder.snapshot("q");
+            assertTrue(snapshot.size() <= 64);
+            for (int i = 1; i < snapshot.size(); i++) {
+                assertTrue(snapshot.get(i).getSeq() > snapshot.get(i - 1).getSeq());
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(64, recorder.snapshot("q").size());
+        assertEquals(400000 - 1, recorder.snapshot("q").get(63).getSeq());
+    }
+
+    @Test
+    public void emitsJfrEvents() throws Exception {
+        MqFlightRecorder recorder = new MqFlightRecorder(new MqFlightRecorderProperties());
+        Path file = Files.createTempFile("mq-flight", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.mirana.mq.Confirm");
+            recording.enable("com.mirana.mq.Deliver");
+            recording.start();
+            recorder.confirmed("", "id-1", MqMetrics.ACK, 1500000);
+            MessageProperties message = new MessageProperties();
+            message.setConsumerQueue("queue_test");
+            message.setMessageId("id-1");
+            message.setDeliveryTag(7);
+            recorder.delivered(message, 2000000, new IllegalStateException());
+            recording.stop();
+            recording.dump(file);
+        }
+        List<String> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            events.add(event.getEventType().getName() + " " + event.getString("messageId"));
+            if (event.getEventType().getName().equals("com.mirana.mq.Deliver")) {
+                assertEquals(7, event.getLong("deliveryTag"));
+                assertEquals("IllegalStateException", event.getString("exception"));
+            }
+        }
+        Files.delete(file);
+        assertTrue(events.toString(), events.contains("com.mirana.mq.Confirm id-1"));
+        assertTrue(events.toString(), events.contains("com.mirana.mq.Deliver id-1"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MqJournalFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayStopsAtFirstTornRecord() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (String record : Arrays.asList("a", "bb", "ccc", "dddd")) {
+            MqJournalFile.write(buffer, record.getBytes(StandardCharsets.UTF_8));
+        }
+        int third = MqJournalFile.frameSize(1) - 4 + MqJournalFile.frameSize(2) - 4;
+        // 第三条的内容与 crc 不一致
+        buffer.put(third + MqJournalFile.HEADER, (byte) 'x');
+
+        List<String> records = new ArrayList<>();
+        buffer.rewind();
+        int count = MqJournalFile.replay(buffer, folder.getRoot().toPath(),
+                record -> records.add(new String(record, StandardCharsets.UTF_8)));
+        assertEquals(2, count);
+        assertEquals(Arrays.asList("a", "bb"), records);
+        // 从这里继续写会覆盖不完整的记录
+        assertEquals(third, buffer.position());
+    }
+
+    @Test
+    public void zeroFilledFileHasNoRecords() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("zero.log");
+        Files.write(file, new byte[4096]);
+        MappedByteBuffer buffer = MqJournalFile.map(file, 0);
+        assertEquals(0, MqJournalFile.replay(buffer, file, record -> {
+        }));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void writeAtomicallyLeavesNoTempFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("timers.1.journal");
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        MqJournalFile.writeAtomically(file, content);
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertFalse(Files.exists(file.resolveSibling("timers.1.journal.tmp")));
+        assertEquals(1, MqJournalFile.number(file, "timers.", ".journal"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.boot.autoconfigure.amqp.DirectRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class MqListenerConfigTest {
+
+    private MqListenerProperties listenerProperties;
+
+    private ProfiledRabbitListenerContainerFactory factory;
+
+    @Before
+    public void setUp() {
+        Map<String, String> source = new HashMap<>();
+        source.put("spring.rabbitmq.listener.simple.acknowledge-mode", "manual");
+        source.put("spring.rabbitmq.listener.simple.concurrency", "1");
+        source.put("spring.rabbitmq.listener.simple.prefetch", "250");
+        source.put("spring.rabbitmq.listener.direct.acknowledge-mode", "manual");
+        source.put("spring.rabbitmq.listener.direct.consumers-per-queue", "1");
+        source.put("spring.rabbitmq.listener.direct.prefetch", "100");
+        source.put("mq.listener.profiles.queue_test.concurrency", "2-8");
+        source.put("mq.listener.profiles.queue_test.prefetch", "50");
+        // 拼错的项被忽略，不影响其他项
+        source.put("mq.listener.profiles.queue_test.prefech", "7");
+        source.put("mq.listener.profiles[queue_fanout_1].type", "direct");
+        source.put("mq.listener.profiles[queue_fanout_1].consumers-per-queue", "2");
+        Binder binder = new Binder(new MapConfigurationPropertySource(source));
+        RabbitProperties rabbitProperties = binder.bind("spring.rabbitmq", RabbitProperties.class).get();
+        this.listenerProperties = binder.bind("mq.listener", MqListenerProperties.class).get();
+
+        SimpleRabbitListenerContainerFactoryConfigurer simpleConfigurer = new SimpleRabbitListenerContainerFactoryConfigurer();
+        ReflectionTestUtils.setField(simpleConfigurer, "rabbitProperties", rabbitProperties);
+        DirectRabbitListenerContainerFactoryConfigurer directConfigurer = new DirectRabbitListenerContainerFactoryConfigurer();
+        ReflectionTestUtils.setField(directConfigurer, "rabbitProperties", rabbitProperties);
+        this.factory = new MqListenerConfig().rabbitListenerContainerFactory(simpleConfigurer, directConfigurer,
+                mock(ConnectionFactory.class), this.listenerProperties, mock(MqMetrics.class), rabbitProperties,
+                new MqDedupProperties(), mock(MqAcker.class), mock(MqBrokerRetry.class), mock(MqSender.class),
+                new MqCompression(new MqCompressionProperties()), new MqFlightRecorder(new MqFlightRecorderProperties()),
+                mock(MqCanary.class), mock(MqAckCoalescer.class));
+    }
+
+    @Test
+    public void profileOverridesGlobalSettings() {
+        DirectFieldAccessor profiled = new DirectFieldAccessor(container(ConstantQueue.QUEUE));
+        assertTrue(profiled.getWrappedInstance() instanceof SimpleMessageListenerContainer);
+        assertEquals(2, profiled.getPropertyValue("concurrentConsumers"));
+        assertEquals(8, profiled.getPropertyValue("maxConcurrentConsumers"));
+        assertEquals(50, profiled.getPropertyValue("prefetchCount"));
+
+        DirectFieldAccessor direct = new DirectFieldAccessor(container(ConstantQueue.QUEUE_FANOUT1));
+        assertTrue(direct.getWrappedInstance() instanceof DirectMessageListenerContainer);
+        assertEquals(2, direct.getPropertyValue("consumersPerQueue"));
+        // 没有填写的项取 spring.rabbitmq.listener.direct.*
+        assertEquals(100, direct.getPropertyValue("prefetchCount"));
+    }
+
+    @Test
+    public void queueWithoutProfileUsesGlobalSettings() {
+        DirectFieldAccessor global = new DirectFieldAccessor(container(ConstantQueue.QUEUE_USER_ADD));
+        assertTrue(global.getWrappedInstance() instanceof SimpleMessageListenerContainer);
+        assertEquals(1, global.getPropertyValue("concurrentConsumers"));
+        assertNull(global.getPropertyValue("maxConcurrentConsumers"));
+        assertEquals(250, global.getPropertyValue("prefetchCount"));
+    }
+
+    @Test
+    public void unknownKeysAreIgnored() {
+        MqListenerProperties.Profile profile = this.listenerProperties.getProfiles().get(ConstantQueue.QUEUE);
+        assertEquals(Integer.valueOf(50), profile.getPrefetch());
+        assertEquals(MqListenerProperties.Type.SIMPLE, profile.getType());
+        assertEquals(2, this.listenerProperties.getProfiles().size());
+    }
+
+    private MessageListenerContainer container(String queue) {
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setId(queue);
+        endpoint.setQueueNames(queue);
+        endpoint.setMessageListener(message -> {
+        });
+        return this.factory.createListenerContainer(endpoint);
+    }
+}
@@ -0,0 +1,45 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MqLoadPayloadsTest {
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void fixedAndUniformSizes() {
+        MqLoadPayloads fixed = new MqLoadPayloads("256");
+        assertEquals(256, fixed.payload(this.random).length());
+
+        MqLoadPayloads uniform = new MqLoadPayloads("64-128");
+        for (int i = 0; i < 1000; i++) {
+            int size = uniform.next(this.random);
+            assertTrue(String.valueOf(size), size >= 64 && size <= 128);
+        }
+        assertEquals(128, uniform.getMax());
+    }
+
+    @Test
+    public void weightedSizes() {
+        MqLoadPayloads weighted = new MqLoadPayloads("100:90, 10240:10");
+        int large = 0;
+        for (int i = 0; i < 10000; i++) {
+            int size = weighted.next(this.random);
+            assertTrue(String.valueOf(size), size == 100 || size == 10240);
+            if (size == 10240) {
+                large++;
+            }
+        }
+        assertTrue(String.valueOf(large), large > 800 && large < 1200);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedSpec() {
+        new MqLoadPayloads("100:90,abc");
+    }
+}
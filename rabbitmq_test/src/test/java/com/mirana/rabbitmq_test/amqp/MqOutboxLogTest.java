@@ -0,0 +1,120 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MqOutboxLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversUnconfirmedRecords() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqOutboxLog log = new MqOutboxLog(dir, 4096);
+        assertEquals(0, log.open());
+        log.append("a", "ex", "rk", bytes("消息a"));
+        log.append("b", "ex", "rk", bytes("b"));
+        log.append("c", "", "queue", bytes("c"));
+        List<MqOutboxRecord> records = log.read(10);
+        assertEquals(3, records.size());
+        assertEquals("a", records.get(0).getId());
+        assertArrayEquals(bytes("消息a"), records.get(0).getBody());
+        assertTrue(log.read(10).isEmpty());
+
+        log.commit(2);
+        log.rewind();
+        assertEquals(3, log.read(10).get(0).getSeq());
+        log.close();
+
+        MqOutboxLog reopened = new MqOutboxLog(dir, 4096);
+        assertEquals(1, reopened.open());
+        records = reopened.read(10);
+        assertEquals(1, records.size());
+        assertEquals("queue", records.get(0).getRoutingKey());
+        assertEquals(4, reopened.append("d", "ex", "rk", bytes("d")));
+        reopened.close();
+    }
+
+    @Test
+    public void deletesConfirmedSegments() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqOutboxLog log = new MqOutboxLog(dir, 256);
+        log.open();
+        for (int i = 0; i < 50; i++) {
+            log.append("id" + i, "ex", "rk", bytes("body" + i));
+        }
+        assertTrue(log.segments() > 1);
+        assertEquals(50, log.read(100).size());
+        log.commit(40);
+        assertTrue(log.segments() > 1);
+        log.commit(50);
+        assertEquals(1, log.segments());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+        log.close();
+
+        MqOutboxLog reopened = new MqOutboxLog(dir, 256);
+        assertEquals(0, reopened.open());
+        assertEquals(51, reopened.append("id50", "ex", "rk", bytes("body50")));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTornRecord() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqOutboxLog log = new MqOutboxLog(dir, 4096);
+        log.open();
+        log.append("a", "ex", "rk", bytes("a"));
+        log.append("b", "ex", "rk", bytes("b"));
+        log.append("c", "ex", "rk", bytes("c"));
+        log.close();
+
+        // 最后一条记录的内容损坏
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("outbox.1.log").toFile(), "rw")) {
+            long position = file.length() - 1;
+            file.seek(position);
+            while (file.read() == 0) {
+                file.seek(--position);
+            }
+            file.seek(position);
+            file.write('x');
+        }
+
+        MqOutboxLog reopened = new MqOutboxLog(dir, 4096);
+        assertEquals(2, reopened.open());
+        assertEquals(3, reopened.append("c", "ex", "rk", bytes("c")));
+        assertEquals("c", reopened.read(10).get(2).getId());
+        reopened.close();
+    }
+
+    @Test
+    public void waitsForFlush() throws Exception {
+        MqOutboxLog log = new MqOutboxLog(folder.getRoot().toPath(), 4096);
+        log.open();
+        long seq = log.append("a", "ex", "rk", bytes("a"));
+        assertFalse(log.awaitFlushed(seq, 10));
+        log.flush();
+        assertTrue(log.awaitFlushed(seq, 10));
+        assertEquals(seq, log.getFlushedSeq());
+        log.close();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,95 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.handler.invocation.InvocableHandlerMethod;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MqPayloadConverterTest {
+
+    private final MqPayloadConverter converter = new MqPayloadConverter();
+
+    @Test
+    public void wrapsBodyWithoutCopying() {
+        byte[] body = "消息".getBytes(StandardCharsets.UTF_16);
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        properties.setContentEncoding("UTF-16");
+        Message message = new Message(body, properties);
+
+        LazyPayload payload = (LazyPayload) this.converter.fromMessage(message);
+        assertSame(body, payload.getBytes());
+        assertEquals("消息", payload.toString());
+        assertSame(payload.toString(), payload.toString());
+
+        // 原样转发，保留编码
+        Message forwarded = this.converter.toMessage(payload, new MessageProperties());
+        assertSame(body, forwarded.getBody());
+        assertEquals("UTF-16", forwarded.getMessageProperties().getContentEncoding());
+    }
+
+    @Test
+    public void sendsByteBuffersWithoutCopying() {
+        byte[] body = {1, 2, 3, 4};
+        assertSame(body, this.converter.toMessage(ByteBuffer.wrap(body), new MessageProperties()).getBody());
+
+        ByteBuffer slice = ByteBuffer.wrap(body, 1, 2);
+        assertArrayEquals(new byte[]{2, 3}, this.converter.toMessage(slice, new MessageProperties()).getBody());
+        assertEquals(1, slice.position());
+
+        Message text = this.converter.toMessage("abc", new MessageProperties());
+        assertEquals(MessageProperties.CONTENT_TYPE_TEXT_PLAIN, text.getMessageProperties().getContentType());
+    }
+
+    @Test
+    public void resolvesRawListenerSignatures() throws Exception {
+        RabbitListenerEndpointRegistrar registrar = new RabbitListenerEndpointRegistrar();
+        new MqListenerConfig().configureRabbitListeners(registrar);
+        Listener listener = new Listener();
+        LazyPayload payload = new LazyPayload("abc".getBytes(StandardCharsets.UTF_8), null, null);
+        org.springframework.messaging.Message<LazyPayload> message = MessageBuilder.withPayload(payload).build();
+
+        for (String name : new String[]{"bytes", "buffer", "text"}) {
+            Class<?> type = name.equals("bytes") ? byte[].class : name.equals("buffer") ? ByteBuffer.class : String.class;
+            InvocableHandlerMethod method = registrar.getMessageHandlerMethodFactory()
+                    .createInvocableHandlerMethod(listener, Listener.class.getMethod(name, type));
+            method.invoke(message);
+        }
+        assertSame(payload.getBytes(), listener.bytes);
+        assertTrue(listener.buffer.isReadOnly());
+        assertEquals(3, listener.buffer.remaining());
+        assertEquals("abc", listener.text);
+    }
+
+    public static class Listener {
+
+        private byte[] bytes;
+
+        private ByteBuffer buffer;
+
+        private String text;
+
+        public void bytes(@Payload byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public void buffer(@Payload ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public void text(@Payload String text) {
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MqPrefetchControllerTest {
+
+    private static final double RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void fastHandlerGetsLargePrefetch() {
+        // 10 微秒处理一条，一个往返内能处理 100 条
+        assertEquals(202, MqPrefetchController.target(TimeUnit.MICROSECONDS.toNanos(10), RTT, 2.0, 1, 500));
+        assertEquals(500, MqPrefetchController.target(100, RTT, 2.0, 1, 500));
+    }
+
+    @Test
+    public void slowHandlerGetsSmallPrefetch() {
+        assertEquals(3, MqPrefetchController.target(TimeUnit.MILLISECONDS.toNanos(100), RTT, 2.0, 1, 500));
+        assertEquals(5, MqPrefetchController.target(TimeUnit.SECONDS.toNanos(1), RTT, 2.0, 5, 500));
+    }
+
+    @Test
+    public void ignoresSmallChanges() {
+        assertFalse(MqPrefetchController.shouldChange(250, 250, 0.25));
+        assertFalse(MqPrefetchController.shouldChange(250, 300, 0.25));
+        assertTrue(MqPrefetchController.shouldChange(250, 3, 0.25));
+        assertTrue(MqPrefetchController.shouldChange(1, 2, 0.25));
+    }
+}
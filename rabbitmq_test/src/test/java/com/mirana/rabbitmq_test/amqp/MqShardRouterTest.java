@@ -0,0 +1,81 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Queue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MqShardRouterTest {
+
+    private static final int KEYS = 100000;
+
+    @Test
+    public void distributesKeysEvenly() {
+        MqShardRouter router = router(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < KEYS; i++) {
+            counts[router.shard("order-" + i)]++;
+        }
+        for (int count : counts) {
+            assertTrue(String.valueOf(count), Math.abs(count - KEYS / 4) < KEYS / 40);
+        }
+        // 同一个 key 总是同一个分片
+        assertEquals(router.shard("order-42"), router.shard("order-42"));
+    }
+
+    /**
+     * 分片依赖哈希值，ASCII 快速路径和非 ASCII 都与按 UTF-8 字节计算的 FNV-1a 一致
+     */
+    @Test
+    public void hashIsFnv1aOfUtf8Bytes() {
+        assertEquals(0xcbf29ce484222325L, Fnv1a.hash64(""));
+        assertEquals(0xe71fa2190541574bL, Fnv1a.hash64("abc"));
+        for (String key : new String[]{"order-42", "订单-42", "é"}) {
+            assertEquals(key, Fnv1a.hash64(key.getBytes(StandardCharsets.UTF_8)), Fnv1a.hash64(key));
+        }
+    }
+
+    @Test
+    public void addingShardMovesOnlyItsShareOfKeys() {
+        MqShardRouter four = router(4);
+        MqShardRouter five = router(5);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "order-" + i;
+            int shard = five.shard(key);
+            if (shard != four.shard(key)) {
+                // 换分片的只会换到新增的分片
+                assertEquals(4, shard);
+                moved++;
+            }
+        }
+        assertTrue(String.valueOf(moved), Math.abs(moved - KEYS / 5) < KEYS / 50);
+    }
+
+    @Test
+    public void declaresOneBoundQueuePerShard() {
+        MqShardRouter router = router(3);
+        Collection<Declarable> declarables = router.declarables().getDeclarables();
+        assertEquals(7, declarables.size());
+        for (Declarable declarable : declarables) {
+            if (declarable instanceof Queue) {
+                assertEquals(true, ((Queue) declarable).getArguments().get("x-single-active-consumer"));
+            } else if (declarable instanceof Binding) {
+                Binding binding = (Binding) declarable;
+                assertEquals("queue_test.shard." + binding.getRoutingKey(), binding.getDestination());
+            }
+        }
+    }
+
+    private static MqShardRouter router(int shards) {
+        MqShardProperties properties = new MqShardProperties();
+        properties.setShards(shards);
+        return new MqShardRouter(properties);
+    }
+}
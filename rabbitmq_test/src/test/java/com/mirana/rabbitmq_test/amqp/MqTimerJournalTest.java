@@ -0,0 +1,108 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MqTimerJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversPendingEntries() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqTimerJournal journal = new MqTimerJournal(dir, 4096, false);
+        assertEquals(0, journal.open().size());
+        journal.add(new MqTimerEntry("a", 100, "", "queue_delayed", "消息a"));
+        journal.add(new MqTimerEntry("b", 200, "ex", "rk", "b"));
+        journal.add(new MqTimerEntry("c", 300, "ex", "rk", "c"));
+        journal.remove("b");
+        journal.close();
+
+        MqTimerJournal reopened = new MqTimerJournal(dir, 4096, false);
+        List<MqTimerEntry> entries = new ArrayList<>(reopened.open());
+        assertEquals(2, entries.size());
+        assertEquals(new MqTimerEntry("a", 100, "", "queue_delayed", "消息a"), entries.get(0));
+        assertEquals("c", entries.get(1).getId());
+        reopened.close();
+    }
+
+    @Test
+    public void compactsWhenFull() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqTimerJournal journal = new MqTimerJournal(dir, 1024, false);
+        journal.open();
+        for (int i = 0; i < 1000; i++) {
+            journal.add(new MqTimerEntry("id" + i, i, "ex", "rk", "body"));
+            if (i >= 10) {
+                journal.remove("id" + (i - 10));
+            }
+        }
+        assertEquals(10, journal.size());
+        assertTrue(journal.capacity() <= 1024);
+        journal.close();
+
+        Collection<MqTimerEntry> entries = new MqTimerJournal(dir, 1024, false).open();
+        assertEquals(10, entries.size());
+        assertEquals("id990", entries.iterator().next().getId());
+    }
+
+    @Test
+    public void fallsBackToPreviousGenerationWhenNewestIsZeroFilled() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqTimerJournal journal = new MqTimerJournal(dir, 4096, false);
+        journal.open();
+        journal.add(new MqTimerEntry("a", 100, "ex", "rk", "a"));
+        journal.add(new MqTimerEntry("b", 200, "ex", "rk", "b"));
+        assertEquals(dir.resolve("timers.1.journal"), journal.getFile());
+        journal.close();
+        // 操作系统崩溃后改名已落盘、内容没有落盘的下一代
+        Files.write(dir.resolve("timers.2.journal"), new byte[4096]);
+
+        MqTimerJournal reopened = new MqTimerJournal(dir, 4096, false);
+        List<MqTimerEntry> entries = new ArrayList<>(reopened.open());
+        assertEquals(2, entries.size());
+        assertEquals("a", entries.get(0).getId());
+        assertEquals(dir.resolve("timers.3.journal"), reopened.getFile());
+        assertFalse(Files.exists(dir.resolve("timers.1.journal")));
+        assertFalse(Files.exists(dir.resolve("timers.2.journal")));
+        assertFalse(Files.exists(dir.resolve("timers.3.journal.tmp")));
+        reopened.close();
+    }
+
+    @Test
+    public void emptyGenerationIsStillIntact() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MqTimerJournal journal = new MqTimerJournal(dir, 4096, false);
+        journal.open();
+        journal.add(new MqTimerEntry("a", 100, "ex", "rk", "a"));
+        journal.close();
+        byte[] first = Files.readAllBytes(dir.resolve("timers.1.journal"));
+
+        MqTimerJournal second = new MqTimerJournal(dir, 4096, false);
+        second.open();
+        second.remove("a");
+        second.close();
+        MqTimerJournal third = new MqTimerJournal(dir, 4096, false);
+        assertEquals(0, third.open().size());
+        third.close();
+        Files.write(dir.resolve("timers.1.journal"), first);
+
+        // 没有未到期的消息时最新一代只有 GENERATION 记录，仍然以它为准，不回退到第一代
+        MqTimerJournal reopened = new MqTimerJournal(dir, 4096, false);
+        assertEquals(0, reopened.open().size());
+        assertEquals(dir.resolve("timers.4.journal"), reopened.getFile());
+        reopened.close();
+    }
+}
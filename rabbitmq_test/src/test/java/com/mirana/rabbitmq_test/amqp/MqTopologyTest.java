@@ -0,0 +1,123 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqTopologyTest {
+
+    private final Channel channel = mock(Channel.class);
+
+    private final Connection connection = mock(Connection.class);
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+
+    private MqTopology topology;
+
+    @Before
+    public void setUp() {
+        com.rabbitmq.client.Connection delegate = mock(com.rabbitmq.client.Connection.class);
+        when(delegate.getAddress()).thenReturn(InetAddress.getLoopbackAddress());
+        when(delegate.getPort()).thenReturn(5672);
+        when(this.channel.getConnection()).thenReturn(delegate);
+        when(this.channel.isOpen()).thenReturn(true);
+        when(this.connection.createChannel(false)).thenReturn(this.channel);
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        when(connectionFactory.createConnection()).thenReturn(this.connection);
+        when(this.rabbitTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+
+        MqTopologyProperties properties = new MqTopologyProperties();
+        properties.getExchanges().add(exchange("ex.durable", false));
+        MqTopologyProperties.ExchangeDef lazy = exchange("ex.lazy", true);
+        lazy.setAutoDelete(true);
+        properties.getExchanges().add(lazy);
+        properties.getQueues().add(queue("q.durable", false));
+        properties.getQueues().add(queue("q.auto", true));
+        properties.getBindings().add(binding("ex.durable", "q.durable"));
+        properties.getBindings().add(binding("ex.lazy", "q.auto"));
+        this.topology = new MqTopology(properties, this.rabbitTemplate);
+    }
+
+    @Test
+    public void skipsUnchangedPersistentEntitiesOnReconnect() throws IOException {
+        this.topology.onCreate(this.connection);
+        this.topology.onCreate(this.connection);
+
+        verify(this.channel).exchangeDeclare(eq("ex.durable"), eq("direct"), eq(true), eq(false), eq(false), anyMap());
+        // properties 中的数字转为 long
+        verify(this.channel).queueDeclare("q.durable", true, false, false, Collections.singletonMap("x-message-ttl", 5000L));
+        verify(this.channel).queueBind(eq("q.durable"), eq("ex.durable"), eq("rk"), anyMap());
+        // 自动删除的每次都声明
+        verify(this.channel, times(2)).queueDeclare(eq("q.auto"), anyBoolean(), anyBoolean(), eq(true), anyMap());
+        verify(this.channel, never()).exchangeDeclare(eq("ex.lazy"), eq("topic"), anyBoolean(), anyBoolean(), anyBoolean(), anyMap());
+    }
+
+    @Test
+    public void declaresLazyExchangeOnFirstSend() throws IOException {
+        this.topology.onCreate(this.connection);
+        this.topology.declareLazy("ex.lazy");
+        this.topology.declareLazy("ex.lazy");
+        this.topology.declareLazy("ex.durable");
+
+        verify(this.channel).exchangeDeclare(eq("ex.lazy"), eq("topic"), eq(true), eq(true), eq(false), anyMap());
+        verify(this.channel).queueBind(eq("q.auto"), eq("ex.lazy"), eq("rk"), anyMap());
+
+        // 已经发送过的在重新连接时一起声明
+        this.topology.onCreate(this.connection);
+        verify(this.channel, times(2)).exchangeDeclare(eq("ex.lazy"), eq("topic"), eq(true), eq(true), eq(false), anyMap());
+    }
+
+    @Test
+    public void failedDeclarationIsRetriedOnReconnect() throws IOException {
+        when(this.channel.queueDeclare(eq("q.durable"), anyBoolean(), anyBoolean(), anyBoolean(), anyMap()))
+                .thenThrow(new IOException("PRECONDITION_FAILED"))
+                .thenReturn(null);
+        this.topology.onCreate(this.connection);
+        this.topology.onCreate(this.connection);
+        this.topology.onCreate(this.connection);
+
+        verify(this.channel, times(2)).queueDeclare(eq("q.durable"), anyBoolean(), anyBoolean(), anyBoolean(), anyMap());
+    }
+
+    private static MqTopologyProperties.ExchangeDef exchange(String name, boolean lazy) {
+        MqTopologyProperties.ExchangeDef def = new MqTopologyProperties.ExchangeDef();
+        def.setName(name);
+        def.setType(lazy ? "topic" : "direct");
+        def.setLazy(lazy);
+        return def;
+    }
+
+    private static MqTopologyProperties.QueueDef queue(String name, boolean autoDelete) {
+        MqTopologyProperties.QueueDef def = new MqTopologyProperties.QueueDef();
+        def.setName(name);
+        def.setAutoDelete(autoDelete);
+        if (!autoDelete) {
+            def.getArguments().put("x-message-ttl", "5000");
+        }
+        return def;
+    }
+
+    private static MqTopologyProperties.BindingDef binding(String exchange, String queue) {
+        MqTopologyProperties.BindingDef def = new MqTopologyProperties.BindingDef();
+        def.setExchange(exchange);
+        def.setQueue(queue);
+        def.setRoutingKey("rk");
+        return def;
+    }
+}
@@ -0,0 +1,49 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReceiveOptTest {
+
+    @Test
+    public void encodeAndDecode() {
+        for (int ackMode = 0; ackMode <= 15; ackMode++) {
+            for (int flags = 0; flags < 4; flags++) {
+                boolean multiple = (flags & 1) != 0;
+                boolean requeue = (flags & 2) != 0;
+                int opt = ReceiveOpt.encode(ackMode, multiple, requeue);
+                assertEquals(ackMode, ReceiveOpt.ackMode(opt));
+                assertEquals(multiple, ReceiveOpt.multiple(opt));
+                assertEquals(requeue, ReceiveOpt.requeue(opt));
+                // 消息头中是装箱后的值，解码结果相同
+                Integer boxed = opt;
+                assertEquals(ackMode, ReceiveOpt.ackMode(boxed));
+                assertEquals(multiple, ReceiveOpt.multiple(boxed));
+                assertEquals(requeue, ReceiveOpt.requeue(boxed));
+            }
+        }
+    }
+
+    @Test
+    public void defaultIsAckWithRequeue() {
+        assertEquals(1, ReceiveOpt.ackMode(ReceiveOpt.DEFAULT));
+        assertFalse(ReceiveOpt.multiple(ReceiveOpt.DEFAULT));
+        assertTrue(ReceiveOpt.requeue(ReceiveOpt.DEFAULT));
+    }
+
+    /**
+     * 超出范围的 ackMode 与原来一样走模拟异常，multiple、requeue 不受影响
+     */
+    @Test
+    public void ackModeOutOfRangeSimulatesException() {
+        for (int ackMode : new int[]{16, 17, 99, -1}) {
+            int opt = ReceiveOpt.encode(ackMode, true, false);
+            assertEquals(0, ReceiveOpt.ackMode(opt));
+            assertTrue(ReceiveOpt.multiple(opt));
+            assertFalse(ReceiveOpt.requeue(opt));
+        }
+    }
+}
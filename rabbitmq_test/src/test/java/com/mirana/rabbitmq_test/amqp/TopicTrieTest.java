@@ -0,0 +1,48 @@
+package com.mirana.rabbitmq_test.amqp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TopicTrieTest {
+
+    @Test
+    public void matchesLikeBroker() {
+        TopicTrie trie = new TopicTrie();
+        trie.add(ConstantQueue.ROUTINGKEY_MATCH_ADD, ConstantQueue.QUEUE_USER_ADD);
+        trie.add(ConstantQueue.ROUTINGKEY_MATCH_ADD, ConstantQueue.QUEUE_BOOK_ADD);
+        trie.add(ConstantQueue.ROUTINGKEY_MATCH_BOOK, ConstantQueue.QUEUE_BOOK_ADD);
+        trie.add(ConstantQueue.ROUTINGKEY_MATCH_BOOK, ConstantQueue.QUEUE_BOOK_DELETE);
+        assertEquals(4, trie.size());
+
+        assertEquals(new HashSet<>(Arrays.asList(ConstantQueue.QUEUE_BOOK_ADD, ConstantQueue.QUEUE_BOOK_DELETE,
+                ConstantQueue.QUEUE_USER_ADD)), trie.match(ConstantQueue.ROUTINGKEY_BOOK_ADD));
+        assertEquals(new HashSet<>(Arrays.asList(ConstantQueue.QUEUE_BOOK_ADD, ConstantQueue.QUEUE_USER_ADD)),
+                trie.match(ConstantQueue.ROUTINGKEY_USER_ADD));
+        assertEquals(new HashSet<>(Arrays.asList(ConstantQueue.QUEUE_BOOK_ADD, ConstantQueue.QUEUE_BOOK_DELETE)),
+                trie.match(ConstantQueue.ROUTINGKEY_BOOK_DELETE));
+        // # 匹配零个单词
+        assertEquals(new HashSet<>(Arrays.asList(ConstantQueue.QUEUE_BOOK_ADD, ConstantQueue.QUEUE_USER_ADD)),
+                trie.match("rk.add"));
+        assertTrue(trie.match(ConstantQueue.ROUTINGKEY_USER_DELETE).isEmpty());
+        assertTrue(trie.match(ConstantQueue.ROUTINGKEY_OTHER).isEmpty());
+    }
+
+    @Test
+    public void starMatchesExactlyOneWord() {
+        TopicTrie trie = new TopicTrie();
+        trie.add("a.*", "one");
+        trie.add("#", "all");
+        trie.add("a.*.#.c", "tail");
+        assertEquals(Collections.singleton("all"), trie.match("a"));
+        assertEquals(new HashSet<>(Arrays.asList("one", "all")), trie.match("a.b"));
+        assertEquals(new HashSet<>(Arrays.asList("tail", "all")), trie.match("a.b.c"));
+        assertEquals(new HashSet<>(Arrays.asList("tail", "all")), trie.match("a.b.x.y.c"));
+        assertEquals(Collections.singleton("all"), trie.match(""));
+    }
+}